@@ -0,0 +1,76 @@
+package makerspace.bench;
+
+import makerspace.classModels.*;
+import makerspace.service.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+
+// Fixtures shared by the benchmarks: scratch data directories in the DbService text formats and
+// the records that go in them
+final class BenchData {
+    static final int USERS = 10_000;
+    static final LocalDateTime BASE = LocalDateTime.of(2100, 1, 4, 0, 0); // far enough ahead that every slot books
+
+    private BenchData() {
+    }
+
+    // The services print per operation; a trial's forked JVM has no use for that output
+    static void quiet() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static BootCoordinator boot(Path dir) {
+        return new BootCoordinator().useSnapshot(false).boot(new DbService(dir + File.separator));
+    }
+
+    // A data directory with `equipment` machines (a third of them printers), `users` clients with
+    // plenty of money, and `reservations` bookings spread evenly over the machines
+    static Path scratchData(int reservations, int equipment, int users) throws IOException {
+        Path dir = Files.createTempDirectory("makerspace-bench");
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("equipment.txt"), StandardCharsets.UTF_8)) {
+            for (int e = 0; e < equipment; e++) {
+                Equipment eq = e % 3 == 0
+                        ? new Printer3D(equipmentId(e), "Printer " + e, 15.0, "Lab " + (char) ('A' + e % 4), e % 2 == 0 ? "FDM" : "SLA", "250x210x210mm")
+                        : new Equipment(equipmentId(e), "Machine " + e, e % 3 == 1 ? "LASER_CUTTER" : "CNC_MACHINE", 30.0, "Workshop " + e % 5);
+                out.write(DbService.equipmentToString(eq));
+                out.newLine();
+            }
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("users.txt"), StandardCharsets.UTF_8)) {
+            for (int u = 0; u < users; u++) {
+                Client client = client(u);
+                client.updateAccountBalance(1e12);
+                out.write(DbService.userToString(client));
+                out.newLine();
+            }
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("reservations.txt"), StandardCharsets.UTF_8)) {
+            for (int k = 0; k < reservations; k++) {
+                out.write(DbService.reservationToString(reservation(k, equipment)));
+                out.newLine();
+            }
+        }
+        return dir;
+    }
+
+    static Reservation reservation(int k, int equipment) {
+        LocalDateTime start = BASE.plusHours(2L * (k / equipment));
+        Reservation reservation = new Reservation(String.format("RES_%07d", k), "USER_0", equipmentId(k % equipment), start, start.plusHours(1),
+                start.minusDays(1));
+        reservation.setStatus(k % 10 == 0 ? "CANCELLED" : k % 4 == 0 ? "COMPLETED" : "APPROVED");
+        reservation.setCost(17.0);
+        return reservation;
+    }
+
+    static Client client(int u) {
+        Client client = new Client("USER_" + u, "user_" + u, "user" + u + "@example.com", "password" + u);
+        client.updateAccountBalance(u % 1000 + 0.25);
+        return client;
+    }
+
+    static String equipmentId(int e) {
+        return String.format("EQ_%06d", e);
+    }
+}
@@ -0,0 +1,42 @@
+package makerspace.bench;
+
+import makerspace.service.*;
+import org.openjdk.jmh.annotations.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Booking into a store that already holds `reservations` bookings over `equipment` machines. Each
+// call takes the next free slot, round-robin over the machines, so no attempt conflicts.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BookingBenchmarks {
+    @Param({ "1000", "100000", "1000000" })
+    int reservations;
+
+    @Param({ "10", "1000", "10000" })
+    int equipment;
+
+    private ReservationService service;
+    private final List<String> ids = new ArrayList<>();
+    private LocalDateTime free;
+    private long booked;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchData.quiet();
+        BootCoordinator boot = BenchData.boot(BenchData.scratchData(reservations, equipment, 1));
+        boot.getEquipmentService().getAllEquipment().forEach(eq -> ids.add(eq.getEquipmentId()));
+        Collections.sort(ids);
+        free = BenchData.BASE.plusHours(2L * (reservations / equipment + 1)); // past everything generated
+        service = boot.getReservationService();
+    }
+
+    @Benchmark
+    public String createReservation() throws Exception {
+        long i = booked++;
+        LocalDateTime start = free.plusHours(i / ids.size());
+        return service.createReservation("USER_0", ids.get((int) (i % ids.size())), start, start.plusHours(1));
+    }
+}
@@ -0,0 +1,53 @@
+package makerspace.bench;
+
+import makerspace.classModels.*;
+import makerspace.service.*;
+import org.openjdk.jmh.annotations.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Login and the equipment listing every client menu opens with
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueryBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Users {
+        @Param({ "10000" })
+        int users;
+
+        UserService service;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            BenchData.quiet();
+            service = BenchData.boot(BenchData.scratchData(0, 10, users)).getUserService();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Machines {
+        @Param({ "10", "1000", "10000" })
+        int equipment;
+
+        EquipmentService service;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            BenchData.quiet();
+            service = BenchData.boot(BenchData.scratchData(0, equipment, 1)).getEquipmentService();
+        }
+    }
+
+    @Benchmark
+    public User authenticate(Users state) throws Exception {
+        int u = state.next = (state.next + 1) % state.users;
+        return state.service.authenticate("user_" + u, "password" + u);
+    }
+
+    @Benchmark
+    public List<Equipment> getAvailableEquipment(Machines state) {
+        return state.service.getAvailableEquipment();
+    }
+}
@@ -0,0 +1,55 @@
+package makerspace.bench;
+
+import makerspace.classModels.*;
+import makerspace.service.*;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+// One text record to an object and back, cycling over 1024 distinct records
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecordCodecBenchmarks {
+    private static final int RECORDS = 1024;
+
+    private final String[] reservationLines = new String[RECORDS];
+    private final Reservation[] reservations = new Reservation[RECORDS];
+    private final String[] userLines = new String[RECORDS];
+    private final Client[] clients = new Client[RECORDS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchData.quiet();
+        for (int k = 0; k < RECORDS; k++) {
+            reservations[k] = BenchData.reservation(k, 16);
+            reservationLines[k] = DbService.reservationToString(reservations[k]);
+            clients[k] = BenchData.client(k);
+            userLines[k] = DbService.userToString(clients[k]);
+        }
+    }
+
+    private int next() {
+        return next = (next + 1) & (RECORDS - 1);
+    }
+
+    @Benchmark
+    public Reservation stringToReservation() {
+        return DbService.stringToReservation(reservationLines[next()]);
+    }
+
+    @Benchmark
+    public String reservationToString() {
+        return DbService.reservationToString(reservations[next()]);
+    }
+
+    @Benchmark
+    public User stringToUser() {
+        return DbService.stringToUser(userLines[next()]);
+    }
+
+    @Benchmark
+    public String userToString() {
+        return DbService.userToString(clients[next()]);
+    }
+}
@@ -0,0 +1,31 @@
+package makerspace.bench;
+
+import makerspace.classModels.*;
+import makerspace.service.*;
+import org.openjdk.jmh.annotations.*;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Parsing the reservations file at startup
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageBenchmarks {
+    @Param({ "1000", "100000", "1000000" })
+    int reservations;
+
+    private DbService db;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchData.quiet();
+        Path dir = BenchData.scratchData(reservations, 10, 1);
+        db = new DbService(dir + java.io.File.separator);
+    }
+
+    @Benchmark
+    public Map<String, Reservation> loadReservations() {
+        return db.loadReservations();
+    }
+}
@@ -1,13 +1,16 @@
 package makerspace.classModels;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class Client extends User {
 	private double accountBalance;
-	public double getAccountBalance() { return accountBalance; }
+	public synchronized double getAccountBalance() { return accountBalance; }
 	
-	private List<Reservation> reservationHistory;
-	public List<Reservation> getReservationHistory() { return reservationHistory; }
+	// Read lazily from ReservationService's per-client index, newest first
+	private volatile Supplier<List<Reservation>> reservationHistory = ArrayList::new;
+	public List<Reservation> getReservationHistory() { return reservationHistory.get(); }
+	public void attachReservationHistory(Supplier<List<Reservation>> source) { this.reservationHistory = source; }
 	
 	private String userLevel;
 	public String getUserLevel() { return userLevel; }
@@ -17,24 +20,18 @@ public class Client extends User {
 	{
 		super(userId, username, email, password);
 		this.accountBalance = 0.0;
-		this.reservationHistory = new ArrayList<>();
 		this.userLevel = "Standard";
 	}
 	
 	@Override
 	public String getUserType() { return "Client"; }
 	
-	public void addReservation(Reservation reservation)
-	{
-		reservationHistory.add(reservation);
-	}
-	
-	public void updateAccountBalance(double amt)
+	public synchronized void updateAccountBalance(double amt)
 	{
 		this.accountBalance += amt;
 	}
 	
-	public void deductFromBalance(double amt)
+	public synchronized void deductFromBalance(double amt)
 	{
 		if(enoughBalance(amt))
 		{
@@ -42,7 +39,7 @@ public class Client extends User {
 		}
 	}
 	
-	public boolean enoughBalance(double amt)
+	public synchronized boolean enoughBalance(double amt)
 	{
 		return accountBalance >= amt;
 	}
@@ -13,7 +13,7 @@ public class Equipment {
 	protected String equipmentType;
 	public String getEquipmentType() { return equipmentType; }
 	
-	protected String status; //Available, In Use, Maintenance, Down
+	protected volatile String status; //Available, In Use, Maintenance, Down
 	public String getStatus() { return status; }
 	public void setStatus(String status) { this.status = EquipmentStatusUtil.normalizeStatus(status); }
 	
@@ -0,0 +1,53 @@
+package makerspace.classModels;
+import java.time.LocalDateTime;
+
+// A print a client wants run on any suitable printer; PrintPlacementService picks the machine and slot
+public class PrintJob {
+	private int hours;
+	public int getHours() { return hours; }
+
+	private String printTech; //FDM, SLA, SLS
+	public String getPrintTech() { return printTech; }
+
+	private String partSize; //"WxDxHmm", null = any
+	public String getPartSize() { return partSize; }
+
+	private String material; //null = any
+	public String getMaterial() { return material; }
+
+	private String preferredLocation; //null = no preference
+	public String getPreferredLocation() { return preferredLocation; }
+
+	private LocalDateTime earliestStart;
+	public LocalDateTime getEarliestStart() { return earliestStart; }
+
+
+	public PrintJob(int hours, String printTech, String partSize, String material,
+			String preferredLocation, LocalDateTime earliestStart)
+	{
+		this.hours = hours;
+		this.printTech = printTech;
+		this.partSize = partSize;
+		this.material = material;
+		this.preferredLocation = preferredLocation;
+		this.earliestStart = earliestStart;
+	}
+
+	public boolean isCompatible(Printer3D printer)
+	{
+		return (printTech == null || printTech.equalsIgnoreCase(printer.getPrintTech()))
+				&& printer.canFit(partSize)
+				&& (material == null || printer.canPrintMaterial(material));
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%dh %s job (%s, %s) from %s",
+				hours,
+				printTech,
+				partSize == null ? "any size" : partSize,
+				material == null ? "any material" : material,
+				earliestStart);
+	}
+}
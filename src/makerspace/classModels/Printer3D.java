@@ -1,6 +1,6 @@
 package makerspace.classModels;
 
-public class Printer3D extends Equipment{
+public final class Printer3D extends Equipment{
 	private String printTech; //FDM, SLA, SLS
 	public String getPrintTech() { return printTech; }
 	
@@ -8,8 +8,13 @@ public class Printer3D extends Equipment{
 	public String getPrintVolume() { return printVolume; }
 	
 	private String printMaterial;
+	private String printMaterialLower; // what canPrintMaterial searches, lower-cased once
 	public String getPrintMaterial() { return printMaterial; }
-	public void setPrintMaterial(String printMaterial) { this.printMaterial = printMaterial; }
+	public void setPrintMaterial(String printMaterial)
+	{
+		this.printMaterial = printMaterial;
+		this.printMaterialLower = printMaterial == null ? null : printMaterial.toLowerCase();
+	}
 	
 	private double nozzleTemp;
 	public double getNozzleTemp() { return nozzleTemp; }
@@ -26,11 +31,66 @@ public class Printer3D extends Equipment{
 		this.printVolume = printVolume;
 		this.nozzleTemp = 200.0; //default range
 		this.heatedBed = true;
+		setPrintMaterial(defaultMaterials(printTech));
+	}
+	
+	// What each technology prints out of the box; overridden with setPrintMaterial
+	private static String defaultMaterials(String printTech)
+	{
+		if (printTech == null) return null;
+		switch (printTech.toUpperCase().trim()) {
+			case "FDM": return "PLA, PETG, ABS, TPU";
+			case "SLA": return "Standard Resin, Tough Resin, Flexible Resin";
+			case "SLS": return "Nylon PA12, TPU";
+			default: return null;
+		}
+	}
+	
+	// True if a part of the given size ("WxDxHmm") fits the build volume in some orientation
+	public boolean canFit(String partSize)
+	{
+		int[] part = parseVolume(partSize);
+		int[] build = getBuildDimensions();
+		if (part == null) return true;
+		if (build == null) return false;
+		for (int i = 0; i < 3; i++) {
+			if (part[i] > build[i]) return false;
+		}
+		return true;
+	}
+	
+	// Build volume as {smallest, middle, largest} whole mm, rounded down, or null if printVolume does not parse
+	public int[] getBuildDimensions() { return parseVolume(printVolume, false); }
+	
+	// A part size: "250x210x210mm" -> {210, 210, 250}, sorted so orientation does not matter, and rounded
+	// up to whole mm. Build volumes round down instead, so whole-mm comparisons never let a part through
+	// that is larger than the printer
+	public static int[] parseVolume(String volume)
+	{
+		return parseVolume(volume, true);
+	}
+	
+	private static int[] parseVolume(String volume, boolean roundUp)
+	{
+		if (volume == null || volume.isBlank()) return null;
+		String[] dims = volume.toLowerCase().replace("mm", "").trim().split("\\s*x\\s*");
+		if (dims.length != 3) return null;
+		try {
+			int[] sizes = new int[3];
+			for (int i = 0; i < 3; i++) {
+				double size = Double.parseDouble(dims[i]);
+				sizes[i] = (int) (roundUp ? Math.ceil(size) : Math.floor(size));
+			}
+			java.util.Arrays.sort(sizes);
+			return sizes;
+		} catch (NumberFormatException e) {
+			return null;
+		}
 	}
 	
 	public boolean canPrintMaterial(String material)
 	{
-		return printMaterial != null && printMaterial.toLowerCase().contains(material.toLowerCase());
+		return printMaterialLower != null && printMaterialLower.contains(material.toLowerCase());
 	}
 	
 	@Override
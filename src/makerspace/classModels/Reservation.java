@@ -2,57 +2,55 @@ package makerspace.classModels;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 
+// A view of one row of a ReservationRows store, so a reservation held in the columnar table
+// costs nothing until it is looked at and a view is just a reference and an int. Two views of
+// the same row are equal and see each other's changes.
 public class Reservation {
-	private String reservationId;
-    private String clientId;
-    private String equipmentId;
-    private LocalDateTime startTime;
-    private LocalDateTime endTime;
-    private String status; //pending, approved, cancelled, in_progress, completed
-    private LocalDateTime createdAt;
-    private double cost;
+	private final ReservationRows rows;
+	private final int row;
 
-    public String getReservationId() { return reservationId; }
-    public String getClientId() { return clientId; }
-    public String getEquipmentId() { return equipmentId; }
-    public String getStatus() { return status; }
-    public LocalDateTime getStartTime() { return startTime; }
-    public LocalDateTime getEndTime() { return endTime; }
-    public LocalDateTime getCreatedAt() { return createdAt; }
-    public double getCost() { return cost; }
+    public String getReservationId() { return rows.reservationId(row); }
+    public String getClientId() { return rows.clientId(row); }
+    public String getEquipmentId() { return rows.equipmentId(row); }
+    public String getStatus() { return rows.status(row); } //pending, approved, cancelled, in_progress, completed
+    public LocalDateTime getStartTime() { return rows.startTime(row); }
+    public LocalDateTime getEndTime() { return rows.endTime(row); }
+    public LocalDateTime getCreatedAt() { return rows.createdAt(row); }
+    public double getCost() { return rows.cost(row); }
 
-    public void setStatus(String status) { this.status = status; }//~
-    public void setCost(double cost) { this.cost = cost;}
+    public void setStatus(String status) { rows.setStatus(row, status); }//~
+    public void setCost(double cost) { rows.setCost(row, cost);}
 
-    //constructor
-    public Reservation (String reservationId, String clientId, String equipmentId, LocalDateTime startTime, LocalDateTime endTime) 
-    { this.reservationId = reservationId; 
-       this.clientId = clientId;
-       this.equipmentId = equipmentId;
-       this.startTime = startTime;
-       this.endTime = endTime;
-       this.status = "PENDING"; 
-       this.createdAt = LocalDateTime.now();
+    //constructor; createdAt comes from the caller's clock (or the stored record), never the wall clock here
+    public Reservation (String reservationId, String clientId, String equipmentId, LocalDateTime startTime, LocalDateTime endTime,
+    		LocalDateTime createdAt) 
+    { this(new Detached(reservationId, clientId, equipmentId, startTime, endTime, createdAt), 0);
     }
     
-    public boolean canBeCancelled()
+    public Reservation(ReservationRows rows, int row)
     {
-    	LocalDateTime now = LocalDateTime.now();
-    	return now.isBefore(startTime) && ("PENDING".equals(status) || "APPROVED".equals(status));
+    	this.rows = rows;
+    	this.row = row;
     }
-    public void cancel() { this.status = "CANCELLED"; }
-    public void approve() { this.status = "APPROVED"; }
-    public void complete() { this.status = "COMPLETED"; }
+    
+    // `now` comes from the caller's clock, read once rather than per reservation
+    public boolean canBeCancelled(LocalDateTime now)
+    {
+    	String status = getStatus();
+    	return now.isBefore(getStartTime()) && ("PENDING".equals(status) || "APPROVED".equals(status));
+    }
+    public void cancel() { setStatus("CANCELLED"); }
+    public void approve() { setStatus("APPROVED"); }
+    public void complete() { setStatus("COMPLETED"); }
     
     public int getDuration()
     {
-    	return (int) Duration.between(startTime, endTime).toHours(); //body type is long converted to integer
+    	return (int) Duration.between(getStartTime(), getEndTime()).toHours(); //body type is long converted to integer
     }
     
-    public boolean isActive() 
+    public boolean isActive(LocalDateTime now)
     {
-        LocalDateTime now = LocalDateTime.now();
-        return now.isAfter(startTime) && now.isBefore(endTime) && "APPROVED".equals(status);
+        return now.isAfter(getStartTime()) && now.isBefore(getEndTime()) && "APPROVED".equals(getStatus());
     }
     
     @Override
@@ -60,12 +58,58 @@ public class Reservation {
     {
     	DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
     	return String.format("Reservation ID: %s, Equipment ID: %s, Time: %s to %s, Status: %s, Total Cost: $%.2f",
-    			reservationId,
-    			equipmentId,
-    			startTime.format(formatter),
-    			endTime.format(formatter),
-    			status,
-    			cost);
+    			getReservationId(),
+    			getEquipmentId(),
+    			getStartTime().format(formatter),
+    			getEndTime().format(formatter),
+    			getStatus(),
+    			getCost());
     }
-	public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt;}
+	public void setCreatedAt(LocalDateTime createdAt) { rows.setCreatedAt(row, createdAt);}
+	
+	@Override
+	public boolean equals(Object other)
+	{
+		return other instanceof Reservation && ((Reservation) other).rows == rows && ((Reservation) other).row == row;
+	}
+	
+	@Override
+	public int hashCode() { return System.identityHashCode(rows) * 31 + row; }
+	
+	// Backing store for a reservation that has not been added to a table yet
+	private static final class Detached implements ReservationRows {
+		private final String reservationId;
+		private final String clientId;
+		private final String equipmentId;
+		private final LocalDateTime startTime;
+		private final LocalDateTime endTime;
+		private volatile String status;
+		private volatile LocalDateTime createdAt;
+		private volatile double cost;
+		
+		Detached(String reservationId, String clientId, String equipmentId, LocalDateTime startTime, LocalDateTime endTime,
+				LocalDateTime createdAt)
+		{
+			this.reservationId = reservationId;
+			this.clientId = clientId;
+			this.equipmentId = equipmentId;
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.status = "PENDING";
+			this.createdAt = createdAt;
+		}
+		
+		public String reservationId(int row) { return reservationId; }
+		public String clientId(int row) { return clientId; }
+		public String equipmentId(int row) { return equipmentId; }
+		public LocalDateTime startTime(int row) { return startTime; }
+		public LocalDateTime endTime(int row) { return endTime; }
+		public LocalDateTime createdAt(int row) { return createdAt; }
+		public String status(int row) { return status; }
+		public double cost(int row) { return cost; }
+		
+		public void setStatus(int row, String status) { this.status = status; }
+		public void setCost(int row, double cost) { this.cost = cost; }
+		public void setCreatedAt(int row, LocalDateTime createdAt) { this.createdAt = createdAt; }
+	}
 }
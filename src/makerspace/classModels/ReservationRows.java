@@ -0,0 +1,20 @@
+package makerspace.classModels;
+import java.time.LocalDateTime;
+
+// Storage behind Reservation objects: a Reservation is a (rows, row) pair and every getter and
+// setter reads or writes through here. ReservationService keeps its bookings in a columnar
+// ReservationTable; a Reservation built with the public constructor gets a single-row store of its own.
+public interface ReservationRows {
+	String reservationId(int row);
+	String clientId(int row);
+	String equipmentId(int row);
+	LocalDateTime startTime(int row);
+	LocalDateTime endTime(int row);
+	LocalDateTime createdAt(int row);
+	String status(int row);
+	double cost(int row);
+
+	void setStatus(int row, String status);
+	void setCost(int row, double cost);
+	void setCreatedAt(int row, LocalDateTime createdAt);
+}
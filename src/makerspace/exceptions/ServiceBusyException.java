@@ -0,0 +1,9 @@
+package makerspace.exceptions;
+
+// A write refused because its queue is full or it could not start in time; nothing was changed
+public class ServiceBusyException extends Exception {
+	public ServiceBusyException(String errorMessage) { super(errorMessage); }
+	
+	public ServiceBusyException(String errorMessage, Throwable err) { super(errorMessage, err); } 
+
+}
@@ -0,0 +1,506 @@
+package makerspace.main;
+
+import makerspace.classModels.*;
+import makerspace.service.*;
+import makerspace.exceptions.*;
+import makerspace.utils.*;
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// JSON API over the JDK's built-in HTTP server, one virtual thread per request.
+//
+//   POST   /api/login                 username, password          -> token
+//   POST   /api/logout
+//   GET    /api/equipment             [type, available=true, status, location, tech, material, fits]  (streamed)
+//   GET    /api/printers                                          (streamed)
+//   GET    /api/availability          hours, from, to [type, tech, location, limit]  (streamed)
+//   GET    /api/reservations          [offset, limit] own, or all for admins  (streamed)
+//   POST   /api/reservations          equipmentId, start, hours
+//   POST   /api/reservations/{id}/checkin
+//   DELETE /api/reservations/{id}
+//   POST   /api/funds                 amount
+//   GET    /api/reports/{usage|revenue|activity}
+//   GET    /api/reports/rollup        from, to [granularity, dimension, key]  (yyyy-MM-dd)
+//   GET    /api/replication           role, position and lag
+//
+// On an unpromoted standby only GETs, login and logout are served; other calls get 503.
+// Parameters come from the query string or an application/x-www-form-urlencoded body.
+// Authenticated calls send "Authorization: Bearer <token>". A token stops working after
+// makerspace.session.idleMinutes without use (default 30) or makerspace.session.maxHours after
+// login (default 12); expired tokens are dropped when presented and by a sweep every minute.
+public class HttpApiServer {
+    private static final int STREAM_FLUSH_EVERY = 256; // items between flushes on streamed listings
+    private static final long SESSION_IDLE_MILLIS = Long.getLong("makerspace.session.idleMinutes", 30) * 60_000;
+    private static final long SESSION_MAX_MILLIS = Long.getLong("makerspace.session.maxHours", 12) * 3_600_000;
+    private static final long SESSION_SWEEP_MILLIS = 60_000;
+    private static final long SESSION_TOUCH_MILLIS = 1_000; // last-used is rewritten at most this often per token
+
+    private static final class Session {
+        final String userId;
+        final long issuedAt;
+        volatile long lastUsed;
+
+        Session(String userId, long now) {
+            this.userId = userId;
+            this.issuedAt = now;
+            this.lastUsed = now;
+        }
+
+        boolean expired(long now) {
+            return now - lastUsed >= SESSION_IDLE_MILLIS || now - issuedAt >= SESSION_MAX_MILLIS;
+        }
+    }
+
+    private final UserService userService;
+    private final ShardRouter router;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>(); // token -> session
+    private final Clock clock = CachedClock.system(); // real time: sessions expire on the wall clock, even in simulations
+    private final LongAdder expiredSessions = Metrics.counter("http.sessionsExpired");
+    private final SecureRandom tokenSource = new SecureRandom();
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService sweeper;
+    private volatile ReplicationPrimary primary;
+    private volatile ReplicationStandby standby;
+
+    public HttpApiServer(UserService userService, EquipmentService equipmentService,
+                         ReservationService reservationService, ReportService reportService) {
+        this(userService, ShardRouter.single(userService, equipmentService, reservationService, reportService));
+    }
+
+    // Every equipment, booking and report call goes through the router, sharded by location or not
+    public HttpApiServer(UserService userService, ShardRouter router) {
+        this.userService = userService;
+        this.router = router;
+    }
+
+    public void setPrimary(ReplicationPrimary primary) { this.primary = primary; }
+    
+    public void setStandby(ReplicationStandby standby) { this.standby = standby; }
+
+    public void start(int port) throws IOException {
+        // Small JSON replies otherwise sit behind Nagle + delayed ACK (~40 ms each); read once when the server class loads
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/login", exchange -> handle(exchange, "POST", this::login));
+        server.createContext("/api/logout", exchange -> handle(exchange, "POST", this::logout));
+        server.createContext("/api/equipment", exchange -> handle(exchange, "GET", this::listEquipment));
+        server.createContext("/api/printers", exchange -> handle(exchange, "GET", this::listPrinters));
+        server.createContext("/api/availability", exchange -> handle(exchange, "GET", this::findFreeSlots));
+        server.createContext("/api/reservations", this::reservations);
+        server.createContext("/api/funds", exchange -> handle(exchange, "POST", this::addFunds));
+        server.createContext("/api/reports/", exchange -> handle(exchange, "GET", this::report));
+        server.createContext("/api/replication", exchange -> handle(exchange, "GET", this::replication));
+        server.start();
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "http-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweepSessions, SESSION_SWEEP_MILLIS, SESSION_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        Metrics.gauge("http.sessions", sessions::size);
+        System.out.println("HTTP API listening on port " + getPort());
+    }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        sweeper.shutdownNow();
+    }
+
+    // Drops every expired token, including ones never presented again
+    private void sweepSessions() {
+        long now = clock.millis();
+        int removed = 0;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().expired(now) && sessions.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        expiredSessions.add(removed);
+    }
+
+    private interface Endpoint {
+        void serve(HttpExchange exchange, Map<String, String> params) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Use " + method);
+                return;
+            }
+            ReplicationStandby following = standby;
+            if (!"GET".equals(method) && following != null && !following.isPromoted()
+                    && !exchange.getRequestURI().getPath().startsWith("/api/log")) {
+                sendError(exchange, 503, "Standby: read-only until promoted");
+                return;
+            }
+            endpoint.serve(exchange, params(exchange));
+        } catch (Exception e) {
+            sendError(exchange, statusFor(e), e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void reservations(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if ("GET".equals(method)) {
+            handle(exchange, "GET", this::listReservations);
+        } else if ("POST".equals(method) && exchange.getRequestURI().getPath().endsWith("/checkin")) {
+            handle(exchange, "POST", this::checkIn);
+        } else if ("POST".equals(method)) {
+            handle(exchange, "POST", this::book);
+        } else {
+            handle(exchange, "DELETE", this::cancel);
+        }
+    }
+
+    private void login(HttpExchange exchange, Map<String, String> params) throws Exception {
+        User user = userService.authenticate(params.get("username"), params.get("password"));
+        byte[] raw = new byte[24];
+        tokenSource.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        sessions.put(token, new Session(user.getUserId(), clock.millis()));
+        sendJson(exchange, 200, json -> json.beginObject()
+                .field("token", token)
+                .field("userId", user.getUserId())
+                .field("userType", user.getUserType())
+                .endObject());
+    }
+
+    private void logout(HttpExchange exchange, Map<String, String> params) throws Exception {
+        String token = bearerToken(exchange);
+        if (token != null) {
+            sessions.remove(token);
+        }
+        sendJson(exchange, 200, json -> json.beginObject().field("loggedOut", true).endObject());
+    }
+
+    private void listEquipment(HttpExchange exchange, Map<String, String> params) throws Exception {
+        // Filters combine, e.g. ?available=true&tech=SLA&location=Lab B&fits=140x140x140mm&material=resin
+        String status = "true".equals(params.get("available")) ? EquipmentStatusUtil.AVAILABLE : params.get("status");
+        List<Equipment> equipment = router.findEquipment(status, params.get("type"), params.get("location"),
+                params.get("tech"), params.get("material"), params.get("fits"));
+        streamArray(exchange, equipment, this::writeEquipment);
+    }
+
+    private void listPrinters(HttpExchange exchange, Map<String, String> params) throws Exception {
+        streamArray(exchange, router.get3DPrinters(), this::writeEquipment);
+    }
+
+    private void findFreeSlots(HttpExchange exchange, Map<String, String> params) throws Exception {
+        if (params.get("hours") == null || params.get("from") == null || params.get("to") == null) {
+            throw new InvalidReservationException("hours, from and to are required");
+        }
+        Map<Equipment, List<LocalDateTime>> free = router.findFreeSlots(params.get("type"), params.get("tech"),
+                params.get("location"), Integer.parseInt(params.get("hours")),
+                DateTimeHandler.parseStringToDateTime(params.get("from")),
+                DateTimeHandler.parseStringToDateTime(params.get("to")),
+                Integer.parseInt(params.getOrDefault("limit", "20")));
+        streamArray(exchange, new ArrayList<>(free.entrySet()), (json, match) -> {
+            json.beginObject()
+                .field("equipmentId", match.getKey().getEquipmentId())
+                .field("name", match.getKey().getName())
+                .name("starts").beginArray();
+            for (LocalDateTime start : match.getValue()) {
+                json.value(DateTimeHandler.formatDateTimeToString(start));
+            }
+            json.endArray().endObject();
+        });
+    }
+
+    private void listReservations(HttpExchange exchange, Map<String, String> params) throws Exception {
+        User user = requireUser(exchange);
+        List<Reservation> reservations;
+        if (user instanceof Admin) {
+            reservations = router.getAllReservations();
+        } else if (params.containsKey("limit")) {
+            int offset = Integer.parseInt(params.getOrDefault("offset", "0"));
+            reservations = router.getReservationsByUser(user.getUserId(), offset, Integer.parseInt(params.get("limit")));
+        } else {
+            reservations = router.getReservationsByUser(user.getUserId());
+        }
+        streamArray(exchange, reservations, this::writeReservation);
+    }
+
+    private void book(HttpExchange exchange, Map<String, String> params) throws Exception {
+        User user = requireUser(exchange);
+        String start = params.get("start");
+        if (start == null || params.get("hours") == null) {
+            throw new InvalidReservationException("start and hours are required");
+        }
+        LocalDateTime startTime = DateTimeHandler.parseStringToDateTime(start);
+        int hours = Integer.parseInt(params.get("hours"));
+        String reservationId = router.createReservation(user.getUserId(), params.get("equipmentId"),
+                startTime, startTime.plusHours(hours));
+        Reservation reservation = router.getReservationById(reservationId);
+        sendJson(exchange, 201, json -> writeReservation(json, reservation));
+    }
+
+    private void cancel(HttpExchange exchange, Map<String, String> params) throws Exception {
+        User user = requireUser(exchange);
+        String path = exchange.getRequestURI().getPath();
+        String reservationId = path.substring(path.lastIndexOf('/') + 1);
+        router.cancelReservation(reservationId, user.getUserId());
+        Reservation reservation = router.getReservationById(reservationId);
+        sendJson(exchange, 200, json -> writeReservation(json, reservation));
+    }
+
+    private void checkIn(HttpExchange exchange, Map<String, String> params) throws Exception {
+        User user = requireUser(exchange);
+        String path = exchange.getRequestURI().getPath();
+        String reservationId = path.substring(0, path.lastIndexOf('/'));
+        reservationId = reservationId.substring(reservationId.lastIndexOf('/') + 1);
+        router.checkIn(reservationId, user.getUserId());
+        Reservation reservation = router.getReservationById(reservationId);
+        sendJson(exchange, 200, json -> writeReservation(json, reservation));
+    }
+
+    private void addFunds(HttpExchange exchange, Map<String, String> params) throws Exception {
+        User user = requireUser(exchange);
+        double amount = Double.parseDouble(params.getOrDefault("amount", "0"));
+        if (amount <= 0) {
+            throw new InvalidReservationException("Invalid amount");
+        }
+        userService.updateUserBalance(user.getUserId(), amount);
+        Client client = (Client) user;
+        sendJson(exchange, 200, json -> json.beginObject().field("balance", client.getAccountBalance()).endObject());
+    }
+
+    private void report(HttpExchange exchange, Map<String, String> params) throws Exception {
+        User user = requireUser(exchange);
+        if (!(user instanceof Admin) || !((Admin) user).hasPerm("REPORTS")) {
+            sendError(exchange, 403, "REPORTS permission required");
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        switch (path.substring(path.lastIndexOf('/') + 1)) {
+            case "usage":
+                Map<Equipment, Double> hours = router.getEquipmentBookedHours();
+                streamArray(exchange, new ArrayList<>(router.getEquipmentUsage().entrySet()), (json, usage) -> json.beginObject()
+                        .field("equipmentId", usage.getKey().getEquipmentId())
+                        .field("name", usage.getKey().getName())
+                        .field("reservations", usage.getValue())
+                        .field("bookedHours", hours.getOrDefault(usage.getKey(), 0.0))
+                        .endObject());
+                break;
+            case "revenue":
+                sendJson(exchange, 200, json -> {
+                    json.beginObject()
+                        .field("totalRevenue", router.getTotalRevenue())
+                        .field("completedReservations", router.getCompletedReservationCount())
+                        .name("byStatus").beginObject();
+                    for (Map.Entry<String, Double> revenue : router.getRevenueByStatus().entrySet()) {
+                        json.name(revenue.getKey()).beginObject()
+                            .field("reservations", router.getReservationCountByStatus(revenue.getKey()))
+                            .field("amount", revenue.getValue())
+                            .endObject();
+                    }
+                    json.endObject().endObject();
+                });
+                break;
+            case "activity":
+                Map<Client, Double> spend = router.getClientSpend();
+                streamArray(exchange, new ArrayList<>(router.getUserActivity().entrySet()), (json, activity) -> json.beginObject()
+                        .field("userId", activity.getKey().getUserId())
+                        .field("username", activity.getKey().getUsername())
+                        .field("reservations", activity.getValue())
+                        .field("spend", spend.getOrDefault(activity.getKey(), 0.0))
+                        .endObject());
+                break;
+            case "rollup":
+                if (params.get("from") == null || params.get("to") == null) {
+                    throw new InvalidReservationException("from and to are required");
+                }
+                String dimension = params.getOrDefault("dimension", RollupCube.ALL).toUpperCase();
+                String granularity = params.getOrDefault("granularity", RollupCube.DAY).toUpperCase();
+                java.time.LocalDate from = java.time.LocalDate.parse(params.get("from"));
+                java.time.LocalDate to = java.time.LocalDate.parse(params.get("to"));
+                Map<java.time.LocalDate, Double> revenue = router.getRevenueSeries(dimension, params.get("key"), from, to, granularity);
+                Map<java.time.LocalDate, Double> utilization = router.getUtilizationSeries(dimension, params.get("key"), from, to, granularity);
+                streamArray(exchange, new ArrayList<>(revenue.entrySet()), (json, bucket) -> json.beginObject()
+                        .field("period", bucket.getKey().toString())
+                        .field("revenue", bucket.getValue())
+                        .field("utilization", utilization.getOrDefault(bucket.getKey(), 0.0))
+                        .endObject());
+                break;
+            default:
+                sendError(exchange, 404, "Unknown report");
+        }
+    }
+
+    private void replication(HttpExchange exchange, Map<String, String> params) throws Exception {
+        ReplicationPrimary shipping = primary;
+        ReplicationStandby following = standby;
+        sendJson(exchange, 200, json -> {
+            json.beginObject();
+            if (following != null) {
+                json.field("role", following.isPromoted() ? "promoted" : "standby")
+                    .field("appliedSeq", following.getAppliedSeq())
+                    .field("lagRecords", following.getLagRecords())
+                    .field("lagMillis", following.getLagMillis())
+                    .field("lastRecordLagMillis", following.getLastRecordLagMillis());
+            } else {
+                json.field("role", shipping != null ? "primary" : "single")
+                    .field("standbys", shipping != null ? shipping.getStandbyCount() : 0)
+                    .field("unackedRecords", shipping != null ? shipping.getUnackedRecords() : 0);
+            }
+            json.endObject();
+        });
+    }
+
+    // Serialization
+
+    private void writeEquipment(JsonWriter json, Equipment eq) throws IOException {
+        json.beginObject()
+            .field("equipmentId", eq.getEquipmentId())
+            .field("name", eq.getName())
+            .field("type", eq.getEquipmentType())
+            .field("location", eq.getLocation())
+            .field("hourCost", eq.getHourCost())
+            .field("status", eq.getStatus());
+        if (eq instanceof Printer3D) {
+            Printer3D printer = (Printer3D) eq;
+            json.field("printTech", printer.getPrintTech())
+                .field("printVolume", printer.getPrintVolume())
+                .field("printMaterial", printer.getPrintMaterial());
+        }
+        json.endObject();
+    }
+
+    private void writeReservation(JsonWriter json, Reservation r) throws IOException {
+        json.beginObject()
+            .field("reservationId", r.getReservationId())
+            .field("clientId", r.getClientId())
+            .field("equipmentId", r.getEquipmentId())
+            .field("start", DateTimeHandler.formatDateTimeToString(r.getStartTime()))
+            .field("end", DateTimeHandler.formatDateTimeToString(r.getEndTime()))
+            .field("status", r.getStatus())
+            .field("cost", r.getCost())
+            .field("createdAt", DateTimeHandler.formatDateTimeToString(r.getCreatedAt()))
+            .endObject();
+    }
+
+    // Plumbing
+
+    private interface JsonBody {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    private interface ItemWriter<T> {
+        void write(JsonWriter json, T item) throws IOException;
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JsonBody body) throws IOException {
+        StringWriter buffer = new StringWriter();
+        body.write(new JsonWriter(buffer));
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    // Chunked response written item by item, so big listings start arriving immediately
+    private <T> void streamArray(HttpExchange exchange, List<T> items, ItemWriter<T> itemWriter) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        JsonWriter json = new JsonWriter(out);
+        json.beginArray();
+        int written = 0;
+        for (T item : items) {
+            itemWriter.write(json, item);
+            if (++written % STREAM_FLUSH_EVERY == 0) {
+                json.flush();
+            }
+        }
+        json.endArray();
+        json.flush();
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        try {
+            sendJson(exchange, status, json -> json.beginObject().field("error", message).endObject());
+        } catch (IOException e) {
+            // headers already sent (failure mid-stream), nothing more we can tell the client
+        }
+    }
+
+    private static int statusFor(Exception e) {
+        if (e instanceof UserException) {
+            String message = String.valueOf(e.getMessage());
+            if (message.startsWith("Invalid password")) return 401;
+            return message.startsWith("User not found") ? 404 : 400;
+        }
+        if (e instanceof EquipmentUnavailableException) return 409;
+        if (e instanceof InvalidReservationException || e instanceof DateTimeParseException
+                || e instanceof NumberFormatException) return 400;
+        if (e instanceof SecurityException) return 401;
+        if (e instanceof ServiceBusyException) return 503;
+        return 500;
+    }
+
+    private User requireUser(HttpExchange exchange) throws UserException {
+        String token = bearerToken(exchange);
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            throw new SecurityException("Login required");
+        }
+        long now = clock.millis();
+        if (session.expired(now)) {
+            if (sessions.remove(token, session)) {
+                expiredSessions.increment();
+            }
+            throw new SecurityException("Session expired, log in again");
+        }
+        if (now - session.lastUsed >= SESSION_TOUCH_MILLIS) {
+            session.lastUsed = now;
+        }
+        return userService.getUserById(session.userId);
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+}
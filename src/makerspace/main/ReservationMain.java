@@ -3,28 +3,194 @@ package makerspace.main;
 import makerspace.classModels.*;
 import makerspace.service.*;
 import makerspace.exceptions.*;
+import makerspace.utils.DateTimeHandler;
+import makerspace.utils.Metrics;
 import java.util.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 public class ReservationMain {
 	
+	// Options: --http [port]         also serve the JSON API (default port 8080)
+	//          --headless            serve the API only, no console menus
+	//          --sharded             with --headless: one store and writer per lab location (data/shards/)
+	//          --data <dir>          data directory (default data/)
+	//          --replicate <port>    ship the journal to standbys connecting on this loopback port
+	//          --standby <port>      with --headless: follow the primary on this loopback port, serving
+	//                                reads, and take over writes once it has been silent for
+	//          --promote-after <ms>  (default 3000; 0 = never)
 	public static void main(String[] args) {
-        ReservationMain app = new ReservationMain();
-        app.run();
+        List<String> options = Arrays.asList(args);
+        int httpIndex = options.indexOf("--http");
+        boolean headless = options.contains("--headless");
+        int port = 8080;
+        if (httpIndex >= 0 && httpIndex + 1 < args.length && args[httpIndex + 1].matches("\\d+")) {
+            port = Integer.parseInt(args[httpIndex + 1]);
+        }
+        String dataDirectory = option(options, "--data", DbService.DATA_DIRECTORY);
+        if (options.contains("--sharded") || options.contains("--standby")) {
+            if (!headless) {
+                System.err.println("--sharded and --standby need --headless: the console menus use the unsharded store");
+                System.exit(1);
+            }
+            try {
+                if (options.contains("--standby")) {
+                    startOperations(dataDirectory, startStandby(dataDirectory, Integer.parseInt(option(options, "--standby", "")),
+                            Long.parseLong(option(options, "--promote-after", "3000")), port));
+                } else {
+                    startOperations(dataDirectory, startSharded(dataDirectory, port));
+                }
+            } catch (Exception e) {
+                System.err.println("Could not start HTTP API: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (ShardRouter.isSplit(dataDirectory)) {
+            // The shards hold the live equipment and bookings; the root files stopped at the split
+            System.err.println(dataDirectory + " has been split into location shards; start it with --headless --sharded");
+            System.exit(1);
+        }
+        ReservationMain app = new ReservationMain(dataDirectory);
+        startOperations(dataDirectory, List.of(app.dbService));
+        if (options.contains("--replicate")) {
+            try {
+                app.startReplication(Integer.parseInt(option(options, "--replicate", "")));
+            } catch (java.io.IOException | NumberFormatException e) {
+                System.err.println("Could not start replication: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (httpIndex >= 0 || headless) {
+            try {
+                app.startHttpApi(port);
+            } catch (java.io.IOException e) {
+                System.err.println("Could not start HTTP API: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (!headless) {
+            app.run();
+        }
+    }
+	
+	// The value following `name`, or the fallback
+	private static String option(List<String> options, String name, String fallback) {
+        int index = options.indexOf(name);
+        return index >= 0 && index + 1 < options.size() ? options.get(index + 1) : fallback;
     }
 	
+    private DbService dbService;
     private UserService userService;
     private EquipmentService equipmentService;
     private ReservationService reservationService;
+    private ReportService reportService;
+    private PrintPlacementService placementService;
+    private ReservationLifecycle lifecycle;
+    private ReplicationPrimary replication;
+    private static final int RESERVATIONS_PER_PAGE = 20;
     private Scanner scanner;
     private User currentUser;
     
     public ReservationMain() {
-        this.userService = new UserService();
-        this.equipmentService = new EquipmentService();
-        this.reservationService = new ReservationService(equipmentService, userService);
+        this(DbService.DATA_DIRECTORY);
+    }
+    
+    public ReservationMain(String dataDirectory) {
+        this.dbService = new DbService(dataDirectory);
+        BootCoordinator boot = new BootCoordinator().boot(dbService);
+        this.userService = boot.getUserService();
+        this.equipmentService = boot.getEquipmentService();
+        this.reservationService = boot.getReservationService();
+        this.reportService = new ReportService(equipmentService, userService, reservationService);
+        this.placementService = new PrintPlacementService(equipmentService, reservationService);
+        this.lifecycle = new ReservationLifecycle(reservationService);
+        lifecycle.start();
         this.scanner = new Scanner(System.in);
+        dbService.enableSnapshots(userService, equipmentService, reservationService);
+    }
+    
+    // Every run mode, once: the JMX bean plus an interval dump to <data>/metrics.log
+    // (-Dmakerspace.metrics.dumpSeconds, 0 = off), and a binary snapshot of each store that has
+    // snapshots enabled every -Dmakerspace.snapshot.seconds (default 300, 0 = off) and at shutdown,
+    // so the next start reads those instead of parsing the text files
+    private static void startOperations(String dataDirectory, List<DbService> stores) {
+        Runtime runtime = Runtime.getRuntime();
+        Metrics.gauge("jvm.heapUsedBytes", () -> runtime.totalMemory() - runtime.freeMemory());
+        Metrics.registerMBean();
+        Metrics.startFileDump(java.nio.file.Paths.get(dataDirectory, "metrics.log"),
+                Long.getLong("makerspace.metrics.dumpSeconds", 60));
+        
+        Runnable checkpoint = () -> {
+            for (DbService store : stores) {
+                try {
+                    store.checkpoint();
+                } catch (RuntimeException e) {
+                    System.err.println("Checkpoint of " + store.getDataDirectory() + " failed: " + e.getMessage());
+                }
+            }
+        };
+        long seconds = Long.getLong("makerspace.snapshot.seconds", 300);
+        if (seconds > 0) {
+            java.util.concurrent.ScheduledExecutorService checkpoints = java.util.concurrent.Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "checkpoint");
+                t.setDaemon(true);
+                return t;
+            });
+            checkpoints.scheduleWithFixedDelay(checkpoint, seconds, seconds, java.util.concurrent.TimeUnit.SECONDS);
+        }
+        runtime.addShutdownHook(new Thread(checkpoint, "checkpoint-shutdown"));
+    }
+    
+    // Users load from <data>/ as usual; equipment and bookings come from one shard per location.
+    // Returns the stores to checkpoint: every shard. The root keeps only users here and stays on
+    // its text files; its equipment and bookings are the pre-split copies, which is why main
+    // refuses an unsharded start on a split directory.
+    private static List<DbService> startSharded(String dataDirectory, int port) throws Exception {
+        DbService root = new DbService(dataDirectory);
+        UserService userService = new UserService(root, root.loadUsers());
+        ShardRouter router = ShardRouter.open(root, userService);
+        List<DbService> stores = new ArrayList<>();
+        for (LocationShard shard : router.shards()) {
+            shard.getDbService().enableSnapshots(null, shard.getEquipmentService(), shard.getReservationService());
+            stores.add(shard.getDbService());
+        }
+        router.startLifecycles();
+        System.out.println("Shards: " + router.shards());
+        HttpApiServer server = new HttpApiServer(userService, router);
+        server.start(port);
+        return stores;
+    }
+    
+    // Hot standby: reads from the replicated services right away, writes (and the lifecycle) once promoted.
+    // Returns its store, which checkpoints the replicated services like a primary's
+    private static List<DbService> startStandby(String dataDirectory, int primaryPort, long promoteAfterMillis, int port) throws Exception {
+        ReplicationStandby standby = new ReplicationStandby(new DbService(dataDirectory), "127.0.0.1", primaryPort, promoteAfterMillis);
+        standby.getDbService().enableSnapshots(standby.getUserService(), standby.getEquipmentService(), standby.getReservationService());
+        standby.start();
+        if (!standby.awaitReady(30_000)) {
+            throw new java.io.IOException("no image from a primary on port " + primaryPort);
+        }
+        ReportService reportService = new ReportService(standby.getEquipmentService(), standby.getUserService(), standby.getReservationService());
+        HttpApiServer server = new HttpApiServer(standby.getUserService(), standby.getEquipmentService(),
+                standby.getReservationService(), reportService);
+        server.setStandby(standby);
+        standby.onPromotion(() -> new ReservationLifecycle(standby.getReservationService()).start());
+        server.start(port);
+        return List.of(standby.getDbService());
+    }
+    
+    public ReplicationPrimary startReplication(int port) throws java.io.IOException {
+        replication = new ReplicationPrimary(dbService, port);
+        replication.start();
+        return replication;
+    }
+    
+    public HttpApiServer startHttpApi(int port) throws java.io.IOException {
+        HttpApiServer server = new HttpApiServer(userService, equipmentService, reservationService, reportService);
+        server.setPrimary(replication);
+        server.start(port);
+        return server;
     }
     
     public void run() {
@@ -38,6 +204,7 @@ public class ReservationMain {
                     showMainMenu();
                 }
             } catch (Exception e) {
+                Metrics.counter("main.unhandledErrors").increment();
                 System.err.println("An error occurred: " + e.getMessage());
                 e.printStackTrace();
             }
@@ -94,7 +261,9 @@ public class ReservationMain {
         System.out.println("4. Cancel Reservation");
         System.out.println("5. Add Money to Account");
         System.out.println("6. View 3D Printers");
-        System.out.println("7. Logout");
+        System.out.println("7. Submit Print Job (auto-assign printer)");
+        System.out.println("8. Check In");
+        System.out.println("9. Logout");
         System.out.print("Choose option: ");
         
         int choice = getIntInput();
@@ -119,6 +288,12 @@ public class ReservationMain {
                 view3DPrinters();
                 break;
             case 7:
+                submitPrintJob();
+                break;
+            case 8:
+                checkIn();
+                break;
+            case 9:
                 logout();
                 break;
             default:
@@ -134,7 +309,8 @@ public class ReservationMain {
         System.out.println("4. Add New Equipment");
         System.out.println("5. Generate Reports");
         System.out.println("6. Equipment Maintenance");
-        System.out.println("7. Logout");
+        System.out.println("7. View Metrics");
+        System.out.println("8. Logout");
         System.out.print("Choose option: ");
         
         int choice = getIntInput();
@@ -159,6 +335,9 @@ public class ReservationMain {
                 equipmentMaintenance();
                 break;
             case 7:
+                viewMetrics();
+                break;
+            case 8:
                 logout();
                 break;
             default:
@@ -166,6 +345,11 @@ public class ReservationMain {
         }
     }
     
+    private void viewMetrics() {
+        System.out.println("\n=== Service Metrics (since startup) ===");
+        Metrics.print(System.out, Metrics.snapshot(), null);
+    }
+    
     private void login() {
         System.out.print("Username: ");
         String username = scanner.nextLine();
@@ -254,6 +438,41 @@ public class ReservationMain {
         }
     }
     
+    private void submitPrintJob() {
+        System.out.println("\n=== Submit Print Job ===");
+        System.out.print("Print technology (FDM/SLA/SLS): ");
+        String tech = scanner.nextLine().trim();
+        System.out.print("Part size WxDxH in mm (blank = any): ");
+        String size = scanner.nextLine().trim();
+        System.out.print("Material (blank = any): ");
+        String material = scanner.nextLine().trim();
+        System.out.print("Preferred location (blank = none): ");
+        String location = scanner.nextLine().trim();
+        System.out.print("Earliest start (yyyy-MM-dd HH:mm, blank = now): ");
+        String earliest = scanner.nextLine().trim();
+        System.out.print("Duration in hours: ");
+        int duration = getIntInput();
+        System.out.print("Prefer (1) earliest finish or (2) least busy printer: ");
+        String policy = getIntInput() == 2 ? PrintPlacementService.BALANCED : PrintPlacementService.EARLIEST_FINISH;
+        
+        try {
+            PrintJob job = new PrintJob(duration, tech.isEmpty() ? null : tech,
+                    size.isEmpty() ? null : size, material.isEmpty() ? null : material,
+                    location.isEmpty() ? null : location,
+                    earliest.isEmpty() ? LocalDateTime.now(reservationService.getClock()) : DateTimeHandler.parseStringToDateTime(earliest));
+            String reservationId = placementService.placeJob(currentUser.getUserId(), job, policy);
+            Reservation reservation = reservationService.getReservationById(reservationId);
+            Equipment printer = equipmentService.getEquipmentById(reservation.getEquipmentId());
+            System.out.println("Print job booked!");
+            System.out.printf("Reservation ID: %s\n", reservationId);
+            System.out.printf("Printer: %s (%s)\n", printer.getName(), printer.getLocation());
+            System.out.printf("Start: %s\n", DateTimeHandler.formatDateTimeToString(reservation.getStartTime()));
+            System.out.printf("Total cost: $%.2f\n", reservation.getCost());
+        } catch (Exception e) {
+            System.out.println("Failed to place print job: " + e.getMessage());
+        }
+    }
+    
     private void makeReservation() {
         System.out.println("\n=== Make Reservation ===");
         
@@ -313,30 +532,42 @@ public class ReservationMain {
     private void viewMyReservations() {
         System.out.println("\n=== My Reservations ===");
         try {
-            List<Reservation> reservations = reservationService.getReservationsByUser(currentUser.getUserId());
-            
-            if (reservations.isEmpty()) {
+            String userId = currentUser.getUserId();
+            int total = reservationService.countReservationsByUser(userId);
+            if (total == 0) {
                 System.out.println("You have no reservations.");
                 return;
             }
             
-            for (Reservation reservation : reservations) {
-                System.out.println("┌─────────────────────────────────────┐");
-                System.out.printf("│ ID: %s\n", reservation.getReservationId());
-                System.out.printf("│ Equipment: %s\n", reservation.getEquipmentId());
-                System.out.printf("│ Start: %s\n", reservation.getStartTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-                System.out.printf("│ End: %s\n", reservation.getEndTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-                System.out.printf("│ Duration: %d hours\n", reservation.getDuration());
-                System.out.printf("│ Status: %s\n", reservation.getStatus());
-                System.out.printf("│ Cost: $%.2f\n", reservation.getCost());
-                System.out.printf("│ Created At: %s\n", reservation.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-                System.out.println("└─────────────────────────────────────┘");
+            for (int offset = 0; offset < total; offset += RESERVATIONS_PER_PAGE) {
+                if (offset > 0) {
+                    System.out.printf("Showing %d of %d. Show more? (y/n): ", offset, total);
+                    if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                        break;
+                    }
+                }
+                printReservations(reservationService.getReservationsByUser(userId, offset, RESERVATIONS_PER_PAGE));
             }
         } catch (Exception e) {
             System.out.println("Error retrieving reservations: " + e.getMessage());
         }
     }
     
+    private void printReservations(List<Reservation> reservations) {
+        for (Reservation reservation : reservations) {
+            System.out.println("┌─────────────────────────────────────┐");
+            System.out.printf("│ ID: %s\n", reservation.getReservationId());
+            System.out.printf("│ Equipment: %s\n", reservation.getEquipmentId());
+            System.out.printf("│ Start: %s\n", reservation.getStartTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+            System.out.printf("│ End: %s\n", reservation.getEndTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+            System.out.printf("│ Duration: %d hours\n", reservation.getDuration());
+            System.out.printf("│ Status: %s\n", reservation.getStatus());
+            System.out.printf("│ Cost: $%.2f\n", reservation.getCost());
+            System.out.printf("│ Created At: %s\n", reservation.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+            System.out.println("└─────────────────────────────────────┘");
+        }
+    }
+    
     private void cancelReservation() {
         System.out.println("\n=== Cancel Reservation ===");
         System.out.print("Enter Reservation ID: ");
@@ -350,6 +581,19 @@ public class ReservationMain {
         }
     }
     
+    private void checkIn() {
+        System.out.println("\n=== Check In ===");
+        System.out.print("Enter Reservation ID: ");
+        String reservationId = scanner.nextLine();
+        
+        try {
+            reservationService.checkIn(reservationId, currentUser.getUserId());
+            System.out.println("Checked in. Enjoy your session!");
+        } catch (Exception e) {
+            System.out.println("Failed to check in: " + e.getMessage());
+        }
+    }
+    
     private void addFunds() {
         System.out.println("\n=== Add Funds ===");
         System.out.print("Enter amount to add: $");
@@ -360,8 +604,6 @@ public class ReservationMain {
         }
         try {
             Client client = (Client) currentUser;
-            client.updateAccountBalance(amount);
-            
             userService.updateUserBalance(client.getUserId(), amount);
             
             System.out.printf("$%.2f added to your account. New balance: $%.2f\n", 
@@ -534,6 +776,7 @@ public class ReservationMain {
         System.out.println("1. Equipment Usage Report");
         System.out.println("2. Revenue Report");
         System.out.println("3. User Activity Report");
+        System.out.println("4. Revenue & Utilization by Period");
         System.out.print("Choose report type: ");
         
         int choice = getIntInput();
@@ -548,6 +791,9 @@ public class ReservationMain {
             case 3:
                 generateUserActivityReport();
                 break;
+            case 4:
+                generatePeriodReport();
+                break;
             default:
                 System.out.println("Invalid report type.");
         }
@@ -555,43 +801,66 @@ public class ReservationMain {
     
     private void generateEquipmentUsageReport() {
         System.out.println("\n=== Equipment Usage Report ===");
-        List<Equipment> equipment = equipmentService.getAvailableEquipment();
-        List<Reservation> reservations = reservationService.getAllReservations();
-        
         System.out.println("Equipment Usage:");
-        for (Equipment eq : equipment) {
-            long count = reservations.stream()
-                                   .filter(r -> r.getEquipmentId().equals(eq.getEquipmentId()))
-                                   .count();
-            System.out.printf("%s: %d reservations\n", eq.getName(), count);
+        Map<Equipment, Double> hours = reportService.getEquipmentBookedHours();
+        for (Map.Entry<Equipment, Long> usage : reportService.getEquipmentUsage().entrySet()) {
+            System.out.printf("%s: %d reservations, %.1f hours booked\n", usage.getKey().getName(), usage.getValue(),
+                             hours.getOrDefault(usage.getKey(), 0.0));
         }
     }
     
     private void generateRevenueReport() {
         System.out.println("\n=== Revenue Report ===");
-        List<Reservation> reservations = reservationService.getAllReservations();
-        
-        double totalRevenue = reservations.stream()
-                                        .filter(r -> "COMPLETED".equals(r.getStatus()))
-                                        .mapToDouble(Reservation::getCost)
-                                        .sum();
-        
-        System.out.printf("Total Revenue: $%.2f\n", totalRevenue);
-        System.out.printf("Completed Reservations: %d\n", 
-                         (int) reservations.stream()
-                                         .filter(r -> "COMPLETED".equals(r.getStatus()))
-                                         .count());
+        System.out.printf("Total Revenue: $%.2f\n", reportService.getTotalRevenue());
+        System.out.printf("Completed Reservations: %d\n", reportService.getCompletedReservationCount());
+        System.out.println("By Status:");
+        for (Map.Entry<String, Double> revenue : reportService.getRevenueByStatus().entrySet()) {
+            System.out.printf("  %s: %d reservations, $%.2f\n", revenue.getKey(),
+                             reportService.getReservationCountByStatus(revenue.getKey()), revenue.getValue());
+        }
     }
     
     private void generateUserActivityReport() {
         System.out.println("\n=== User Activity Report ===");
-        List<Client> clients = userService.getAllClients();
-        
         System.out.println("Client Activity:");
-        for (Client client : clients) {
-            System.out.printf("%s: %d reservations\n", 
-                             client.getUsername(), 
-                             client.getReservationHistory().size());
+        Map<Client, Double> spend = reportService.getClientSpend();
+        for (Map.Entry<Client, Integer> activity : reportService.getUserActivity().entrySet()) {
+            System.out.printf("%s: %d reservations, $%.2f spent\n", 
+                             activity.getKey().getUsername(), 
+                             activity.getValue(),
+                             spend.getOrDefault(activity.getKey(), 0.0));
+        }
+    }
+    
+    private void generatePeriodReport() {
+        System.out.println("\n=== Revenue & Utilization by Period ===");
+        System.out.print("From date (yyyy-MM-dd): ");
+        String fromStr = scanner.nextLine().trim();
+        System.out.print("To date, exclusive (yyyy-MM-dd): ");
+        String toStr = scanner.nextLine().trim();
+        System.out.print("Group by (DAY/WEEK/MONTH): ");
+        String granularity = scanner.nextLine().trim().toUpperCase();
+        System.out.print("Break down by (ALL/EQUIPMENT/TYPE/LOCATION): ");
+        String dimension = scanner.nextLine().trim().toUpperCase();
+        String key = null;
+        if (!RollupCube.ALL.equals(dimension)) {
+            System.out.print("Which " + dimension.toLowerCase() + ": ");
+            key = scanner.nextLine().trim();
+        }
+        
+        try {
+            java.time.LocalDate from = java.time.LocalDate.parse(fromStr);
+            java.time.LocalDate to = java.time.LocalDate.parse(toStr);
+            Map<java.time.LocalDate, Double> revenue = reportService.getRevenueSeries(dimension, key, from, to, granularity);
+            Map<java.time.LocalDate, Double> utilization = reportService.getUtilizationSeries(dimension, key, from, to, granularity);
+            System.out.printf("%-12s %12s %12s\n", "Period", "Revenue", "Utilization");
+            for (Map.Entry<java.time.LocalDate, Double> bucket : revenue.entrySet()) {
+                System.out.printf("%-12s %12s %11.1f%%\n", bucket.getKey(), String.format("$%.2f", bucket.getValue()),
+                                 utilization.getOrDefault(bucket.getKey(), 0.0) * 100);
+            }
+            System.out.printf("Total Revenue: $%.2f\n", reportService.getRevenue(dimension, key, from, to));
+        } catch (Exception e) {
+            System.out.println("Error generating report: " + e.getMessage());
         }
     }
     
@@ -0,0 +1,109 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Loads the three data files in parallel, wires the services together on one shared DbService,
+// rebuilds the derived indexes and prints how long each phase took. With a valid snapshot in the
+// data directory (see DbService.enableSnapshots) the base files are skipped: the snapshot is read,
+// its reservation columns are copied straight into the table, and only the journal records after
+// the snapshot are replayed on top.
+public class BootCoordinator {
+    private static final int LOADER_THREADS = 3;
+
+    private UserService userService;
+    private EquipmentService equipmentService;
+    private ReservationService reservationService;
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private boolean useSnapshot = true;
+    private boolean fromSnapshot;
+
+    public UserService getUserService() { return userService; }
+    public EquipmentService getEquipmentService() { return equipmentService; }
+    public ReservationService getReservationService() { return reservationService; }
+    public Map<String, Long> getPhaseNanos() { return Collections.unmodifiableMap(phaseNanos); }
+    public boolean isFromSnapshot() { return fromSnapshot; }
+
+    // false: always parse the text files (restart benchmarks compare the two)
+    public BootCoordinator useSnapshot(boolean useSnapshot) {
+        this.useSnapshot = useSnapshot;
+        return this;
+    }
+
+    public BootCoordinator boot() {
+        return boot(new DbService());
+    }
+
+    public BootCoordinator boot(DbService dbService) {
+        long bootStart = System.nanoTime();
+        ExecutorService loaders = Executors.newFixedThreadPool(LOADER_THREADS, r -> {
+            Thread t = new Thread(r, "boot-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            SnapshotStore.State snapshot = useSnapshot ? timed("read snapshot", dbService::loadSnapshot).call() : null;
+            fromSnapshot = snapshot != null;
+            Future<Map<String, User>> users = loaders.submit(timed("load users", () -> dbService.loadUsers(snapshot)));
+            Future<Map<String, Equipment>> equipment = loaders.submit(timed("load equipment", () -> dbService.loadEquipment(snapshot)));
+            Future<Map<String, Reservation>> reservations = fromSnapshot ? null
+                    : loaders.submit(timed("load reservations", dbService::loadReservations));
+
+            Map<String, User> loadedUsers = users.get();
+            Map<String, Equipment> loadedEquipment = equipment.get();
+            Map<String, Reservation> loadedReservations = fromSnapshot ? null : reservations.get();
+            phaseNanos.put("load (wall)", System.nanoTime() - bootStart);
+
+            long start = System.nanoTime();
+            userService = new UserService(dbService, loadedUsers);
+            equipmentService = new EquipmentService(dbService, loadedEquipment);
+            reservationService = new ReservationService(equipmentService, userService, dbService);
+            phaseNanos.put("build services", System.nanoTime() - start);
+
+            start = System.nanoTime();
+            if (fromSnapshot) {
+                reservationService.restore(snapshot);
+            } else {
+                reservationService.restore(loadedReservations.values());
+            }
+            phaseNanos.put("link + index", System.nanoTime() - start);
+
+            phaseNanos.put("total", System.nanoTime() - bootStart);
+            printTimings(loadedUsers.size(), loadedEquipment.size(), reservationService.getReservationCount());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Startup interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Startup failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException("Startup failed: " + e.getMessage(), e);
+        } finally {
+            loaders.shutdown();
+        }
+        return this;
+    }
+
+    private <T> Callable<T> timed(String phase, Callable<T> loader) {
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                return loader.call();
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                synchronized (phaseNanos) {
+                    phaseNanos.put(phase, elapsed);
+                }
+            }
+        };
+    }
+
+    private void printTimings(int users, int equipment, int reservations) {
+        System.out.printf("Startup: %d users, %d equipment, %d reservations%s%n", users, equipment, reservations,
+                fromSnapshot ? " (from snapshot + journal)" : "");
+        synchronized (phaseNanos) {
+            for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+                System.out.printf("  %-20s %8.2f ms%n", phase.getKey(), phase.getValue() / 1_000_000.0);
+            }
+        }
+    }
+}
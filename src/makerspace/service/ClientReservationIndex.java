@@ -0,0 +1,105 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// clientId -> that client's reservations, newest first. Lookups cost O(k) in the client's own
+// history instead of a filter + sort over every reservation in the system.
+// Entries are ReservationTable rows, so the index costs 4 bytes a reservation.
+public class ClientReservationIndex {
+    private final ReservationTable table;
+    private final ConcurrentHashMap<String, History> byClient = new ConcurrentHashMap<>();
+
+    public ClientReservationIndex(ReservationTable table) {
+        this.table = table;
+    }
+
+    public void add(int row) {
+        byClient.computeIfAbsent(table.clientId(row), id -> new History()).add(row);
+    }
+
+    public void remove(int row) {
+        History history = byClient.get(table.clientId(row));
+        if (history != null) {
+            history.remove(row);
+        }
+    }
+
+    public List<Reservation> getAll(String clientId) {
+        return getPage(clientId, 0, Integer.MAX_VALUE);
+    }
+
+    // One page of the client's history, newest first: offset 0 = latest
+    public List<Reservation> getPage(String clientId, int offset, int limit) {
+        History history = byClient.get(clientId);
+        if (history == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        return history.page(Math.max(0, offset), limit);
+    }
+
+    // Every client with at least one reservation
+    public Set<String> clientIds() {
+        return byClient.keySet();
+    }
+
+    public int count(String clientId) {
+        History history = byClient.get(clientId);
+        return history == null ? 0 : history.count();
+    }
+
+    // Rows ordered oldest first by (created, row), so a booking made now is appended at the end
+    // and reading backwards gives newest first; the row breaks ties within the same minute.
+    private final class History {
+        private int[] rows = new int[4];
+        private int size;
+
+        private long key(int row) {
+            return ((long) table.createdMinute(row) << 32) | row;
+        }
+
+        synchronized void add(int row) {
+            long key = key(row);
+            int at = size;
+            if (at > 0 && key(rows[at - 1]) > key) {
+                int low = 0, high = size - 1;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (key(rows[mid]) > key) {
+                        high = mid;
+                    } else {
+                        low = mid + 1;
+                    }
+                }
+                at = low;
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            System.arraycopy(rows, at, rows, at + 1, size - at);
+            rows[at] = row;
+            size++;
+        }
+
+        synchronized void remove(int row) {
+            for (int i = 0; i < size; i++) {
+                if (rows[i] == row) {
+                    System.arraycopy(rows, i + 1, rows, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        synchronized List<Reservation> page(int offset, int limit) {
+            int available = Math.max(0, size - offset);
+            List<Reservation> page = new ArrayList<>(Math.min(limit, available));
+            for (int i = size - 1 - offset; i >= 0 && page.size() < limit; i--) {
+                page.add(table.view(rows[i]));
+            }
+            return page;
+        }
+
+        synchronized int count() { return size; }
+    }
+}
@@ -1,268 +1,269 @@
 package makerspace.service;
 import makerspace.classModels.*;
+import makerspace.utils.*;
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Clock;
 import java.util.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class DbService {
-	private static final String DATA_DIRECTORY = "data/";
-	private static final String USERS_FILE = DATA_DIRECTORY + "users.txt";
-	private static final String EQUIPMENT_FILE = DATA_DIRECTORY + "equipment.txt";
-	private static final String RESERVATIONS_FILE = DATA_DIRECTORY + "reservations.txt";
+public final class DbService {
+	public static final String DATA_DIRECTORY = "data/";
+	private final String dataDirectory;
+	private final String usersFile;
+	private final String equipmentFile;
+	private final String reservationsFile;
+	private final Path snapshotFile;
+	
+	// Folds the journal into fresh base files off the caller's thread
+	private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "journal-compaction");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	private final Journal journal;
+	private volatile IdGenerator idGenerator; // created on first use, see getIdGenerator()
+	private volatile Clock clock = CachedClock.system();
+	
+	private static final Metrics.Timer LOAD_USERS = Metrics.timer("db.load.users");
+	private static final Metrics.Timer LOAD_EQUIPMENT = Metrics.timer("db.load.equipment");
+	private static final Metrics.Timer LOAD_RESERVATIONS = Metrics.timer("db.load.reservations");
+	private static final Metrics.Timer SAVE_USER = Metrics.timer("db.save.user");
+	private static final Metrics.Timer SAVE_EQUIPMENT = Metrics.timer("db.save.equipment");
+	private static final Metrics.Timer SAVE_RESERVATION = Metrics.timer("db.save.reservation");
+	private static final Metrics.Timer DELETE_RECORD = Metrics.timer("db.delete");
+	private static final Metrics.Timer REWRITE = Metrics.timer("db.rewrite");
+	private static final Metrics.Timer SNAPSHOT_WRITE = Metrics.timer("db.snapshot.write");
+	private static final Metrics.Timer SNAPSHOT_READ = Metrics.timer("db.snapshot.read");
+	
+	public String getDataDirectory() { return dataDirectory; }
+	
+	// Numbers new USER_/EQ_/RES_ ids; by default a SnowflakeIdGenerator holding its own node of this directory
+	public IdGenerator getIdGenerator()
+	{
+		IdGenerator generator = idGenerator;
+		if (generator == null)
+		{
+			synchronized (this)
+			{
+				if (idGenerator == null)
+				{
+					idGenerator = SnowflakeIdGenerator.forDirectory(dataDirectory);
+				}
+				generator = idGenerator;
+			}
+		}
+		return generator;
+	}
+	
+	public synchronized void setIdGenerator(IdGenerator idGenerator) { this.idGenerator = idGenerator; }
+	
+	// "Now" for every service sharing this DbService: the shared CachedClock by default,
+	// a VirtualClock when a simulation drives time itself
+	public Clock getClock() { return clock; }
+	
+	public void setClock(Clock clock) { this.clock = clock; }
 	
 	public DbService()
 	{
+		this(DATA_DIRECTORY);
+	}
+	
+	// Alternate data directory (tools and stress runs point this at a scratch folder)
+	public DbService(String dataDirectory)
+	{
+		this.dataDirectory = dataDirectory.endsWith("/") ? dataDirectory : dataDirectory + "/";
+		this.usersFile = this.dataDirectory + "users.txt";
+		this.equipmentFile = this.dataDirectory + "equipment.txt";
+		this.reservationsFile = this.dataDirectory + "reservations.txt";
+		this.snapshotFile = Paths.get(this.dataDirectory, SnapshotStore.FILE_NAME);
 		createDataDirectory();
+		this.journal = Journal.forDirectory(this.dataDirectory);
+		journal.setCompactionHandler(() -> compactionExecutor.submit(this::compactJournal));
 	}
 	
 	private void createDataDirectory()
 	{
-		File dir = new File(DATA_DIRECTORY);
+		File dir = new File(dataDirectory);
 		if (!dir.exists())
 		{
 			dir.mkdirs(); // create directory if it doesn't exist
 		}
 	}
 	
-	private String reservationToString(Reservation reservation) {
-	    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-	    return String.format("RESERVATION|%s|%s|%s|%s|%s|%s|%.2f|%s",
-	            reservation.getReservationId(),
-	            reservation.getClientId(),
-	            reservation.getEquipmentId(),
-	            reservation.getStartTime().format(formatter),
-	            reservation.getEndTime().format(formatter),
-	            reservation.getStatus(),
-	            reservation.getCost(),
-	            reservation.getCreatedAt().format(formatter));
+	// Line formats live in RecordCodec, which parses and formats without regex or String.format
+	public static String reservationToString(Reservation reservation) {
+	    return RecordCodec.local().formatReservation(reservation);
 	}
 
-	// Method to convert String back to Reservation
-	private Reservation stringToReservation(String line) {
-	    String[] parts = line.split("\\|");
-	    if (parts.length < 8 || !parts[0].equals("RESERVATION")) return null;
-	    
-	    try {
-	        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-	        
-	        String reservationId = parts[1];
-	        String clientId = parts[2];
-	        String equipmentId = parts[3];
-	        LocalDateTime startTime = LocalDateTime.parse(parts[4], formatter);
-	        LocalDateTime endTime = LocalDateTime.parse(parts[5], formatter);
-	        String status = parts[6];
-	        double cost = Double.parseDouble(parts[7]);
-	        LocalDateTime createdAt = LocalDateTime.parse(parts[8], formatter);
-	        
-	        Reservation reservation = new Reservation(reservationId, clientId, equipmentId, startTime, endTime);
-	        reservation.setStatus(status);
-	        reservation.setCost(cost);
-	        reservation.setCreatedAt(createdAt);
-	        
-	        return reservation;
-	    } catch (Exception e) {
-	        System.err.println("Error parsing reservation: " + line);
-	        return null;
-	    }
+	public static Reservation stringToReservation(String line) {
+	    return RecordCodec.local().parseReservation(line, 0, line.length());
 	}
 
-	// Save a reservation to file
-	public void saveReservation(Reservation reservation) {
-	    try (PrintWriter writer = new PrintWriter(new FileWriter(RESERVATIONS_FILE, true))) {
-	        writer.println(reservationToString(reservation));
-	    } catch (IOException e) {
-	        System.err.println("Error saving reservation: " + e.getMessage());
-	    }
+	// Save a reservation (journal upsert)
+	public CompletableFuture<Void> saveReservation(Reservation reservation) {
+		long started = SAVE_RESERVATION.start();
+		try {
+		    return journal(Journal.PUT, Journal.RESERVATION, reservationToString(reservation));
+		} catch (RuntimeException e) {
+			SAVE_RESERVATION.failed();
+			throw e;
+		} finally {
+			SAVE_RESERVATION.stop(started);
+		}
 	}
 
-	// Load all reservations from file
+	// Load all reservations: base file, then journal replay. A snapshot's reservations are
+	// restored by ReservationService.restore(SnapshotStore.State) instead.
 	public Map<String, Reservation> loadReservations() {
-	    Map<String, Reservation> reservations = new HashMap<>();
-	    try (BufferedReader reader = new BufferedReader(new FileReader(RESERVATIONS_FILE))) {
-	        String line;
-	        while ((line = reader.readLine()) != null) {
-	            Reservation reservation = stringToReservation(line);
-	            if (reservation != null) {
-	                reservations.put(reservation.getReservationId(), reservation);
-	            }
-	        }
-	    } catch (FileNotFoundException e) {
-	        // File doesn't exist yet, return empty map
-	    } catch (IOException e) {
-	        System.err.println("Error loading reservations: " + e.getMessage());
-	    }
-	    return reservations;
+		long started = LOAD_RESERVATIONS.start();
+		try {
+		    Map<String, Reservation> reservations = new HashMap<>();
+		    readBaseRecords(reservationsFile, "reservations", (codec, text, from, to) -> {
+		        Reservation reservation = codec.parseReservation(text, from, to);
+		        if (reservation != null) {
+		            reservations.put(reservation.getReservationId(), reservation);
+		        }
+		    });
+		    journal.replay(Journal.RESERVATION, new Journal.Handler() {
+		        public void put(String line) {
+		            Reservation reservation = stringToReservation(line);
+		            if (reservation != null) {
+		                reservations.put(reservation.getReservationId(), reservation);
+		            }
+		        }
+		        public void delete(String id) { reservations.remove(id); }
+		    });
+		    return reservations;
+		} catch (RuntimeException e) {
+			LOAD_RESERVATIONS.failed();
+			throw e;
+		} finally {
+			LOAD_RESERVATIONS.stop(started);
+		}
 	}
 
-	// Update a reservation (replace old entry)
-	public void updateReservation(Reservation reservation) {
-	    removeReservationFromFile(reservation.getReservationId());
-	    saveReservation(reservation);
+	// Update a reservation (replaces old entry on replay)
+	public CompletableFuture<Void> updateReservation(Reservation reservation) {
+	    return saveReservation(reservation);
 	}
 
 	// Delete a reservation
-	public void deleteReservation(String reservationId) {
-	    removeReservationFromFile(reservationId);
-	}
-
-	// Helper method to remove reservation from file
-	private void removeReservationFromFile(String reservationId) {
-	    File inputFile = new File(RESERVATIONS_FILE);
-	    File tempFile = new File(DATA_DIRECTORY + "temp_reservations.txt");
-	    
-	    try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-	         PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
-	        
-	        String line;
-	        while ((line = reader.readLine()) != null) {
-	            if (!line.contains(reservationId)) {
-	                writer.println(line);
-	            }
-	        }
-	    } catch (FileNotFoundException e) {
-	        return; // File doesn't exist
-	    } catch (IOException e) {
-	        System.err.println("Error removing reservation: " + e.getMessage());
-	        return;
-	    }
-	    
-	    // Replace original file with temp file
-	    if (inputFile.delete()) {
-	        if (!tempFile.renameTo(inputFile)) {
-	            System.err.println("Error replacing reservation file");
-	        }
-	    }
+	public CompletableFuture<Void> deleteReservation(String reservationId) {
+		long started = DELETE_RECORD.start();
+		try {
+		    return journal(Journal.DEL, Journal.RESERVATION, reservationId);
+		} catch (RuntimeException e) {
+			DELETE_RECORD.failed();
+			throw e;
+		} finally {
+			DELETE_RECORD.stop(started);
+		}
 	}
 	
-	private String userToString(User user) {
-		if (user instanceof Admin) {
-			Admin admin = (Admin) user;
-			return String.format("Admin|%s|%s|%s|%s|%s", 
-					admin.getUserId(),
-					admin.getUsername(), 
-					admin.getEmail(),
-					admin.getPassword(),
-					admin.getAdminTier());
-		} else if (user instanceof Client) {
-			Client client = (Client) user;
-			return String.format("Client|%s|%s|%s|%s|%.2f|%s", 
-					client.getUserId(),
-					client.getUsername(), 
-					client.getEmail(),
-					client.getPassword(),
-					client.getAccountBalance(),
-					client.getUserType());
-		}
-		return "";
+	public static String userToString(User user) {
+		return RecordCodec.local().formatUser(user);
 	}
 	
-	 private User stringToUser(String line) {
-	        String[] parts = line.split("\\|");
-	        if (parts.length < 5) return null;
-	        
-	        String type = parts[0];
-	        String id = parts[1];
-	        String username = parts[2];
-	        String email = parts[3];
-	        String password = parts[4]; 
-	        
-	        if ("Client".equals(type) && parts.length >= 6) {
-	            Client client = new Client(id, username, email, password);
-	            // Format: Client|userId|username|email|password|accountBalance|userLevel
-	            try {
-	            double balance = (Double.parseDouble(parts[5]));
-	            client.updateAccountBalance(balance);
-	            } catch (NumberFormatException e) {
-	            	System.err.println("Invalid Account Balance Format For Client " + username + ": " + parts[5]);
-	            }
-	            if (parts.length >= 7) {
-	                client.setUserLevel(parts[6]);
-	            }
-	            return client;
-	            
-	            //Format: Admin|userId|username|email|password|adminTier
-	        } else if ("Admin".equals(type) && parts.length >= 5) {
-	        	String adminTier = parts.length > 5 ? parts[5] : parts[4];
-	            return new Admin(id, username, email, password, adminTier);
-	        }
-	        
-	        return null;
-	    }
+	public static User stringToUser(String line) {
+		return RecordCodec.local().parseUser(line, 0, line.length());
+	}
 	
-	// Save a new user to file
-	public void saveUser(User user) {
-		try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE, true))) { // true for append mode
-			writer.println(userToString(user));
-		} catch (IOException e) {
-			System.err.println("Error saving user: " + e.getMessage());
+	// Save a new user (journal upsert)
+	public CompletableFuture<Void> saveUser(User user) {
+		long started = SAVE_USER.start();
+		try {
+			return journal(Journal.PUT, Journal.USER, userToString(user));
+		} catch (RuntimeException e) {
+			SAVE_USER.failed();
+			throw e;
+		} finally {
+			SAVE_USER.stop(started);
 		}
 	}
 	
-	// Load all users from file into a map
+	// Load all users from the base file and journal into a map
 	 public Map<String, User> loadUsers() {
-	        Map<String, User> users = new HashMap<>();
-	        try (BufferedReader reader = new BufferedReader(new FileReader(USERS_FILE))) { // buffered for efficiency
-	            String line;
-	            while ((line = reader.readLine()) != null) {
-	                User user = stringToUser(line);
-	                if (user != null) {
-	                    users.put(user.getUserId(), user);
-	                }
-	            }
-	        } catch (FileNotFoundException e) {
-	            // File doesn't exist yet, return empty map
-	        } catch (IOException e) {
-	            System.err.println("Error loading users: " + e.getMessage());
-	        }
-	        return users;
-	        
+		return loadUsers(null);
 	 }
 	 
-	 public void updateUser(User user) {
-		 removeUserFromFile(USERS_FILE, user.getUserId());
-	     saveUser(user);
+	 // From a snapshot's users instead of the base file, when given, and only the journal records after it
+	 public Map<String, User> loadUsers(SnapshotStore.State snapshot) {
+		long started = LOAD_USERS.start();
+		try {
+		        Map<String, User> users = snapshot != null ? snapshot.users : new HashMap<>();
+		        if (snapshot == null) {
+		            readBaseRecords(usersFile, "users", (codec, text, from, to) -> {
+		                User user = codec.parseUser(text, from, to);
+		                if (user != null) {
+		                    users.put(user.getUserId(), user);
+		                }
+		            });
+		        }
+		        journal.replay(Journal.USER, snapshot == null ? 0 : snapshot.seq, new Journal.Handler() {
+		            public void put(String line) {
+		                User user = stringToUser(line);
+		                if (user != null) {
+		                    users.put(user.getUserId(), user);
+		                }
+		            }
+		            public void delete(String id) { users.remove(id); }
+		        });
+		        return users;
+		} catch (RuntimeException e) {
+			LOAD_USERS.failed();
+			throw e;
+		} finally {
+			LOAD_USERS.stop(started);
+		}
 	 }
 	 
-	 public void deleteUser(String userId) {
-		 removeUserFromFile(USERS_FILE, userId);
-		 
+	 public CompletableFuture<Void> updateUser(User user) {
+	     return saveUser(user);
 	 }
 	 
-	private void removeUserFromFile(String usersFile, String userId) {
-		File inputFile = new File(usersFile);
-		File tempFile = new File("tempfile.txt");
-		try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-				PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				if (!line.contains(userId)) {
-					writer.println(line);
-					writer.flush();
-				}
-			}
-		} catch (IOException e) {
-			System.err.println("Error deleting user: " + e.getMessage());
-			return;
-		}
-		
-		// Replaces original file with temp file
-		if (inputFile.delete()) {
-			tempFile.renameTo(inputFile);
+	 public CompletableFuture<Void> deleteUser(String userId) {
+		long started = DELETE_RECORD.start();
+		try {
+			 return journal(Journal.DEL, Journal.USER, userId);
+		} catch (RuntimeException e) {
+			DELETE_RECORD.failed();
+			throw e;
+		} finally {
+			DELETE_RECORD.stop(started);
 		}
-	}
+	 }
 	
-	public void saveEquipment(Equipment equipment) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(EQUIPMENT_FILE, true))) {
-            writer.println(equipmentToString(equipment));
-        } catch (IOException e) {
-            System.err.println("Error saving equipment: " + e.getMessage());
+	public CompletableFuture<Void> saveEquipment(Equipment equipment) {
+        long started = SAVE_EQUIPMENT.start();
+        try {
+            return journal(Journal.PUT, Journal.EQUIPMENT, equipmentToString(equipment));
+        } catch (RuntimeException e) {
+            SAVE_EQUIPMENT.failed();
+            throw e;
+        } finally {
+            SAVE_EQUIPMENT.stop(started);
         }
     }
     
-    public void updateEquipment(Equipment equipment) {
-        //append the updated equipment to file
-        saveEquipment(equipment);
+    public CompletableFuture<Void> updateEquipment(Equipment equipment) {
+        return saveEquipment(equipment);
+    }
+    
+    public CompletableFuture<Void> deleteEquipment(String equipmentId) {
+        long started = DELETE_RECORD.start();
+        try {
+            return journal(Journal.DEL, Journal.EQUIPMENT, equipmentId);
+        } catch (RuntimeException e) {
+            DELETE_RECORD.failed();
+            throw e;
+        } finally {
+            DELETE_RECORD.stop(started);
+        }
     }
     
     public Map<String, Equipment> loadAllEquipment() {
@@ -271,83 +272,302 @@ public class DbService {
 	
 	
     public Map<String, Equipment> loadEquipment() {
-        Map<String, Equipment> equipmentMap = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(EQUIPMENT_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Equipment equipment = stringToEquipment(line);
-                if (equipment != null) {
-                    equipmentMap.put(equipment.getEquipmentId(), equipment);
+        return loadEquipment(null);
+    }
+    
+    // From a snapshot's equipment instead of the base file, when given, and only the journal records after it
+    public Map<String, Equipment> loadEquipment(SnapshotStore.State snapshot) {
+        long started = LOAD_EQUIPMENT.start();
+        try {
+            Map<String, Equipment> equipmentMap = snapshot != null ? snapshot.equipment : new HashMap<>();
+            if (snapshot == null) {
+                if (!new File(equipmentFile).exists()) {
+                    System.out.println("Equipment file not found. Starting with empty equipment list.");
                 }
+                readBaseRecords(equipmentFile, "equipment", (codec, text, from, to) -> {
+                    Equipment equipment = codec.parseEquipment(text, from, to);
+                    if (equipment != null) {
+                        equipmentMap.put(equipment.getEquipmentId(), equipment);
+                    }
+                });
             }
-        } catch (FileNotFoundException e) {
-            // File doesn't exist yet, return empty map
-            System.out.println("Equipment file not found. Starting with empty equipment list.");
-        } catch (IOException e) {
-            System.err.println("Error loading equipment: " + e.getMessage());
+            journal.replay(Journal.EQUIPMENT, snapshot == null ? 0 : snapshot.seq, new Journal.Handler() {
+                public void put(String line) {
+                    Equipment equipment = stringToEquipment(line);
+                    if (equipment != null) {
+                        equipmentMap.put(equipment.getEquipmentId(), equipment);
+                    }
+                }
+                public void delete(String id) { equipmentMap.remove(id); }
+            });
+            return equipmentMap;
+        } catch (RuntimeException e) {
+            LOAD_EQUIPMENT.failed();
+            throw e;
+        } finally {
+            LOAD_EQUIPMENT.stop(started);
         }
-        return equipmentMap;
     }
 
-    private Equipment stringToEquipment(String line) {
-        String[] parts = line.split("\\|");
-        if (parts.length < 5) {
-            System.err.println("Invalid equipment line format: " + line);
-            return null;
+    public static Equipment stringToEquipment(String line) {
+        return RecordCodec.local().parseEquipment(line, 0, line.length());
+    }
+
+    public static String equipmentToString(Equipment equipment) {
+        return RecordCodec.local().formatEquipment(equipment);
+    }
+    
+    // Writes are group-committed by the journal's writer thread; the future completes once the
+    // record is on disk (fsynced with -Dmakerspace.journal.fsync=true), so callers can choose to wait
+    private CompletableFuture<Void> journal(String op, String kind, String payload) {
+        return journal.append(op, kind, payload);
+    }
+    
+    // Completes once every write issued so far is on disk
+    public CompletableFuture<Void> flush() {
+        return journal.flush();
+    }
+    
+    // Rotates the journal and folds the rotated part into fresh base files.
+    // Appends keep going to the new live journal while this runs.
+    public void compactJournal() {
+        compact(false);
+    }
+    
+    // Waits for compactions already scheduled, so a restart in the same process reads files no fold is rewriting
+    void awaitCompactions() throws InterruptedException, ExecutionException {
+        compactionExecutor.submit(() -> { }).get();
+    }
+    
+    // Checkpoints (SnapshotStore): once enabled, every compaction also writes these services' state
+    // to <data>/state.snapshot, captured on the journal writer at the rotation, so it covers exactly
+    // the records up to the journal seq it records. Startup can load that instead of the base files
+    // and replay only the records after that seq. The services change memory before they journal,
+    // so nothing the snapshot covers is missing from it.
+    // userService is null for a location shard, whose users live in the root store.
+    public void enableSnapshots(UserService userService, EquipmentService equipmentService, ReservationService reservationService) {
+        journal.snapshotSource = new SnapshotStore.Source(userService, equipmentService, reservationService);
+    }
+    
+    // A compaction that also writes a snapshot when there is none yet. False if snapshots are
+    // not enabled or nothing was written.
+    public boolean checkpoint() {
+        return journal.snapshotSource != null && compact(true);
+    }
+    
+    // The snapshot matching the current journal, or null: none written, unreadable, or snapshots were
+    // never enabled. loadUsers/loadEquipment(snapshot) and ReservationService.restore(snapshot) then
+    // replay the whole journal over the base files instead.
+    public SnapshotStore.State loadSnapshot() {
+        long started = SNAPSHOT_READ.start();
+        try {
+            return SnapshotStore.read(snapshotFile);
+        } finally {
+            SNAPSHOT_READ.stop(started);
         }
-        
+    }
+    
+    private boolean compact(boolean checkpoint) {
+        long started = REWRITE.start();
         try {
-            String type = parts[0];
-            String id = parts[1];
-            String name = parts[2];
-            
-            if ("3D_PRINTER".equals(type) && parts.length >= 6) {
-            	
-                // Format: 3D_PRINTER|id|name|hourCost|location|printTech|printVolume
-                double hourCost = Double.parseDouble(parts[3]);
-                String location = parts[4];
-                String printTech = parts[5];
-                String printVolume = parts.length > 6 ? parts[6] : "Unknown";
-                
-                return new Printer3D(id, name, hourCost, location, printTech, printVolume);
-                
-            } else if ("EQUIPMENT".equals(type) && parts.length >= 5) {
-            	
-                // Format: EQUIPMENT|id|name|equipmentType|hourCost|location
-                String equipmentType = parts[3];
-                double hourCost = Double.parseDouble(parts[4]);
-                String location = parts[5];
-                
-                return new Equipment(id, name, equipmentType, hourCost, location);
+            synchronized (journal.compactionLock) {
+                SnapshotStore.Source source = journal.snapshotSource;
+                boolean missing = checkpoint && !Files.exists(snapshotFile);
+                AtomicReference<SnapshotStore.Capture> capture = new AtomicReference<>();
+                boolean rotated = journal.rotate(rotatedNow -> {
+                    if (source != null && (rotatedNow || missing)) {
+                        try {
+                            capture.set(SnapshotStore.capture(source, journal.getEpoch(), journal.getLastSeq()));
+                        } catch (IOException | RuntimeException e) {
+                            System.err.println("Error capturing snapshot: " + e.getMessage());
+                        }
+                    }
+                });
+                if (!rotated && !missing) {
+                    return false; // nothing new since the last snapshot, if any
+                }
+                try {
+                    if (rotated) {
+                        foldIntoBaseFile(reservationsFile, Journal.RESERVATION);
+                        foldIntoBaseFile(usersFile, Journal.USER);
+                        foldIntoBaseFile(equipmentFile, Journal.EQUIPMENT);
+                    }
+                    if (capture.get() != null) {
+                        writeSnapshot(capture.get());
+                    } else {
+                        Files.deleteIfExists(snapshotFile); // it no longer matches the journal
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error compacting journal: " + e.getMessage());
+                    return false; // leave the rotated journal in place, it is replayed on load and retried next time
+                }
+                if (rotated) {
+                    journal.finishCompaction();
+                }
+                return true;
             }
-            
-        } catch (NumberFormatException e) {
-            System.err.println("Error parsing equipment cost: " + line);
-        } catch (Exception e) {
-            System.err.println("Error parsing equipment line: " + line + " - " + e.getMessage());
+        } catch (RuntimeException e) {
+            REWRITE.failed();
+            throw e;
+        } finally {
+            REWRITE.stop(started);
+        }
+    }
+    
+    private void writeSnapshot(SnapshotStore.Capture capture) throws IOException {
+        long started = SNAPSHOT_WRITE.start();
+        try {
+            SnapshotStore.write(snapshotFile, capture);
+            Metrics.counter("db.snapshots").increment();
+        } catch (IOException | RuntimeException e) {
+            SNAPSHOT_WRITE.failed();
+            throw e;
+        } finally {
+            SNAPSHOT_WRITE.stop(started);
         }
+    }
+    
+    // Works on raw lines keyed by record id (second field), so no parsing is needed
+    private void foldIntoBaseFile(String baseFile, String kind) throws IOException {
+        Map<String, String> lines = new LinkedHashMap<>();
+        readBaseFile(baseFile, kind.toLowerCase(), line -> {
+            if (!line.isEmpty()) {
+                lines.put(recordId(line), line);
+            }
+        });
+        journal.replayCompacting(kind, lineHandler(lines));
         
-        return null;
+        Path target = Paths.get(baseFile);
+        Path temp = Paths.get(baseFile + ".tmp");
+        Files.write(temp, lines.values(), StandardCharsets.UTF_8);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
-
-    private String equipmentToString(Equipment equipment) {
-        if (equipment instanceof Printer3D) {
-            Printer3D printer = (Printer3D) equipment;
-            return String.format("3D_PRINTER|%s|%s|%.2f|%s|%s|%s",
-                               printer.getEquipmentId(), 
-                               printer.getName(),
-                               printer.getHourCost(), 
-                               printer.getLocation(),
-                               printer.getPrintTech(), 
-                               printer.getPrintVolume());
-        } else {
-            return String.format("EQUIPMENT|%s|%s|%s|%.2f|%s",
-                               equipment.getEquipmentId(), 
-                               equipment.getName(),
-                               equipment.getEquipmentType(), 
-                               equipment.getHourCost(),
-                               equipment.getLocation());
+    
+    private static Journal.Handler lineHandler(Map<String, String> lines) {
+        return new Journal.Handler() {
+            public void put(String line) { lines.put(recordId(line), line); }
+            public void delete(String id) { lines.remove(id); }
+        };
+    }
+    
+    // Log shipping (ReplicationPrimary): attaches `tap` to the journal and says where it starts.
+    // A standby that last applied `afterSeq` of journal `epoch` gets the records it missed if the
+    // journal still has them, otherwise an image of every live record (users, then equipment, then
+    // reservations). Compaction waits meanwhile, so no record is read twice or missed.
+    Journal.Cut startReplication(long epoch, long afterSeq, Journal.Tap tap) {
+        synchronized (journal.compactionLock) {
+            return journal.attach(tap, () -> {
+                if (epoch == journal.getEpoch()) {
+                    List<String[]> missed = journal.recordsAfter(afterSeq);
+                    if (missed != null) {
+                        return new Journal.Cut(epoch, journal.getLastSeq(), false, missed);
+                    }
+                }
+                List<String[]> image = new ArrayList<>();
+                String[][] files = { { usersFile, Journal.USER }, { equipmentFile, Journal.EQUIPMENT }, { reservationsFile, Journal.RESERVATION } };
+                for (String[] file : files) {
+                    Map<String, String> lines = new LinkedHashMap<>();
+                    readBaseFile(file[0], file[1].toLowerCase(), line -> {
+                        if (!line.isEmpty()) {
+                            lines.put(recordId(line), line);
+                        }
+                    });
+                    journal.replayQuiet(file[1], lineHandler(lines));
+                    for (String line : lines.values()) {
+                        image.add(new String[] { "0", Journal.PUT, file[1], line });
+                    }
+                }
+                return new Journal.Cut(journal.getEpoch(), journal.getLastSeq(), true, image);
+            });
+        }
+    }
+    
+    void stopReplication(Journal.Tap tap) {
+        journal.detach(tap);
+    }
+    
+    // Restores on top of a snapshot (ReservationService.restore(SnapshotStore.State)): the records
+    // of `kind` after afterSeq
+    void replayJournal(String kind, long afterSeq, Journal.Handler handler) {
+        journal.replay(kind, afterSeq, handler);
+    }
+    
+    // Log shipping (ReplicationStandby): a record received from the primary, journaled as it was written there
+    CompletableFuture<Void> appendReplicated(String op, String kind, String payload) {
+        return journal(op, kind, payload);
+    }
+    
+    private static String recordId(String line) {
+        int first = line.indexOf('|');
+        int second = first < 0 ? -1 : line.indexOf('|', first + 1);
+        return second < 0 ? line : line.substring(first + 1, second);
+    }
+    
+    private interface LineConsumer {
+        void accept(String line);
+    }
+    
+    private interface RecordConsumer {
+        void accept(RecordCodec codec, CharSequence text, int from, int to);
+    }
+    
+    private static final int READ_CHUNK = 64 * 1024;
+    
+    // Same line rules as readLine() (\n, \r or \r\n), but each line is handed over as a range of
+    // the read buffer, so loading builds no String per line, only the fields the records keep
+    private void readBaseRecords(String file, String label, RecordConsumer consumer) {
+        RecordCodec codec = RecordCodec.local();
+        try (Reader reader = new FileReader(file)) {
+            char[] buffer = new char[READ_CHUNK];
+            CharBuffer text = CharBuffer.wrap(buffer);
+            int filled = 0; // chars of an unfinished line carried over from the previous read
+            boolean skipLineFeed = false;
+            int read;
+            while ((read = reader.read(buffer, filled, buffer.length - filled)) != -1) {
+                int end = filled + read;
+                int lineStart = 0;
+                for (int i = filled; i < end; i++) {
+                    char c = buffer[i];
+                    if (skipLineFeed) {
+                        skipLineFeed = false;
+                        if (c == '\n') {
+                            lineStart = i + 1;
+                            continue;
+                        }
+                    }
+                    if (c == '\n' || c == '\r') {
+                        consumer.accept(codec, text, lineStart, i);
+                        skipLineFeed = c == '\r';
+                        lineStart = i + 1;
+                    }
+                }
+                filled = end - lineStart;
+                System.arraycopy(buffer, lineStart, buffer, 0, filled);
+                if (filled == buffer.length) { // one line longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    text = CharBuffer.wrap(buffer);
+                }
+            }
+            if (filled > 0) {
+                consumer.accept(codec, text, 0, filled);
+            }
+        } catch (FileNotFoundException e) {
+            // File doesn't exist yet, nothing to load
+        } catch (IOException e) {
+            System.err.println("Error loading " + label + ": " + e.getMessage());
+        }
+    }
+    
+    private void readBaseFile(String file, String label, LineConsumer consumer) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                consumer.accept(line);
+            }
+        } catch (FileNotFoundException e) {
+            // File doesn't exist yet, nothing to load
+        } catch (IOException e) {
+            System.err.println("Error loading " + label + ": " + e.getMessage());
         }
     }
 }
-
@@ -0,0 +1,210 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.util.*;
+
+// Inverted index over equipment attributes. Each machine gets a small ordinal when it is added
+// and every attribute value keeps a BitSet of the ordinals that have it: status, type, location
+// and print technology (all compared case-insensitively), each word of a printer's materials,
+// and each of its three sorted build dimensions (a TreeMap from size to ordinals, so "at least
+// 140 mm" is a tail map). A combined filter is an AND of a few bitsets instead of a scan with
+// string comparisons per machine, and results come back in the order machines were added.
+//
+// EquipmentService calls add() for new machines, updateStatus()/reindex() when one changes and
+// remove() when one is deleted.
+public class EquipmentIndex {
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<Equipment> items = new ArrayList<>();
+    private final List<String> statusOf = new ArrayList<>(); // status each ordinal is indexed under
+    private final List<List<BitSet>> postingsOf = new ArrayList<>(); // every other posting each ordinal is in
+    private final BitSet live = new BitSet();
+    private final BitSet printers = new BitSet();
+
+    private final Map<String, BitSet> byStatus = new HashMap<>();
+    private final Map<String, BitSet> byType = new HashMap<>();
+    private final Map<String, BitSet> byLocation = new HashMap<>();
+    private final Map<String, BitSet> byTech = new HashMap<>();
+    private final TreeMap<String, BitSet> byMaterialWord = new TreeMap<>();
+    private final TreeMap<Integer, BitSet>[] byDimension = newDimensionMaps(); // smallest, middle, largest side
+
+    @SuppressWarnings("unchecked")
+    private static TreeMap<Integer, BitSet>[] newDimensionMaps() {
+        TreeMap<Integer, BitSet>[] maps = (TreeMap<Integer, BitSet>[]) new TreeMap<?, ?>[3];
+        for (int d = 0; d < 3; d++) {
+            maps[d] = new TreeMap<>();
+        }
+        return maps;
+    }
+
+    // Adds a machine, or re-indexes it in place if one with the same id is already here
+    public synchronized void add(Equipment equipment) {
+        Integer existing = ordinals.get(equipment.getEquipmentId());
+        if (existing != null) {
+            unindex(existing);
+            index(existing, equipment);
+            return;
+        }
+        int ordinal = items.size();
+        ordinals.put(equipment.getEquipmentId(), ordinal);
+        items.add(null);
+        statusOf.add(null);
+        postingsOf.add(new ArrayList<>());
+        index(ordinal, equipment);
+    }
+
+    // After equipment.setStatus(); reads the status the machine has now
+    public synchronized void updateStatus(Equipment equipment) {
+        Integer ordinal = ordinals.get(equipment.getEquipmentId());
+        if (ordinal == null) {
+            return;
+        }
+        String status = key(equipment.getStatus());
+        if (!status.equals(statusOf.get(ordinal))) {
+            byStatus.get(statusOf.get(ordinal)).clear(ordinal);
+            posting(byStatus, status).set(ordinal);
+            statusOf.set(ordinal, status);
+        }
+    }
+
+    // Drops a machine from every posting; its ordinal is reused if the id comes back
+    public synchronized void remove(String equipmentId) {
+        Integer ordinal = ordinals.get(equipmentId);
+        if (ordinal != null && live.get(ordinal)) {
+            unindex(ordinal);
+            items.set(ordinal, null);
+        }
+    }
+
+    // After any other attribute changed, e.g. a printer's materials
+    public synchronized void reindex(Equipment equipment) {
+        add(equipment);
+    }
+
+    // Machines matching every non-null filter, in the order they were added. statuses: any of
+    // them (none = any status). Tech, material and partSize ("WxDxHmm", fits in some orientation;
+    // unparseable = any size, as Printer3D.canFit) only match 3D printers. material matches a
+    // printer listing a word starting with each word given, e.g. "resin" or "tough res", and is
+    // then confirmed with Printer3D.canPrintMaterial.
+    public synchronized List<Equipment> find(String type, String location, String printTech, String material,
+                                             String partSize, String... statuses) {
+        BitSet result = (BitSet) live.clone();
+        if (statuses.length > 0) {
+            BitSet anyStatus = new BitSet();
+            for (String status : statuses) {
+                anyStatus.or(byStatus.getOrDefault(key(status), EMPTY));
+            }
+            result.and(anyStatus);
+        }
+        if (type != null) {
+            result.and(byType.getOrDefault(key(type), EMPTY));
+        }
+        if (location != null) {
+            result.and(byLocation.getOrDefault(key(location), EMPTY));
+        }
+        if (printTech != null) {
+            result.and(byTech.getOrDefault(key(printTech), EMPTY));
+        }
+        if (material != null || partSize != null) {
+            result.and(printers);
+        }
+        if (material != null) {
+            for (String word : words(material)) {
+                BitSet withPrefix = new BitSet();
+                for (BitSet posting : byMaterialWord.subMap(word, true, word + Character.MAX_VALUE, true).values()) {
+                    withPrefix.or(posting);
+                }
+                result.and(withPrefix);
+            }
+        }
+        int[] part = partSize == null ? null : Printer3D.parseVolume(partSize);
+        if (part != null) {
+            for (int d = 0; d < 3 && !result.isEmpty(); d++) {
+                BitSet bigEnough = new BitSet();
+                for (BitSet posting : byDimension[d].tailMap(part[d], true).values()) {
+                    bigEnough.or(posting);
+                }
+                result.and(bigEnough);
+            }
+        }
+
+        List<Equipment> matches = new ArrayList<>(result.cardinality());
+        for (int ordinal = result.nextSetBit(0); ordinal >= 0; ordinal = result.nextSetBit(ordinal + 1)) {
+            Equipment equipment = items.get(ordinal);
+            if (material != null && !((Printer3D) equipment).canPrintMaterial(material)) {
+                continue;
+            }
+            matches.add(equipment);
+        }
+        return matches;
+    }
+
+    public synchronized List<Printer3D> printers() {
+        List<Printer3D> matches = new ArrayList<>(printers.cardinality());
+        for (int ordinal = printers.nextSetBit(0); ordinal >= 0; ordinal = printers.nextSetBit(ordinal + 1)) {
+            matches.add((Printer3D) items.get(ordinal));
+        }
+        return matches;
+    }
+
+    public synchronized int size() { return live.cardinality(); }
+
+    private static final BitSet EMPTY = new BitSet();
+
+    private void index(int ordinal, Equipment equipment) {
+        items.set(ordinal, equipment);
+        live.set(ordinal);
+        String status = key(equipment.getStatus());
+        posting(byStatus, status).set(ordinal);
+        statusOf.set(ordinal, status);
+        List<BitSet> postings = postingsOf.get(ordinal);
+        postings.add(posting(byType, key(equipment.getEquipmentType())));
+        postings.add(posting(byLocation, key(equipment.getLocation())));
+        if (equipment instanceof Printer3D) {
+            Printer3D printer = (Printer3D) equipment;
+            postings.add(printers);
+            postings.add(posting(byTech, key(printer.getPrintTech())));
+            if (printer.getPrintMaterial() != null) {
+                for (String word : words(printer.getPrintMaterial())) {
+                    postings.add(byMaterialWord.computeIfAbsent(word, w -> new BitSet()));
+                }
+            }
+            int[] dimensions = printer.getBuildDimensions();
+            if (dimensions != null) {
+                for (int d = 0; d < 3; d++) {
+                    postings.add(byDimension[d].computeIfAbsent(dimensions[d], size -> new BitSet()));
+                }
+            }
+        }
+        for (BitSet posting : postings) {
+            posting.set(ordinal);
+        }
+    }
+
+    // Empty postings are left in place: the set of values is small and they cost a few words each
+    private void unindex(int ordinal) {
+        byStatus.get(statusOf.get(ordinal)).clear(ordinal);
+        for (BitSet posting : postingsOf.get(ordinal)) {
+            posting.clear(ordinal);
+        }
+        postingsOf.get(ordinal).clear();
+        live.clear(ordinal);
+    }
+
+    private static BitSet posting(Map<String, BitSet> postings, String key) {
+        return postings.computeIfAbsent(key, k -> new BitSet());
+    }
+
+    private static String key(String value) {
+        return value == null ? "" : value.trim().toUpperCase();
+    }
+
+    // "Standard Resin, Tough Resin" -> [standard, resin, tough]
+    private static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
@@ -1,24 +1,53 @@
 package makerspace.service;
 import makerspace.classModels.*;
 import makerspace.exceptions.*;
+import makerspace.utils.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.time.*;
 
-public class EquipmentService {
+public final class EquipmentService {
     private Map<String, Equipment> equipment;
+    private Map<String, IntervalTree<String>> schedules; // equipmentId -> booked windows (epoch minutes)
+    private Map<String, SlotBitmap> occupancy;           // equipmentId -> booked 15-min slots, guarded by the schedule's monitor
+    private final EquipmentIndex index = new EquipmentIndex(); // attribute filters, kept in step with `equipment`
     private DbService dbService;
-    private static final Random random = new Random();
+    private static final Metrics.Timer ADD = Metrics.timer("equipment.add");
+    private static final Metrics.Timer LIST_AVAILABLE = Metrics.timer("equipment.listAvailable");
+    private static final Metrics.Timer FIND = Metrics.timer("equipment.find");
+    private static final Metrics.Timer SET_STATUS = Metrics.timer("equipment.setStatus");
+    private static final Metrics.Timer CHECK_AVAILABILITY = Metrics.timer("equipment.checkAvailability");
+    private static final Metrics.Timer FIND_FREE_SLOTS = Metrics.timer("equipment.findFreeSlots");
+    private static final Metrics.Timer FIND_EARLIEST_START = Metrics.timer("equipment.findEarliestStart");
     
     public EquipmentService() {
-        this.equipment = new HashMap<>();
-        this.dbService = new DbService();
-        
-        // Try to load existing equipment from database first
-        Map<String, Equipment> loadedEquipment = dbService.loadEquipment();
+        this(new DbService());
+    }
+    
+    public EquipmentService(DbService dbService) {
+        this(dbService, dbService.loadEquipment());
+    }
+    
+    // Used by BootCoordinator, which loads the equipment file in parallel with the others
+    public EquipmentService(DbService dbService, Map<String, Equipment> loadedEquipment) {
+        this(dbService, loadedEquipment, true);
+    }
+    
+    // seedDefaults: stock an empty store with the default machines (a lab shard starts empty instead)
+    public EquipmentService(DbService dbService, Map<String, Equipment> loadedEquipment, boolean seedDefaults) {
+        this.equipment = new ConcurrentHashMap<>();
+        this.schedules = new ConcurrentHashMap<>();
+        this.occupancy = new ConcurrentHashMap<>();
+        this.dbService = dbService;
         this.equipment.putAll(loadedEquipment);
+        new TreeMap<>(loadedEquipment).values().forEach(index::add);
+        for (String equipmentId : equipment.keySet()) {
+            dbService.getIdGenerator().advancePast(IdGenerator.numericPart(equipmentId));
+        }
+        Metrics.gauge("equipment.count", equipment::size);
         
         // Only initialize default equipment if database is empty
-        if (this.equipment.isEmpty()) {
+        if (this.equipment.isEmpty() && seedDefaults) {
             System.out.println("No equipment found in database. Initializing default equipment...");
             initializeDefaultEquipment();
         } else {
@@ -45,9 +74,41 @@ public class EquipmentService {
     }
     
     public String addEquipment(Equipment newEquipment) {
-        equipment.put(newEquipment.getEquipmentId(), newEquipment);
-        dbService.saveEquipment(newEquipment);
-        return newEquipment.getEquipmentId();
+        long started = ADD.start();
+        try {
+            equipment.put(newEquipment.getEquipmentId(), newEquipment);
+            index.add(newEquipment);
+            dbService.saveEquipment(newEquipment);
+            return newEquipment.getEquipmentId();
+        } catch (RuntimeException e) {
+            ADD.failed();
+            throw e;
+        } finally {
+            ADD.stop(started);
+        }
+    }
+    
+    // A machine record shipped from the primary (ReplicationStandby), status included (records
+    // from before the status field arrive AVAILABLE); nothing is written here.
+    public void applyReplicated(Equipment incoming) {
+        equipment.put(incoming.getEquipmentId(), incoming);
+        index.add(incoming);
+        dbService.getIdGenerator().advancePast(IdGenerator.numericPart(incoming.getEquipmentId()));
+    }
+    
+    // A machine the primary deleted: gone from lookups, filters and the booking schedule. Its past
+    // reservations stay, as history; nothing is written here.
+    public void applyReplicatedDelete(String equipmentId) {
+        if (equipment.remove(equipmentId) == null) {
+            return;
+        }
+        index.remove(equipmentId);
+        IntervalTree<String> schedule = schedules.remove(equipmentId);
+        if (schedule != null) {
+            synchronized (schedule) {
+                occupancy.remove(equipmentId);
+            }
+        }
     }
     
     public String add3DPrinter(String name, double hourlyRate, String location, 
@@ -66,45 +127,287 @@ public class EquipmentService {
         return eq;
     }
     
+    public boolean containsEquipment(String equipmentId) {
+        return equipment.containsKey(equipmentId);
+    }
+    
+    public List<Equipment> getAllEquipment() {
+        return new ArrayList<>(equipment.values());
+    }
+    
     public List<Equipment> getAvailableEquipment() {
-        return equipment.values().stream()
-                       .filter(Equipment::isAvailable)
-                       .collect(java.util.stream.Collectors.toList());
+        long started = LIST_AVAILABLE.start();
+        try {
+            return index.find(null, null, null, null, null, EquipmentStatusUtil.AVAILABLE);
+        } catch (RuntimeException e) {
+            LIST_AVAILABLE.failed();
+            throw e;
+        } finally {
+            LIST_AVAILABLE.stop(started);
+        }
     }
     
     public List<Equipment> getEquipmentByType(String type) {
-        return equipment.values().stream()
-                       .filter(eq -> eq.getEquipmentType().equalsIgnoreCase(type))
-                       .collect(java.util.stream.Collectors.toList());
+        return index.find(type, null, null, null, null);
     }
     
     public List<Printer3D> get3DPrinters() {
-        return equipment.values().stream()
-                       .filter(eq -> eq instanceof Printer3D)
-                       .map(eq -> (Printer3D) eq)
-                       .collect(java.util.stream.Collectors.toList());
+        return index.printers();
     }
     
-    public void setEquipmentStatus(String equipmentId, String status) 
-            throws EquipmentUnavailableException {
+    // Every filter is optional (null = any), e.g. available SLA printers in Lab B that fit
+    // "140x140x140mm" and take "resin". Answered from the attribute index, see EquipmentIndex.find.
+    public List<Equipment> findEquipment(String status, String type, String location,
+                                         String printTech, String material, String partSize) {
+        long started = FIND.start();
+        try {
+            return status == null ? index.find(type, location, printTech, material, partSize)
+                    : index.find(type, location, printTech, material, partSize, status);
+        } catch (RuntimeException e) {
+            FIND.failed();
+            throw e;
+        } finally {
+            FIND.stop(started);
+        }
+    }
+    
+    // Persisted with the printer's record (the v2 tail, see RecordCodec)
+    public void setPrintMaterial(String equipmentId, String material) throws EquipmentUnavailableException {
         Equipment eq = getEquipmentById(equipmentId);
-        eq.setStatus(status);
+        if (!(eq instanceof Printer3D)) {
+            throw new EquipmentUnavailableException("Not a 3D printer: " + equipmentId);
+        }
+        ((Printer3D) eq).setPrintMaterial(material);
+        index.reindex(eq);
         dbService.updateEquipment(eq);
     }
     
+    public void setEquipmentStatus(String equipmentId, String status) 
+            throws EquipmentUnavailableException {
+        long started = SET_STATUS.start();
+        try {
+            Equipment eq = getEquipmentById(equipmentId);
+            eq.setStatus(status);
+            index.updateStatus(eq);
+            dbService.updateEquipment(eq);
+        } catch (Exception e) {
+            SET_STATUS.failed();
+            throw e;
+        } finally {
+            SET_STATUS.stop(started);
+        }
+    }
+    
     public boolean isEquipmentAvailable(String equipmentId, LocalDateTime startTime, LocalDateTime endTime) throws EquipmentUnavailableException {
-        Equipment eq = getEquipmentById(equipmentId);
-        return eq.isAvailable(); //used to check reservations (Simplified)
+        long started = CHECK_AVAILABILITY.start();
+        try {
+            Equipment eq = getEquipmentById(equipmentId);
+            if (EquipmentStatusUtil.MAINTENANCE.equals(eq.getStatus()) || EquipmentStatusUtil.DOWN.equals(eq.getStatus())) {
+                return false;
+            }
+            IntervalTree<String> schedule = schedules.get(equipmentId);
+            if (schedule == null) {
+                return true;
+            }
+            synchronized (schedule) {
+                return !schedule.overlaps(DateTimeHandler.toEpochMinute(startTime), DateTimeHandler.toEpochMinute(endTime));
+            }
+        } catch (Exception e) {
+            CHECK_AVAILABILITY.failed();
+            throw e;
+        } finally {
+            CHECK_AVAILABILITY.stop(started);
+        }
+    }
+    
+    public List<String> getConflictingReservationIds(String equipmentId, LocalDateTime startTime, LocalDateTime endTime) {
+        IntervalTree<String> schedule = schedules.get(equipmentId);
+        if (schedule == null) {
+            return new ArrayList<>();
+        }
+        synchronized (schedule) {
+            return schedule.findOverlapping(DateTimeHandler.toEpochMinute(startTime), DateTimeHandler.toEpochMinute(endTime));
+        }
+    }
+    
+    // Called by ReservationService whenever a booking starts or stops holding its window.
+    // Check-then-claim atomicity comes from ReservationService's per-equipment lock;
+    // the tree monitor only protects the structure itself.
+    public void reserveSlot(Reservation reservation) {
+        reserveSlot(reservation.getEquipmentId(), DateTimeHandler.toEpochMinute(reservation.getStartTime()),
+                DateTimeHandler.toEpochMinute(reservation.getEndTime()), reservation.getReservationId());
+    }
+    
+    // Epoch minutes, as a bulk restore reads them from the reservation table's columns
+    public void reserveSlot(String equipmentId, long start, long end, String reservationId) {
+        IntervalTree<String> schedule = schedules.computeIfAbsent(equipmentId, id -> new IntervalTree<>());
+        synchronized (schedule) {
+            schedule.insert(start, end, reservationId);
+            occupancy.computeIfAbsent(equipmentId, id -> new SlotBitmap()).mark(start, end);
+        }
+    }
+    
+    public void releaseSlot(Reservation reservation) {
+        IntervalTree<String> schedule = schedules.get(reservation.getEquipmentId());
+        if (schedule != null) {
+            long start = DateTimeHandler.toEpochMinute(reservation.getStartTime());
+            long end = DateTimeHandler.toEpochMinute(reservation.getEndTime());
+            synchronized (schedule) {
+                schedule.remove(start, reservation.getReservationId());
+                SlotBitmap bitmap = occupancy.get(reservation.getEquipmentId());
+                if (bitmap != null) {
+                    // A slot stays marked if another booking still touches part of it
+                    for (long slot = SlotBitmap.slotAtOrBefore(start); slot < SlotBitmap.slotAtOrAfter(end); slot++) {
+                        long slotStart = slot * SlotBitmap.SLOT_MINUTES;
+                        if (!schedule.overlaps(slotStart, slotStart + SlotBitmap.SLOT_MINUTES)) {
+                            bitmap.clear(slot);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    private static final int MAX_SEARCH_DAYS = 366;
+    
+    // Which machines matching the filters (null = any) are free for `hours` consecutive hours
+    // somewhere in [from, to), and at which 15-minute-aligned starts (at most maxStarts each)
+    public Map<Equipment, List<LocalDateTime>> findFreeSlots(String type, String printTech, String location,
+                                                            int hours, LocalDateTime from, LocalDateTime to,
+                                                            int maxStarts) {
+        long started = FIND_FREE_SLOTS.start();
+        try {
+            Map<Equipment, List<LocalDateTime>> result = new LinkedHashMap<>();
+            long firstSlot = firstBookableSlot(from);
+            long endSlot = SlotBitmap.slotAtOrBefore(DateTimeHandler.toEpochMinute(to));
+            int needed = hours * 60 / SlotBitmap.SLOT_MINUTES;
+            int span = (int) Math.min(endSlot - firstSlot, (long) MAX_SEARCH_DAYS * SlotBitmap.SLOTS_PER_DAY);
+            int startCount = span - needed + 1;
+            if (needed <= 0 || startCount <= 0) {
+                return result;
+            }
+            long[] free = new long[(span + 63) >>> 6];
+        
+            // Bookable machines only: MAINTENANCE and DOWN are left out
+            List<Equipment> candidates = index.find(type, location, printTech, null, null,
+                    EquipmentStatusUtil.AVAILABLE, EquipmentStatusUtil.IN_USE);
+            candidates.sort(Comparator.comparing(Equipment::getEquipmentId));
+            for (Equipment eq : candidates) {
+                markFreeRuns(eq.getEquipmentId(), firstSlot, span, needed, free);
+                List<LocalDateTime> starts = new ArrayList<>();
+                for (int w = 0; w < free.length && starts.size() < maxStarts; w++) {
+                    long bits = free[w];
+                    while (bits != 0 && starts.size() < maxStarts) {
+                        int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        if (i >= startCount) {
+                            break;
+                        }
+                        starts.add(DateTimeHandler.fromEpochMinute((firstSlot + i) * SlotBitmap.SLOT_MINUTES));
+                        bits &= bits - 1;
+                    }
+                }
+                if (!starts.isEmpty()) {
+                    result.put(eq, starts);
+                }
+            }
+            return result;
+        } catch (RuntimeException e) {
+            FIND_FREE_SLOTS.failed();
+            throw e;
+        } finally {
+            FIND_FREE_SLOTS.stop(started);
+        }
+    }
+    
+    // Earliest 15-minute-aligned start in [from, to), and not in the past, where the machine is free
+    // for `hours`, or null
+    public LocalDateTime findEarliestStart(String equipmentId, int hours, LocalDateTime from, LocalDateTime to) {
+        long started = FIND_EARLIEST_START.start();
+        try {
+            long firstSlot = firstBookableSlot(from);
+            long endSlot = SlotBitmap.slotAtOrBefore(DateTimeHandler.toEpochMinute(to));
+            int needed = hours * 60 / SlotBitmap.SLOT_MINUTES;
+            int span = (int) Math.min(endSlot - firstSlot, (long) MAX_SEARCH_DAYS * SlotBitmap.SLOTS_PER_DAY);
+            if (needed <= 0 || span < needed) {
+                return null;
+            }
+            long[] free = new long[(span + 63) >>> 6];
+            markFreeRuns(equipmentId, firstSlot, span, needed, free);
+            for (int w = 0; w < free.length; w++) {
+                if (free[w] != 0) {
+                    int i = (w << 6) + Long.numberOfTrailingZeros(free[w]);
+                    return i <= span - needed ? DateTimeHandler.fromEpochMinute((firstSlot + i) * SlotBitmap.SLOT_MINUTES) : null;
+                }
+            }
+            return null;
+        } catch (RuntimeException e) {
+            FIND_EARLIEST_START.failed();
+            throw e;
+        } finally {
+            FIND_EARLIEST_START.stop(started);
+        }
+    }
+    
+    // First slot starting at or after both `from` and the clock's now; a start inside the current
+    // minute counts as past, since createReservation refuses anything before now
+    private long firstBookableSlot(LocalDateTime from) {
+        LocalDateTime now = LocalDateTime.now(dbService.getClock());
+        LocalDateTime earliest = from.isBefore(now) ? now : from;
+        long minute = DateTimeHandler.toEpochMinute(earliest);
+        if (earliest.getSecond() != 0 || earliest.getNano() != 0) {
+            minute++;
+        }
+        return SlotBitmap.slotAtOrAfter(minute);
+    }
+    
+    // Booked 15-minute slots in [from, to); a cheap measure of how loaded a machine is
+    public int countBookedSlots(String equipmentId, LocalDateTime from, LocalDateTime to) {
+        IntervalTree<String> schedule = schedules.get(equipmentId);
+        SlotBitmap bitmap = occupancy.get(equipmentId);
+        if (schedule == null || bitmap == null) {
+            return 0;
+        }
+        long slot = SlotBitmap.slotAtOrBefore(DateTimeHandler.toEpochMinute(from));
+        long endSlot = SlotBitmap.slotAtOrAfter(DateTimeHandler.toEpochMinute(to));
+        int booked = 0;
+        synchronized (schedule) {
+            for (; slot < endSlot; slot += 64) {
+                long word = bitmap.word(slot);
+                if (endSlot - slot < 64) {
+                    word &= (1L << (endSlot - slot)) - 1;
+                }
+                booked += Long.bitCount(word);
+            }
+        }
+        return booked;
+    }
+    
+    // Fills `free` so that bit i is set iff slots firstSlot+i .. firstSlot+i+needed-1 are all
+    // free and inside the span. Done with O(log needed) passes of word-wise AND/shift.
+    private void markFreeRuns(String equipmentId, long firstSlot, int span, int needed, long[] free) {
+        IntervalTree<String> schedule = schedules.get(equipmentId);
+        SlotBitmap bitmap = occupancy.get(equipmentId);
+        if (schedule == null || bitmap == null) {
+            Arrays.fill(free, -1L);
+        } else {
+            synchronized (schedule) {
+                for (int w = 0; w < free.length; w++) {
+                    free[w] = ~bitmap.word(firstSlot + ((long) w << 6));
+                }
+            }
+        }
+        if ((span & 63) != 0) {
+            free[free.length - 1] &= (1L << (span & 63)) - 1; // slots at or past the end are never free
+        }
+        for (int run = 1; run < needed; ) {
+            int shift = Math.min(run, needed - run);
+            SlotBitmap.andShifted(free, shift);
+            run += shift;
+        }
     }
     
-    private static final int ID_LENGTH = 6;
     private String generateEquipmentId() {
-    	StringBuilder sb = new StringBuilder(ID_LENGTH);
-    	for (int i = 0; i < ID_LENGTH; i++) {
-    		int digit = random.nextInt(10);
-    		sb.append(digit);
-    	}
-        return "EQ_" + sb.toString();
+        return dbService.getIdGenerator().nextId("EQ_");
     }
    
     private void initializeDefaultEquipment() {
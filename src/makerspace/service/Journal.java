@@ -0,0 +1,433 @@
+package makerspace.service;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import makerspace.utils.Metrics;
+
+// Append-only write-ahead journal shared by every DbService pointed at the same data directory.
+// Record format: seq|PUT|KIND|<record line>  or  seq|DEL|KIND|<id>
+//
+// Appends are group-committed: callers drop records on a bounded queue and get a future back,
+// a single writer thread drains whatever is pending (up to MAX_BATCH, waiting at most
+// FLUSH_INTERVAL_MICROS for stragglers) and writes the batch with one buffered write,
+// optionally followed by one fsync. Sequence numbers are assigned by the writer, so file
+// order and seq order always agree.
+//
+// Taps (log shipping, see ReplicationPrimary) see each committed record on the writer thread in
+// seq order. Seqs restart when a compacted journal is reopened, so each open journal also has a
+// random epoch; a (epoch, seq) pair names one position in one run of the journal. They never
+// restart below the seq the directory's snapshot covers, which replays only the records after it.
+class Journal {
+    static final String RESERVATION = "RESERVATION";
+    static final String USER = "USER";
+    static final String EQUIPMENT = "EQUIPMENT";
+    static final String PUT = "PUT";
+    static final String DEL = "DEL";
+
+    static final int COMPACTION_THRESHOLD = 10_000; // records in the live journal before folding into the base files
+    static final int QUEUE_CAPACITY = 8192;          // callers block (backpressure) once this many records are pending
+    static final int MAX_BATCH = 1024;
+    static final long FLUSH_INTERVAL_MICROS = Long.getLong("makerspace.journal.flushMicros", 200);
+    static final boolean FSYNC = Boolean.getBoolean("makerspace.journal.fsync");
+
+    private static final Map<String, Journal> journals = new HashMap<>();
+
+    final Object compactionLock = new Object();
+    private final Path liveFile;
+    private final Path compactingFile;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final Metrics.Timer WRITE = Metrics.timer("journal.write"); // one batch: write, flush, optional fsync
+    private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock(); // writer batches vs replays
+    private final Thread writerThread;
+    private FileOutputStream fileOut;
+    private Writer writer;
+    private volatile long lastSeq;
+    private volatile int liveRecords;
+    private volatile boolean compactionRequested;
+    private volatile Runnable compactionHandler;
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final List<Tap> taps = new CopyOnWriteArrayList<>();
+    volatile SnapshotStore.Source snapshotSource; // set by the DbService whose services are checkpointed
+
+    interface Handler {
+        void put(String line);
+        void delete(String id);
+    }
+
+    // Called on the writer thread once the record is written; must not block
+    interface Tap {
+        void written(long seq, String op, String kind, String payload);
+    }
+
+    // Where a tap starts: the records it missed ({seq, op, kind, payload}), or with `image` set,
+    // every live record as a PUT ({"0", PUT, kind, line}); the tap carries on after `seq`
+    static final class Cut {
+        final long epoch;
+        final long seq;
+        final boolean image;
+        final List<String[]> records;
+
+        Cut(long epoch, long seq, boolean image, List<String[]> records) {
+            this.epoch = epoch;
+            this.seq = seq;
+            this.image = image;
+            this.records = records;
+        }
+    }
+
+    // A queued record, or a control task (flush barrier / rotation) run by the writer in queue order
+    private static final class Pending {
+        final String op;
+        final String kind;
+        final String payload;
+        final Callable<Boolean> control;
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        Pending(String op, String kind, String payload, Callable<Boolean> control) {
+            this.op = op;
+            this.kind = kind;
+            this.payload = payload;
+            this.control = control;
+        }
+    }
+
+    static synchronized Journal forDirectory(String dataDirectory) {
+        return journals.computeIfAbsent(Paths.get(dataDirectory).toAbsolutePath().normalize().toString(), Journal::new);
+    }
+
+    private Journal(String dataDirectory) {
+        this.liveFile = Paths.get(dataDirectory, "journal.log");
+        this.compactingFile = Paths.get(dataDirectory, "journal.compacting.log");
+        // Recover the sequence counter and record count from what is already on disk
+        scan(compactingFile, null, (seq, op, kind, payload) -> lastSeq = Math.max(lastSeq, seq));
+        scan(liveFile, null, (seq, op, kind, payload) -> {
+            lastSeq = Math.max(lastSeq, seq);
+            liveRecords++;
+        });
+        lastSeq = Math.max(lastSeq, SnapshotStore.coveredSeq(Paths.get(dataDirectory, SnapshotStore.FILE_NAME)));
+        Metrics.gauge("journal.queued", queue::size);
+        writerThread = new Thread(this::writeLoop, "journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush().join(), "journal-shutdown"));
+    }
+
+    // The first DbService on this directory wires in how compaction gets scheduled
+    void setCompactionHandler(Runnable handler) {
+        if (compactionHandler == null) {
+            compactionHandler = handler;
+        }
+        if (compactionDue()) {
+            handler.run();
+        }
+    }
+
+    // Completes once the record is written (and fsynced, if enabled)
+    CompletableFuture<Void> append(String op, String kind, String payload) {
+        return enqueue(new Pending(op, kind, payload, null)).thenApply(written -> null);
+    }
+
+    // Completes once everything queued before it is on disk
+    CompletableFuture<Void> flush() {
+        return enqueue(new Pending(null, null, null, () -> true)).thenApply(written -> null);
+    }
+
+    private CompletableFuture<Boolean> enqueue(Pending pending) {
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.done.completeExceptionally(e);
+        }
+        return pending.done;
+    }
+
+    synchronized boolean compactionDue() {
+        if (liveRecords >= COMPACTION_THRESHOLD && !compactionRequested) {
+            compactionRequested = true;
+            return true;
+        }
+        return false;
+    }
+
+    long getLastSeq() { return lastSeq; }
+
+    long getEpoch() { return epoch; }
+
+    // Runs `cut` on the writer thread between two batches, with the files quiet, and adds the tap
+    // before the next batch: the tap sees exactly the records written after what `cut` read
+    <T> T attach(Tap tap, Callable<T> cut) {
+        AtomicReference<T> result = new AtomicReference<>();
+        boolean attached = enqueue(new Pending(null, null, null, () -> {
+            result.set(cut.call());
+            taps.add(tap);
+            return true;
+        })).join();
+        if (!attached) {
+            throw new IllegalStateException("Could not attach to the journal");
+        }
+        return result.get();
+    }
+
+    void detach(Tap tap) {
+        taps.remove(tap);
+    }
+
+    // From inside attach()'s cut: every record after afterSeq as {seq, op, kind, payload}, or null
+    // if some of them have already been folded into the base files
+    List<String[]> recordsAfter(long afterSeq) {
+        if (afterSeq > lastSeq) {
+            return null;
+        }
+        List<String[]> records = new ArrayList<>();
+        RecordVisitor collect = (seq, op, kind, payload) -> {
+            if (seq > afterSeq) {
+                records.add(new String[] { Long.toString(seq), op, kind, payload });
+            }
+        };
+        scan(compactingFile, null, collect);
+        scan(liveFile, null, collect);
+        long first = records.isEmpty() ? lastSeq + 1 : Long.parseLong(records.get(0)[0]);
+        return first == afterSeq + 1 ? records : null;
+    }
+
+    // From inside attach()'s cut: like replay(), without waiting for the writer (the cut runs on it)
+    void replayQuiet(String kind, Handler handler) {
+        scan(compactingFile, kind, (seq, op, k, payload) -> apply(op, payload, handler));
+        scan(liveFile, kind, (seq, op, k, payload) -> apply(op, payload, handler));
+    }
+
+    // Applies every record of the given kind in sequence order: anything mid-compaction first, then the live file.
+    // Waits for queued appends to land first; the read lock keeps the writer (and rotation) out while reading.
+    void replay(String kind, Handler handler) {
+        replay(kind, 0, handler);
+    }
+
+    // Only the records after afterSeq, on top of a snapshot that covers the rest
+    void replay(String kind, long afterSeq, Handler handler) {
+        flush().join();
+        fileLock.readLock().lock();
+        try {
+            RecordVisitor visitor = (seq, op, k, payload) -> {
+                if (seq > afterSeq) {
+                    apply(op, payload, handler);
+                }
+            };
+            scan(compactingFile, kind, visitor);
+            scan(liveFile, kind, visitor);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    void replayCompacting(String kind, Handler handler) {
+        scan(compactingFile, kind, (seq, op, k, payload) -> apply(op, payload, handler));
+    }
+
+    // Moves the live journal aside so it can be folded into the base files while appends continue.
+    // Runs on the writer thread, so everything appended before the call ends up in the rotated file.
+    // Returns false if there is nothing to fold.
+    boolean rotate() {
+        return rotate(rotated -> { });
+    }
+
+    // Also runs `atCut` on the writer thread right after the rotation, before any later record is
+    // written, with getLastSeq() the last record rotated (or already in the live journal, if nothing was)
+    boolean rotate(Consumer<Boolean> atCut) {
+        return enqueue(new Pending(null, null, null, () -> {
+            boolean rotated = rotateNow();
+            atCut.accept(rotated);
+            return rotated;
+        })).join();
+    }
+
+    private boolean rotateNow() throws IOException {
+        if (Files.exists(compactingFile)) {
+            return true; // a previous compaction did not finish, fold that first
+        }
+        closeWriter();
+        if (!Files.exists(liveFile) || liveRecords == 0) {
+            compactionRequested = false;
+            return false;
+        }
+        Files.move(liveFile, compactingFile, StandardCopyOption.ATOMIC_MOVE);
+        liveRecords = 0;
+        return true;
+    }
+
+    synchronized void finishCompaction() {
+        try {
+            Files.deleteIfExists(compactingFile);
+        } catch (IOException e) {
+            System.err.println("Error removing compacted journal: " + e.getMessage());
+        }
+        compactionRequested = false;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - batch.size());
+                if (FLUSH_INTERVAL_MICROS > 0 && batch.size() < MAX_BATCH) {
+                    // Give concurrent callers a moment to join this batch
+                    long deadline = System.nanoTime() + FLUSH_INTERVAL_MICROS * 1000;
+                    Pending more;
+                    while (batch.size() < MAX_BATCH && (more = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+                        batch.add(more);
+                        queue.drainTo(batch, MAX_BATCH - batch.size());
+                    }
+                }
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                System.err.println("Journal writer error: " + t.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Writes records up to each control task, runs the control task, and carries on
+    private void writeBatch(List<Pending> batch) {
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from;
+            while (to < batch.size() && batch.get(to).control == null) {
+                to++;
+            }
+            if (to > from) {
+                writeRecords(batch.subList(from, to));
+            }
+            if (to < batch.size()) {
+                Pending control = batch.get(to);
+                fileLock.writeLock().lock();
+                try {
+                    control.done.complete(control.control.call());
+                } catch (Exception e) {
+                    System.err.println("Journal control task failed: " + e.getMessage());
+                    control.done.complete(false);
+                } finally {
+                    fileLock.writeLock().unlock();
+                }
+                to++;
+            }
+            from = to;
+        }
+    }
+
+    private void writeRecords(List<Pending> records) {
+        IOException failure = null;
+        long started = WRITE.start();
+        fileLock.writeLock().lock();
+        try {
+            if (writer == null) {
+                fileOut = new FileOutputStream(liveFile.toFile(), true);
+                writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), 64 * 1024);
+            }
+            long seq = lastSeq;
+            for (Pending record : records) {
+                writer.write(Long.toString(++seq));
+                writer.write('|');
+                writer.write(record.op);
+                writer.write('|');
+                writer.write(record.kind);
+                writer.write('|');
+                writer.write(record.payload);
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+            if (FSYNC) {
+                fileOut.getChannel().force(false);
+            }
+            lastSeq = seq;
+            liveRecords += records.size();
+        } catch (IOException e) {
+            failure = e;
+            System.err.println("Error appending to journal: " + e.getMessage());
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+        WRITE.stop(started);
+        if (failure != null) {
+            WRITE.failed();
+        }
+        Metrics.counter("journal.records").add(records.size());
+        if (failure == null && !taps.isEmpty()) {
+            long seq = lastSeq - records.size();
+            for (Pending record : records) {
+                seq++;
+                for (Tap tap : taps) {
+                    tap.written(seq, record.op, record.kind, record.payload);
+                }
+            }
+        }
+        for (Pending record : records) {
+            if (failure == null) {
+                record.done.complete(true);
+            } else {
+                record.done.completeExceptionally(failure);
+            }
+        }
+        Runnable handler = compactionHandler;
+        if (handler != null && compactionDue()) {
+            handler.run();
+        }
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            fileOut = null;
+        }
+    }
+
+    private static void apply(String op, String payload, Handler handler) {
+        if (PUT.equals(op)) {
+            handler.put(payload);
+        } else if (DEL.equals(op)) {
+            handler.delete(payload);
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(long seq, String op, String kind, String payload);
+    }
+
+    private static void scan(Path file, String kind, RecordVisitor visitor) {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf('|');
+                int second = first < 0 ? -1 : line.indexOf('|', first + 1);
+                int third = second < 0 ? -1 : line.indexOf('|', second + 1);
+                if (third < 0) {
+                    continue; // torn write at the tail of the file
+                }
+                String recordKind = line.substring(second + 1, third);
+                if (kind != null && !kind.equals(recordKind)) {
+                    continue;
+                }
+                try {
+                    long seq = Long.parseLong(line.substring(0, first));
+                    visitor.visit(seq, line.substring(first + 1, second), recordKind, line.substring(third + 1));
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping malformed journal record: " + line);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading journal: " + e.getMessage());
+        }
+    }
+}
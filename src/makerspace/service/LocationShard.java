@@ -0,0 +1,132 @@
+package makerspace.service;
+import makerspace.exceptions.ServiceBusyException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// One lab's slice of the equipment and reservation stores: its own data directory (files and
+// journal, so its own journal writer), its own EquipmentService and ReservationService (so its own
+// slot locks and tables), reports and lifecycle timers, and one writer thread that runs the
+// router's writes for this lab in arrival order. A long admin job in one lab queues behind
+// nothing and holds up nothing in another. Users are not sharded: every shard books against the
+// one UserService, which keeps writing to the root data directory.
+//
+// ShardRouter.single() wraps the unsharded services as one shard covering every location;
+// that shard has no writer thread and runs writes on the caller's thread as before.
+//
+// The writer's queue is bounded like the journal's, but a full queue refuses the write
+// (ServiceBusyException, 503 over HTTP) instead of blocking: a request thread never waits on a
+// lab that is already WRITE_QUEUE_CAPACITY writes behind, and a queued write that has not started
+// within WRITE_WAIT_MILLIS is withdrawn and refused the same way.
+public class LocationShard {
+    private static final String LOCATION_FILE = "location.txt";
+    static final int WRITE_QUEUE_CAPACITY = 256;
+    static final long WRITE_WAIT_MILLIS = Long.getLong("makerspace.shard.writeWaitMillis", 10_000);
+
+    private final String location; // null: the whole, unsharded store
+    private final DbService dbService;
+    private final EquipmentService equipmentService;
+    private final ReservationService reservationService;
+    private final ReportService reportService;
+    private final ReservationLifecycle lifecycle;
+    private final ThreadPoolExecutor writer;
+
+    LocationShard(String location, DbService dbService, EquipmentService equipmentService,
+                  ReservationService reservationService, ReportService reportService,
+                  ReservationLifecycle lifecycle, ThreadPoolExecutor writer) {
+        this.location = location;
+        this.dbService = dbService;
+        this.equipmentService = equipmentService;
+        this.reservationService = reservationService;
+        this.reportService = reportService;
+        this.lifecycle = lifecycle;
+        this.writer = writer;
+    }
+
+    // Loads (or creates) the shard in `directory`, which shares the root's id generator and clock
+    static LocationShard open(Path directory, String location, DbService root, UserService userService) throws Exception {
+        Files.createDirectories(directory);
+        Path locationFile = directory.resolve(LOCATION_FILE);
+        if (!Files.exists(locationFile)) {
+            Files.writeString(locationFile, location + System.lineSeparator());
+        }
+        DbService dbService = new DbService(directory.toString());
+        dbService.setIdGenerator(root.getIdGenerator()); // one node per process, so ids stay unique across shards
+        dbService.setClock(root.getClock());
+        SnapshotStore.State snapshot = dbService.loadSnapshot(); // written once the caller enables snapshots
+        EquipmentService equipmentService = new EquipmentService(dbService, dbService.loadEquipment(snapshot), false);
+        ReservationService reservationService = new ReservationService(equipmentService, userService, dbService);
+        reservationService.restore(snapshot);
+        ReportService reportService = new ReportService(equipmentService, userService, reservationService);
+        ReservationLifecycle lifecycle = new ReservationLifecycle(reservationService);
+        String slug = directory.getFileName().toString();
+        ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY), r -> {
+            Thread t = new Thread(r, "shard-" + slug);
+            t.setDaemon(true);
+            return t;
+        });
+        return new LocationShard(location, dbService, equipmentService, reservationService, reportService, lifecycle, writer);
+    }
+
+    // The location a shard directory was created for
+    static String readLocation(Path directory) throws java.io.IOException {
+        return Files.readString(directory.resolve(LOCATION_FILE)).trim();
+    }
+
+    // "Lab B" -> "lab-b"
+    static String slug(String location) {
+        String slug = location.trim().toLowerCase().replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+        return slug.isEmpty() ? "unnamed" : slug;
+    }
+
+    // Runs a write on this shard's writer thread and waits for it; the task's own exception is rethrown.
+    // ServiceBusyException when the write was refused or withdrawn before it started.
+    public <T> T execute(Callable<T> task) throws Exception {
+        if (writer == null) {
+            return task.call();
+        }
+        Future<T> result;
+        try {
+            result = writer.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceBusyException(this + " is busy: " + WRITE_QUEUE_CAPACITY + " writes already queued, try again");
+        }
+        try {
+            try {
+                return result.get(WRITE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (result.cancel(false)) {
+                    throw new ServiceBusyException(this + " is busy: the write did not start within " + WRITE_WAIT_MILLIS + " ms, try again");
+                }
+                return result.get(); // already running: it will finish, and its outcome is the answer
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    // Writes queued on the writer thread and not yet started
+    public int getQueuedWrites() {
+        return writer == null ? 0 : writer.getQueue().size();
+    }
+
+    public String getLocation() { return location; }
+    public DbService getDbService() { return dbService; }
+    public EquipmentService getEquipmentService() { return equipmentService; }
+    public ReservationService getReservationService() { return reservationService; }
+    public ReportService getReportService() { return reportService; }
+    public ReservationLifecycle getLifecycle() { return lifecycle; }
+
+    boolean covers(String location) {
+        return this.location == null || this.location.equalsIgnoreCase(location.trim());
+    }
+
+    @Override
+    public String toString() {
+        return location == null ? "all locations" : location;
+    }
+}
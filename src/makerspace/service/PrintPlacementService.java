@@ -0,0 +1,159 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import makerspace.exceptions.*;
+import makerspace.utils.*;
+import java.util.*;
+import java.time.*;
+
+// Picks the printer and start time for a print job instead of the client choosing a machine.
+// Compatible printers go into a min-heap keyed by a lower bound on when each could start the
+// job (initially the job's earliest start). The top is popped and its real earliest start looked
+// up in the occupancy bitmaps; if that is later than the bound it goes back in with the real
+// value. The first printer popped with an exact value is the earliest finisher, so an idle fleet
+// costs one lookup and a busy one only evaluates printers that could still win.
+public class PrintPlacementService {
+    public static final String EARLIEST_FINISH = "EARLIEST_FINISH";
+    public static final String BALANCED = "BALANCED"; // least-loaded printer finishing within BALANCE_WINDOW_MINUTES of the earliest
+    private static final int HORIZON_DAYS = 14;
+    private static final int BALANCE_WINDOW_MINUTES = 60;
+    private static final int MAX_ATTEMPTS = 3; // re-placements when another booking takes the chosen slot first
+
+    private EquipmentService equipmentService;
+    private ReservationService reservationService;
+
+    public PrintPlacementService(EquipmentService equipmentService, ReservationService reservationService) {
+        this.equipmentService = equipmentService;
+        this.reservationService = reservationService;
+    }
+
+    private static final class Candidate {
+        final Printer3D printer;
+        final boolean preferred;
+        long start;    // epoch minute: lower bound until exact
+        boolean exact;
+        int load = -1; // booked slots over the horizon, filled in for BALANCED
+
+        Candidate(Printer3D printer, boolean preferred, long start) {
+            this.printer = printer;
+            this.preferred = preferred;
+            this.start = start;
+        }
+    }
+
+    // Earliest start first, then the preferred location, then a stable order
+    private static final Comparator<Candidate> BY_START = Comparator
+            .comparingLong((Candidate c) -> c.start)
+            .thenComparing(c -> !c.preferred)
+            .thenComparing(c -> c.printer.getEquipmentId());
+
+    // Books the job and returns the reservation id
+    public String placeJob(String clientId, PrintJob job, String policy) throws Exception {
+        return place(clientId, job, policy, groupByTech());
+    }
+
+    // Places a queue of jobs in order of earliest start; returns the reservation id for each job,
+    // or null where it could not be placed (the reason goes to stderr)
+    public List<String> placeJobs(String clientId, List<PrintJob> jobs, String policy) {
+        Map<String, List<Printer3D>> groups = groupByTech();
+        Integer[] order = new Integer[jobs.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> jobs.get(i).getEarliestStart(), Comparator.nullsFirst(Comparator.naturalOrder())));
+        String[] placed = new String[jobs.size()];
+        for (int i : order) {
+            try {
+                placed[i] = place(clientId, jobs.get(i), policy, groups);
+            } catch (Exception e) {
+                System.err.println("Could not place " + jobs.get(i) + ": " + e.getMessage());
+            }
+        }
+        return Arrays.asList(placed);
+    }
+
+    private String place(String clientId, PrintJob job, String policy, Map<String, List<Printer3D>> groups) throws Exception {
+        if (job.getHours() <= 0) {
+            throw new InvalidReservationException("Print job needs a duration of at least 1 hour");
+        }
+        EquipmentUnavailableException lastConflict = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Candidate chosen = choose(job, policy, groups);
+            if (chosen == null) {
+                throw new EquipmentUnavailableException("No compatible printer is free within " + HORIZON_DAYS + " days for " + job);
+            }
+            LocalDateTime start = DateTimeHandler.fromEpochMinute(chosen.start);
+            try {
+                return reservationService.createReservation(clientId, chosen.printer.getEquipmentId(),
+                        start, start.plusHours(job.getHours()));
+            } catch (EquipmentUnavailableException e) {
+                lastConflict = e; // someone booked it between the lookup and the claim; look again
+            }
+        }
+        throw lastConflict;
+    }
+
+    private Candidate choose(PrintJob job, String policy, Map<String, List<Printer3D>> groups)
+            throws EquipmentUnavailableException {
+        LocalDateTime now = LocalDateTime.now(reservationService.getClock());
+        LocalDateTime from = job.getEarliestStart() == null || job.getEarliestStart().isBefore(now) ? now : job.getEarliestStart();
+        from = DateTimeHandler.fromEpochMinute(SlotBitmap.slotAtOrAfter(DateTimeHandler.toEpochMinute(from)) * SlotBitmap.SLOT_MINUTES);
+        LocalDateTime to = from.plusDays(HORIZON_DAYS);
+        long bound = DateTimeHandler.toEpochMinute(from);
+
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(BY_START);
+        Collection<Printer3D> group = job.getPrintTech() == null
+                ? groups.values().stream().flatMap(List::stream).toList()
+                : groups.getOrDefault(job.getPrintTech().toUpperCase().trim(), List.of());
+        for (Printer3D printer : group) {
+            String status = printer.getStatus();
+            if (EquipmentStatusUtil.MAINTENANCE.equals(status) || EquipmentStatusUtil.DOWN.equals(status) || !job.isCompatible(printer)) {
+                continue;
+            }
+            boolean preferred = job.getPreferredLocation() != null && job.getPreferredLocation().equalsIgnoreCase(printer.getLocation());
+            heap.add(new Candidate(printer, preferred, bound));
+        }
+        if (heap.isEmpty()) {
+            throw new EquipmentUnavailableException("No printer in service is compatible with " + job);
+        }
+
+        Candidate best = null;
+        long earliestExact = -1;
+        while (!heap.isEmpty()) {
+            Candidate top = heap.poll();
+            if (best != null && top.start > earliestExact + BALANCE_WINDOW_MINUTES) {
+                break; // nothing left can finish early enough to matter
+            }
+            if (!top.exact) {
+                LocalDateTime start = equipmentService.findEarliestStart(top.printer.getEquipmentId(), job.getHours(),
+                        DateTimeHandler.fromEpochMinute(top.start), to);
+                if (start != null) {
+                    top.start = DateTimeHandler.toEpochMinute(start);
+                    top.exact = true;
+                    heap.add(top);
+                }
+                continue;
+            }
+            if (!BALANCED.equals(policy)) {
+                return top;
+            }
+            if (best == null) {
+                earliestExact = top.start;
+            }
+            top.load = equipmentService.countBookedSlots(top.printer.getEquipmentId(), from, to);
+            if (best == null || top.load < best.load) {
+                best = top;
+            }
+        }
+        return best;
+    }
+
+    // Printers by upper-cased technology
+    private Map<String, List<Printer3D>> groupByTech() {
+        Map<String, List<Printer3D>> groups = new HashMap<>();
+        for (Printer3D printer : equipmentService.get3DPrinters()) {
+            String tech = printer.getPrintTech() == null ? "" : printer.getPrintTech().toUpperCase().trim();
+            groups.computeIfAbsent(tech, t -> new ArrayList<>()).add(printer);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,399 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import makerspace.utils.DateTimeHandler;
+import java.time.LocalDateTime;
+
+// Hand-written codec for the pipe-delimited records in users.txt, equipment.txt, reservations.txt
+// and the journal. Parsing is one pass over the characters to find the fields (same field rules as
+// split("\\|"), trailing empty fields dropped); "yyyy-MM-dd HH:mm" goes straight to epoch minutes
+// and amounts to whole cents. Formatting appends into a reused StringBuilder.
+// Output is byte-for-byte what the String.format versions wrote. Anything off the canonical shape
+// (lenient dates, exponents, more decimals, amounts that round on a half cent) goes through the
+// JDK parser or formatter instead, so it comes out exactly as before.
+// Not thread-safe; local() hands out one instance per thread.
+public final class RecordCodec {
+    private static final int MAX_FIELDS = 16;
+    private static final double MAX_FAST_AMOUNT = 1e8; // below this, cents rounding of x * 100 is exact enough
+    private static final String[] STATUSES = { "PENDING", "APPROVED", "IN_PROGRESS", "COMPLETED", "CANCELLED" };
+    private static final String EQUIPMENT_V2 = "v2"; // marks the status field after an equipment record's fixed fields
+    private static final ThreadLocal<RecordCodec> PER_THREAD = ThreadLocal.withInitial(RecordCodec::new);
+
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fields;
+    private CharSequence text;
+    private int lineFrom;
+    private int lineTo;
+    private final StringBuilder out = new StringBuilder(128);
+    private final StringBuilder scratch = new StringBuilder(64);
+
+    public static RecordCodec local() {
+        return PER_THREAD.get();
+    }
+
+    // ---- Reservations: RESERVATION|id|clientId|equipmentId|start|end|status|cost|createdAt
+
+    public String formatReservation(Reservation reservation) {
+        out.setLength(0);
+        out.append("RESERVATION|").append(reservation.getReservationId())
+           .append('|').append(reservation.getClientId())
+           .append('|').append(reservation.getEquipmentId())
+           .append('|');
+        appendDateTime(reservation.getStartTime());
+        out.append('|');
+        appendDateTime(reservation.getEndTime());
+        out.append('|').append(reservation.getStatus()).append('|');
+        appendAmount(reservation.getCost());
+        out.append('|');
+        appendDateTime(reservation.getCreatedAt());
+        return out.toString();
+    }
+
+    public Reservation parseReservation(CharSequence text, int from, int to) {
+        split(text, from, to);
+        if (fields < 8 || !fieldEquals(0, "RESERVATION")) {
+            return null;
+        }
+        try {
+            if (fields < 9) {
+                throw new IllegalArgumentException("missing createdAt");
+            }
+            Reservation reservation = new Reservation(field(1), field(2), field(3), dateTime(4), dateTime(5), dateTime(8));
+            reservation.setStatus(status(6));
+            reservation.setCost(amount(7));
+            return reservation;
+        } catch (Exception e) {
+            System.err.println("Error parsing reservation: " + line());
+            return null;
+        }
+    }
+
+    // ---- Users: Admin|id|username|email|password|tier and Client|id|username|email|password|balance|Client
+
+    public String formatUser(User user) {
+        out.setLength(0);
+        if (user instanceof Admin) {
+            Admin admin = (Admin) user;
+            out.append("Admin|").append(admin.getUserId())
+               .append('|').append(admin.getUsername())
+               .append('|').append(admin.getEmail())
+               .append('|').append(admin.getPassword())
+               .append('|').append(admin.getAdminTier());
+        } else if (user instanceof Client) {
+            Client client = (Client) user;
+            out.append("Client|").append(client.getUserId())
+               .append('|').append(client.getUsername())
+               .append('|').append(client.getEmail())
+               .append('|').append(client.getPassword())
+               .append('|');
+            appendAmount(client.getAccountBalance());
+            out.append('|').append(client.getUserType());
+        }
+        return out.toString();
+    }
+
+    public User parseUser(CharSequence text, int from, int to) {
+        split(text, from, to);
+        if (fields < 5) {
+            return null;
+        }
+        if (fields >= 6 && fieldEquals(0, "Client")) {
+            Client client = new Client(field(1), field(2), field(3), field(4));
+            try {
+                client.updateAccountBalance(amount(5));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid Account Balance Format For Client " + client.getUsername() + ": " + field(5));
+            }
+            if (fields >= 7) {
+                client.setUserLevel(field(6));
+            }
+            return client;
+        } else if (fieldEquals(0, "Admin")) {
+            return new Admin(field(1), field(2), field(3), field(4), field(fields > 5 ? 5 : 4));
+        }
+        return null;
+    }
+
+    // ---- Equipment: 3D_PRINTER|id|name|hourCost|location|printTech|printVolume|v2|status|printMaterial
+    //                 EQUIPMENT|id|name|equipmentType|hourCost|location|v2|status
+    // Lines written before status was stored end after location/printVolume and load AVAILABLE;
+    // a printer line without printMaterial keeps its technology's default materials. printMaterial
+    // is the rest of the line, so it may hold '|'.
+
+    public String formatEquipment(Equipment equipment) {
+        out.setLength(0);
+        if (equipment instanceof Printer3D) {
+            Printer3D printer = (Printer3D) equipment;
+            out.append("3D_PRINTER|").append(printer.getEquipmentId())
+               .append('|').append(printer.getName())
+               .append('|');
+            appendAmount(printer.getHourCost());
+            out.append('|').append(printer.getLocation())
+               .append('|').append(printer.getPrintTech())
+               .append('|').append(printer.getPrintVolume())
+               .append('|').append(EQUIPMENT_V2).append('|').append(printer.getStatus());
+            if (printer.getPrintMaterial() != null) {
+                out.append('|').append(printer.getPrintMaterial());
+            }
+        } else {
+            out.append("EQUIPMENT|").append(equipment.getEquipmentId())
+               .append('|').append(equipment.getName())
+               .append('|').append(equipment.getEquipmentType())
+               .append('|');
+            appendAmount(equipment.getHourCost());
+            out.append('|').append(equipment.getLocation())
+               .append('|').append(EQUIPMENT_V2).append('|').append(equipment.getStatus());
+        }
+        return out.toString();
+    }
+
+    public Equipment parseEquipment(CharSequence text, int from, int to) {
+        split(text, from, to);
+        if (fields < 5) {
+            System.err.println("Invalid equipment line format: " + line());
+            return null;
+        }
+        try {
+            if (fields >= 6 && fieldEquals(0, "3D_PRINTER")) {
+                return withStatus(new Printer3D(field(1), field(2), amount(3), field(4), field(5), fields > 6 ? field(6) : "Unknown"), 7);
+            } else if (fieldEquals(0, "EQUIPMENT")) {
+                if (fields < 6) {
+                    throw new IllegalArgumentException("missing location");
+                }
+                return withStatus(new Equipment(field(1), field(2), field(3), amount(4), field(5)), 6);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error parsing equipment cost: " + line());
+        } catch (Exception e) {
+            System.err.println("Error parsing equipment line: " + line() + " - " + e.getMessage());
+        }
+        return null;
+    }
+
+    // The v2 tail at field `at`, if the line has one
+    private Equipment withStatus(Equipment equipment, int at) {
+        if (fields > at + 1 && fieldEquals(at, EQUIPMENT_V2)) {
+            equipment.setStatus(field(at + 1));
+            if (equipment instanceof Printer3D && fields > at + 2) {
+                ((Printer3D) equipment).setPrintMaterial(text.subSequence(fieldStart[at + 2], lineTo).toString());
+            }
+        }
+        return equipment;
+    }
+
+    // ---- Tokenizing
+
+    private void split(CharSequence text, int from, int to) {
+        this.text = text;
+        this.lineFrom = from;
+        this.lineTo = to;
+        int count = 0;
+        int nonEmpty = 0; // fields up to and including the last non-empty one
+        int start = from;
+        boolean separated = false;
+        for (int i = from; i <= to; i++) {
+            if (i == to || text.charAt(i) == '|') {
+                if (count < MAX_FIELDS) {
+                    fieldStart[count] = start;
+                    fieldEnd[count] = i;
+                }
+                count++;
+                if (i > start) {
+                    nonEmpty = count;
+                }
+                separated |= i < to;
+                start = i + 1;
+            }
+        }
+        // split() keeps a lone empty field when there is no separator at all
+        fields = separated ? nonEmpty : 1;
+    }
+
+    private String field(int i) {
+        if (i >= MAX_FIELDS) {
+            throw new IllegalArgumentException("Field " + i + " out of range");
+        }
+        if (text instanceof String) {
+            return ((String) text).substring(fieldStart[i], fieldEnd[i]);
+        }
+        scratch.setLength(0);
+        scratch.append(text, fieldStart[i], fieldEnd[i]);
+        return scratch.toString();
+    }
+
+    private boolean fieldEquals(int i, String expected) {
+        int length = fieldEnd[i] - fieldStart[i];
+        if (length != expected.length()) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (text.charAt(fieldStart[i] + k) != expected.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Known statuses share one String instance instead of one copy per line
+    private String status(int i) {
+        for (String status : STATUSES) {
+            if (fieldEquals(i, status)) {
+                return status;
+            }
+        }
+        return field(i);
+    }
+
+    private String line() {
+        scratch.setLength(0);
+        scratch.append(text, lineFrom, lineTo);
+        return scratch.toString();
+    }
+
+    // ---- Dates: "yyyy-MM-dd HH:mm" straight to epoch minutes
+
+    private LocalDateTime dateTime(int i) {
+        long minute = epochMinute(text, fieldStart[i], fieldEnd[i]);
+        if (minute == Long.MIN_VALUE) {
+            return LocalDateTime.parse(field(i), DateTimeHandler.formatter); // the formatter's lenient cases
+        }
+        return DateTimeHandler.fromEpochMinute(minute);
+    }
+
+    // Long.MIN_VALUE unless the text is exactly a valid "yyyy-MM-dd HH:mm" with year 1..9999
+    static long epochMinute(CharSequence s, int from, int to) {
+        if (to - from != 16 || s.charAt(from + 4) != '-' || s.charAt(from + 7) != '-'
+                || s.charAt(from + 10) != ' ' || s.charAt(from + 13) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = digits(s, from, 4);
+        int month = digits(s, from + 5, 2);
+        int day = digits(s, from + 8, 2);
+        int hour = digits(s, from + 11, 2);
+        int minute = digits(s, from + 14, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return Long.MIN_VALUE;
+        }
+        return (epochDay(year, month, day) * 24 + hour) * 60 + minute;
+    }
+
+    private static int digits(CharSequence s, int from, int count) {
+        int value = 0;
+        for (int k = 0; k < count; k++) {
+            int d = s.charAt(from + k) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    // Days since 1970-01-01 for a proleptic Gregorian date (civil-from-days inverse)
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400; // year >= 1, so no negative eras
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private void appendDateTime(LocalDateTime t) {
+        int year = t.getYear();
+        if (year < 0 || year > 9999) {
+            out.append(t.format(DateTimeHandler.formatter));
+            return;
+        }
+        pad(year, 4);
+        out.append('-');
+        pad(t.getMonthValue(), 2);
+        out.append('-');
+        pad(t.getDayOfMonth(), 2);
+        out.append(' ');
+        pad(t.getHour(), 2);
+        out.append(':');
+        pad(t.getMinute(), 2);
+    }
+
+    private void pad(int value, int width) {
+        for (int divisor = width == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    // ---- Money: "12.34" as whole cents
+
+    private double amount(int i) {
+        long cents = cents(text, fieldStart[i], fieldEnd[i]);
+        if (cents == Long.MIN_VALUE) {
+            return Double.parseDouble(field(i));
+        }
+        // cents / 100.0 is the correctly rounded double of the decimal, i.e. what parseDouble returns
+        boolean negative = text.charAt(fieldStart[i]) == '-';
+        double value = Math.abs(cents) / 100.0;
+        return negative ? -value : value;
+    }
+
+    // Long.MIN_VALUE unless the text is [-]digits[.d[d]] with at most 15 digits in all
+    static long cents(CharSequence s, int from, int to) {
+        int i = from;
+        boolean negative = i < to && s.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long units = 0;
+        int digitCount = 0;
+        while (i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            units = units * 10 + (s.charAt(i++) - '0');
+            digitCount++;
+        }
+        if (digitCount == 0) {
+            return Long.MIN_VALUE;
+        }
+        long fraction = 0;
+        if (i < to && s.charAt(i) == '.') {
+            i++;
+            int decimals = 0;
+            while (i < to && decimals < 3 && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                fraction = fraction * 10 + (s.charAt(i++) - '0');
+                decimals++;
+            }
+            if (decimals > 2) {
+                return Long.MIN_VALUE;
+            }
+            digitCount += decimals;
+            fraction *= decimals == 0 ? 100 : decimals == 1 ? 10 : 1;
+        }
+        if (i != to || digitCount > 15) {
+            return Long.MIN_VALUE;
+        }
+        long cents = units * 100 + fraction;
+        return negative ? -cents : cents;
+    }
+
+    // Same text as String.format("%.2f"), which rounds half-up on the shortest decimal form of the double.
+    // x * 100 gives the same answer unless it lands within float error of a half cent; those go to format().
+    private void appendAmount(double x) {
+        if (x >= 0 && x < MAX_FAST_AMOUNT) {
+            double scaled = x * 100;
+            double whole = Math.floor(scaled);
+            double rest = scaled - whole;
+            if (Math.abs(rest - 0.5) > 1e-4) {
+                long cents = (long) whole + (rest > 0.5 ? 1 : 0);
+                out.append(cents / 100).append('.');
+                out.append((char) ('0' + cents / 10 % 10)).append((char) ('0' + cents % 10));
+                return;
+            }
+        }
+        out.append(String.format("%.2f", x));
+    }
+}
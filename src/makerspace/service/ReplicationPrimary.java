@@ -0,0 +1,202 @@
+package makerspace.service;
+import makerspace.utils.Metrics;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Ships every record the journal commits to standby processes over loopback TCP (log shipping;
+// ReplicationStandby is the other end). One line per message, UTF-8:
+//
+//   standby -> primary   HELLO|epoch|seq            last position applied (0|0 for none)
+//                        ACK|seq                    applied up to seq
+//   primary -> standby   IMAGE|epoch|seq            a full image follows: I|kind|line ...
+//                        CATCHUP|epoch|seq          the missed records follow as R lines
+//                        READY|epoch|seq            start phase done, live records follow
+//                        R|seq|millis|op|kind|payload   one journal record, committed at millis
+//                        HB|seq|millis              heartbeat, every HEARTBEAT_MILLIS
+//
+// Shipping is asynchronous: a booking is confirmed once it is in the primary's journal, and a
+// standby trails by the records in flight. A standby too slow to keep up with its queue is
+// disconnected; it reconnects and catches up from the journal, or from a fresh image.
+public class ReplicationPrimary {
+    static final long HEARTBEAT_MILLIS = 200;
+    static final int QUEUE_CAPACITY = 65_536; // records buffered per standby before it is dropped
+
+    private final DbService dbService;
+    private final int port;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public ReplicationPrimary(DbService dbService, int port) {
+        this.dbService = dbService;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Metrics.gauge("replication.standbys", sessions::size);
+        Metrics.gauge("replication.unackedRecords", this::getUnackedRecords);
+        System.out.println("Replication: shipping the journal on port " + getPort());
+    }
+
+    public int getPort() { return serverSocket.getLocalPort(); }
+
+    public int getStandbyCount() { return sessions.size(); }
+
+    // Records shipped to the slowest standby that it has not acknowledged applying yet
+    public long getUnackedRecords() {
+        long lag = 0;
+        for (Session session : sessions) {
+            lag = Math.max(lag, session.shippedSeq - session.ackedSeq);
+        }
+        return lag;
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(socket);
+                Thread sender = new Thread(session::run, "replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // One connected standby: its queue is filled by the journal writer and drained by its own thread
+    private final class Session implements Journal.Tap {
+        private final Socket socket;
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile boolean overflowed;
+        private volatile long shippedSeq;
+        private volatile long ackedSeq;
+
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void written(long seq, String op, String kind, String payload) {
+            shippedSeq = seq;
+            if (!overflowed && !queue.offer("R|" + seq + '|' + System.currentTimeMillis() + '|' + op + '|' + kind + '|' + payload)) {
+                overflowed = true; // the sender notices and disconnects; the standby catches up on reconnect
+            }
+        }
+
+        void run() {
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024)) {
+                String[] hello = String.valueOf(in.readLine()).split("\\|");
+                if (hello.length != 3 || !"HELLO".equals(hello[0])) {
+                    System.err.println("Replication: unexpected greeting from " + s.getRemoteSocketAddress());
+                    return;
+                }
+                Journal.Cut cut = dbService.startReplication(Long.parseLong(hello[1]), Long.parseLong(hello[2]), this);
+                sessions.add(this);
+                shippedSeq = Math.max(shippedSeq, cut.seq);
+                ackedSeq = cut.image ? 0 : Long.parseLong(hello[2]);
+                startAckReader(in);
+                System.out.println("Replication: standby " + s.getRemoteSocketAddress() + " attached, "
+                        + (cut.image ? "image of " : "catching up ") + cut.records.size() + " records");
+
+                out.write((cut.image ? "IMAGE|" : "CATCHUP|") + cut.epoch + '|' + cut.seq + '\n');
+                for (String[] record : cut.records) {
+                    if (cut.image) {
+                        out.write("I|" + record[2] + '|' + record[3] + '\n');
+                    } else {
+                        out.write("R|" + record[0] + "|0|" + record[1] + '|' + record[2] + '|' + record[3] + '\n');
+                    }
+                }
+                out.write("READY|" + cut.epoch + '|' + cut.seq + '\n');
+                out.flush();
+
+                List<String> batch = new ArrayList<>();
+                long lastHeartbeat = 0;
+                while (running && !overflowed) {
+                    String line = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (line != null) {
+                        batch.add(line);
+                        queue.drainTo(batch);
+                        for (String record : batch) {
+                            out.write(record);
+                            out.write('\n');
+                        }
+                        Metrics.counter("replication.shippedRecords").add(batch.size());
+                        batch.clear();
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastHeartbeat >= HEARTBEAT_MILLIS) {
+                        out.write("HB|" + shippedSeq + '|' + now + '\n');
+                        lastHeartbeat = now;
+                    }
+                    out.flush();
+                }
+                if (overflowed) {
+                    System.err.println("Replication: standby " + s.getRemoteSocketAddress() + " fell " + QUEUE_CAPACITY
+                            + " records behind, disconnecting it");
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    System.err.println("Replication: standby " + socket.getRemoteSocketAddress() + " lost: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                dbService.stopReplication(this);
+                sessions.remove(this);
+            }
+        }
+
+        private void startAckReader(BufferedReader in) {
+            Thread reader = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("ACK|")) {
+                            ackedSeq = Long.parseLong(line.substring(4));
+                        }
+                    }
+                } catch (IOException | NumberFormatException e) {
+                    // the sender sees the broken connection too
+                }
+                close();
+            }, "replication-acks");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import makerspace.utils.Metrics;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+// The receiving end of ReplicationPrimary's log shipping. Keeps its own UserService,
+// EquipmentService and ReservationService in step with the primary's journal, record by record,
+// so reads can be served from here at any time, and journals every record into its own data
+// directory as it was written on the primary, so a promoted standby restarts from its own files.
+//
+// Until promote() nothing but the stream may change the services: callers serve reads only.
+// With promoteAfterMillis > 0 the standby promotes itself once the primary has been silent that
+// long (heartbeats come every ReplicationPrimary.HEARTBEAT_MILLIS).
+public class ReplicationStandby {
+    private static final long RECONNECT_MILLIS = 250;
+    private static final Metrics.Timer LAG = Metrics.timer("replication.lag"); // primary commit -> applied here
+
+    private final DbService dbService;
+    private final String host;
+    private final int port;
+    private final long promoteAfterMillis;
+    private final UserService userService;
+    private final EquipmentService equipmentService;
+    private final ReservationService reservationService;
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final List<Runnable> promotionListeners = new CopyOnWriteArrayList<>();
+    private volatile Socket socket;
+    private volatile boolean promoted;
+    private volatile long epoch;
+    private volatile long appliedSeq;
+    private volatile long primarySeq;
+    private volatile long lagMillis;
+    private volatile long lastHeardMillis = System.currentTimeMillis();
+
+    // Starts from whatever an earlier run left in dbService's directory (never seeding defaults)
+    public ReplicationStandby(DbService dbService, String host, int port, long promoteAfterMillis) {
+        this.dbService = dbService;
+        this.host = host;
+        this.port = port;
+        this.promoteAfterMillis = promoteAfterMillis;
+        SnapshotStore.State snapshot = dbService.loadSnapshot(); // from an earlier run's checkpoints, if any
+        this.userService = new UserService(dbService, dbService.loadUsers(snapshot));
+        this.equipmentService = new EquipmentService(dbService, dbService.loadEquipment(snapshot), false);
+        this.reservationService = new ReservationService(equipmentService, userService, dbService);
+        reservationService.restore(snapshot);
+    }
+
+    public void start() {
+        Metrics.gauge("replication.appliedSeq", () -> appliedSeq);
+        Metrics.gauge("replication.lagRecords", this::getLagRecords);
+        Metrics.gauge("replication.lagMillis", this::getLagMillis);
+        Thread receiver = new Thread(this::receiveLoop, "replication-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        if (promoteAfterMillis > 0) {
+            Thread watchdog = new Thread(this::watchPrimary, "replication-watchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
+    }
+
+    // True once the first image or catch-up has been applied
+    public boolean awaitReady(long timeoutMillis) throws InterruptedException {
+        return ready.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public UserService getUserService() { return userService; }
+    public EquipmentService getEquipmentService() { return equipmentService; }
+    public ReservationService getReservationService() { return reservationService; }
+    public DbService getDbService() { return dbService; }
+    public boolean isPromoted() { return promoted; }
+    public long getAppliedSeq() { return appliedSeq; }
+
+    // Records the primary has committed that are not applied here yet, as of its last message
+    public long getLagRecords() { return Math.max(0, primarySeq - appliedSeq); }
+
+    // How long ago the newest unapplied record was committed on the primary; 0 when caught up
+    public long getLagMillis() { return getLagRecords() == 0 ? 0 : lagMillis; }
+
+    // Commit on the primary to applied here, for the last record shipped live
+    public long getLastRecordLagMillis() { return lagMillis; }
+
+    // Runs on promotion, on the promoting thread: start lifecycles, accept writes, ...
+    public void onPromotion(Runnable listener) {
+        promotionListeners.add(listener);
+    }
+
+    // Stops following the primary; from here on this process owns its data
+    public void promote() {
+        synchronized (this) {
+            if (promoted) {
+                return;
+            }
+            promoted = true;
+        }
+        closeSocket();
+        dbService.flush().join();
+        System.out.println("Replication: promoted at seq " + appliedSeq + " of the primary's journal");
+        for (Runnable listener : promotionListeners) {
+            listener.run();
+        }
+    }
+
+    private void watchPrimary() {
+        while (!promoted) {
+            try {
+                Thread.sleep(Math.max(10, promoteAfterMillis / 10));
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (ready.getCount() == 0 && System.currentTimeMillis() - lastHeardMillis > promoteAfterMillis) {
+                System.out.println("Replication: primary silent for " + promoteAfterMillis + " ms");
+                promote();
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        while (!promoted) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(host, port), 1000);
+                s.setTcpNoDelay(true);
+                socket = s;
+                if (promoted) {
+                    return;
+                }
+                follow(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8), 64 * 1024),
+                        new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)));
+            } catch (IOException | RuntimeException e) {
+                if (!promoted && ready.getCount() == 0) {
+                    System.err.println("Replication: lost the primary (" + e.getMessage() + "), reconnecting");
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(BufferedReader in, Writer out) throws IOException {
+        out.write("HELLO|" + epoch + '|' + appliedSeq + '\n');
+        out.flush();
+        Map<String, List<String>> image = null;
+        String line;
+        while (!promoted && (line = in.readLine()) != null) {
+            lastHeardMillis = System.currentTimeMillis();
+            if (line.startsWith("R|")) {
+                String[] record = line.split("\\|", 6);
+                long seq = Long.parseLong(record[1]);
+                apply(record[3], record[4], record[5]);
+                dbService.appendReplicated(record[3], record[4], record[5]);
+                appliedSeq = seq;
+                long committed = Long.parseLong(record[2]);
+                if (committed > 0) {
+                    lagMillis = Math.max(0, lastHeardMillis - committed);
+                    LAG.stop(System.nanoTime() - lagMillis * 1_000_000); // records the lag as the timer's latency
+                }
+                primarySeq = Math.max(primarySeq, seq);
+            } else if (line.startsWith("I|")) {
+                int split = line.indexOf('|', 2);
+                image.computeIfAbsent(line.substring(2, split), kind -> new ArrayList<>()).add(line.substring(split + 1));
+            } else if (line.startsWith("HB|")) {
+                String[] heartbeat = line.split("\\|");
+                primarySeq = Long.parseLong(heartbeat[1]);
+                out.write("ACK|" + appliedSeq + '\n');
+                out.flush();
+            } else if (line.startsWith("IMAGE|")) {
+                image = new HashMap<>();
+            } else if (line.startsWith("CATCHUP|")) {
+                image = null;
+            } else if (line.startsWith("READY|")) {
+                String[] position = line.split("\\|");
+                if (image != null) {
+                    applyImage(image);
+                    image = null;
+                }
+                epoch = Long.parseLong(position[1]);
+                appliedSeq = Long.parseLong(position[2]);
+                primarySeq = appliedSeq;
+                if (ready.getCount() > 0) {
+                    System.out.println("Replication: following the primary from seq " + appliedSeq);
+                    ready.countDown();
+                }
+            }
+        }
+    }
+
+    // One record in the primary's journal format
+    private void apply(String op, String kind, String payload) {
+        if (Journal.DEL.equals(op)) {
+            switch (kind) {
+                case Journal.USER:
+                    userService.applyReplicatedDelete(payload);
+                    break;
+                case Journal.EQUIPMENT:
+                    equipmentService.applyReplicatedDelete(payload);
+                    break;
+                case Journal.RESERVATION:
+                    reservationService.applyReplicatedDelete(payload);
+                    break;
+                default:
+                    System.err.println("Replication: unknown record kind " + kind);
+            }
+            return;
+        }
+        switch (kind) {
+            case Journal.USER:
+                User user = DbService.stringToUser(payload);
+                if (user != null) {
+                    userService.applyReplicated(user);
+                }
+                break;
+            case Journal.EQUIPMENT:
+                Equipment equipment = DbService.stringToEquipment(payload);
+                if (equipment != null) {
+                    equipmentService.applyReplicated(equipment);
+                }
+                break;
+            case Journal.RESERVATION:
+                Reservation reservation = DbService.stringToReservation(payload);
+                if (reservation != null) {
+                    reservationService.applyReplicated(reservation);
+                }
+                break;
+            default:
+                System.err.println("Replication: unknown record kind " + kind);
+        }
+    }
+
+    // A full image replaces what is here: every record is upserted and journaled, users, machines
+    // and reservations the primary no longer has are deleted, and new reservations are restored
+    // in one batch
+    private void applyImage(Map<String, List<String>> image) {
+        Set<String> userIds = new HashSet<>();
+        for (String line : image.getOrDefault(Journal.USER, List.of())) {
+            User user = DbService.stringToUser(line);
+            if (user != null) {
+                userIds.add(user.getUserId());
+                userService.applyReplicated(user);
+                dbService.appendReplicated(Journal.PUT, Journal.USER, line);
+            }
+        }
+        for (User user : userService.getAllUsers()) {
+            if (!userIds.contains(user.getUserId())) {
+                userService.applyReplicatedDelete(user.getUserId());
+                dbService.appendReplicated(Journal.DEL, Journal.USER, user.getUserId());
+            }
+        }
+        Set<String> equipmentIds = new HashSet<>();
+        for (String line : image.getOrDefault(Journal.EQUIPMENT, List.of())) {
+            Equipment equipment = DbService.stringToEquipment(line);
+            if (equipment != null) {
+                equipmentIds.add(equipment.getEquipmentId());
+                equipmentService.applyReplicated(equipment);
+                dbService.appendReplicated(Journal.PUT, Journal.EQUIPMENT, line);
+            }
+        }
+        for (Equipment equipment : equipmentService.getAllEquipment()) {
+            if (!equipmentIds.contains(equipment.getEquipmentId())) {
+                equipmentService.applyReplicatedDelete(equipment.getEquipmentId());
+                dbService.appendReplicated(Journal.DEL, Journal.EQUIPMENT, equipment.getEquipmentId());
+            }
+        }
+        Set<String> reservationIds = new HashSet<>();
+        List<Reservation> fresh = new ArrayList<>();
+        for (String line : image.getOrDefault(Journal.RESERVATION, List.of())) {
+            Reservation reservation = DbService.stringToReservation(line);
+            if (reservation == null) {
+                continue;
+            }
+            reservationIds.add(reservation.getReservationId());
+            if (reservationService.containsReservation(reservation.getReservationId())) {
+                reservationService.applyReplicated(reservation);
+            } else {
+                fresh.add(reservation);
+            }
+            dbService.appendReplicated(Journal.PUT, Journal.RESERVATION, line);
+        }
+        for (Reservation reservation : reservationService.getAllReservations()) {
+            if (!reservationIds.contains(reservation.getReservationId())) {
+                reservationService.applyReplicatedDelete(reservation.getReservationId());
+                dbService.appendReplicated(Journal.DEL, Journal.RESERVATION, reservation.getReservationId());
+            }
+        }
+        reservationService.restore(fresh);
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
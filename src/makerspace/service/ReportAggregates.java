@@ -0,0 +1,92 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Running report totals fed by reservation transitions, so reports never rescan history.
+// Money is kept in cents. "Booked" figures leave out cancelled reservations.
+public class ReportAggregates implements ReservationListener {
+    private static final String CANCELLED = "CANCELLED";
+
+    static final class Totals {
+        final LongAdder reservations = new LongAdder(); // every reservation on record, any status
+        final LongAdder bookedMinutes = new LongAdder();
+        final LongAdder bookedCents = new LongAdder();
+    }
+
+    private final Map<String, Totals> byEquipment = new ConcurrentHashMap<>();
+    private final Map<String, Totals> byClient = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> countByStatus = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> centsByStatus = new ConcurrentHashMap<>();
+
+    @Override
+    public void onTransition(Reservation reservation, String oldStatus, String newStatus) {
+        long cents = Math.round(reservation.getCost() * 100);
+        long minutes = java.time.Duration.between(reservation.getStartTime(), reservation.getEndTime()).toMinutes();
+        Totals equipment = byEquipment.computeIfAbsent(reservation.getEquipmentId(), id -> new Totals());
+        Totals client = byClient.computeIfAbsent(reservation.getClientId(), id -> new Totals());
+
+        if (oldStatus == null) {
+            equipment.reservations.increment();
+            client.reservations.increment();
+        } else {
+            adder(countByStatus, oldStatus).decrement();
+            adder(centsByStatus, oldStatus).add(-cents);
+        }
+        if (newStatus == null) {
+            equipment.reservations.decrement();
+            client.reservations.decrement();
+        } else {
+            adder(countByStatus, newStatus).increment();
+            adder(centsByStatus, newStatus).add(cents);
+        }
+
+        // +1 when the reservation starts counting as booked, -1 when it stops
+        int booked = (newStatus == null || CANCELLED.equals(newStatus) ? 0 : 1) - (oldStatus == null || CANCELLED.equals(oldStatus) ? 0 : 1);
+        if (booked != 0) {
+            equipment.bookedMinutes.add(booked * minutes);
+            equipment.bookedCents.add(booked * cents);
+            client.bookedMinutes.add(booked * minutes);
+            client.bookedCents.add(booked * cents);
+        }
+    }
+
+    public long getEquipmentReservations(String equipmentId) {
+        Totals totals = byEquipment.get(equipmentId);
+        return totals == null ? 0 : totals.reservations.sum();
+    }
+
+    public double getEquipmentBookedHours(String equipmentId) {
+        Totals totals = byEquipment.get(equipmentId);
+        return totals == null ? 0 : totals.bookedMinutes.sum() / 60.0;
+    }
+
+    public long getClientReservations(String clientId) {
+        Totals totals = byClient.get(clientId);
+        return totals == null ? 0 : totals.reservations.sum();
+    }
+
+    public double getClientSpend(String clientId) {
+        Totals totals = byClient.get(clientId);
+        return totals == null ? 0 : totals.bookedCents.sum() / 100.0;
+    }
+
+    public long getCountByStatus(String status) {
+        LongAdder count = countByStatus.get(status);
+        return count == null ? 0 : count.sum();
+    }
+
+    public double getAmountByStatus(String status) {
+        LongAdder cents = centsByStatus.get(status);
+        return cents == null ? 0 : cents.sum() / 100.0;
+    }
+
+    public Set<String> getStatuses() {
+        return new TreeSet<>(countByStatus.keySet());
+    }
+
+    private static LongAdder adder(Map<String, LongAdder> map, String key) {
+        return map.computeIfAbsent(key, k -> new LongAdder());
+    }
+}
@@ -0,0 +1,108 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.util.*;
+import java.time.LocalDate;
+
+// Admin report figures, shared by the console menus and the HTTP API
+public class ReportService {
+    private EquipmentService equipmentService;
+    private UserService userService;
+    private ReportAggregates aggregates;
+    private RollupCube rollup;
+    
+    // Subscribes to reservation transitions; every report below is O(equipment) or O(clients)
+    public ReportService(EquipmentService equipmentService, UserService userService, ReservationService reservationService) {
+        this.equipmentService = equipmentService;
+        this.userService = userService;
+        this.aggregates = new ReportAggregates();
+        reservationService.addReservationListener(aggregates);
+        this.rollup = new RollupCube(equipmentService, reservationService::getClock);
+        reservationService.addReservationListener(rollup);
+    }
+    
+    // Reservation count per equipment
+    public Map<Equipment, Long> getEquipmentUsage() {
+        Map<Equipment, Long> usage = new LinkedHashMap<>();
+        for (Equipment eq : equipmentService.getAllEquipment()) {
+            usage.put(eq, aggregates.getEquipmentReservations(eq.getEquipmentId()));
+        }
+        return usage;
+    }
+    
+    // Hours booked per equipment, cancelled reservations excluded
+    public Map<Equipment, Double> getEquipmentBookedHours() {
+        Map<Equipment, Double> hours = new LinkedHashMap<>();
+        for (Equipment eq : equipmentService.getAllEquipment()) {
+            hours.put(eq, aggregates.getEquipmentBookedHours(eq.getEquipmentId()));
+        }
+        return hours;
+    }
+    
+    public double getTotalRevenue() {
+        return aggregates.getAmountByStatus("COMPLETED");
+    }
+    
+    public long getCompletedReservationCount() {
+        return aggregates.getCountByStatus("COMPLETED");
+    }
+    
+    // Reservation value per status (PENDING, APPROVED, CANCELLED, ...)
+    public Map<String, Double> getRevenueByStatus() {
+        Map<String, Double> revenue = new LinkedHashMap<>();
+        for (String status : aggregates.getStatuses()) {
+            revenue.put(status, aggregates.getAmountByStatus(status));
+        }
+        return revenue;
+    }
+    
+    public long getReservationCountByStatus(String status) {
+        return aggregates.getCountByStatus(status);
+    }
+    
+    // Reservation count per client
+    public Map<Client, Integer> getUserActivity() {
+        Map<Client, Integer> activity = new LinkedHashMap<>();
+        for (Client client : userService.getAllClients()) {
+            activity.put(client, (int) aggregates.getClientReservations(client.getUserId()));
+        }
+        return activity;
+    }
+    
+    // Amount spent per client on reservations that were not cancelled
+    public Map<Client, Double> getClientSpend() {
+        Map<Client, Double> spend = new LinkedHashMap<>();
+        for (Client client : userService.getAllClients()) {
+            spend.put(client, aggregates.getClientSpend(client.getUserId()));
+        }
+        return spend;
+    }
+    
+    // Completed revenue per DAY/WEEK/MONTH bucket in [from, to) for one RollupCube dimension
+    // (ALL, EQUIPMENT, TYPE, LOCATION) and key, e.g. (TYPE, "3D_PRINTER")
+    public Map<LocalDate, Double> getRevenueSeries(String dimension, String key, LocalDate from, LocalDate to, String granularity) {
+        Map<LocalDate, Double> revenue = new LinkedHashMap<>();
+        rollup.series(RollupCube.REVENUE_CENTS, dimension, key, from, to, granularity)
+              .forEach((bucket, cents) -> revenue.put(bucket, cents / 100.0));
+        return revenue;
+    }
+    
+    // Booked share of available machine-hours per bucket, 0..1
+    public Map<LocalDate, Double> getUtilizationSeries(String dimension, String key, LocalDate from, LocalDate to, String granularity) {
+        Map<LocalDate, Double> utilization = new LinkedHashMap<>();
+        for (LocalDate bucket = RollupCube.bucketStart(from, granularity); bucket.isBefore(to); ) {
+            LocalDate next = RollupCube.nextBucket(bucket, granularity);
+            utilization.put(bucket, rollup.utilization(dimension, key, bucket.isBefore(from) ? from : bucket, next.isAfter(to) ? to : next));
+            bucket = next;
+        }
+        return utilization;
+    }
+    
+    // How many machines getUtilizationSeries divides by, so shards' series can be weighted together
+    public long getMachineCount(String dimension, String key) {
+        return rollup.machines(dimension, key);
+    }
+    
+    public double getRevenue(String dimension, String key, LocalDate from, LocalDate to) {
+        return rollup.sum(RollupCube.REVENUE_CENTS, dimension, key, from, to) / 100.0;
+    }
+}
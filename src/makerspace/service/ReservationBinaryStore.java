@@ -0,0 +1,227 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import makerspace.utils.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Fixed-width binary reservation file, memory-mapped so reads come straight out of the page cache.
+//
+// Header (16 bytes): magic, version, record count, record size
+// Record (32 bytes): reservationId, clientId, equipmentId (interned ints), start/end/created (epoch minutes),
+//                    cost in cents, status byte, 3 bytes padding
+// IDs live in a sidecar dictionary file, one per line, line number == code.
+//
+// Only tools/ConvertReservations writes this file, for offline analysis; the running services keep
+// persisting through DbService's text files, journal and snapshots.
+public class ReservationBinaryStore implements Closeable {
+    private static final int MAGIC = 0x4D4B5253; // "MKRS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 32;
+    private static final int INITIAL_CAPACITY = 1024; // records
+    // A MappedByteBuffer addresses at most Integer.MAX_VALUE bytes: about 67M records
+    static final int MAX_RECORDS = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    private static final int OFF_RESERVATION = 0;
+    private static final int OFF_CLIENT = 4;
+    private static final int OFF_EQUIPMENT = 8;
+    private static final int OFF_START = 12;
+    private static final int OFF_END = 16;
+    private static final int OFF_CREATED = 20;
+    private static final int OFF_COST = 24;
+    private static final int OFF_STATUS = 28;
+
+    // Persisted codes: append new statuses, never reorder
+    private static final String[] STATUSES = { "PENDING", "APPROVED", "CANCELLED", "IN_PROGRESS", "COMPLETED", "NO_SHOW" };
+
+    private final FileChannel channel;
+    private final Path idsFile;
+    private final IdDictionary ids;
+    private Writer idsWriter;
+    private MappedByteBuffer buffer;
+    private int count;
+    private int capacity;
+    private int[] recordByReservation; // dictionary code -> record number, -1 if not a reservation id
+
+    public ReservationBinaryStore(Path dataFile) throws IOException {
+        this.idsFile = Paths.get(dataFile.toString() + ".ids");
+        this.ids = IdDictionary.load(idsFile);
+        this.channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (channel.size() < HEADER_SIZE) {
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, 0);
+            buffer.putInt(12, RECORD_SIZE);
+        } else {
+            map((int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE));
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != RECORD_SIZE) {
+                channel.close();
+                throw new IOException("Not a reservation store (or unsupported version): " + dataFile);
+            }
+            count = buffer.getInt(8);
+        }
+
+        recordByReservation = new int[Math.max(16, ids.size())];
+        Arrays.fill(recordByReservation, -1);
+        for (int rec = 0; rec < count; rec++) {
+            indexRecord(buffer.getInt(offset(rec) + OFF_RESERVATION), rec);
+        }
+    }
+
+    public synchronized int size() { return count; }
+
+    // Record-number accessors read directly from the mapping, nothing is materialized
+    public synchronized String reservationId(int rec) { return ids.get(buffer.getInt(offset(check(rec)) + OFF_RESERVATION)); }
+    public synchronized String clientId(int rec) { return ids.get(buffer.getInt(offset(check(rec)) + OFF_CLIENT)); }
+    public synchronized String equipmentId(int rec) { return ids.get(buffer.getInt(offset(check(rec)) + OFF_EQUIPMENT)); }
+    public synchronized int equipmentCode(int rec) { return buffer.getInt(offset(check(rec)) + OFF_EQUIPMENT); }
+    public synchronized int startMinute(int rec) { return buffer.getInt(offset(check(rec)) + OFF_START); }
+    public synchronized int endMinute(int rec) { return buffer.getInt(offset(check(rec)) + OFF_END); }
+    public synchronized int createdMinute(int rec) { return buffer.getInt(offset(check(rec)) + OFF_CREATED); }
+    public synchronized int costCents(int rec) { return buffer.getInt(offset(check(rec)) + OFF_COST); }
+    public synchronized String status(int rec) { return statusName(buffer.get(offset(check(rec)) + OFF_STATUS)); }
+
+    public int codeOf(String id) { return ids.lookup(id); }
+
+    // Record number of a reservation, or -1
+    public synchronized int find(String reservationId) {
+        int code = ids.lookup(reservationId);
+        return code < 0 || code >= recordByReservation.length ? -1 : recordByReservation[code];
+    }
+
+    public synchronized Reservation read(int rec) {
+        int base = offset(check(rec));
+        Reservation reservation = new Reservation(
+                ids.get(buffer.getInt(base + OFF_RESERVATION)),
+                ids.get(buffer.getInt(base + OFF_CLIENT)),
+                ids.get(buffer.getInt(base + OFF_EQUIPMENT)),
+                DateTimeHandler.fromEpochMinute(buffer.getInt(base + OFF_START)),
+                DateTimeHandler.fromEpochMinute(buffer.getInt(base + OFF_END)),
+                DateTimeHandler.fromEpochMinute(buffer.getInt(base + OFF_CREATED)));
+        reservation.setStatus(statusName(buffer.get(base + OFF_STATUS)));
+        reservation.setCost(buffer.getInt(base + OFF_COST) / 100.0);
+        return reservation;
+    }
+
+    // Inserts or overwrites in place when the reservation id is already stored. Returns the record number.
+    public synchronized int put(Reservation reservation) throws IOException {
+        int rec = find(reservation.getReservationId());
+        if (rec < 0) {
+            if (count == capacity) {
+                if (capacity == MAX_RECORDS) {
+                    throw new IOException("Reservation store is full at " + MAX_RECORDS + " records");
+                }
+                map((int) Math.min(capacity * 2L, MAX_RECORDS));
+            }
+            rec = count;
+        }
+        int base = offset(rec);
+        int reservationCode = internPersisted(reservation.getReservationId());
+        buffer.putInt(base + OFF_RESERVATION, reservationCode);
+        buffer.putInt(base + OFF_CLIENT, internPersisted(reservation.getClientId()));
+        buffer.putInt(base + OFF_EQUIPMENT, internPersisted(reservation.getEquipmentId()));
+        buffer.putInt(base + OFF_START, (int) DateTimeHandler.toEpochMinute(reservation.getStartTime()));
+        buffer.putInt(base + OFF_END, (int) DateTimeHandler.toEpochMinute(reservation.getEndTime()));
+        buffer.putInt(base + OFF_CREATED, (int) DateTimeHandler.toEpochMinute(reservation.getCreatedAt()));
+        buffer.putInt(base + OFF_COST, (int) Math.round(reservation.getCost() * 100));
+        buffer.put(base + OFF_STATUS, statusCode(reservation.getStatus()));
+        if (rec == count) {
+            count++;
+            buffer.putInt(8, count); // publish the record only after it is fully written
+            indexRecord(reservationCode, rec);
+        }
+        return rec;
+    }
+
+    public synchronized void updateStatus(int rec, String status) {
+        buffer.put(offset(check(rec)) + OFF_STATUS, statusCode(status));
+    }
+
+    public synchronized void force() throws IOException {
+        if (idsWriter != null) {
+            idsWriter.flush();
+        }
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        if (idsWriter != null) {
+            idsWriter.close();
+        }
+        channel.close();
+    }
+
+    // Converts the RESERVATION|... text format (base file plus journal) into this store
+    public static int convertFromText(DbService dbService, Path dataFile) throws IOException {
+        List<Reservation> reservations = new ArrayList<>(dbService.loadReservations().values());
+        reservations.sort(Comparator.comparing(Reservation::getCreatedAt));
+        try (ReservationBinaryStore store = new ReservationBinaryStore(dataFile)) {
+            for (Reservation reservation : reservations) {
+                store.put(reservation);
+            }
+            return store.size();
+        }
+    }
+
+    private int internPersisted(String id) throws IOException {
+        int before = ids.size();
+        int code = ids.intern(id);
+        if (ids.size() > before) {
+            if (idsWriter == null) {
+                idsWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(idsFile.toFile(), true), StandardCharsets.UTF_8));
+            }
+            idsWriter.write(id);
+            idsWriter.write('\n');
+            idsWriter.flush(); // the id must be on disk before any record references it
+        }
+        return code;
+    }
+
+    private void indexRecord(int reservationCode, int rec) {
+        if (reservationCode >= recordByReservation.length) {
+            int oldLength = recordByReservation.length;
+            recordByReservation = Arrays.copyOf(recordByReservation, Math.max(reservationCode + 1, oldLength * 2));
+            Arrays.fill(recordByReservation, oldLength, recordByReservation.length, -1);
+        }
+        recordByReservation[reservationCode] = rec;
+    }
+
+    private void map(int records) throws IOException {
+        capacity = Math.max(records, INITIAL_CAPACITY);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int check(int rec) {
+        if (rec < 0 || rec >= count) {
+            throw new IndexOutOfBoundsException("Record " + rec + " of " + count);
+        }
+        return rec;
+    }
+
+    static int offset(int rec) {
+        return Math.toIntExact(HEADER_SIZE + (long) rec * RECORD_SIZE);
+    }
+
+    static byte statusCode(String status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i].equals(status)) {
+                return (byte) i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown reservation status: " + status);
+    }
+
+    static String statusName(byte code) {
+        return code >= 0 && code < STATUSES.length ? STATUSES[code] : "UNKNOWN";
+    }
+}
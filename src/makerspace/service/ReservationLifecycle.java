@@ -0,0 +1,124 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import makerspace.utils.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Moves approved bookings through their day without anyone pressing a button:
+//
+//   start             machine goes IN_USE, held for the client
+//   start + no-show   still not checked in: NO_SHOW, slot and machine released, no refund
+//   end               checked in (IN_PROGRESS): auto-completed, machine back to AVAILABLE
+//
+// Each live booking has one timer on a TimerWheel, for its next step. A firing step re-reads the
+// booking and schedules whatever comes next, so a check-in or cancel racing with the timer thread
+// costs at most a wasted step. Registered as a ReservationListener: the replay at registration
+// reloads the timers of every booking restored from disk, and steps already overdue fire at once.
+public final class ReservationLifecycle implements ReservationListener {
+    private static final long TICK_MILLIS = 1000;
+    private static final int NO_SHOW_MINUTES = Integer.getInteger("makerspace.lifecycle.noShowMinutes", 15);
+
+    private final ReservationService reservationService;
+    private final TimerWheel<String> wheel; // payload: reservation id
+    private final Map<String, TimerWheel.Timeout<String>> pending = new ConcurrentHashMap<>();
+    private final LongAdder started = Metrics.counter("lifecycle.started");
+    private final LongAdder noShows = Metrics.counter("lifecycle.noShows");
+    private final LongAdder completed = Metrics.counter("lifecycle.autoCompleted");
+    private Thread ticker;
+
+    public ReservationLifecycle(ReservationService reservationService) {
+        this.reservationService = reservationService;
+        this.wheel = new TimerWheel<>(TICK_MILLIS, now());
+        Metrics.gauge("lifecycle.pendingTimers", wheel::size);
+        reservationService.addReservationListener(this);
+    }
+
+    // On the service's clock, so a simulation can drive advance() with virtual time instead of start()
+    private long now() {
+        return DateTimeHandler.toEpochMilli(LocalDateTime.now(reservationService.getClock()));
+    }
+
+    @Override
+    public void onTransition(Reservation reservation, String oldStatus, String newStatus) {
+        String id = reservation.getReservationId();
+        if ("APPROVED".equals(newStatus)) {
+            schedule(id, DateTimeHandler.toEpochMilli(reservation.getStartTime()));
+        } else if ("IN_PROGRESS".equals(newStatus)) {
+            schedule(id, DateTimeHandler.toEpochMilli(reservation.getEndTime()));
+        } else if (oldStatus != null) {
+            TimerWheel.Timeout<String> timeout = pending.remove(id);
+            wheel.cancel(timeout);
+        }
+    }
+
+    // Replaces the booking's timer. Two threads racing here can leave an extra timer behind,
+    // which is harmless: step() re-reads the booking, so a stale timer just reschedules or stops.
+    private void schedule(String reservationId, long atMillis) {
+        TimerWheel.Timeout<String> previous = pending.put(reservationId, wheel.schedule(atMillis, reservationId));
+        wheel.cancel(previous);
+    }
+
+    // Ticks once a second on a daemon thread until the process exits
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+        ticker = new Thread(() -> {
+            while (true) {
+                advance(now());
+                try {
+                    Thread.sleep(TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "reservation-lifecycle");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    // Runs every step due by nowMillis (wall clock as UTC, see DateTimeHandler.toEpochMilli); returns how many ran
+    public int advance(long nowMillis) {
+        List<String> due = wheel.advance(nowMillis);
+        for (String reservationId : due) {
+            try {
+                step(reservationId, nowMillis);
+            } catch (Exception e) {
+                System.err.println("Lifecycle step for " + reservationId + " failed: " + e.getMessage());
+            }
+        }
+        return due.size();
+    }
+
+    private void step(String reservationId, long nowMillis) throws Exception {
+        Reservation reservation = reservationService.getReservationById(reservationId);
+        long start = DateTimeHandler.toEpochMilli(reservation.getStartTime());
+        long end = DateTimeHandler.toEpochMilli(reservation.getEndTime());
+        long noShowAt = Math.min(end, start + NO_SHOW_MINUTES * 60_000L);
+        String status = reservation.getStatus();
+        if ("APPROVED".equals(status)) {
+            if (nowMillis < start) {
+                schedule(reservationId, start); // a stale timer from before a reschedule
+            } else if (nowMillis < noShowAt) {
+                if (reservationService.markStarted(reservationId)) {
+                    started.increment();
+                }
+                schedule(reservationId, noShowAt);
+            } else if (reservationService.markNoShow(reservationId)) {
+                noShows.increment();
+            }
+        } else if ("IN_PROGRESS".equals(status)) {
+            if (nowMillis < end) {
+                schedule(reservationId, end);
+            } else if (reservationService.autoComplete(reservationId)) {
+                completed.increment();
+            }
+        } else {
+            pending.remove(reservationId);
+        }
+    }
+
+    public int getPendingCount() { return wheel.size(); }
+}
@@ -0,0 +1,10 @@
+package makerspace.service;
+import makerspace.classModels.*;
+
+// Notified by ReservationService on every status change, while the equipment's booking lock is
+// held, so transitions of one reservation always arrive in order. oldStatus is null when the
+// reservation is new (created, or restored from disk) and newStatus is null when it was deleted
+// (replicated from the primary). Keep handlers short: they run on the booking path.
+public interface ReservationListener {
+    void onTransition(Reservation reservation, String oldStatus, String newStatus);
+}
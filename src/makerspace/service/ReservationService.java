@@ -1,146 +1,554 @@
 package makerspace.service;
 import makerspace.classModels.*;
 import makerspace.exceptions.*;
+import makerspace.utils.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
 import java.time.*;
 
-public class ReservationService {
-    private Map<String, Reservation> reservations;
+public final class ReservationService {
+    private final ReservationTable reservations = new ReservationTable();
     private EquipmentService equipmentService;
     private UserService userService;
     private DbService dbService;
-    private static final Random random = new Random();
+    private final LockStripes equipmentLocks = new LockStripes(64);
+    private final ClientReservationIndex clientIndex = new ClientReservationIndex(reservations);
+    private final List<ReservationListener> listeners = new CopyOnWriteArrayList<>();
+    private static final Metrics.Timer CREATE = Metrics.timer("reservation.create");
+    private static final Metrics.Timer CANCEL = Metrics.timer("reservation.cancel");
+    private static final Metrics.Timer COMPLETE = Metrics.timer("reservation.complete");
+    private static final Metrics.Timer LIST_BY_USER = Metrics.timer("reservation.listByUser");
+    private static final Metrics.Timer RESTORE = Metrics.timer("reservation.restore");
+    private static final Metrics.Timer CHECK_IN = Metrics.timer("reservation.checkIn");
+    public static final int CHECK_IN_EARLY_MINUTES = 15; // how long before its start a booking can be checked in
     
     public ReservationService(EquipmentService equipmentService, UserService userService) {
-        this.reservations = new HashMap<>();
+        this(equipmentService, userService, new DbService());
+        restore(dbService.loadReservations().values());
+    }
+    
+    // Starts empty; BootCoordinator calls restore() once everything is loaded
+    public ReservationService(EquipmentService equipmentService, UserService userService, DbService dbService) {
         this.equipmentService = equipmentService;
         this.userService = userService;
-        this.dbService = new DbService();
+        this.dbService = dbService;
+        Metrics.gauge("reservations.count", reservations::liveRows);
+        Metrics.gauge("reservations.tableBytes", reservations::allocatedBytes);
     }
     
-    public String createReservation(String clientId, String equipmentId, 
-                                   LocalDateTime startTime, LocalDateTime endTime) throws Exception {
-        // Validation
-        validateReservationInput(clientId, equipmentId, startTime, endTime);
-        
-        // Check equipment availability
-        if (!equipmentService.isEquipmentAvailable(equipmentId, startTime, endTime)) {
-            throw new EquipmentUnavailableException("Equipment not available for selected time");
+    // Rebuilds in-memory state from persisted reservations: links them to their clients
+    // and re-claims the booking windows that are still live. Returns the number restored.
+    public int restore(Collection<Reservation> loaded) {
+        long started = RESTORE.start();
+        try {
+            int restored = 0;
+            for (Reservation record : loaded) {
+                int row;
+                try {
+                    row = reservations.append(record);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping reservation " + record.getReservationId() + ": " + e.getMessage());
+                    continue;
+                }
+                if (row < 0) {
+                    System.err.println("Skipping duplicate reservation " + record.getReservationId());
+                    continue;
+                }
+                Reservation reservation = reservations.view(row);
+                clientIndex.add(row);
+                dbService.getIdGenerator().advancePast(IdGenerator.numericPart(reservation.getReservationId()));
+                restored++;
+                try {
+                    User user = userService.getUserById(reservation.getClientId());
+                    if (user instanceof Client) {
+                        attachHistory((Client) user);
+                    }
+                } catch (UserException e) {
+                    System.err.println("Reservation " + reservation.getReservationId() + " references unknown client " + reservation.getClientId());
+                }
+                if (holdsSlot(reservation)) {
+                    equipmentService.reserveSlot(reservation);
+                }
+                fire(reservation, null, reservation.getStatus());
+            }
+            return restored;
+        } catch (RuntimeException e) {
+            RESTORE.failed();
+            throw e;
+        } finally {
+            RESTORE.stop(started);
         }
-        
-        // Check user exists and is a client
-        User user = userService.getUserById(clientId);
-        if (!(user instanceof Client)) {
-            throw new InvalidReservationException("Only clients can make reservations");
+    }
+    
+    // From a snapshot's columns, then the journal records written after it; from the base file and
+    // the whole journal when there is no snapshot. Returns the number of rows restored from the
+    // snapshot (or from the files).
+    public int restore(SnapshotStore.State snapshot) {
+        if (snapshot == null) {
+            return restore(dbService.loadReservations().values());
         }
-        
-        Client client = (Client) user;
-        Equipment equipment = equipmentService.getEquipmentById(equipmentId);
-        
-        // Calculate cost
-        int duration = (int) java.time.Duration.between(startTime, endTime).toHours();
-        double cost = equipment.calculateRate(duration);
-        
-        // Check client balance
-        if (!client.enoughBalance(cost)) {
-            throw new InvalidReservationException(
-                String.format("Insufficient balance. Required: $%.2f, Available: $%.2f", 
-                             cost, client.getAccountBalance()));
+        long started = RESTORE.start();
+        int restored;
+        try {
+            reservations.load(snapshot.reservations);
+            long highest = -1;
+            restored = reservations.liveRows();
+            for (int row = 0, rows = reservations.size(); row < rows; row++) {
+                byte status = reservations.statusCode(row);
+                if (status == ReservationTable.REMOVED) {
+                    continue;
+                }
+                clientIndex.add(row);
+                highest = Math.max(highest, reservations.numericPart(row));
+                if (status == ReservationTable.PENDING || status == ReservationTable.APPROVED || status == ReservationTable.IN_PROGRESS) {
+                    equipmentService.reserveSlot(reservations.equipmentId(row), reservations.startMinute(row),
+                            reservations.endMinute(row), reservations.reservationId(row));
+                }
+                if (!listeners.isEmpty()) {
+                    Reservation reservation = reservations.view(row);
+                    fire(reservation, null, reservation.getStatus());
+                }
+            }
+            dbService.getIdGenerator().advancePast(highest);
+            for (String clientId : clientIndex.clientIds()) {
+                try {
+                    User user = userService.getUserById(clientId);
+                    if (user instanceof Client) {
+                        attachHistory((Client) user);
+                    }
+                } catch (UserException e) {
+                    System.err.println("Reservations reference unknown client " + clientId);
+                }
+            }
+        } catch (RuntimeException e) {
+            RESTORE.failed();
+            throw e;
+        } finally {
+            RESTORE.stop(started);
         }
+        dbService.replayJournal(Journal.RESERVATION, snapshot.seq, new Journal.Handler() {
+            public void put(String line) {
+                Reservation record = DbService.stringToReservation(line);
+                if (record != null) {
+                    applyReplicated(record);
+                }
+            }
+            public void delete(String id) { applyReplicatedDelete(id); }
+        });
+        return restored;
+    }
+    
+    // The table itself, for SnapshotStore.capture()
+    ReservationTable table() { return reservations; }
+    
+    // A reservation record shipped from the primary (ReplicationStandby): a new one is restored, a
+    // known one moves to the recorded status, releasing its slot once it no longer holds one.
+    // Listeners see the transition as usual; nothing is written here.
+    public void applyReplicated(Reservation record) {
+        int row = reservations.rowOf(record.getReservationId());
+        if (row < 0) {
+            restore(List.of(record));
+            return;
+        }
+        Reservation reservation = reservations.view(row);
+        Lock slotLock = equipmentLocks.lockFor(reservation.getEquipmentId());
+        slotLock.lock();
+        try {
+            String oldStatus = reservation.getStatus();
+            if (oldStatus.equals(record.getStatus())) {
+                return;
+            }
+            boolean held = holdsSlot(reservation);
+            reservation.setStatus(record.getStatus());
+            if (held && !holdsSlot(reservation)) {
+                equipmentService.releaseSlot(reservation);
+            } else if (!held && holdsSlot(reservation)) {
+                equipmentService.reserveSlot(reservation);
+            }
+            fire(reservation, oldStatus, reservation.getStatus());
+        } finally {
+            slotLock.unlock();
+        }
+    }
+    
+    // A reservation the primary deleted: its slot is released if it still held one and it leaves
+    // its client's history and every listing. Listeners see it go as a transition to null;
+    // nothing is written here.
+    public void applyReplicatedDelete(String reservationId) {
+        int row = reservations.rowOf(reservationId);
+        if (row < 0) {
+            return;
+        }
+        Reservation reservation = reservations.view(row);
+        Lock slotLock = equipmentLocks.lockFor(reservation.getEquipmentId());
+        slotLock.lock();
+        try {
+            if (reservations.isRemoved(row)) {
+                return;
+            }
+            String oldStatus = reservation.getStatus();
+            if (holdsSlot(reservation)) {
+                equipmentService.releaseSlot(reservation);
+            }
+            clientIndex.remove(row);
+            reservations.remove(row);
+            fire(reservation, oldStatus, null);
+        } finally {
+            slotLock.unlock();
+        }
+    }
+    
+    public Clock getClock() { return dbService.getClock(); }
+    
+    private LocalDateTime now() { return LocalDateTime.now(dbService.getClock()); }
+    
+    // Existing reservations are replayed to the new listener as creations, so register
+    // at startup, before bookings start arriving, to avoid counting any of them twice
+    public void addReservationListener(ReservationListener listener) {
+        for (int row = 0, rows = reservations.size(); row < rows; row++) {
+            if (reservations.isRemoved(row)) {
+                continue;
+            }
+            Reservation reservation = reservations.view(row);
+            listener.onTransition(reservation, null, reservation.getStatus());
+        }
+        listeners.add(listener);
+    }
+    
+    private void fire(Reservation reservation, String oldStatus, String newStatus) {
+        for (ReservationListener listener : listeners) {
+            try {
+                listener.onTransition(reservation, oldStatus, newStatus);
+            } catch (RuntimeException e) {
+                System.err.println("Reservation listener failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void attachHistory(Client client) {
+        String clientId = client.getUserId();
+        client.attachReservationHistory(() -> clientIndex.getAll(clientId));
+    }
+    
+    private static boolean holdsSlot(Reservation reservation) {
+        String status = reservation.getStatus();
+        return "PENDING".equals(status) || "APPROVED".equals(status) || "IN_PROGRESS".equals(status);
+    }
+    
+    public String createReservation(String clientId, String equipmentId, 
+                                   LocalDateTime startTime, LocalDateTime endTime) throws Exception {
+        long started = CREATE.start();
+        try {
+            // Validation
+            validateReservationInput(clientId, equipmentId, startTime, endTime);
         
-        // Create reservation
-        String reservationId = generateReservationId();
-        Reservation reservation = new Reservation(reservationId, clientId, equipmentId, startTime, endTime);
-        reservation.setCost(cost);
-        
-        // Process payment
-        client.deductFromBalance(cost);
-        
-        dbService.saveReservation(reservation);
-        
-        // Save reservation
-        reservations.put(reservationId, reservation);
-        client.addReservation(reservation);
-        
-        dbService.updateUser(client);
+            // Check user exists and is a client
+            User user = userService.getUserById(clientId);
+            if (!(user instanceof Client)) {
+                throw new InvalidReservationException("Only clients can make reservations");
+            }
         
-        // Confirm reservation ~ approved
-        reservation.approve();
+            Client client = (Client) user;
+            Equipment equipment = equipmentService.getEquipmentById(equipmentId);
         
+            // Calculate cost
+            int duration = (int) java.time.Duration.between(startTime, endTime).toHours();
+            double cost = Math.round(equipment.calculateRate(duration) * 100) / 100.0; // charged as stored, in cents
+            LocalDateTime createdAt = now();
+            // A booking the table cannot hold must fail before the client is charged, not after
+            try {
+                ReservationTable.checkStorable(startTime, endTime, createdAt, cost);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidReservationException("Reservation cannot be stored: " + e.getMessage());
+            }
         
-        // Update equipment status if reservation is immediate
-        if (startTime.isBefore(LocalDateTime.now().plusMinutes(30))) 
-        {
-            equipmentService.setEquipmentStatus(equipmentId, "IN_USE");
+            // Slot check and claim happen under the equipment's stripe, so two bookings of
+            // the same window are serialized while other machines book in parallel
+            Lock slotLock = equipmentLocks.lockFor(equipmentId);
+            slotLock.lock();
+            try {
+                if (!equipmentService.isEquipmentAvailable(equipmentId, startTime, endTime)) {
+                    List<String> conflicts = equipmentService.getConflictingReservationIds(equipmentId, startTime, endTime);
+                    throw new EquipmentUnavailableException(conflicts.isEmpty()
+                            ? "Equipment not available for selected time"
+                            : "Equipment already booked for selected time (" + String.join(", ", conflicts) + ")");
+                }
+            
+                // Process payment; the client's monitor guards balance check, deduction and its persisted value
+                synchronized (client) {
+                    if (!client.enoughBalance(cost)) {
+                        throw new InvalidReservationException(
+                            String.format("Insufficient balance. Required: $%.2f, Available: $%.2f", 
+                                         cost, client.getAccountBalance()));
+                    }
+                    client.deductFromBalance(cost);
+                    userService.persistUser(client);
+                }
+            
+                // Create reservation; append refuses a taken id, so nothing can overwrite another booking
+                int row;
+                do {
+                    Reservation fresh = new Reservation(generateReservationId(), clientId, equipmentId, startTime, endTime, createdAt);
+                    fresh.setCost(cost);
+                    row = reservations.append(fresh);
+                } while (row < 0);
+                Reservation reservation = reservations.view(row);
+                String reservationId = reservation.getReservationId();
+            
+                // Confirm reservation ~ approved
+                reservation.approve();
+            
+                // Save reservation
+                equipmentService.reserveSlot(reservation);
+                clientIndex.add(row);
+                attachHistory(client);
+                dbService.saveReservation(reservation);
+                fire(reservation, null, reservation.getStatus());
+                // The machine goes IN_USE when the booking starts (ReservationLifecycle), not now
+            
+                return reservationId;
+            } finally {
+                slotLock.unlock();
+            }
+        } catch (Exception e) {
+            CREATE.failed();
+            throw e;
+        } finally {
+            CREATE.stop(started);
         }
-        
-        return reservationId;
     }
     
     public void cancelReservation(String reservationId, String userId) throws Exception
     {
-        Reservation reservation = reservations.get(reservationId);
-        if (reservation == null) {
-            throw new InvalidReservationException("Reservation not found");
-        }
-        
-        if (!reservation.getClientId().equals(userId)) {
-            throw new InvalidReservationException("You can only cancel your own reservations");
-        }
-       
-        if (!reservation.canBeCancelled()) {
-            throw new InvalidReservationException("Reservation cannot be cancelled");
-        }
-        
-        // Process refund 
-        Client client = (Client) userService.getUserById(userId);
-        double refundAmount = calculateRefund(reservation);
-        client.updateAccountBalance(refundAmount);
+        long started = CANCEL.start();
+        try {
+            Reservation reservation = getReservationById(reservationId);
         
-        // Cancel reservation
-        reservation.cancel();
+            if (!reservation.getClientId().equals(userId)) {
+                throw new InvalidReservationException("You can only cancel your own reservations");
+            }
         
-        dbService.updateReservation(reservation);
-        dbService.updateUser(client);
+            double refundAmount;
+            LocalDateTime now = now();
+            Lock slotLock = equipmentLocks.lockFor(reservation.getEquipmentId());
+            slotLock.lock();
+            try {
+                // Re-checked under the lock so a reservation can only be cancelled (and refunded) once
+                if (!reservation.canBeCancelled(now)) {
+                    throw new InvalidReservationException("Reservation cannot be cancelled");
+                }
+                // Everything that can fail comes before the cancellation, so it is never cancelled unrefunded
+                Client client = (Client) userService.getUserById(userId);
+                refundAmount = calculateRefund(reservation, now);
+            
+                // Cancel reservation
+                String oldStatus = reservation.getStatus();
+                reservation.cancel();
+                equipmentService.releaseSlot(reservation);
+                dbService.updateReservation(reservation);
+                fire(reservation, oldStatus, reservation.getStatus());
+            
+                // Process refund 
+                synchronized (client) {
+                    client.updateAccountBalance(refundAmount);
+                    userService.persistUser(client);
+                }
+            
+                // Free up equipment
+                freeEquipmentIfIdle(reservation.getEquipmentId());
+            } finally {
+                slotLock.unlock();
+            }
         
-        // Free up equipment
-        equipmentService.setEquipmentStatus(reservation.getEquipmentId(), "AVAILABLE");
-        
-        System.out.printf("Reservation cancelled. Refund: $%.2f%n", refundAmount);
+            System.out.printf("Reservation cancelled. Refund: $%.2f%n", refundAmount);
+        } catch (Exception e) {
+            CANCEL.failed();
+            throw e;
+        } finally {
+            CANCEL.stop(started);
+        }
     }
     
+    // Newest first
     public List<Reservation> getReservationsByUser(String userId) {
-        return reservations.values().stream()
-                          .filter(r -> r.getClientId().equals(userId))
-                          .sorted((r1, r2) -> r2.getCreatedAt().compareTo(r1.getCreatedAt()))
-                          .collect(java.util.stream.Collectors.toList());
+        return clientIndex.getAll(userId);
+    }
+    
+    // Newest first, e.g. (0, 20) for the latest 20 then (20, 20) for the next 20
+    public List<Reservation> getReservationsByUser(String userId, int offset, int limit) {
+        long started = LIST_BY_USER.start();
+        try {
+            return clientIndex.getPage(userId, offset, limit);
+        } catch (RuntimeException e) {
+            LIST_BY_USER.failed();
+            throw e;
+        } finally {
+            LIST_BY_USER.stop(started);
+        }
+    }
+    
+    public int countReservationsByUser(String userId) {
+        return clientIndex.count(userId);
+    }
+    
+    public int getReservationCount() {
+        return reservations.liveRows();
     }
     
     public List<Reservation> getAllReservations() {
-        return new ArrayList<>(reservations.values());
+        int rows = reservations.size();
+        List<Reservation> all = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            if (!reservations.isRemoved(row)) {
+                all.add(reservations.view(row));
+            }
+        }
+        return all;
+    }
+    
+    public boolean containsReservation(String reservationId) {
+        return reservations.rowOf(reservationId) >= 0;
     }
     
     public Reservation getReservationById(String reservationId) throws InvalidReservationException {
-        Reservation reservation = reservations.get(reservationId);
-        if (reservation == null) {
+        int row = reservations.rowOf(reservationId);
+        if (row < 0) {
             throw new InvalidReservationException("Reservation not found");
         }
-        return reservation;
+        return reservations.view(row);
     }
     
     public List<Reservation> getActiveReservations() {
-        return reservations.values().stream()
-                          .filter(Reservation::isActive)
-                          .collect(java.util.stream.Collectors.toList());
+        List<Reservation> active = new ArrayList<>();
+        LocalDateTime now = now();
+        for (int row = 0, rows = reservations.size(); row < rows; row++) {
+            // The status byte rules out most of history before any view is built
+            if (reservations.statusCode(row) == ReservationTable.APPROVED) {
+                Reservation reservation = reservations.view(row);
+                if (reservation.isActive(now)) {
+                    active.add(reservation);
+                }
+            }
+        }
+        return active;
     }
     
+    // Only a live booking can complete (APPROVED or IN_PROGRESS); cancelled and no-show ones never earn revenue
     public void completeReservation(String reservationId) throws Exception {
+        long started = COMPLETE.start();
+        try {
+            Reservation reservation = getReservationById(reservationId);
+            String from = reservation.getStatus();
+            if (!("APPROVED".equals(from) || "IN_PROGRESS".equals(from)) || !advance(reservation, from, "COMPLETED")) {
+                throw new InvalidReservationException("Reservation cannot be completed (status " + reservation.getStatus() + ")");
+            }
+        } catch (Exception e) {
+            COMPLETE.failed();
+            throw e;
+        } finally {
+            COMPLETE.stop(started);
+        }
+    }
+    
+    
+    // The client has arrived: APPROVED -> IN_PROGRESS, from CHECK_IN_EARLY_MINUTES before the start until the end
+    public void checkIn(String reservationId, String userId) throws Exception {
+        long started = CHECK_IN.start();
+        try {
+            Reservation reservation = getReservationById(reservationId);
+            if (!reservation.getClientId().equals(userId)) {
+                throw new InvalidReservationException("You can only check in to your own reservations");
+            }
+            LocalDateTime now = now();
+            if (now.isBefore(reservation.getStartTime().minusMinutes(CHECK_IN_EARLY_MINUTES))) {
+                throw new InvalidReservationException("Check-in opens " + CHECK_IN_EARLY_MINUTES + " minutes before the start time");
+            }
+            if (!now.isBefore(reservation.getEndTime())) {
+                throw new InvalidReservationException("Reservation has already ended");
+            }
+            if (!advance(reservation, "APPROVED", "IN_PROGRESS")) {
+                throw new InvalidReservationException("Reservation cannot be checked in (status " + reservation.getStatus() + ")");
+            }
+        } catch (Exception e) {
+            CHECK_IN.failed();
+            throw e;
+        } finally {
+            CHECK_IN.stop(started);
+        }
+    }
+    
+    // Lifecycle steps, called by ReservationLifecycle when a booking's time comes. Each returns
+    // false and changes nothing if the booking has meanwhile moved on (cancelled, checked in, ...).
+    
+    // Start time reached: the machine is held for the client while they check in
+    public boolean markStarted(String reservationId) throws Exception {
         Reservation reservation = getReservationById(reservationId);
-        reservation.complete();
-        dbService.updateReservation(reservation);
-        equipmentService.setEquipmentStatus(reservation.getEquipmentId(), "AVAILABLE");
+        Lock slotLock = equipmentLocks.lockFor(reservation.getEquipmentId());
+        slotLock.lock();
+        try {
+            if (!"APPROVED".equals(reservation.getStatus())) {
+                return false;
+            }
+            Equipment equipment = equipmentService.getEquipmentById(reservation.getEquipmentId());
+            if (EquipmentStatusUtil.AVAILABLE.equals(equipment.getStatus())) {
+                equipmentService.setEquipmentStatus(equipment.getEquipmentId(), EquipmentStatusUtil.IN_USE);
+            }
+            return true;
+        } finally {
+            slotLock.unlock();
+        }
     }
     
+    // Never checked in: the slot is released without a refund
+    public boolean markNoShow(String reservationId) throws Exception {
+        return advance(getReservationById(reservationId), "APPROVED", "NO_SHOW");
+    }
+    
+    // End time reached while checked in
+    public boolean autoComplete(String reservationId) throws Exception {
+        return advance(getReservationById(reservationId), "IN_PROGRESS", "COMPLETED");
+    }
+    
+    // from -> to under the equipment's lock, releasing the slot and the machine once the booking stops holding them
+    private boolean advance(Reservation reservation, String from, String to) throws Exception {
+        String equipmentId = reservation.getEquipmentId();
+        Lock slotLock = equipmentLocks.lockFor(equipmentId);
+        slotLock.lock();
+        try {
+            if (!from.equals(reservation.getStatus())) {
+                return false;
+            }
+            reservation.setStatus(to);
+            if (!holdsSlot(reservation)) {
+                equipmentService.releaseSlot(reservation);
+            }
+            dbService.updateReservation(reservation);
+            fire(reservation, from, to);
+            if ("IN_PROGRESS".equals(to)) {
+                Equipment equipment = equipmentService.getEquipmentById(equipmentId);
+                if (EquipmentStatusUtil.AVAILABLE.equals(equipment.getStatus())) {
+                    equipmentService.setEquipmentStatus(equipmentId, EquipmentStatusUtil.IN_USE);
+                }
+            } else if (!holdsSlot(reservation)) {
+                freeEquipmentIfIdle(equipmentId);
+            }
+            return true;
+        } finally {
+            slotLock.unlock();
+        }
+    }
+    
+    // IN_USE -> AVAILABLE unless another booking holds the machine right now; MAINTENANCE and DOWN are left alone.
+    // Called with the equipment's lock held.
+    private void freeEquipmentIfIdle(String equipmentId) throws EquipmentUnavailableException {
+        LocalDateTime now = now();
+        Equipment equipment = equipmentService.getEquipmentById(equipmentId);
+        if (EquipmentStatusUtil.IN_USE.equals(equipment.getStatus())
+                && equipmentService.getConflictingReservationIds(equipmentId, now, now.plusMinutes(1)).isEmpty()) {
+            equipmentService.setEquipmentStatus(equipmentId, EquipmentStatusUtil.AVAILABLE);
+        }
+    }
     
     private void validateReservationInput(String clientId, String equipmentId,
                                         LocalDateTime startTime, LocalDateTime endTime) 
@@ -157,7 +565,7 @@ public class ReservationService {
         if (startTime.isAfter(endTime)) {
             throw new InvalidReservationException("Start time must be before end time");
         }
-        if (startTime.isBefore(LocalDateTime.now())) {
+        if (startTime.isBefore(now())) {
             throw new InvalidReservationException("Cannot make reservations in the past");
         }
         
@@ -170,8 +578,7 @@ public class ReservationService {
         }
     }
     
-    private double calculateRefund(Reservation reservation) {
-        LocalDateTime now = LocalDateTime.now();
+    private double calculateRefund(Reservation reservation, LocalDateTime now) {
         long hoursUntilStart = java.time.Duration.between(now, reservation.getStartTime()).toHours();
         
         // Refund: Full refund if cancelled >24h before, 50% if 5hrs before, 0% otherwise
@@ -184,14 +591,8 @@ public class ReservationService {
         }
     }
     
-    private static final int ID_LENGTH = 6;
     private String generateReservationId() {
-    	StringBuilder sb = new StringBuilder(ID_LENGTH);
-    	for (int i = 0; i < ID_LENGTH; i++) {
-    		int digit = random.nextInt(10);
-    		sb.append(digit);
-    	}
-        return "RES_" + sb.toString();
+        return dbService.getIdGenerator().nextId("RES_");
     }
 }
 
@@ -0,0 +1,442 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import makerspace.utils.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Every reservation ReservationService holds, stored column by column in primitive arrays instead
+// of one object graph per booking. Bytes per row:
+//
+//   reservation id    8 + 2 + 1   numeric tail, prefix code, digit count ("RES_004217" = "RES_", 4217, 6)
+//   client, equipment 4 + 4       IdDictionary codes
+//   start, end, made  4 + 4 + 4   epoch minutes (minute precision, as persisted)
+//   cost              4           cents
+//   status            1
+//
+// 36 bytes, plus 8-16 for the id hash index: ~50 bytes a reservation against ~410 for a Reservation
+// with its strings and LocalDateTimes (ReservationTableTest measures both). Columns are allocated
+// 4096 rows at a time so they never move once written.
+//
+// Rows are only ever appended. A deleted reservation keeps its row with status code REMOVED, which
+// rowOf() and ReservationService's listings skip. Appends and id lookups lock the table; column reads do not, since
+// a row is complete before `size` publishes it. Status is the one column changed in place and is
+// read and written with volatile semantics, like the field it replaces.
+//
+// copyColumns()/load() move the whole table in and out of a snapshot (SnapshotStore) as flat
+// column arrays plus the dictionaries they index, one arraycopy per column and chunk.
+public class ReservationTable implements ReservationRows {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    private static final int MAX_DIGITS = 19; // so the numeric tail fits a long, see digitCount
+    private static final String LARGEST = Long.toString(Long.MAX_VALUE);
+    static final int ROW_BYTES = 36;
+    private static final VarHandle STATUS = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    // Same order as ReservationBinaryStore, so the codes match on disk and in memory
+    public static final byte PENDING = 0, APPROVED = 1, CANCELLED = 2, IN_PROGRESS = 3, COMPLETED = 4;
+    public static final byte REMOVED = -1; // never a dictionary code, which run 0..127
+
+    // Every row of a table, column by column (each array `rows` long), and the dictionaries the
+    // codes refer to, index == code
+    static final class Columns {
+        final int rows;
+        final long[] idNumbers;
+        final short[] idPrefixes;
+        final byte[] idDigits;
+        final int[] clients;
+        final int[] equipment;
+        final int[] starts;
+        final int[] ends;
+        final int[] created;
+        final int[] cents;
+        final byte[] statuses;
+        final String[] names;
+        final String[] prefixes;
+        final String[] statusNames;
+        final String[] irregularIds;
+
+        Columns(int rows, String[] names, String[] prefixes, String[] statusNames, String[] irregularIds) {
+            this.rows = rows;
+            idNumbers = new long[rows];
+            idPrefixes = new short[rows];
+            idDigits = new byte[rows];
+            clients = new int[rows];
+            equipment = new int[rows];
+            starts = new int[rows];
+            ends = new int[rows];
+            created = new int[rows];
+            cents = new int[rows];
+            statuses = new byte[rows];
+            this.names = names;
+            this.prefixes = prefixes;
+            this.statusNames = statusNames;
+            this.irregularIds = irregularIds;
+        }
+    }
+
+    private static final class Chunk {
+        final long[] idNumbers = new long[CHUNK_ROWS];
+        final short[] idPrefixes = new short[CHUNK_ROWS];
+        final byte[] idDigits = new byte[CHUNK_ROWS]; // 0: id kept whole in `irregularIds`, idNumbers holds its index
+        final int[] clients = new int[CHUNK_ROWS];
+        final int[] equipment = new int[CHUNK_ROWS];
+        final int[] starts = new int[CHUNK_ROWS];
+        final int[] ends = new int[CHUNK_ROWS];
+        final int[] created = new int[CHUNK_ROWS];
+        final int[] cents = new int[CHUNK_ROWS];
+        final byte[] statuses = new byte[CHUNK_ROWS];
+    }
+
+    private final IdDictionary names = new IdDictionary();    // client and equipment ids
+    private final IdDictionary prefixes = new IdDictionary(); // "RES_", ...
+    private final IdDictionary statuses = new IdDictionary();
+    private final List<String> irregularIds = new ArrayList<>();
+    private final Map<String, Integer> irregularRows = new HashMap<>();
+    private volatile Chunk[] chunks = new Chunk[16];
+    private volatile int size;
+    private int removedRows;
+    private int[] slots = new int[1024]; // open-addressed id index: row + 1, 0 = empty
+
+    public ReservationTable() {
+        for (String status : new String[] { "PENDING", "APPROVED", "CANCELLED", "IN_PROGRESS", "COMPLETED", "NO_SHOW" }) {
+            statuses.intern(status);
+        }
+    }
+
+    public int size() { return size; }
+
+    // Rows not removed
+    public synchronized int liveRows() { return size - removedRows; }
+
+    public Reservation view(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("No reservation row " + row);
+        }
+        return new Reservation(this, row);
+    }
+
+    // Copies `reservation` into a new row and returns it, or -1 if its id is already taken.
+    // Throws IllegalArgumentException for values a row cannot hold (dates past year 6000, costs over $21M).
+    public synchronized int append(Reservation reservation) {
+        String id = reservation.getReservationId();
+        if (rowOf(id) >= 0) {
+            return -1;
+        }
+        int start = minute(reservation.getStartTime());
+        int end = minute(reservation.getEndTime());
+        int made = minute(reservation.getCreatedAt());
+        int cost = cents(reservation.getCost());
+        byte status = statusCode(reservation.getStatus());
+        int row = size;
+        int chunkIndex = row >>> CHUNK_BITS;
+        Chunk[] directory = chunks;
+        if (chunkIndex == directory.length) {
+            directory = Arrays.copyOf(directory, directory.length * 2);
+        }
+        if (directory[chunkIndex] == null) {
+            directory[chunkIndex] = new Chunk();
+            chunks = directory;
+        }
+        Chunk chunk = directory[chunkIndex];
+        int i = row & (CHUNK_ROWS - 1);
+
+        int digits = digitCount(id);
+        int prefix = digits == 0 ? -1 : prefixCode(id.substring(0, id.length() - digits));
+        if (prefix < 0) {
+            chunk.idNumbers[i] = irregularIds.size();
+            chunk.idDigits[i] = 0;
+            irregularIds.add(id);
+            irregularRows.put(id, row);
+        } else {
+            chunk.idNumbers[i] = Long.parseLong(id, id.length() - digits, id.length(), 10);
+            chunk.idPrefixes[i] = (short) prefix;
+            chunk.idDigits[i] = (byte) digits;
+        }
+        chunk.clients[i] = names.intern(reservation.getClientId());
+        chunk.equipment[i] = names.intern(reservation.getEquipmentId());
+        chunk.starts[i] = start;
+        chunk.ends[i] = end;
+        chunk.created[i] = made;
+        chunk.cents[i] = cost;
+        STATUS.setVolatile(chunk.statuses, i, status);
+        size = row + 1;
+        if (prefix >= 0) {
+            index(row);
+        }
+        return row;
+    }
+
+    // -1 if no reservation has this id
+    public synchronized int rowOf(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int digits = digitCount(id);
+        int prefix = digits == 0 ? -1 : prefixes.lookup(id.substring(0, id.length() - digits));
+        if (prefix < 0) {
+            Integer row = irregularRows.get(id);
+            return row == null ? -1 : row;
+        }
+        long number = Long.parseLong(id, id.length() - digits, id.length(), 10);
+        int mask = slots.length - 1;
+        for (int slot = hash(prefix, number, digits) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            Chunk chunk = chunks[row >>> CHUNK_BITS];
+            int i = row & (CHUNK_ROWS - 1);
+            if (chunk.idNumbers[i] == number && chunk.idPrefixes[i] == prefix && chunk.idDigits[i] == digits
+                    && !isRemoved(row)) {
+                return row;
+            }
+        }
+        Integer row = irregularRows.get(id); // a regular-looking id stored whole because the prefix table was full
+        return row == null ? -1 : row;
+    }
+
+    // Marks the row deleted: rowOf() no longer finds its id, which can be appended again as a new row
+    public synchronized void remove(int row) {
+        if (isRemoved(row)) {
+            return;
+        }
+        if (chunk(row).idDigits[row & (CHUNK_ROWS - 1)] == 0) {
+            irregularRows.remove(reservationId(row));
+        }
+        STATUS.setVolatile(chunk(row).statuses, row & (CHUNK_ROWS - 1), REMOVED);
+        removedRows++;
+    }
+
+    public boolean isRemoved(int row) { return statusCode(row) == REMOVED; }
+
+    // The id's numeric part as IdGenerator.numericPart reads it, without building the id
+    public long numericPart(int row) {
+        Chunk chunk = chunk(row);
+        int i = row & (CHUNK_ROWS - 1);
+        if (chunk.idDigits[i] == 0 || !prefixes.get(chunk.idPrefixes[i]).endsWith("_")) {
+            return IdGenerator.numericPart(reservationId(row));
+        }
+        return chunk.idNumbers[i];
+    }
+
+    // A copy of every row, removed ones included, for a snapshot
+    synchronized Columns copyColumns() {
+        Columns copy = new Columns(size, names.toArray(), prefixes.toArray(), statuses.toArray(), irregularIds.toArray(new String[0]));
+        for (int from = 0; from < size; from += CHUNK_ROWS) {
+            Chunk chunk = chunks[from >>> CHUNK_BITS];
+            int n = Math.min(CHUNK_ROWS, size - from);
+            System.arraycopy(chunk.idNumbers, 0, copy.idNumbers, from, n);
+            System.arraycopy(chunk.idPrefixes, 0, copy.idPrefixes, from, n);
+            System.arraycopy(chunk.idDigits, 0, copy.idDigits, from, n);
+            System.arraycopy(chunk.clients, 0, copy.clients, from, n);
+            System.arraycopy(chunk.equipment, 0, copy.equipment, from, n);
+            System.arraycopy(chunk.starts, 0, copy.starts, from, n);
+            System.arraycopy(chunk.ends, 0, copy.ends, from, n);
+            System.arraycopy(chunk.created, 0, copy.created, from, n);
+            System.arraycopy(chunk.cents, 0, copy.cents, from, n);
+            System.arraycopy(chunk.statuses, 0, copy.statuses, from, n);
+        }
+        return copy;
+    }
+
+    // Fills an empty table from copyColumns() output and rebuilds the id index from the columns
+    synchronized void load(Columns columns) {
+        if (size != 0) {
+            throw new IllegalStateException("Table already holds " + size + " rows");
+        }
+        intern(names, columns.names);
+        intern(prefixes, columns.prefixes);
+        intern(statuses, columns.statusNames);
+        irregularIds.addAll(Arrays.asList(columns.irregularIds));
+        Chunk[] directory = new Chunk[Math.max(16, (columns.rows + CHUNK_ROWS - 1) >>> CHUNK_BITS)];
+        for (int from = 0; from < columns.rows; from += CHUNK_ROWS) {
+            Chunk chunk = new Chunk();
+            int n = Math.min(CHUNK_ROWS, columns.rows - from);
+            System.arraycopy(columns.idNumbers, from, chunk.idNumbers, 0, n);
+            System.arraycopy(columns.idPrefixes, from, chunk.idPrefixes, 0, n);
+            System.arraycopy(columns.idDigits, from, chunk.idDigits, 0, n);
+            System.arraycopy(columns.clients, from, chunk.clients, 0, n);
+            System.arraycopy(columns.equipment, from, chunk.equipment, 0, n);
+            System.arraycopy(columns.starts, from, chunk.starts, 0, n);
+            System.arraycopy(columns.ends, from, chunk.ends, 0, n);
+            System.arraycopy(columns.created, from, chunk.created, 0, n);
+            System.arraycopy(columns.cents, from, chunk.cents, 0, n);
+            System.arraycopy(columns.statuses, from, chunk.statuses, 0, n);
+            directory[from >>> CHUNK_BITS] = chunk;
+        }
+        chunks = directory;
+        slots = new int[Math.max(1024, Integer.highestOneBit(Math.max(1, columns.rows)) * 4)];
+        for (int row = 0; row < columns.rows; row++) {
+            if (columns.statuses[row] == REMOVED) {
+                removedRows++;
+            } else if (columns.idDigits[row] == 0) {
+                irregularRows.put(columns.irregularIds[(int) columns.idNumbers[row]], row);
+            } else {
+                place(row);
+            }
+        }
+        size = columns.rows;
+    }
+
+    private static void intern(IdDictionary dictionary, String[] values) {
+        for (int code = 0; code < values.length; code++) {
+            if (dictionary.intern(values[code]) != code) {
+                throw new IllegalStateException("Dictionary code " + code + " does not match " + values[code]);
+            }
+        }
+    }
+
+    private void index(int row) {
+        if (size * 2 > slots.length) {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            for (int entry : old) {
+                if (entry != 0) {
+                    place(entry - 1);
+                }
+            }
+        }
+        place(row);
+    }
+
+    private void place(int row) {
+        Chunk chunk = chunks[row >>> CHUNK_BITS];
+        int i = row & (CHUNK_ROWS - 1);
+        int mask = slots.length - 1;
+        int slot = hash(chunk.idPrefixes[i], chunk.idNumbers[i], chunk.idDigits[i]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private static int hash(int prefix, long number, int digits) {
+        long h = (number * 0x9E3779B97F4A7C15L) ^ ((long) prefix << 8 | digits);
+        return (int) (h ^ (h >>> 29));
+    }
+
+    // Length of the id's trailing run of digits, 0 if there is none or it is too long for a long
+    private static int digitCount(String id) {
+        int digits = 0;
+        for (int at = id.length() - 1; at >= 0 && id.charAt(at) >= '0' && id.charAt(at) <= '9'; at--) {
+            digits++;
+        }
+        if (digits > MAX_DIGITS || digits == MAX_DIGITS && id.substring(id.length() - digits).compareTo(LARGEST) > 0) {
+            return 0;
+        }
+        return digits;
+    }
+
+    private int prefixCode(String prefix) {
+        int code = prefixes.lookup(prefix);
+        if (code < 0 && prefixes.size() <= Short.MAX_VALUE) {
+            code = prefixes.intern(prefix);
+        }
+        return code;
+    }
+
+    private byte statusCode(String status) {
+        int code = statuses.lookup(status);
+        if (code < 0) {
+            if (status == null || statuses.size() > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Cannot store reservation status " + status);
+            }
+            code = statuses.intern(status);
+        }
+        return (byte) code;
+    }
+
+    // Throws the IllegalArgumentException append() would for these values, without adding a row
+    public static void checkStorable(LocalDateTime start, LocalDateTime end, LocalDateTime createdAt, double cost) {
+        minute(start);
+        minute(end);
+        minute(createdAt);
+        cents(cost);
+    }
+
+    private static int minute(LocalDateTime time) {
+        long minute = DateTimeHandler.toEpochMinute(time);
+        if (minute != (int) minute) {
+            throw new IllegalArgumentException("Date out of range: " + time);
+        }
+        return (int) minute;
+    }
+
+    private static int cents(double cost) {
+        long cents = Math.round(cost * 100);
+        if (cents != (int) cents) {
+            throw new IllegalArgumentException("Cost out of range: " + cost);
+        }
+        return (int) cents;
+    }
+
+    private Chunk chunk(int row) { return chunks[row >>> CHUNK_BITS]; }
+
+    // Column access without building a view
+    public int startMinute(int row) { return chunk(row).starts[row & (CHUNK_ROWS - 1)]; }
+    public int endMinute(int row) { return chunk(row).ends[row & (CHUNK_ROWS - 1)]; }
+    public int createdMinute(int row) { return chunk(row).created[row & (CHUNK_ROWS - 1)]; }
+    public byte statusCode(int row) { return (byte) STATUS.getVolatile(chunk(row).statuses, row & (CHUNK_ROWS - 1)); }
+
+    @Override
+    public String reservationId(int row) {
+        Chunk chunk = chunk(row);
+        int i = row & (CHUNK_ROWS - 1);
+        int digits = chunk.idDigits[i];
+        if (digits == 0) {
+            synchronized (this) {
+                return irregularIds.get((int) chunk.idNumbers[i]);
+            }
+        }
+        String number = Long.toString(chunk.idNumbers[i]);
+        StringBuilder id = new StringBuilder(prefixes.get(chunk.idPrefixes[i]));
+        for (int pad = number.length(); pad < digits; pad++) {
+            id.append('0');
+        }
+        return id.append(number).toString();
+    }
+
+    @Override
+    public String clientId(int row) { return names.get(chunk(row).clients[row & (CHUNK_ROWS - 1)]); }
+
+    @Override
+    public String equipmentId(int row) { return names.get(chunk(row).equipment[row & (CHUNK_ROWS - 1)]); }
+
+    @Override
+    public LocalDateTime startTime(int row) { return DateTimeHandler.fromEpochMinute(startMinute(row)); }
+
+    @Override
+    public LocalDateTime endTime(int row) { return DateTimeHandler.fromEpochMinute(endMinute(row)); }
+
+    @Override
+    public LocalDateTime createdAt(int row) { return DateTimeHandler.fromEpochMinute(createdMinute(row)); }
+
+    @Override
+    public String status(int row) {
+        byte code = statusCode(row);
+        return code == REMOVED ? "REMOVED" : statuses.get(code);
+    }
+
+    @Override
+    public double cost(int row) { return chunk(row).cents[row & (CHUNK_ROWS - 1)] / 100.0; }
+
+    @Override
+    public void setStatus(int row, String status) {
+        byte code;
+        synchronized (this) {
+            code = statusCode(status);
+        }
+        STATUS.setVolatile(chunk(row).statuses, row & (CHUNK_ROWS - 1), code);
+    }
+
+    @Override
+    public void setCost(int row, double cost) { chunk(row).cents[row & (CHUNK_ROWS - 1)] = cents(cost); }
+
+    @Override
+    public void setCreatedAt(int row, LocalDateTime createdAt) { chunk(row).created[row & (CHUNK_ROWS - 1)] = minute(createdAt); }
+
+    // Heap held by the columns and the id index; the dictionaries and irregular ids are not counted
+    public synchronized long allocatedBytes() {
+        long chunkCount = (size + CHUNK_ROWS - 1) >>> CHUNK_BITS;
+        return chunkCount * CHUNK_ROWS * ROW_BYTES + slots.length * 4L;
+    }
+}
@@ -0,0 +1,198 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.time.*;
+import java.time.temporal.*;
+import makerspace.utils.DateTimeHandler;
+import makerspace.utils.FenwickTree;
+
+// Revenue and utilization rolled up by day for every equipment, equipment type, location and the
+// whole space. Each (dimension key, metric) cell is a Fenwick tree over days, so any [from, to)
+// range is two prefix sums and weekly/monthly series are one range query per bucket.
+// Fed by reservation transitions; on startup the loaded reservations are replayed into it.
+public class RollupCube implements ReservationListener {
+    public static final String ALL = "ALL";
+    public static final String EQUIPMENT = "EQUIPMENT";
+    public static final String TYPE = "TYPE";
+    public static final String LOCATION = "LOCATION";
+
+    public static final String DAY = "DAY";
+    public static final String WEEK = "WEEK";   // Monday-based
+    public static final String MONTH = "MONTH";
+
+    // Metrics, one Fenwick tree each per cell
+    public static final int REVENUE_CENTS = 0;  // completed reservations, by start day
+    public static final int BOOKED_CENTS = 1;   // anything not cancelled, by start day
+    public static final int BOOKED_MINUTES = 2; // anything not cancelled, split across the days it covers
+    private static final int METRICS = 3;
+
+    private static final int MARGIN_DAYS = 366; // room kept before the first day seen, so earlier days rarely force a rebuild
+
+    private final EquipmentService equipmentService;
+    private final Supplier<Clock> clock; // the services' clock, read when the first booking arrives
+    private final Map<String, FenwickTree[]> cells = new HashMap<>();            // "TYPE:3D_PRINTER" -> per-metric trees
+    private final Map<String, String[]> cellsByEquipment = new ConcurrentHashMap<>(); // equipmentId -> the cells it feeds
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long originDay = Long.MIN_VALUE; // epoch day of index 0
+
+    public RollupCube(EquipmentService equipmentService, Supplier<Clock> clock) {
+        this.equipmentService = equipmentService;
+        this.clock = clock;
+    }
+
+    @Override
+    public void onTransition(Reservation reservation, String oldStatus, String newStatus) {
+        boolean wasBooked = oldStatus != null && !"CANCELLED".equals(oldStatus);
+        boolean isBooked = newStatus != null && !"CANCELLED".equals(newStatus);
+        int revenueDelta = ("COMPLETED".equals(newStatus) ? 1 : 0) - ("COMPLETED".equals(oldStatus) ? 1 : 0);
+        int bookedDelta = (isBooked ? 1 : 0) - (wasBooked ? 1 : 0);
+        if (revenueDelta == 0 && bookedDelta == 0) {
+            return;
+        }
+        long cents = Math.round(reservation.getCost() * 100);
+        long startDay = reservation.getStartTime().toLocalDate().toEpochDay();
+        String[] keys = cellsByEquipment.computeIfAbsent(reservation.getEquipmentId(), this::cellKeys);
+
+        lock.writeLock().lock();
+        try {
+            ensureCovers(startDay);
+            for (String key : keys) {
+                FenwickTree[] trees = cells.computeIfAbsent(key, k -> newCell());
+                int index = (int) (startDay - originDay);
+                if (revenueDelta != 0) {
+                    trees[REVENUE_CENTS].add(index, revenueDelta * cents);
+                }
+                if (bookedDelta != 0) {
+                    trees[BOOKED_CENTS].add(index, bookedDelta * cents);
+                    addMinutesByDay(trees[BOOKED_MINUTES], reservation.getStartTime(), reservation.getEndTime(), bookedDelta);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Total of a metric over [from, to) for one cell, e.g. (REVENUE_CENTS, TYPE, "3D_PRINTER", ...)
+    public long sum(int metric, String dimension, String key, LocalDate from, LocalDate to) {
+        lock.readLock().lock();
+        try {
+            FenwickTree[] trees = cells.get(cellKey(dimension, key));
+            if (trees == null || originDay == Long.MIN_VALUE) {
+                return 0;
+            }
+            return trees[metric].rangeSum(index(from.toEpochDay()), index(to.toEpochDay()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // One total per DAY/WEEK/MONTH bucket overlapping [from, to), keyed by bucket start
+    public Map<LocalDate, Long> series(int metric, String dimension, String key, LocalDate from, LocalDate to, String granularity) {
+        Map<LocalDate, Long> series = new LinkedHashMap<>();
+        for (LocalDate bucket = bucketStart(from, granularity); bucket.isBefore(to); bucket = nextBucket(bucket, granularity)) {
+            LocalDate bucketFrom = bucket.isBefore(from) ? from : bucket;
+            LocalDate bucketTo = nextBucket(bucket, granularity).isAfter(to) ? to : nextBucket(bucket, granularity);
+            series.put(bucket, sum(metric, dimension, key, bucketFrom, bucketTo));
+        }
+        return series;
+    }
+
+    // Booked share of the machine-hours available in [from, to), 0..1
+    public double utilization(String dimension, String key, LocalDate from, LocalDate to) {
+        long available = machines(dimension, key) * ChronoUnit.DAYS.between(from, to) * 24 * 60;
+        return available <= 0 ? 0 : sum(BOOKED_MINUTES, dimension, key, from, to) / (double) available;
+    }
+
+    // Machines counted under the dimension's key, i.e. the denominator of utilization()
+    public long machines(String dimension, String key) {
+        return equipmentService.getAllEquipment().stream()
+                .filter(eq -> Arrays.asList(cellKeys(eq.getEquipmentId())).contains(cellKey(dimension, key)))
+                .count();
+    }
+
+    public static LocalDate bucketStart(LocalDate date, String granularity) {
+        if (WEEK.equals(granularity)) {
+            return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+        if (MONTH.equals(granularity)) {
+            return date.withDayOfMonth(1);
+        }
+        return date;
+    }
+
+    public static LocalDate nextBucket(LocalDate bucket, String granularity) {
+        if (WEEK.equals(granularity)) {
+            return bucket.plusWeeks(1);
+        }
+        if (MONTH.equals(granularity)) {
+            return bucket.plusMonths(1);
+        }
+        return bucket.plusDays(1);
+    }
+
+    private String[] cellKeys(String equipmentId) {
+        Equipment eq = null;
+        try {
+            eq = equipmentService.getEquipmentById(equipmentId);
+        } catch (Exception e) {
+            // equipment removed since; its history still counts towards the whole space
+        }
+        if (eq == null) {
+            return new String[] { ALL, cellKey(EQUIPMENT, equipmentId) };
+        }
+        return new String[] { ALL, cellKey(EQUIPMENT, equipmentId),
+                cellKey(TYPE, eq.getEquipmentType()), cellKey(LOCATION, eq.getLocation()) };
+    }
+
+    private static String cellKey(String dimension, String key) {
+        return ALL.equals(dimension) ? ALL : dimension + ":" + String.valueOf(key).toUpperCase();
+    }
+
+    private int index(long epochDay) {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, epochDay - originDay));
+    }
+
+    private static FenwickTree[] newCell() {
+        FenwickTree[] trees = new FenwickTree[METRICS];
+        for (int m = 0; m < METRICS; m++) {
+            trees[m] = new FenwickTree(2 * MARGIN_DAYS);
+        }
+        return trees;
+    }
+
+    // Caller holds the write lock and has made sure the start day is covered
+    private void addMinutesByDay(FenwickTree tree, LocalDateTime start, LocalDateTime end, int sign) {
+        LocalDateTime cursor = start;
+        while (cursor.isBefore(end)) {
+            LocalDateTime dayEnd = cursor.toLocalDate().plusDays(1).atStartOfDay();
+            LocalDateTime pieceEnd = dayEnd.isBefore(end) ? dayEnd : end;
+            tree.add((int) (cursor.toLocalDate().toEpochDay() - originDay), sign * (DateTimeHandler.toEpochMinute(pieceEnd) - DateTimeHandler.toEpochMinute(cursor)));
+            cursor = pieceEnd;
+        }
+    }
+
+    // Moves the origin back (rebuilding every tree) if `day` falls before it
+    private void ensureCovers(long day) {
+        if (originDay == Long.MIN_VALUE) {
+            originDay = Math.min(day, LocalDate.now(clock.get()).toEpochDay()) - MARGIN_DAYS;
+            return;
+        }
+        if (day >= originDay) {
+            return;
+        }
+        long newOrigin = day - MARGIN_DAYS;
+        int shift = (int) (originDay - newOrigin);
+        for (FenwickTree[] trees : cells.values()) {
+            for (int m = 0; m < METRICS; m++) {
+                long[] values = trees[m].toArray();
+                long[] shifted = new long[values.length + shift];
+                System.arraycopy(values, 0, shifted, shift, values.length);
+                trees[m] = FenwickTree.of(shifted);
+            }
+        }
+        originDay = newOrigin;
+    }
+}
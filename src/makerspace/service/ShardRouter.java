@@ -0,0 +1,492 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import makerspace.exceptions.*;
+import makerspace.utils.*;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+// Sits in front of the per-location EquipmentService/ReservationService pairs (see LocationShard).
+// Writes go to the shard owning the machine or booking and run on that shard's writer thread;
+// reads that name a location go to its shard; everything fleet-wide (listings without a location,
+// a client's bookings, reports) fans out to every shard in parallel and is merged here.
+//
+// open() keeps shards under <data>/shards/<slug>/. The first sharded start splits the global
+// equipment and reservation files by location into them; from then on the shard directories are
+// the only copy that changes, and the root directory keeps just the users. The root's own
+// equipment and reservation files are left as they were at the split, so a split directory must
+// not be started unsharded again (see isSplit).
+public class ShardRouter {
+    static final String SHARDS_DIRECTORY = "shards";
+
+    private final DbService root;
+    private final UserService userService;
+    private final Map<String, LocationShard> shards = new ConcurrentHashMap<>(); // slug -> shard
+    private final Map<String, LocationShard> equipmentShards = new ConcurrentHashMap<>(); // equipmentId -> owning shard
+    private final ExecutorService fanOut;
+    private static final Metrics.Timer FAN_OUT = Metrics.timer("shards.fanOut");
+
+    private ShardRouter(DbService root, UserService userService) {
+        this.root = root;
+        this.userService = userService;
+        this.fanOut = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-fan-out");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // The unsharded services as a single shard covering every location; writes stay on the caller's thread
+    public static ShardRouter single(UserService userService, EquipmentService equipmentService,
+                                     ReservationService reservationService, ReportService reportService) {
+        ShardRouter router = new ShardRouter(null, userService);
+        router.shards.put("", new LocationShard(null, null, equipmentService, reservationService, reportService, null, null));
+        return router;
+    }
+
+    // Whether the data directory has been split into location shards
+    public static boolean isSplit(String dataDirectory) {
+        return Files.isDirectory(Paths.get(dataDirectory, SHARDS_DIRECTORY));
+    }
+
+    // Opens every shard under <root>/shards in parallel, splitting the global files first if there are none yet
+    public static ShardRouter open(DbService root, UserService userService) throws Exception {
+        ShardRouter router = new ShardRouter(root, userService);
+        Path shardsDir = Paths.get(root.getDataDirectory(), SHARDS_DIRECTORY);
+        if (!Files.isDirectory(shardsDir)) {
+            router.split(shardsDir);
+        }
+        List<Path> directories = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(shardsDir, Files::isDirectory)) {
+            entries.forEach(directories::add);
+        }
+        List<Future<LocationShard>> opening = new ArrayList<>();
+        for (Path directory : directories) {
+            opening.add(router.fanOut.submit(() -> LocationShard.open(directory, LocationShard.readLocation(directory), root, userService)));
+        }
+        for (Future<LocationShard> shard : opening) {
+            router.add(unwrap(shard));
+        }
+        router.registerGauges();
+        router.attachHistories();
+        return router;
+    }
+
+    // First sharded start: copies each machine, and each booking by its machine's location, into its shard
+    private void split(Path shardsDir) throws Exception {
+        Map<String, Equipment> equipment = root.loadEquipment();
+        if (equipment.isEmpty()) {
+            equipment = new HashMap<>();
+            for (Equipment eq : new EquipmentService(root, equipment).getAllEquipment()) { // stocks the defaults
+                equipment.put(eq.getEquipmentId(), eq);
+            }
+        }
+        Path staging = Paths.get(shardsDir + ".partial");
+        Map<String, DbService> stores = new HashMap<>();
+        for (Equipment eq : equipment.values()) {
+            store(stores, staging, eq.getLocation()).saveEquipment(eq);
+        }
+        int skipped = 0;
+        for (Reservation reservation : root.loadReservations().values()) {
+            Equipment eq = equipment.get(reservation.getEquipmentId());
+            if (eq == null) {
+                skipped++;
+                continue;
+            }
+            store(stores, staging, eq.getLocation()).saveReservation(reservation);
+        }
+        for (DbService store : stores.values()) {
+            store.flush().get();
+        }
+        if (skipped > 0) {
+            System.err.println("Left " + skipped + " reservations for unknown equipment out of the shards");
+        }
+        // Only a complete split becomes the shards directory; a crash before this line redoes it next start
+        Files.move(staging, shardsDir, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Split " + equipment.size() + " machines into " + stores.size() + " location shards");
+    }
+
+    private static DbService store(Map<String, DbService> stores, Path staging, String location) throws IOException {
+        String slug = LocationShard.slug(location == null ? "" : location);
+        DbService store = stores.get(slug);
+        if (store == null) {
+            Path directory = staging.resolve(slug);
+            Files.createDirectories(directory);
+            Files.writeString(directory.resolve("location.txt"), (location == null ? "" : location.trim()) + System.lineSeparator());
+            store = new DbService(directory.toString());
+            stores.put(slug, store);
+        }
+        return store;
+    }
+
+    private void add(LocationShard shard) {
+        String slug = LocationShard.slug(shard.getLocation());
+        shards.put(slug, shard);
+        for (Equipment eq : shard.getEquipmentService().getAllEquipment()) {
+            equipmentShards.put(eq.getEquipmentId(), shard);
+        }
+        Metrics.gauge("shards." + slug + ".queuedWrites", shard::getQueuedWrites);
+        Metrics.gauge("shards." + slug + ".reservations", shard.getReservationService()::getReservationCount);
+    }
+
+    private void registerGauges() {
+        Metrics.gauge("equipment.count", () -> shards().stream().mapToLong(s -> s.getEquipmentService().getAllEquipment().size()).sum());
+        Metrics.gauge("reservations.count", () -> shards().stream().mapToLong(s -> s.getReservationService().getReservationCount()).sum());
+        Metrics.gauge("lifecycle.pendingTimers", () -> shards().stream().mapToLong(s -> s.getLifecycle().getPendingCount()).sum());
+        Metrics.gauge("shards.count", shards::size);
+        Metrics.gauge("shards.queuedWrites", () -> shards().stream().mapToLong(LocationShard::getQueuedWrites).sum());
+    }
+
+    // Each shard attaches its own index as a client's history; a client booking in several labs needs all of them
+    private void attachHistories() {
+        for (Client client : userService.getAllClients()) {
+            attachHistory(client);
+        }
+    }
+
+    private void attachHistory(Client client) {
+        if (shards.size() > 1) {
+            String clientId = client.getUserId();
+            client.attachReservationHistory(() -> getReservationsByUser(clientId));
+        }
+    }
+
+    // Shards in location order
+    public List<LocationShard> shards() {
+        List<LocationShard> all = new ArrayList<>(shards.values());
+        all.sort(Comparator.comparing(LocationShard::toString, String.CASE_INSENSITIVE_ORDER));
+        return all;
+    }
+
+    // Starts every shard's lifecycle ticker (sharded mode; the unsharded caller runs its own)
+    public void startLifecycles() {
+        for (LocationShard shard : shards.values()) {
+            if (shard.getLifecycle() != null) {
+                shard.getLifecycle().start();
+            }
+        }
+    }
+
+    public LocationShard shardForLocation(String location) throws EquipmentUnavailableException {
+        for (LocationShard shard : shards.values()) {
+            if (shard.covers(location)) {
+                return shard;
+            }
+        }
+        throw new EquipmentUnavailableException("No lab at location " + location);
+    }
+
+    // From the equipmentId map filled at open and on add; a machine added around the router (the
+    // unsharded services used directly) is found by asking each shard once and then remembered
+    public LocationShard shardForEquipment(String equipmentId) throws EquipmentUnavailableException {
+        LocationShard owner = equipmentShards.get(equipmentId);
+        if (owner != null) {
+            return owner;
+        }
+        for (LocationShard shard : shards.values()) {
+            if (shard.getEquipmentService().containsEquipment(equipmentId)) {
+                equipmentShards.put(equipmentId, shard);
+                return shard;
+            }
+        }
+        throw new EquipmentUnavailableException("Equipment not found: " + equipmentId);
+    }
+
+    public LocationShard shardForReservation(String reservationId) throws InvalidReservationException {
+        for (LocationShard shard : shards.values()) {
+            if (shard.getReservationService().containsReservation(reservationId)) {
+                return shard;
+            }
+        }
+        throw new InvalidReservationException("Reservation not found");
+    }
+
+    // Runs `query` on every shard at once (inline when there is only one) and returns the answers in shard order
+    private <T> List<T> fanOut(Function<LocationShard, T> query) {
+        List<LocationShard> targets = shards();
+        if (targets.size() == 1) {
+            return List.of(query.apply(targets.get(0)));
+        }
+        long started = FAN_OUT.start();
+        try {
+            List<CompletableFuture<T>> answers = new ArrayList<>(targets.size());
+            for (LocationShard shard : targets) {
+                answers.add(CompletableFuture.supplyAsync(() -> query.apply(shard), fanOut));
+            }
+            List<T> results = new ArrayList<>(targets.size());
+            for (CompletableFuture<T> answer : answers) {
+                results.add(answer.join());
+            }
+            return results;
+        } catch (CompletionException e) {
+            FAN_OUT.failed();
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } finally {
+            FAN_OUT.stop(started);
+        }
+    }
+
+    private static <T> List<T> concat(List<List<T>> parts) {
+        List<T> all = new ArrayList<>();
+        parts.forEach(all::addAll);
+        return all;
+    }
+
+    // Equipment
+
+    public List<Equipment> getAllEquipment() {
+        return concat(fanOut(shard -> shard.getEquipmentService().getAllEquipment()));
+    }
+
+    public List<Equipment> getAvailableEquipment() {
+        return concat(fanOut(shard -> shard.getEquipmentService().getAvailableEquipment()));
+    }
+
+    public List<Printer3D> get3DPrinters() {
+        return concat(fanOut(shard -> shard.getEquipmentService().get3DPrinters()));
+    }
+
+    public Equipment getEquipmentById(String equipmentId) throws EquipmentUnavailableException {
+        return shardForEquipment(equipmentId).getEquipmentService().getEquipmentById(equipmentId);
+    }
+
+    // See EquipmentService.findEquipment; a location keeps the query to its own lab
+    public List<Equipment> findEquipment(String status, String type, String location,
+                                         String printTech, String material, String partSize) {
+        if (location != null) {
+            try {
+                return shardForLocation(location).getEquipmentService().findEquipment(status, type, location, printTech, material, partSize);
+            } catch (EquipmentUnavailableException e) {
+                return new ArrayList<>();
+            }
+        }
+        return concat(fanOut(shard -> shard.getEquipmentService().findEquipment(status, type, null, printTech, material, partSize)));
+    }
+
+    public Map<Equipment, List<LocalDateTime>> findFreeSlots(String type, String printTech, String location,
+                                                            int hours, LocalDateTime from, LocalDateTime to, int maxStarts) {
+        Map<Equipment, List<LocalDateTime>> free = new LinkedHashMap<>();
+        if (location != null) {
+            try {
+                return shardForLocation(location).getEquipmentService().findFreeSlots(type, printTech, location, hours, from, to, maxStarts);
+            } catch (EquipmentUnavailableException e) {
+                return free;
+            }
+        }
+        fanOut(shard -> shard.getEquipmentService().findFreeSlots(type, printTech, null, hours, from, to, maxStarts)).forEach(free::putAll);
+        return free;
+    }
+
+    public void setEquipmentStatus(String equipmentId, String status) throws Exception {
+        LocationShard shard = shardForEquipment(equipmentId);
+        shard.execute(() -> {
+            shard.getEquipmentService().setEquipmentStatus(equipmentId, status);
+            return null;
+        });
+    }
+
+    // Admin bulk job, e.g. a whole lab into MAINTENANCE: one task on that lab's writer. Returns the machines changed.
+    public int setLocationStatus(String location, String status) throws Exception {
+        LocationShard shard = shardForLocation(location);
+        return shard.execute(() -> {
+            int changed = 0;
+            for (Equipment eq : shard.getEquipmentService().findEquipment(null, null, location, null, null, null)) {
+                shard.getEquipmentService().setEquipmentStatus(eq.getEquipmentId(), status);
+                changed++;
+            }
+            return changed;
+        });
+    }
+
+    // A machine at a new location opens a new shard
+    public String addEquipment(Equipment equipment) throws Exception {
+        LocationShard shard;
+        try {
+            shard = shardForLocation(equipment.getLocation());
+        } catch (EquipmentUnavailableException e) {
+            shard = openShard(equipment.getLocation());
+        }
+        LocationShard owner = shard;
+        String equipmentId = owner.execute(() -> owner.getEquipmentService().addEquipment(equipment));
+        equipmentShards.put(equipmentId, owner);
+        return equipmentId;
+    }
+
+    private synchronized LocationShard openShard(String location) throws Exception {
+        String slug = LocationShard.slug(location);
+        LocationShard shard = shards.get(slug);
+        if (shard == null) {
+            shard = LocationShard.open(Paths.get(root.getDataDirectory(), SHARDS_DIRECTORY, slug), location.trim(), root, userService);
+            shard.getLifecycle().start();
+            add(shard);
+        }
+        return shard;
+    }
+
+    // Reservations
+
+    public String createReservation(String clientId, String equipmentId, LocalDateTime startTime, LocalDateTime endTime) throws Exception {
+        LocationShard shard = shardForEquipment(equipmentId);
+        String reservationId = shard.execute(() -> shard.getReservationService().createReservation(clientId, equipmentId, startTime, endTime));
+        User user = userService.getUserById(clientId);
+        if (user instanceof Client) {
+            attachHistory((Client) user);
+        }
+        return reservationId;
+    }
+
+    public void cancelReservation(String reservationId, String userId) throws Exception {
+        LocationShard shard = shardForReservation(reservationId);
+        shard.execute(() -> {
+            shard.getReservationService().cancelReservation(reservationId, userId);
+            return null;
+        });
+    }
+
+    public void checkIn(String reservationId, String userId) throws Exception {
+        LocationShard shard = shardForReservation(reservationId);
+        shard.execute(() -> {
+            shard.getReservationService().checkIn(reservationId, userId);
+            return null;
+        });
+    }
+
+    public void completeReservation(String reservationId) throws Exception {
+        LocationShard shard = shardForReservation(reservationId);
+        shard.execute(() -> {
+            shard.getReservationService().completeReservation(reservationId);
+            return null;
+        });
+    }
+
+    public Reservation getReservationById(String reservationId) throws InvalidReservationException {
+        return shardForReservation(reservationId).getReservationService().getReservationById(reservationId);
+    }
+
+    public List<Reservation> getAllReservations() {
+        return concat(fanOut(shard -> shard.getReservationService().getAllReservations()));
+    }
+
+    // Newest first across every lab
+    public List<Reservation> getReservationsByUser(String userId) {
+        return getReservationsByUser(userId, 0, Integer.MAX_VALUE);
+    }
+
+    // Each shard's first offset + limit are enough to fill the merged page. Shards are merged by
+    // creation minute with each shard's own order kept inside a minute, so pages never overlap.
+    public List<Reservation> getReservationsByUser(String userId, int offset, int limit) {
+        if (shards.size() == 1) {
+            return shards().get(0).getReservationService().getReservationsByUser(userId, offset, limit);
+        }
+        int wanted = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        List<List<Reservation>> parts = fanOut(shard -> shard.getReservationService().getReservationsByUser(userId, 0, wanted));
+        int[] next = new int[parts.size()];
+        List<Reservation> page = new ArrayList<>();
+        for (int taken = 0; taken < wanted; taken++) {
+            int newest = -1;
+            for (int p = 0; p < parts.size(); p++) {
+                if (next[p] < parts.get(p).size() && (newest < 0
+                        || parts.get(p).get(next[p]).getCreatedAt().isAfter(parts.get(newest).get(next[newest]).getCreatedAt()))) {
+                    newest = p;
+                }
+            }
+            if (newest < 0) {
+                break;
+            }
+            Reservation reservation = parts.get(newest).get(next[newest]++);
+            if (taken >= offset) {
+                page.add(reservation);
+            }
+        }
+        return page;
+    }
+
+    public int countReservationsByUser(String userId) {
+        return fanOut(shard -> shard.getReservationService().countReservationsByUser(userId)).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    // Reports, each shard's figures merged
+
+    public Map<Equipment, Long> getEquipmentUsage() {
+        Map<Equipment, Long> usage = new LinkedHashMap<>();
+        fanOut(shard -> shard.getReportService().getEquipmentUsage()).forEach(usage::putAll);
+        return usage;
+    }
+
+    public Map<Equipment, Double> getEquipmentBookedHours() {
+        Map<Equipment, Double> hours = new LinkedHashMap<>();
+        fanOut(shard -> shard.getReportService().getEquipmentBookedHours()).forEach(hours::putAll);
+        return hours;
+    }
+
+    public double getTotalRevenue() {
+        return fanOut(shard -> shard.getReportService().getTotalRevenue()).stream().mapToDouble(Double::doubleValue).sum();
+    }
+
+    public long getCompletedReservationCount() {
+        return fanOut(shard -> shard.getReportService().getCompletedReservationCount()).stream().mapToLong(Long::longValue).sum();
+    }
+
+    public Map<String, Double> getRevenueByStatus() {
+        return sumByKey(fanOut(shard -> shard.getReportService().getRevenueByStatus()));
+    }
+
+    public long getReservationCountByStatus(String status) {
+        return fanOut(shard -> shard.getReportService().getReservationCountByStatus(status)).stream().mapToLong(Long::longValue).sum();
+    }
+
+    public Map<Client, Integer> getUserActivity() {
+        Map<Client, Integer> activity = new LinkedHashMap<>();
+        fanOut(shard -> shard.getReportService().getUserActivity())
+                .forEach(part -> part.forEach((client, count) -> activity.merge(client, count, Integer::sum)));
+        return activity;
+    }
+
+    public Map<Client, Double> getClientSpend() {
+        return sumByKey(fanOut(shard -> shard.getReportService().getClientSpend()));
+    }
+
+    public Map<LocalDate, Double> getRevenueSeries(String dimension, String key, LocalDate from, LocalDate to, String granularity) {
+        return sumByKey(fanOut(shard -> shard.getReportService().getRevenueSeries(dimension, key, from, to, granularity)));
+    }
+
+    // Each lab's utilisation weighted by how many of its machines count under the dimension
+    public Map<LocalDate, Double> getUtilizationSeries(String dimension, String key, LocalDate from, LocalDate to, String granularity) {
+        if (shards.size() == 1) {
+            return shards().get(0).getReportService().getUtilizationSeries(dimension, key, from, to, granularity);
+        }
+        List<Object[]> parts = fanOut(shard -> new Object[] {
+                shard.getReportService().getUtilizationSeries(dimension, key, from, to, granularity),
+                shard.getReportService().getMachineCount(dimension, key) });
+        Map<LocalDate, Double> booked = new LinkedHashMap<>();
+        long machines = 0;
+        for (Object[] part : parts) {
+            @SuppressWarnings("unchecked")
+            Map<LocalDate, Double> series = (Map<LocalDate, Double>) part[0];
+            long count = (Long) part[1];
+            machines += count;
+            series.forEach((bucket, share) -> booked.merge(bucket, share * count, Double::sum));
+        }
+        long total = machines;
+        booked.replaceAll((bucket, weighted) -> total == 0 ? 0 : weighted / total);
+        return booked;
+    }
+
+    private static <K> Map<K, Double> sumByKey(List<Map<K, Double>> parts) {
+        Map<K, Double> sum = new LinkedHashMap<>();
+        parts.forEach(part -> part.forEach((k, v) -> sum.merge(k, v, Double::sum)));
+        return sum;
+    }
+
+    private static <T> T unwrap(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// Binary checkpoint of the three services' state, written by DbService at each compaction and
+// read at startup in place of the text base files. Layout (big-endian, DataOutput encoding):
+//
+//   header        int magic "MKSN", short version, long written-at millis, long journal epoch,
+//                 long journal seq: the last record the snapshot covers
+//   users         int count, then per user: byte kind (0 client, 1 admin), UTF id, username,
+//                 email, password, then double balance + UTF level (client) or UTF tier (admin)
+//   equipment     int count, then per machine: byte kind (0 equipment, 1 printer), UTF id, name,
+//                 status, then UTF type, double hourCost, UTF location (equipment) or double
+//                 hourCost, UTF location, printTech, printVolume, boolean + UTF printMaterial (printer)
+//   reservations  int rows, four dictionaries (client/machine ids, id prefixes, statuses,
+//                 irregular ids) as int count + UTF each, then ReservationTable's columns one after
+//                 the other as raw arrays: idNumbers, idPrefixes, idDigits, clients, equipment,
+//                 starts, ends, created, cents, statuses (ROW_BYTES a row)
+//   trailer       long CRC32 of everything above
+//
+// Reservations go in and out as ReservationTable.Columns, so a restore copies arrays into the
+// table instead of building a Reservation per row.
+public class SnapshotStore {
+    static final String FILE_NAME = "state.snapshot";
+    static final int MAGIC = 0x4D4B534E; // "MKSN"
+    static final short VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 2 + 8 + 8 + 8;
+
+    // What a snapshot holds: users and equipment keyed by id as the DbService loaders return them,
+    // reservations as table columns (ReservationService.restore(State))
+    public static final class State {
+        public final long writtenAt;
+        public final long epoch;
+        public final long seq;
+        public final Map<String, User> users;
+        public final Map<String, Equipment> equipment;
+        final ReservationTable.Columns reservations;
+
+        State(long writtenAt, long epoch, long seq, Map<String, User> users, Map<String, Equipment> equipment,
+              ReservationTable.Columns reservations) {
+            this.writtenAt = writtenAt;
+            this.epoch = epoch;
+            this.seq = seq;
+            this.users = users;
+            this.equipment = equipment;
+            this.reservations = reservations;
+        }
+    }
+
+    // The live services a snapshot is taken from; no UserService for a store that holds no users
+    static final class Source {
+        final UserService users;
+        final EquipmentService equipment;
+        final ReservationService reservations;
+
+        Source(UserService users, EquipmentService equipment, ReservationService reservations) {
+            this.users = users;
+            this.equipment = equipment;
+            this.reservations = reservations;
+        }
+    }
+
+    // Equipment and reservations as they stood at journal position (epoch, seq), see capture()
+    static final class Capture {
+        final long epoch;
+        final long seq;
+        final UserService users;
+        final byte[] equipment;
+        final ReservationTable.Columns reservations;
+
+        Capture(long epoch, long seq, UserService users, byte[] equipment, ReservationTable.Columns reservations) {
+            this.epoch = epoch;
+            this.seq = seq;
+            this.users = users;
+            this.equipment = equipment;
+            this.reservations = reservations;
+        }
+    }
+
+    private SnapshotStore() {
+    }
+
+    // Runs on the journal writer at the rotation, when record `seq` is the last one written: copies
+    // the reservation columns and encodes the equipment there, so they match the journal exactly.
+    // Users are read later, by write(): a balance is read under its client's monitor, which a
+    // booking holds while it waits for room on the journal queue. Their records after `seq` set
+    // whole users again on replay, so reading them a little later changes nothing.
+    static Capture capture(Source source, long epoch, long seq) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Equipment> machines = source.equipment.getAllEquipment();
+        out.writeInt(machines.size());
+        for (Equipment equipment : machines) {
+            boolean printer = equipment instanceof Printer3D;
+            out.writeByte(printer ? 1 : 0);
+            out.writeUTF(equipment.getEquipmentId());
+            out.writeUTF(equipment.getName());
+            out.writeUTF(equipment.getStatus());
+            if (printer) {
+                Printer3D printer3D = (Printer3D) equipment;
+                out.writeDouble(printer3D.getHourCost());
+                out.writeUTF(printer3D.getLocation());
+                out.writeUTF(printer3D.getPrintTech());
+                out.writeUTF(printer3D.getPrintVolume());
+                String material = printer3D.getPrintMaterial();
+                out.writeBoolean(material != null);
+                out.writeUTF(material == null ? "" : material);
+            } else {
+                out.writeUTF(equipment.getEquipmentType());
+                out.writeDouble(equipment.getHourCost());
+                out.writeUTF(equipment.getLocation());
+            }
+        }
+        out.flush();
+        return new Capture(epoch, seq, source.users, bytes.toByteArray(), source.reservations.table().copyColumns());
+    }
+
+    // Writes a capture to <file>.tmp, then moves it over `file` in one step, so a crash mid-write
+    // leaves the previous snapshot in place
+    static void write(Path file, Capture capture) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(capture.epoch);
+            out.writeLong(capture.seq);
+
+            List<User> users = capture.users == null ? List.of() : capture.users.getAllUsers();
+            out.writeInt(users.size());
+            for (User user : users) {
+                out.writeByte(user instanceof Admin ? 1 : 0);
+                out.writeUTF(user.getUserId());
+                out.writeUTF(user.getUsername());
+                out.writeUTF(user.getEmail());
+                out.writeUTF(user.getPassword());
+                if (user instanceof Admin) {
+                    out.writeUTF(((Admin) user).getAdminTier());
+                } else {
+                    Client client = (Client) user;
+                    out.writeDouble(client.getAccountBalance());
+                    out.writeUTF(String.valueOf(client.getUserLevel()));
+                }
+            }
+
+            out.write(capture.equipment);
+
+            ReservationTable.Columns columns = capture.reservations;
+            out.writeInt(columns.rows);
+            for (String[] dictionary : new String[][] { columns.names, columns.prefixes, columns.statusNames, columns.irregularIds }) {
+                out.writeInt(dictionary.length);
+                for (String value : dictionary) {
+                    out.writeUTF(value);
+                }
+            }
+            ByteBuffer raw = ByteBuffer.allocate(columns.rows * ReservationTable.ROW_BYTES);
+            raw.asLongBuffer().put(columns.idNumbers);
+            raw.position(raw.position() + columns.rows * Long.BYTES);
+            raw.asShortBuffer().put(columns.idPrefixes);
+            raw.position(raw.position() + columns.rows * Short.BYTES);
+            raw.put(columns.idDigits);
+            for (int[] column : new int[][] { columns.clients, columns.equipment, columns.starts, columns.ends, columns.created, columns.cents }) {
+                raw.asIntBuffer().put(column);
+                raw.position(raw.position() + columns.rows * Integer.BYTES);
+            }
+            raw.put(columns.statuses);
+            out.write(raw.array());
+
+            out.flush();
+            long checksum = crc.getValue();
+            out.writeLong(checksum);
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The journal seq the snapshot in `file` covers, from its header alone; 0 if there is none
+    static long coveredSeq(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), HEADER_BYTES))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                return 0;
+            }
+            in.readLong(); // written at
+            in.readLong(); // epoch
+            return in.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // The snapshot in `file`, or null if there is none or it is torn, corrupt or of another version
+    static State read(Path file) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Error reading snapshot: " + e.getMessage());
+            return null;
+        }
+        if (bytes.length < HEADER_BYTES + 8) {
+            System.err.println("Ignoring snapshot " + file + ": truncated");
+            return null;
+        }
+        int end = bytes.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, end);
+        if (ByteBuffer.wrap(bytes, end, 8).getLong() != crc.getValue()) {
+            System.err.println("Ignoring snapshot " + file + ": checksum mismatch");
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, end))) {
+            if (in.readInt() != MAGIC) {
+                System.err.println("Ignoring snapshot " + file + ": not a snapshot");
+                return null;
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                System.err.println("Ignoring snapshot " + file + ": version " + version + ", expected " + VERSION);
+                return null;
+            }
+            long writtenAt = in.readLong();
+            long epoch = in.readLong();
+            long seq = in.readLong();
+
+            int count = in.readInt();
+            Map<String, User> users = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+                String id = in.readUTF();
+                String username = in.readUTF();
+                String email = in.readUTF();
+                String password = in.readUTF();
+                if (kind == 1) {
+                    users.put(id, new Admin(id, username, email, password, in.readUTF()));
+                } else {
+                    Client client = new Client(id, username, email, password);
+                    client.updateAccountBalance(in.readDouble());
+                    client.setUserLevel(in.readUTF());
+                    users.put(id, client);
+                }
+            }
+
+            count = in.readInt();
+            Map<String, Equipment> equipment = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+                String id = in.readUTF();
+                String name = in.readUTF();
+                String status = in.readUTF();
+                Equipment machine;
+                if (kind == 1) {
+                    double hourCost = in.readDouble();
+                    Printer3D printer = new Printer3D(id, name, hourCost, in.readUTF(), in.readUTF(), in.readUTF());
+                    boolean hasMaterial = in.readBoolean();
+                    String material = in.readUTF();
+                    printer.setPrintMaterial(hasMaterial ? material : null);
+                    machine = printer;
+                } else {
+                    String type = in.readUTF();
+                    double hourCost = in.readDouble();
+                    machine = new Equipment(id, name, type, hourCost, in.readUTF());
+                }
+                machine.setStatus(status);
+                equipment.put(id, machine);
+            }
+
+            int rows = in.readInt();
+            String[][] dictionaries = new String[4][];
+            for (int d = 0; d < dictionaries.length; d++) {
+                dictionaries[d] = new String[in.readInt()];
+                for (int i = 0; i < dictionaries[d].length; i++) {
+                    dictionaries[d][i] = in.readUTF();
+                }
+            }
+            ReservationTable.Columns columns = new ReservationTable.Columns(rows, dictionaries[0], dictionaries[1], dictionaries[2], dictionaries[3]);
+            if (in.available() != rows * ReservationTable.ROW_BYTES) {
+                System.err.println("Ignoring snapshot " + file + ": " + in.available() + " bytes of columns for " + rows + " rows");
+                return null;
+            }
+            ByteBuffer raw = ByteBuffer.wrap(bytes, end - in.available(), in.available());
+            raw.asLongBuffer().get(columns.idNumbers);
+            raw.position(raw.position() + rows * Long.BYTES);
+            raw.asShortBuffer().get(columns.idPrefixes);
+            raw.position(raw.position() + rows * Short.BYTES);
+            raw.get(columns.idDigits);
+            for (int[] column : new int[][] { columns.clients, columns.equipment, columns.starts, columns.ends, columns.created, columns.cents }) {
+                raw.asIntBuffer().get(column);
+                raw.position(raw.position() + rows * Integer.BYTES);
+            }
+            raw.get(columns.statuses);
+            return new State(writtenAt, epoch, seq, users, equipment, columns);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+}
@@ -1,58 +1,112 @@
 package makerspace.service;
 import makerspace.classModels.*;
 import makerspace.exceptions.*;
+import makerspace.utils.IdGenerator;
+import makerspace.utils.Metrics;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class UserService {
     private Map<String, User> users;
+    private UsernameIndex usernameIndex;
     private DbService dbService;
-    private static final int ID_LENGTH = 6;
-    private static final Random random = new Random();
+    private static final Metrics.Timer REGISTER = Metrics.timer("user.register");
+    private static final Metrics.Timer AUTHENTICATE = Metrics.timer("user.authenticate");
+    private static final Metrics.Timer UPDATE = Metrics.timer("user.update");
+    private static final Metrics.Timer DELETE = Metrics.timer("user.delete");
     
     public UserService() {
-        this.users = new HashMap<>();
-        this.dbService = new DbService();
-        loadUsersFromDatabase();
+        this(new DbService());
+    }
+    
+    public UserService(DbService dbService) {
+        this(dbService, dbService.loadUsers());
+    }
+    
+    // Used by BootCoordinator, which loads the users file in parallel with the others
+    public UserService(DbService dbService, Map<String, User> loadedUsers) {
+        this(dbService, loadedUsers, Boolean.getBoolean("makerspace.caseInsensitiveUsernames"));
+    }
+    
+    public UserService(DbService dbService, Map<String, User> loadedUsers, boolean caseInsensitiveUsernames) {
+        this.users = new ConcurrentHashMap<>(loadedUsers);
+        this.usernameIndex = new UsernameIndex(caseInsensitiveUsernames);
+        this.usernameIndex.rebuild(users.values());
+        this.dbService = dbService;
+        for (String userId : users.keySet()) {
+            dbService.getIdGenerator().advancePast(IdGenerator.numericPart(userId));
+        }
+        Metrics.gauge("users.count", users::size);
     }
     
     public String registerClient(String username, String email, String password) throws InvalidReservationException 
     {
-        validateUserInput(username, email, password);
+        long started = REGISTER.start();
+        try {
+            validateUserInput(username, email, password);
         
-        String userId = generateUserId();
-        Client client = new Client(userId, username, email, password);
+            String userId = generateUserId();
+            Client client = new Client(userId, username, email, password);
         
-        users.put(userId, client);
-        dbService.saveUser(client);
+            if (!usernameIndex.claim(username, userId)) {
+                throw new InvalidReservationException("Username Already Exists");
+            }
+            users.put(userId, client);
+            dbService.saveUser(client);
         
-        return userId;
+            return userId;
+        } catch (Exception e) {
+            REGISTER.failed();
+            throw e;
+        } finally {
+            REGISTER.stop(started);
+        }
     }
     
     public String registerAdmin(String username, String email, String password, String adminTier) throws InvalidReservationException 
     {
-        validateUserInput(username, email, password);
+        long started = REGISTER.start();
+        try {
+            validateUserInput(username, email, password);
         
-        String userId = generateUserId();
-        Admin admin = new Admin(userId, username, email, password, adminTier);
+            String userId = generateUserId();
+            Admin admin = new Admin(userId, username, email, password, adminTier);
         
-        users.put(userId, admin);
-        dbService.saveUser(admin);
+            if (!usernameIndex.claim(username, userId)) {
+                throw new InvalidReservationException("Username Already Exists");
+            }
+            users.put(userId, admin);
+            dbService.saveUser(admin);
         
-        return userId;
+            return userId;
+        } catch (Exception e) {
+            REGISTER.failed();
+            throw e;
+        } finally {
+            REGISTER.stop(started);
+        }
     }
     
     public User authenticate(String username, String password) throws UserException
     {
-        User user = findUserByUsername(username);
-        if (user == null) {
-            throw new UserException("User not found: " + username);
-        }
+        long started = AUTHENTICATE.start();
+        try {
+            User user = findUserByUsername(username);
+            if (user == null) {
+                throw new UserException("User not found: " + username);
+            }
         
-        if (!user.authentication(password)) {
-            throw new UserException("Invalid password");
-        }
+            if (!user.authentication(password)) {
+                throw new UserException("Invalid password");
+            }
         
-        return user;
+            return user;
+        } catch (Exception e) {
+            AUTHENTICATE.failed();
+            throw e;
+        } finally {
+            AUTHENTICATE.stop(started);
+        }
     }
     
     public User getUserById(String userId) throws UserException 
@@ -79,10 +133,8 @@ public class UserService {
     
     private User findUserByUsername(String username) 
     {
-        return users.values().stream()
-                   .filter(user -> user.getUsername().equals(username))
-                   .findFirst()
-                   .orElse(null);
+        String userId = usernameIndex.lookup(username);
+        return userId == null ? null : users.get(userId);
     }
     
     private void validateUserInput(String username, String email, String password) 
@@ -102,52 +154,114 @@ public class UserService {
     }
     
     public void updateUserEmail(String userId, String newEmail) throws UserException, InvalidReservationException {
-		User user = getUserById(userId);
-		if (newEmail == null || !newEmail.contains("@")) {
-		throw new InvalidReservationException("Invalid Email Format");
+		long started = UPDATE.start();
+		try {
+			User user = getUserById(userId);
+			if (newEmail == null || !newEmail.contains("@")) {
+			throw new InvalidReservationException("Invalid Email Format");
+			}
+			user.setEmail(newEmail);
+			dbService.updateUser(user);
+		} catch (Exception e) {
+			UPDATE.failed();
+			throw e;
+		} finally {
+			UPDATE.stop(started);
 		}
-		user.setEmail(newEmail);
-		dbService.updateUser(user);
 	}
     
     public void updateUserBalance(String userId, double amount) throws UserException, InvalidReservationException {
-		User user = getUserById(userId);
-		if (!(user instanceof Client)) {
-			throw new UserException("Only Clients Have Account Balances");
-		} else {
-		Client client = (Client) user;
-		dbService.updateUser(client);
-		client.updateAccountBalance(amount);
-		System.out.printf("New Balance: $%.2f%n", client.getAccountBalance());
+		long started = UPDATE.start();
+		try {
+			User user = getUserById(userId);
+			if (!(user instanceof Client)) {
+				throw new UserException("Only Clients Have Account Balances");
+			} else {
+			Client client = (Client) user;
+			synchronized (client) { // persist the value we just produced, not one a concurrent booking overwrote
+				client.updateAccountBalance(amount);
+				dbService.updateUser(client);
+			}
+			System.out.printf("New Balance: $%.2f%n", client.getAccountBalance());
+			}
+		} catch (Exception e) {
+			UPDATE.failed();
+			throw e;
+		} finally {
+			UPDATE.stop(started);
 		}
 	}
     
     public void updateUserPassword(String userId, String newPassword) throws UserException, InvalidReservationException {
-    	User user = getUserById(userId);
-    	if (newPassword == null || newPassword.length() < 6) {
-    	throw new InvalidReservationException("Password Must Be At Least 6 Characters Long");
-    	}
-    	user.setPassword(newPassword);
-    	dbService.updateUser(user);
+        long started = UPDATE.start();
+        try {
+        	User user = getUserById(userId);
+        	if (newPassword == null || newPassword.length() < 6) {
+        	throw new InvalidReservationException("Password Must Be At Least 6 Characters Long");
+        	}
+        	user.setPassword(newPassword);
+        	dbService.updateUser(user);
+        } catch (Exception e) {
+            UPDATE.failed();
+            throw e;
+        } finally {
+            UPDATE.stop(started);
+        }
     }
     
     public void deleteUser(String userId) throws UserException {
-		User user = getUserById(userId);
-		users.remove(userId);
-		dbService.deleteUser(userId);
+		long started = DELETE.start();
+		try {
+			User user = getUserById(userId);
+			users.remove(userId);
+			usernameIndex.release(user.getUsername(), userId);
+			dbService.deleteUser(userId);
+		} catch (Exception e) {
+			DELETE.failed();
+			throw e;
+		} finally {
+			DELETE.stop(started);
+		}
 	}
     
-    private static String generateUserId() {
-    	StringBuilder sb = new StringBuilder(ID_LENGTH);
-    	for (int i = 0; i < ID_LENGTH; i++) {
-    		int digit = random.nextInt(10);
-    		sb.append(digit);
-    	}
-        return "USER_" + sb.toString();
+    // Writes a user changed by another service, e.g. a booking's payment or refund. With location
+    // shards the reservation goes to its lab's store, but users always live in this one.
+    public void persistUser(User user) {
+        dbService.updateUser(user);
+    }
+    
+    // A user record shipped from the primary (ReplicationStandby). Known users are updated in place,
+    // so clients keep their attached history and their monitor; nothing is written here.
+    public void applyReplicated(User incoming) {
+        User existing = users.get(incoming.getUserId());
+        if (existing == null || !existing.getUserType().equals(incoming.getUserType())) {
+            if (existing != null) {
+                usernameIndex.release(existing.getUsername(), existing.getUserId());
+            }
+            users.put(incoming.getUserId(), incoming);
+            usernameIndex.claim(incoming.getUsername(), incoming.getUserId());
+            dbService.getIdGenerator().advancePast(IdGenerator.numericPart(incoming.getUserId()));
+            return;
+        }
+        existing.setEmail(incoming.getEmail());
+        existing.setPassword(incoming.getPassword());
+        if (existing instanceof Client) {
+            Client client = (Client) existing;
+            synchronized (client) {
+                client.updateAccountBalance(((Client) incoming).getAccountBalance() - client.getAccountBalance());
+                client.setUserLevel(((Client) incoming).getUserLevel());
+            }
+        }
+    }
+    
+    public void applyReplicatedDelete(String userId) {
+        User user = users.remove(userId);
+        if (user != null) {
+            usernameIndex.release(user.getUsername(), userId);
+        }
     }
     
-    private void loadUsersFromDatabase() {
-        // Load users from file
-        users.putAll(dbService.loadUsers());
+    private String generateUserId() {
+        return dbService.getIdGenerator().nextId("USER_");
     }
 }
\ No newline at end of file
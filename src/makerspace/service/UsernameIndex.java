@@ -0,0 +1,48 @@
+package makerspace.service;
+import makerspace.classModels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// username -> userId secondary index. claim() is a single putIfAbsent, so two concurrent
+// registrations can never both end up owning the same name.
+public class UsernameIndex {
+    private final ConcurrentHashMap<String, String> userIdsByName = new ConcurrentHashMap<>();
+    private final boolean caseInsensitive;
+
+    public UsernameIndex(boolean caseInsensitive) {
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    public boolean isCaseInsensitive() { return caseInsensitive; }
+
+    // Returns true if the name was free and now belongs to userId
+    public boolean claim(String username, String userId) {
+        String owner = userIdsByName.putIfAbsent(key(username), userId);
+        return owner == null || owner.equals(userId);
+    }
+
+    public void release(String username, String userId) {
+        userIdsByName.remove(key(username), userId);
+    }
+
+    // null if nobody has the name
+    public String lookup(String username) {
+        return username == null ? null : userIdsByName.get(key(username));
+    }
+
+    public void rebuild(Collection<User> users) {
+        userIdsByName.clear();
+        for (User user : users) {
+            if (!claim(user.getUsername(), user.getUserId())) {
+                System.err.println("Duplicate username '" + user.getUsername() + "' on " + user.getUserId()
+                        + ", already taken by " + lookup(user.getUsername()));
+            }
+        }
+    }
+
+    public int size() { return userIdsByName.size(); }
+
+    private String key(String username) {
+        return caseInsensitive ? username.toLowerCase(Locale.ROOT) : username;
+    }
+}
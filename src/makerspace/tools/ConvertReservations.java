@@ -0,0 +1,22 @@
+package makerspace.tools;
+
+import makerspace.service.DbService;
+import makerspace.service.ReservationBinaryStore;
+import java.io.IOException;
+import java.nio.file.*;
+
+// Converts a data directory's reservations (base file plus journal) into a ReservationBinaryStore
+// file and its .ids dictionary. Bookings already in the store are overwritten in place by id.
+//
+// Usage: ConvertReservations [dataDir] [storeFile]    (defaults: data/ and <dataDir>/reservations.bin)
+public class ConvertReservations {
+    public static void main(String[] args) throws IOException {
+        String dataDir = args.length > 0 ? args[0] : DbService.DATA_DIRECTORY;
+        Path storeFile = args.length > 1 ? Paths.get(args[1]) : Paths.get(dataDir, "reservations.bin");
+        long started = System.nanoTime();
+        int records = ReservationBinaryStore.convertFromText(new DbService(dataDir), storeFile);
+        System.out.printf("Converted %d reservations into %s in %.1f ms (%d bytes)%n", records, storeFile,
+                (System.nanoTime() - started) / 1e6, Files.size(storeFile));
+        System.exit(0);
+    }
+}
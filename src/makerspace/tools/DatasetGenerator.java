@@ -0,0 +1,227 @@
+package makerspace.tools;
+
+import makerspace.classModels.*;
+import makerspace.service.DbService;
+import makerspace.utils.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Writes a synthetic data directory in the DbService line formats, for scale testing.
+//
+// Usage: DatasetGenerator --out <dir> [--users 1000] [--admins 5] [--printers 50] [--equipment 20]
+//                         [--reservations 100000] [--days-back 365] [--days-ahead 60] [--future-share 0.2]
+//                         [--status-mix APPROVED=55,COMPLETED=30,CANCELLED=12,PENDING=3]
+//                         [--skew 1.0] [--seed 42] [--force]
+//
+// Every client is "user_<n>" with password "password"; admins are "admin_<n>" with the same password.
+// --skew is the Zipf exponent for how bookings spread over machines and clients (0 = uniform).
+// Start times cluster in opening hours (10:00-20:00). --future-share of bookings start after now.
+// The status mix is applied per booking and then made consistent with its time: bookings already
+// over become COMPLETED (or stay CANCELLED), future ones cannot be COMPLETED.
+// Bookings that would overlap a live booking on the same machine are redrawn.
+public class DatasetGenerator {
+    private static final String[] LOCATIONS = { "Lab A", "Lab B", "Lab C", "Workshop", "Studio" };
+    private static final String[][] PRINTER_MODELS = {
+        { "Prusa i3 MK3S+", "FDM", "250x210x210mm", "15" },
+        { "Ultimaker S5", "FDM", "330x240x300mm", "20" },
+        { "Bambu X1 Carbon", "FDM", "256x256x256mm", "18" },
+        { "Formlabs Form 3", "SLA", "145x145x185mm", "25" },
+        { "Elegoo Saturn", "SLA", "218x123x250mm", "22" },
+        { "Formlabs Fuse 1", "SLS", "165x165x300mm", "45" },
+    };
+    private static final String[][] OTHER_EQUIPMENT = {
+        { "Epilog Fusion", "LASER_CUTTER", "30" },
+        { "Glowforge Pro", "LASER_CUTTER", "28" },
+        { "Haas Mini Mill", "CNC_MACHINE", "40" },
+        { "Shapeoko 4", "CNC_MACHINE", "35" },
+        { "Brother Stellaire", "EMBROIDERY", "12" },
+    };
+    private static final int MAX_DRAWS = 50; // attempts to find a free slot before giving up on a booking
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i].replaceFirst("^--", "");
+            options.put(name, name.equals("force") ? "true" : args[++i]);
+        }
+        if (!options.containsKey("out")) {
+            System.err.println("Usage: DatasetGenerator --out <dir> [options], see the class comment");
+            System.exit(2);
+        }
+        Path out = Paths.get(options.get("out"));
+        int users = Integer.parseInt(options.getOrDefault("users", "1000"));
+        int admins = Integer.parseInt(options.getOrDefault("admins", "5"));
+        int printers = Integer.parseInt(options.getOrDefault("printers", "50"));
+        int others = Integer.parseInt(options.getOrDefault("equipment", "20"));
+        int reservations = Integer.parseInt(options.getOrDefault("reservations", "100000"));
+        int daysBack = Integer.parseInt(options.getOrDefault("days-back", "365"));
+        int daysAhead = Integer.parseInt(options.getOrDefault("days-ahead", "60"));
+        double futureShare = Double.parseDouble(options.getOrDefault("future-share", "0.2"));
+        double skew = Double.parseDouble(options.getOrDefault("skew", "1.0"));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        Map<String, Integer> statusMix = parseMix(options.getOrDefault("status-mix", "APPROVED=55,COMPLETED=30,CANCELLED=12,PENDING=3"));
+
+        Files.createDirectories(out);
+        for (String file : new String[] { "users.txt", "equipment.txt", "reservations.txt" }) {
+            if (Files.exists(out.resolve(file)) && Files.size(out.resolve(file)) > 0 && !options.containsKey("force")) {
+                System.err.println(out.resolve(file) + " already exists; pass --force to overwrite");
+                System.exit(1);
+            }
+        }
+        Files.deleteIfExists(out.resolve("journal.log"));
+        Files.deleteIfExists(out.resolve("journal.compacting.log"));
+        Files.deleteIfExists(out.resolve("state.snapshot"));
+
+        long started = System.nanoTime();
+        List<Client> clients = new ArrayList<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(out.resolve("users.txt"), StandardCharsets.UTF_8)) {
+            for (int a = 0; a < admins; a++) {
+                String tier = a == 0 ? "TOP" : a % 2 == 0 ? "MANAGER" : "BASIC";
+                writeLine(writer, DbService.userToString(new Admin(String.format("USER_A%05d", a), "admin_" + a,
+                        "admin" + a + "@example.com", "password", tier)));
+            }
+            for (int u = 0; u < users; u++) {
+                Client client = new Client(String.format("USER_%07d", u), "user_" + u, "user" + u + "@example.com", "password");
+                client.updateAccountBalance(Math.round(random.nextDouble() * 2000 * 100) / 100.0);
+                clients.add(client);
+                writeLine(writer, DbService.userToString(client));
+            }
+        }
+
+        List<Equipment> equipment = new ArrayList<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(out.resolve("equipment.txt"), StandardCharsets.UTF_8)) {
+            for (int p = 0; p < printers; p++) {
+                String[] model = PRINTER_MODELS[random.nextInt(PRINTER_MODELS.length)];
+                equipment.add(new Printer3D(String.format("EQ_P%05d", p), model[0], Double.parseDouble(model[3]),
+                        LOCATIONS[random.nextInt(LOCATIONS.length)], model[1], model[2]));
+            }
+            for (int e = 0; e < others; e++) {
+                String[] model = OTHER_EQUIPMENT[random.nextInt(OTHER_EQUIPMENT.length)];
+                equipment.add(new Equipment(String.format("EQ_M%05d", e), model[0], model[1], Double.parseDouble(model[2]),
+                        LOCATIONS[random.nextInt(LOCATIONS.length)]));
+            }
+            for (Equipment eq : equipment) {
+                writeLine(writer, DbService.equipmentToString(eq));
+            }
+        }
+
+        int written = 0;
+        int skipped = 0;
+        Map<String, Integer> statusCounts = new TreeMap<>();
+        if (!equipment.isEmpty() && !clients.isEmpty()) {
+            Zipf equipmentPick = new Zipf(equipment.size(), skew);
+            Zipf clientPick = new Zipf(clients.size(), skew);
+            Map<String, IntervalTree<String>> booked = new HashMap<>();
+            LocalDateTime now = LocalDateTime.now().withSecond(0).withNano(0);
+            try (BufferedWriter writer = Files.newBufferedWriter(out.resolve("reservations.txt"), StandardCharsets.UTF_8)) {
+                for (int r = 0; r < reservations; r++) {
+                    Equipment eq = null;
+                    LocalDateTime start = null;
+                    int hours = 0;
+                    String status = pick(statusMix, random);
+                    boolean placed = false;
+                    for (int draw = 0; draw < MAX_DRAWS && !placed; draw++) {
+                        eq = equipment.get(equipmentPick.next(random));
+                        boolean future = random.nextDouble() < futureShare;
+                        int day = future ? random.nextInt(Math.max(1, daysAhead)) + 1 : -random.nextInt(Math.max(1, daysBack)) - 1;
+                        hours = 1 + (int) Math.min(7, Math.abs(random.nextGaussian() * 2.5)); // mostly short sessions
+                        int hour = 10 + random.nextInt(Math.max(1, 10 - Math.min(hours, 9)));  // inside opening hours
+                        start = now.toLocalDate().plusDays(day).atTime(hour, random.nextInt(4) * 15);
+                        if ("CANCELLED".equals(status)) {
+                            placed = true; // cancelled bookings never held the slot, so they may overlap
+                        } else {
+                            IntervalTree<String> tree = booked.computeIfAbsent(eq.getEquipmentId(), id -> new IntervalTree<>());
+                            long from = DateTimeHandler.toEpochMinute(start);
+                            long to = from + hours * 60L;
+                            if (!tree.overlaps(from, to)) {
+                                tree.insert(from, to, Integer.toString(r));
+                                placed = true;
+                            }
+                        }
+                    }
+                    if (!placed) {
+                        skipped++;
+                        continue;
+                    }
+                    // Keep status consistent with the booking's time
+                    boolean over = !start.plusHours(hours).isAfter(now);
+                    if (over && !"CANCELLED".equals(status)) {
+                        status = "COMPLETED";
+                    } else if (!over && "COMPLETED".equals(status)) {
+                        status = "APPROVED";
+                    }
+                    Client client = clients.get(clientPick.next(random));
+                    LocalDateTime created = start.minusHours(1 + random.nextInt(24 * 14));
+                    Reservation reservation = new Reservation(String.format("RES_%08d", r), client.getUserId(),
+                            eq.getEquipmentId(), start, start.plusHours(hours), created.isAfter(now) ? now : created);
+                    reservation.setStatus(status);
+                    reservation.setCost(eq.calculateRate(hours));
+                    writeLine(writer, DbService.reservationToString(reservation));
+                    statusCounts.merge(status, 1, Integer::sum);
+                    written++;
+                }
+            }
+        } else {
+            Files.writeString(out.resolve("reservations.txt"), "");
+        }
+
+        System.out.printf("Wrote %s: %d users (%d admins), %d equipment (%d printers), %d reservations in %.1f s%n",
+                out, users + admins, admins, equipment.size(), printers, written, (System.nanoTime() - started) / 1e9);
+        System.out.println("Status mix: " + statusCounts);
+        if (skipped > 0) {
+            System.out.printf("%d bookings dropped: no free slot found in %d draws (machines too full for the time window)%n",
+                    skipped, MAX_DRAWS);
+        }
+    }
+
+    // Zipf(n, s) ranks via a precomputed CDF and binary search; s = 0 is uniform
+    private static final class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double s) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, s);
+                cdf[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cdf[k] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(cdf.length - 1, index >= 0 ? index : -index - 1);
+        }
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            weights.put(kv[0].trim().toUpperCase(), Integer.parseInt(kv[1].trim()));
+        }
+        return weights;
+    }
+
+    private static String pick(Map<String, Integer> weights, Random random) {
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        int roll = random.nextInt(total);
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            roll -= weight.getValue();
+            if (roll < 0) {
+                return weight.getKey();
+            }
+        }
+        return "APPROVED";
+    }
+
+    private static void writeLine(BufferedWriter writer, String line) throws IOException {
+        writer.write(line);
+        writer.newLine();
+    }
+}
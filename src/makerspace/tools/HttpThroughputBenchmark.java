@@ -0,0 +1,127 @@
+package makerspace.tools;
+
+import makerspace.main.HttpApiServer;
+import makerspace.service.*;
+import java.io.*;
+import java.net.URI;
+import java.net.http.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Boots the services on a scratch data directory, starts the HTTP API on a free port and drives it
+// from a local HttpClient: mostly equipment listings, some bookings. Prints requests/s and latency percentiles.
+//
+// Usage: HttpThroughputBenchmark [concurrentClients] [seconds] [bookingPercent]
+public class HttpThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int bookingPercent = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        Path dataDir = Files.createTempDirectory("makerspace-http-bench");
+        BootCoordinator boot = new BootCoordinator().boot(new DbService(dataDir.toString()));
+        UserService userService = boot.getUserService();
+        ReportService reportService = new ReportService(boot.getEquipmentService(), userService, boot.getReservationService());
+        HttpApiServer server = new HttpApiServer(userService, boot.getEquipmentService(), boot.getReservationService(), reportService);
+        server.start(0);
+        String base = "http://localhost:" + server.getPort();
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // services print per operation
+
+        List<String> equipmentIds = new ArrayList<>();
+        boot.getEquipmentService().getAllEquipment().forEach(eq -> equipmentIds.add(eq.getEquipmentId()));
+        HttpClient http = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            String id = userService.registerClient("bench_" + i, "bench" + i + "@example.com", "password");
+            userService.updateUserBalance(id, 1_000_000);
+            String body = post(http, base + "/api/login", "username=bench_" + i + "&password=password", null).body();
+            tokens.add(body.replaceAll(".*\"token\":\"([^\"]+)\".*", "$1"));
+        }
+
+        LocalDateTime far = LocalDateTime.now().plusDays(7).withMinute(0).withSecond(0).withNano(0);
+        AtomicLong errors = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<long[]>> workers = new ArrayList<>();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < concurrency; c++) {
+                String token = tokens.get(c);
+                workers.add(clients.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long[] latencies = new long[1 << 16];
+                    int n = 0;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        HttpResponse<String> response;
+                        if (random.nextInt(100) < bookingPercent) {
+                            String startTime = far.plusHours(random.nextInt(24 * 365)).toString().replace('T', ' ');
+                            response = post(http, base + "/api/reservations",
+                                    "equipmentId=" + equipmentIds.get(random.nextInt(equipmentIds.size()))
+                                    + "&start=" + startTime.replace(" ", "+") + "&hours=1", token);
+                        } else {
+                            response = http.send(HttpRequest.newBuilder(URI.create(base + "/api/equipment")).GET().build(),
+                                    HttpResponse.BodyHandlers.ofString());
+                        }
+                        if (response.statusCode() >= 500) {
+                            errors.incrementAndGet();
+                        }
+                        if (n == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, n * 2);
+                        }
+                        latencies[n++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(latencies, n);
+                }));
+            }
+        }
+
+        long total = 0;
+        List<long[]> all = new ArrayList<>();
+        for (Future<long[]> worker : workers) {
+            long[] latencies = worker.get();
+            total += latencies.length;
+            all.add(latencies);
+        }
+        long[] merged = new long[(int) total];
+        int pos = 0;
+        for (long[] latencies : all) {
+            System.arraycopy(latencies, 0, merged, pos, latencies.length);
+            pos += latencies.length;
+        }
+        Arrays.sort(merged);
+        server.stop();
+        System.setOut(console);
+
+        System.out.printf("%d clients, %d s, %d%% bookings: %d requests, %.0f req/s, %d server errors%n",
+                concurrency, seconds, bookingPercent, total, total / (double) seconds, errors.get());
+        System.out.printf("latency p50 %.2f ms | p99 %.2f ms | p999 %.2f ms | max %.2f ms%n",
+                percentile(merged, 0.50), percentile(merged, 0.99), percentile(merged, 0.999),
+                merged.length == 0 ? 0 : merged[merged.length - 1] / 1e6);
+    }
+
+    private static HttpResponse<String> post(HttpClient http, String url, String form, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+}
@@ -0,0 +1,257 @@
+package makerspace.tools;
+
+import makerspace.classModels.*;
+import makerspace.exceptions.*;
+import makerspace.service.*;
+import makerspace.utils.*;
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Runs a whole semester through the real services on virtual time: a VirtualClock on the DbService,
+// a discrete-event loop that jumps straight from one event to the next, and ReservationLifecycle
+// advanced by hand instead of by its ticker thread. Bookings arrive as a Poisson process; each one
+// is later cancelled, checked in (and maybe finished early), or left to become a no-show. Prints
+// one line per simulated week (demand, refusals, outcomes, machine utilisation, storage) and the
+// service latencies at the end. Works on a fresh scratch data directory.
+//
+// Usage: SemesterSimulation [--weeks 15] [--start 2027-01-11] [--clients 400] [--printers 20]
+//                           [--bookings-per-client-week 1.5] [--cancel-share 0.15] [--no-show-share 0.10]
+//                           [--early-finish-share 0.25] [--days-ahead 14] [--seed 21]
+//
+// A booking asks for 1-3 whole hours inside opening hours (10:00-20:00), up to --days-ahead days out.
+// A refused booking (slot taken) retries at another random slot up to MAX_ATTEMPTS times in all;
+// "refused" counts bookings that never found a slot, "retries" the extra attempts.
+public class SemesterSimulation {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int OPEN_HOUR = 10;
+    private static final int CLOSE_HOUR = 20;
+    private static final long MINUTE = 60_000;
+    private static final long WEEK = 7 * 24 * 60 * MINUTE;
+
+    private static final int BOOK = 0, CANCEL = 1, CHECK_IN = 2, FINISH = 3, TICK = 4, REPORT = 5;
+
+    private static final class Event {
+        final long at;
+        final long seq;
+        final int kind;
+        final String reservationId;
+        final String clientId;
+
+        Event(long at, long seq, int kind, String reservationId, String clientId) {
+            this.at = at;
+            this.seq = seq;
+            this.kind = kind;
+            this.reservationId = reservationId;
+            this.clientId = clientId;
+        }
+    }
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>(
+            Comparator.comparingLong((Event e) -> e.at).thenComparingLong(e -> e.seq));
+    private long sequence;
+    private long currentMillis;
+
+    // Per-week tallies, reset after each report
+    private long requested, booked, refused, retries, cancelled, lateCancels, checkedIn, finishedEarly, bookedMinutes;
+    private final Map<String, Long> weekTransitions = new HashMap<>(); // new status -> count, from the listener
+    private final Map<String, Long> totalTransitions = new TreeMap<>();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            options.put(args[i].replaceFirst("^--", ""), args[++i]);
+        }
+        new SemesterSimulation().run(options);
+    }
+
+    private void run(Map<String, String> options) throws Exception {
+        int weeks = Integer.parseInt(options.getOrDefault("weeks", "15"));
+        LocalDate firstDay = options.containsKey("start") ? LocalDate.parse(options.get("start"))
+                : LocalDate.now().with(java.time.temporal.TemporalAdjusters.next(DayOfWeek.MONDAY));
+        int clientCount = Integer.parseInt(options.getOrDefault("clients", "400"));
+        int printers = Integer.parseInt(options.getOrDefault("printers", "20"));
+        double perClientWeek = Double.parseDouble(options.getOrDefault("bookings-per-client-week", "1.5"));
+        double cancelShare = Double.parseDouble(options.getOrDefault("cancel-share", "0.15"));
+        double noShowShare = Double.parseDouble(options.getOrDefault("no-show-share", "0.10"));
+        double earlyFinishShare = Double.parseDouble(options.getOrDefault("early-finish-share", "0.25"));
+        int daysAhead = Integer.parseInt(options.getOrDefault("days-ahead", "14"));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "21")));
+
+        // Starts a week early so the first week of term already has bookings made ahead of it
+        LocalDateTime origin = firstDay.minusWeeks(1).atStartOfDay();
+        long startMillis = DateTimeHandler.toEpochMilli(origin);
+        long endMillis = startMillis + (weeks + 1) * WEEK;
+        VirtualClock clock = new VirtualClock(origin);
+
+        Path dataDir = Files.createTempDirectory("makerspace-semester");
+        DbService dbService = new DbService(dataDir.toString());
+        dbService.setClock(clock);
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // services print per operation
+        BootCoordinator boot = new BootCoordinator().boot(dbService);
+        UserService userService = boot.getUserService();
+        EquipmentService equipmentService = boot.getEquipmentService();
+        ReservationService reservationService = boot.getReservationService();
+        ReservationLifecycle lifecycle = new ReservationLifecycle(reservationService);
+        reservationService.addReservationListener((reservation, oldStatus, newStatus) -> {
+            if (oldStatus != null) {
+                weekTransitions.merge(newStatus, 1L, Long::sum);
+                totalTransitions.merge(newStatus, 1L, Long::sum);
+            }
+        });
+
+        String[][] printerModels = { { "Prusa i3 MK3S+", "FDM", "250x210x210mm" }, { "Formlabs Form 3", "SLA", "145x145x185mm" } };
+        for (int i = 0; i < printers; i++) {
+            String[] model = printerModels[i % printerModels.length];
+            equipmentService.add3DPrinter(model[0], 15 + i % 4 * 5, "Lab " + (char) ('A' + i % 3), model[1], model[2]);
+        }
+        List<String> clients = new ArrayList<>(clientCount);
+        for (int i = 0; i < clientCount; i++) {
+            String clientId = userService.registerClient("sim_" + i, "sim_" + i + "@example.com", "password");
+            userService.updateUserBalance(clientId, 1_000_000);
+            clients.add(clientId);
+        }
+        List<String> machines = new ArrayList<>();
+        equipmentService.getAllEquipment().forEach(eq -> machines.add(eq.getEquipmentId()));
+        Collections.sort(machines);
+        System.setOut(console);
+
+        double arrivalsPerMinute = clientCount * perClientWeek / (WEEK / MINUTE);
+        push(startMillis + nextGap(random, arrivalsPerMinute), BOOK, null, null);
+        push(startMillis + MINUTE, TICK, null, null);
+        push(startMillis + WEEK, REPORT, null, null);
+
+        System.out.printf("Semester from %s, %d weeks (plus one week of advance bookings), %d clients, %d machines%n",
+                firstDay, weeks, clientCount, machines.size());
+        System.out.printf("%-5s %-10s %7s %7s %7s %7s %7s %7s %7s %7s %7s %7s %6s %7s %9s %9s %8s%n",
+                "week", "from", "demand", "booked", "refused", "retries", "cancel", "late", "checkin", "noshow",
+                "done", "early", "util%", "timers", "table KB", "disk KB", "wall ms");
+        int week = 0;
+        long weekStartedNanos = System.nanoTime();
+        long simulationStartedNanos = weekStartedNanos;
+        long events = 0;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        while (!queue.isEmpty() && queue.peek().at <= endMillis) {
+            Event event = queue.poll();
+            currentMillis = event.at;
+            clock.advanceTo(event.at);
+            lifecycle.advance(event.at);
+            events++;
+            switch (event.kind) {
+                case BOOK: {
+                    requested++;
+                    String clientId = clients.get(random.nextInt(clients.size()));
+                    LocalDateTime now = clock.now();
+                    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                        int hours = 1 + random.nextInt(3);
+                        LocalDateTime start = now.toLocalDate().plusDays(1 + random.nextInt(daysAhead))
+                                .atTime(OPEN_HOUR + random.nextInt(CLOSE_HOUR - OPEN_HOUR - hours + 1), 0);
+                        try {
+                            String reservationId = reservationService.createReservation(clientId,
+                                    machines.get(random.nextInt(machines.size())), start, start.plusHours(hours));
+                            booked++;
+                            bookedMinutes += hours * 60L;
+                            planOutcome(reservationId, clientId, start, start.plusHours(hours), random,
+                                    cancelShare, noShowShare, earlyFinishShare);
+                            break;
+                        } catch (EquipmentUnavailableException e) {
+                            if (attempt + 1 == MAX_ATTEMPTS) {
+                                refused++;
+                            } else {
+                                retries++;
+                            }
+                        }
+                    }
+                    push(event.at + nextGap(random, arrivalsPerMinute), BOOK, null, null);
+                    break;
+                }
+                case CANCEL:
+                    try {
+                        reservationService.cancelReservation(event.reservationId, event.clientId);
+                        cancelled++;
+                    } catch (InvalidReservationException e) {
+                        lateCancels++; // already started, or not cancellable any more
+                    }
+                    break;
+                case CHECK_IN:
+                    try {
+                        reservationService.checkIn(event.reservationId, event.clientId);
+                        checkedIn++;
+                    } catch (InvalidReservationException e) {
+                        // a no-show already recorded, which the chosen offsets never cause
+                        System.err.println("Check-in of " + event.reservationId + " refused: " + e.getMessage());
+                    }
+                    break;
+                case FINISH:
+                    if ("IN_PROGRESS".equals(reservationService.getReservationById(event.reservationId).getStatus())) {
+                        reservationService.completeReservation(event.reservationId);
+                        finishedEarly++;
+                    }
+                    break;
+                case TICK:
+                    push(event.at + MINUTE, TICK, null, null);
+                    break;
+                default:
+                    week++;
+                    long wallNanos = System.nanoTime() - weekStartedNanos;
+                    long openMinutes = 7L * (CLOSE_HOUR - OPEN_HOUR) * 60 * machines.size();
+                    long tableBytes = Metrics.snapshot().getValues().getOrDefault("reservations.tableBytes", 0L);
+                    console.printf("%-5d %-10s %7d %7d %7d %7d %7d %7d %7d %7d %7d %7d %6.1f %7d %9d %9d %8.0f%n",
+                            week - 1, clock.now().toLocalDate().minusWeeks(1), requested, booked, refused, retries,
+                            cancelled, lateCancels, checkedIn, weekTransitions.getOrDefault("NO_SHOW", 0L),
+                            weekTransitions.getOrDefault("COMPLETED", 0L), finishedEarly,
+                            100.0 * bookedMinutes / openMinutes, lifecycle.getPendingCount(),
+                            tableBytes / 1024, directoryBytes(dataDir) / 1024, wallNanos / 1e6);
+                    requested = booked = refused = retries = cancelled = lateCancels = checkedIn = finishedEarly = bookedMinutes = 0;
+                    weekTransitions.clear();
+                    weekStartedNanos = System.nanoTime();
+                    push(event.at + WEEK, REPORT, null, null);
+            }
+        }
+        double wallSeconds = (System.nanoTime() - simulationStartedNanos) / 1e9;
+        System.setOut(console);
+        System.out.printf("%d events in %.1f s wall (%.0f simulated days per second); week 0 is the run-up before term, util%% is booked hours over opening hours%n",
+                events, wallSeconds, (endMillis - startMillis) / (24 * 60.0 * MINUTE) / wallSeconds);
+        System.out.printf("status changes over the run: %s; %d reservations, scratch data in %s%n",
+                totalTransitions, reservationService.getAllReservations().size(), dataDir);
+        Metrics.print(System.out, Metrics.snapshot(), null);
+        System.exit(0); // the journal writer and compaction threads are daemons, but do not wait on anything
+    }
+
+    // Decides up front what the client will do with a new booking and queues it
+    private void planOutcome(String reservationId, String clientId, LocalDateTime start, LocalDateTime end,
+                             Random random, double cancelShare, double noShowShare, double earlyFinishShare) {
+        double roll = random.nextDouble();
+        long startMillis = DateTimeHandler.toEpochMilli(start);
+        long endMillis = DateTimeHandler.toEpochMilli(end);
+        if (roll < cancelShare) {
+            push(currentMillis + (long) (random.nextDouble() * (startMillis - currentMillis)), CANCEL, reservationId, clientId);
+        } else if (roll < cancelShare + noShowShare) {
+            return; // never turns up; ReservationLifecycle records the no-show
+        } else {
+            long checkInAt = startMillis + (random.nextInt(20) - 10) * MINUTE; // 10 minutes early to 10 late
+            push(checkInAt, CHECK_IN, reservationId, clientId);
+            if (random.nextDouble() < earlyFinishShare) {
+                push(checkInAt + (long) (random.nextDouble() * (endMillis - checkInAt)), FINISH, reservationId, clientId);
+            }
+        }
+    }
+
+    private void push(long at, int kind, String reservationId, String clientId) {
+        queue.add(new Event(at, sequence++, kind, reservationId, clientId));
+    }
+
+    // Exponential gap between Poisson arrivals, at least a millisecond
+    private static long nextGap(Random random, double perMinute) {
+        return Math.max(1, (long) (-Math.log(1 - random.nextDouble()) / perMinute * MINUTE));
+    }
+
+    private static long directoryBytes(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package makerspace.tools;
+
+import makerspace.classModels.*;
+import makerspace.exceptions.*;
+import makerspace.service.*;
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Replays a login/browse/book/cancel mix against the service layer from many threads and reports
+// throughput and latency percentiles per operation. Works on a copy of the data directory, so the
+// source (e.g. one written by DatasetGenerator) is never modified.
+//
+// Usage: WorkloadDriver [--data data] [--threads 8] [--seconds 30] [--warmup-seconds 5]
+//                       [--mix login=20,browse=50,book=20,cancel=10] [--password password] [--days-ahead 60]
+//
+// login: authenticate a random client (all clients are assumed to share --password, as generated).
+// browse: list available equipment and the first page of the client's reservations.
+// book: a 1-3 hour booking on a random machine at a random future hour; a slot conflict or low balance
+//       counts as rejected, not as an error.
+// cancel: cancel one of the bookings this thread made (falls back to a browse when it has none).
+public class WorkloadDriver {
+    private static final String[] OPERATIONS = { "login", "browse", "book", "cancel" };
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            options.put(args[i].replaceFirst("^--", ""), args[++i]);
+        }
+        Path source = Paths.get(options.getOrDefault("data", "data"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int warmupSeconds = Integer.parseInt(options.getOrDefault("warmup-seconds", "5"));
+        String password = options.getOrDefault("password", "password");
+        int daysAhead = Integer.parseInt(options.getOrDefault("days-ahead", "60"));
+        int[] weights = parseMix(options.getOrDefault("mix", "login=20,browse=50,book=20,cancel=10"));
+        int totalWeight = Arrays.stream(weights).sum();
+
+        Path dataDir = Files.createTempDirectory("makerspace-workload");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(source, "*.{txt,log,snapshot}")) {
+            for (Path file : files) {
+                Files.copy(file, dataDir.resolve(file.getFileName()));
+            }
+        }
+        BootCoordinator boot = new BootCoordinator().boot(new DbService(dataDir.toString()));
+        UserService userService = boot.getUserService();
+        EquipmentService equipmentService = boot.getEquipmentService();
+        ReservationService reservationService = boot.getReservationService();
+        List<Client> clients = userService.getAllClients();
+        List<String> equipmentIds = new ArrayList<>();
+        equipmentService.getAllEquipment().forEach(eq -> equipmentIds.add(eq.getEquipmentId()));
+        if (clients.isEmpty() || equipmentIds.isEmpty()) {
+            System.err.println("The data directory needs at least one client and one machine");
+            System.exit(1);
+        }
+
+        int initialReservations = reservationService.getAllReservations().size();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // services print per operation
+        LocalDateTime base = LocalDateTime.now().plusDays(1).withMinute(0).withSecond(0).withNano(0);
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Stats>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Stats stats = new Stats();
+                List<String[]> mine = new ArrayList<>(); // {reservationId, clientId}
+                while (System.nanoTime() < end) {
+                    int op = pickOperation(weights, totalWeight, random);
+                    if (op == 3 && mine.isEmpty()) {
+                        op = 1;
+                    }
+                    Client client = clients.get(random.nextInt(clients.size()));
+                    int outcome = Stats.OK;
+                    long started = System.nanoTime();
+                    try {
+                        switch (op) {
+                            case 0:
+                                userService.authenticate(client.getUsername(), password);
+                                break;
+                            case 1:
+                                equipmentService.getAvailableEquipment();
+                                reservationService.getReservationsByUser(client.getUserId(), 0, 20);
+                                break;
+                            case 2:
+                                LocalDateTime start = base.plusHours(random.nextInt(daysAhead * 24));
+                                String id = reservationService.createReservation(client.getUserId(),
+                                        equipmentIds.get(random.nextInt(equipmentIds.size())), start, start.plusHours(1 + random.nextInt(3)));
+                                mine.add(new String[] { id, client.getUserId() });
+                                break;
+                            default:
+                                String[] victim = mine.remove(random.nextInt(mine.size()));
+                                reservationService.cancelReservation(victim[0], victim[1]);
+                        }
+                    } catch (EquipmentUnavailableException | InvalidReservationException e) {
+                        outcome = Stats.REJECTED;
+                    } catch (Exception e) {
+                        outcome = Stats.ERROR;
+                    }
+                    if (started >= warmupEnd) {
+                        stats.record(op, System.nanoTime() - started, outcome);
+                    }
+                }
+                return stats;
+            }));
+        }
+        Stats total = new Stats();
+        for (Future<Stats> worker : workers) {
+            total.merge(worker.get());
+        }
+        pool.shutdown();
+        System.setOut(console);
+
+        System.out.printf("%d threads, %d s measured after %d s warmup, %d clients, %d machines, %d reservations at start%n",
+                threads, seconds, warmupSeconds, clients.size(), equipmentIds.size(), initialReservations);
+        System.out.printf("%-8s %10s %10s %9s %8s %10s %10s %10s %10s%n",
+                "op", "ok", "rejected", "errors", "ops/s", "p50 us", "p99 us", "p999 us", "max us");
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            long[] latencies = total.sorted(op);
+            long ops = latencies.length;
+            System.out.printf("%-8s %10d %10d %9d %8.0f %10.1f %10.1f %10.1f %10.1f%n", OPERATIONS[op],
+                    total.count(op, Stats.OK), total.count(op, Stats.REJECTED), total.count(op, Stats.ERROR),
+                    ops / (double) seconds, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999), ops == 0 ? 0 : latencies[latencies.length - 1] / 1000.0);
+        }
+        System.out.printf("total    %d ops, %.0f ops/s; scratch data in %s%n",
+                total.all(), total.all() / (double) seconds, dataDir);
+        System.exit(0); // the journal writer and compaction threads are daemons, but do not wait on anything
+    }
+
+    // Per-thread latencies in nanoseconds, kept raw so percentiles are exact after merging
+    private static final class Stats {
+        static final int OK = 0, REJECTED = 1, ERROR = 2;
+
+        private final long[][] latencies = new long[OPERATIONS.length][1024];
+        private final int[] sizes = new int[OPERATIONS.length];
+        private final long[][] outcomes = new long[OPERATIONS.length][3];
+
+        void record(int op, long nanos, int outcome) {
+            if (sizes[op] == latencies[op].length) {
+                latencies[op] = Arrays.copyOf(latencies[op], sizes[op] * 2);
+            }
+            latencies[op][sizes[op]++] = nanos;
+            outcomes[op][outcome]++;
+        }
+
+        void merge(Stats other) {
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                latencies[op] = Arrays.copyOf(latencies[op], sizes[op] + other.sizes[op]);
+                System.arraycopy(other.latencies[op], 0, latencies[op], sizes[op], other.sizes[op]);
+                sizes[op] += other.sizes[op];
+                for (int o = 0; o < 3; o++) {
+                    outcomes[op][o] += other.outcomes[op][o];
+                }
+            }
+        }
+
+        long count(int op, int outcome) { return outcomes[op][outcome]; }
+
+        long all() { return Arrays.stream(sizes).asLongStream().sum(); }
+
+        long[] sorted(int op) {
+            long[] copy = Arrays.copyOf(latencies[op], sizes[op]);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    // Nearest-rank percentile, in microseconds
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))] / 1000.0;
+    }
+
+    private static int pickOperation(int[] weights, int totalWeight, Random random) {
+        int roll = random.nextInt(totalWeight);
+        for (int op = 0; op < weights.length; op++) {
+            roll -= weights[op];
+            if (roll < 0) {
+                return op;
+            }
+        }
+        return 1;
+    }
+
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.split("=");
+            int op = Arrays.asList(OPERATIONS).indexOf(kv[0].trim());
+            if (op < 0) {
+                throw new IllegalArgumentException("Unknown operation " + kv[0] + ", expected one of " + Arrays.toString(OPERATIONS));
+            }
+            weights[op] = Integer.parseInt(kv[1].trim());
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,87 @@
+package makerspace.utils;
+
+import java.time.*;
+
+// A Clock that reads its source at most once per resolution: a daemon thread refreshes a volatile
+// millisecond value and instant()/millis() just return it. Good enough for booking rules and
+// lifecycle checks, which care about minutes, and cheap enough to call once per element in a loop.
+//
+// system() is the shared one (10 ms behind the system clock at worst) that DbService hands out by default.
+public final class CachedClock extends Clock {
+    private static final long SYSTEM_RESOLUTION_MILLIS = 10;
+
+    private static volatile CachedClock system;
+
+    private final Reading reading;
+    private final ZoneId zone;
+
+    // The refreshing thread, shared by every zone view of one clock
+    private static final class Reading implements Runnable {
+        private final Clock source;
+        private final long resolutionMillis;
+        private volatile long millis;
+
+        Reading(Clock source, long resolutionMillis) {
+            this.source = source;
+            this.resolutionMillis = resolutionMillis;
+            this.millis = source.millis();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(resolutionMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                millis = source.millis();
+            }
+        }
+    }
+
+    public static CachedClock system() {
+        CachedClock clock = system;
+        if (clock == null) {
+            synchronized (CachedClock.class) {
+                if (system == null) {
+                    system = new CachedClock(Clock.systemDefaultZone(), SYSTEM_RESOLUTION_MILLIS);
+                }
+                clock = system;
+            }
+        }
+        return clock;
+    }
+
+    public CachedClock(Clock source, long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive: " + resolutionMillis);
+        }
+        this.reading = new Reading(source, resolutionMillis);
+        this.zone = source.getZone();
+        Thread refresher = new Thread(reading, "cached-clock");
+        refresher.setDaemon(true);
+        refresher.start();
+    }
+
+    private CachedClock(Reading reading, ZoneId zone) {
+        this.reading = reading;
+        this.zone = zone;
+    }
+
+    @Override
+    public ZoneId getZone() { return zone; }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(this.zone) ? this : new CachedClock(reading, zone);
+    }
+
+    @Override
+    public long millis() { return reading.millis; }
+
+    @Override
+    public Instant instant() { return Instant.ofEpochMilli(reading.millis); }
+
+    public long getResolutionMillis() { return reading.resolutionMillis; }
+}
@@ -1,5 +1,7 @@
 package makerspace.utils;
+import java.time.Clock;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.*;
 
 public class DateTimeHandler {
@@ -21,9 +23,10 @@ public class DateTimeHandler {
 		return dateTime.withMinute(0).withSecond(0).withNano(0);
 	}
 	
-	public static boolean isValidFutureDateTIme(LocalDateTime dateTime)
+	// Services pass their own clock (see DbService.getClock) so simulations can run on virtual time
+	public static boolean isValidFutureDateTIme(LocalDateTime dateTime, Clock clock)
 	{
-		return dateTime.isAfter(LocalDateTime.now());
+		return dateTime.isAfter(LocalDateTime.now(clock));
 	}
 	
 	public static boolean isWorking(LocalDateTime dateTime)
@@ -32,13 +35,30 @@ public class DateTimeHandler {
 		return hour >= 10 && hour < 20; //10AM to 8PM
 	}
 	
-	public static String getCurrentDateTimeString()
+	public static String getCurrentDateTimeString(Clock clock)
 	{
-		return formatDateTimeToString(LocalDateTime.now());
+		return formatDateTimeToString(LocalDateTime.now(clock));
 	}
 	
-	public static LocalDateTime getCurrentDateTime()
+	public static LocalDateTime getCurrentDateTime(Clock clock)
 	{
-		return LocalDateTime.now();
+		return LocalDateTime.now(clock);
+	}
+	
+	// Minutes since 1970-01-01 00:00, treating wall-clock time as UTC (used as index keys)
+	public static long toEpochMinute(LocalDateTime dateTime)
+	{
+		return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+	}
+	
+	// Milliseconds on the same wall-clock-as-UTC scale as toEpochMinute (used by the lifecycle timers)
+	public static long toEpochMilli(LocalDateTime dateTime)
+	{
+		return dateTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+	
+	public static LocalDateTime fromEpochMinute(long epochMinute)
+	{
+		return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
 	}
 }
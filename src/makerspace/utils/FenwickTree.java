@@ -0,0 +1,70 @@
+package makerspace.utils;
+
+// Binary indexed tree over long values: point add and prefix/range sums in O(log n).
+// Indexes start at 0; adding past the end grows the tree (doubling, rebuilt in O(n)).
+public class FenwickTree {
+    private long[] tree; // 1-based internally
+
+    public FenwickTree(int size) {
+        this.tree = new long[Math.max(1, size) + 1];
+    }
+
+    // Builds from point values in O(n)
+    public static FenwickTree of(long[] values) {
+        FenwickTree fenwick = new FenwickTree(values.length);
+        long[] tree = fenwick.tree;
+        System.arraycopy(values, 0, tree, 1, values.length);
+        for (int i = 1; i < tree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+        return fenwick;
+    }
+
+    public int size() { return tree.length - 1; }
+
+    public void add(int index, long delta) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Negative index " + index);
+        }
+        if (index >= size()) {
+            grow(Math.max(index + 1, size() * 2));
+        }
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // Sum of [0, end)
+    public long prefixSum(int end) {
+        long sum = 0;
+        for (int i = Math.min(end, size()); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    // Sum of [from, to)
+    public long rangeSum(int from, int to) {
+        if (to <= from) {
+            return 0;
+        }
+        return prefixSum(to) - prefixSum(Math.max(0, from));
+    }
+
+    // Point values, e.g. to rebuild at a different size or offset
+    public long[] toArray() {
+        long[] values = new long[size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rangeSum(i, i + 1);
+        }
+        return values;
+    }
+
+    private void grow(int newSize) {
+        long[] values = java.util.Arrays.copyOf(toArray(), newSize);
+        tree = of(values).tree;
+    }
+}
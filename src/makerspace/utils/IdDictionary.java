@@ -0,0 +1,67 @@
+package makerspace.utils;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Interns string IDs (RES_/USER_/EQ_...) to dense ints so records can store them in 4 bytes.
+// get() does not lock: a code handed out by intern() is readable by any thread that learned it
+// through a synchronized or volatile hand-off, e.g. from a published table row.
+public class IdDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private volatile String[] values = new String[16];
+    private int count;
+
+    public synchronized int intern(String id) {
+        Integer code = codes.get(id);
+        if (code == null) {
+            code = count;
+            String[] current = values;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, count * 2);
+            }
+            current[count++] = id;
+            codes.put(id, code);
+            values = current;
+        }
+        return code;
+    }
+
+    // -1 if the id has never been interned
+    public synchronized int lookup(String id) {
+        Integer code = codes.get(id);
+        return code == null ? -1 : code;
+    }
+
+    public String get(int code) {
+        String id = values[code];
+        if (id == null) {
+            throw new IndexOutOfBoundsException("No id with code " + code);
+        }
+        return id;
+    }
+
+    public synchronized int size() { return count; }
+
+    // Every id, index == code
+    public synchronized String[] toArray() {
+        return Arrays.copyOf(values, count);
+    }
+
+    // One id per line, line number == code
+    public synchronized void save(Path file) throws IOException {
+        Path temp = Paths.get(file.toString() + ".tmp");
+        Files.write(temp, Arrays.asList(values).subList(0, count), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static IdDictionary load(Path file) throws IOException {
+        IdDictionary dictionary = new IdDictionary();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                dictionary.intern(line);
+            }
+        }
+        return dictionary;
+    }
+}
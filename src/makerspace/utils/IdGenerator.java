@@ -0,0 +1,42 @@
+package makerspace.utils;
+
+// Source of the numeric part of new record IDs ("RES_" + nextId()). IDs must be unique across every
+// process that shares the data directory and across restarts; SnowflakeIdGenerator is the default.
+// A plain counter (AtomicLong::incrementAndGet) is enough where only one process ever writes,
+// e.g. a simulation on a scratch directory.
+@FunctionalInterface
+public interface IdGenerator {
+    long nextId();
+
+    default String nextId(String prefix) {
+        return prefix + nextId();
+    }
+
+    // Called with the numeric part of every id loaded at startup, so that new ids sort after them
+    default void advancePast(long id) {}
+
+    // Digits after the last '_' of an id such as "RES_7203994118914048", -1 when there are none or
+    // they do not fit a long; lets indexes key on a long instead of hashing the string
+    static long numericPart(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int from = id.lastIndexOf('_') + 1;
+        int digits = id.length() - from;
+        if (digits == 0 || digits > 19) {
+            return -1;
+        }
+        long value = 0;
+        for (int at = from; at < id.length(); at++) {
+            char c = id.charAt(at);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            if (value < 0) {
+                return -1; // overflowed
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,178 @@
+package makerspace.utils;
+import java.util.ArrayList;
+import java.util.List;
+
+// AVL tree of half-open [start, end) intervals ordered by (start, value).
+// Every node also tracks the largest end in its subtree so overlap queries
+// can skip whole branches: O(log n) for a yes/no check, O(log n + k) to list.
+public class IntervalTree<T extends Comparable<T>> {
+    private Node<T> root;
+    private int size;
+
+    private static final class Node<T> {
+        final long start;
+        final long end;
+        final T value;
+        long maxEnd;
+        int height;
+        Node<T> left;
+        Node<T> right;
+
+        Node(long start, long end, T value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+            this.maxEnd = end;
+            this.height = 1;
+        }
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public void insert(long start, long end, T value) {
+        if (end <= start) {
+            throw new IllegalArgumentException("Interval end must be after start");
+        }
+        root = insert(root, new Node<>(start, end, value));
+        size++;
+    }
+
+    public boolean remove(long start, T value) {
+        int before = size;
+        root = remove(root, start, value);
+        return size < before;
+    }
+
+    public boolean overlaps(long start, long end) {
+        Node<T> node = root;
+        while (node != null) {
+            if (node.start < end && start < node.end) {
+                return true;
+            }
+            if (node.left != null && node.left.maxEnd > start) {
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return false;
+    }
+
+    public List<T> findOverlapping(long start, long end) {
+        List<T> result = new ArrayList<>();
+        collect(root, start, end, result);
+        return result;
+    }
+
+    private void collect(Node<T> node, long start, long end, List<T> result) {
+        if (node == null || node.maxEnd <= start) {
+            return;
+        }
+        collect(node.left, start, end, result);
+        if (node.start >= end) {
+            return; // everything to the right starts even later
+        }
+        if (start < node.end) {
+            result.add(node.value);
+        }
+        collect(node.right, start, end, result);
+    }
+
+    private int compare(long start, T value, Node<T> node) {
+        int c = Long.compare(start, node.start);
+        return c != 0 ? c : value.compareTo(node.value);
+    }
+
+    private Node<T> insert(Node<T> node, Node<T> fresh) {
+        if (node == null) {
+            return fresh;
+        }
+        if (compare(fresh.start, fresh.value, node) < 0) {
+            node.left = insert(node.left, fresh);
+        } else {
+            node.right = insert(node.right, fresh);
+        }
+        return rebalance(node);
+    }
+
+    private Node<T> remove(Node<T> node, long start, T value) {
+        if (node == null) {
+            return null;
+        }
+        int c = compare(start, value, node);
+        if (c < 0) {
+            node.left = remove(node.left, start, value);
+        } else if (c > 0) {
+            node.right = remove(node.right, start, value);
+        } else {
+            size--;
+            if (node.left == null) return node.right;
+            if (node.right == null) return node.left;
+            Node<T> successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            Node<T> replacement = new Node<>(successor.start, successor.end, successor.value);
+            replacement.right = removeMin(node.right);
+            replacement.left = node.left;
+            return rebalance(replacement);
+        }
+        return rebalance(node);
+    }
+
+    private Node<T> removeMin(Node<T> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeMin(node.left);
+        return rebalance(node);
+    }
+
+    private static int height(Node<?> node) { return node == null ? 0 : node.height; }
+
+    private void update(Node<T> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        long max = node.end;
+        if (node.left != null) max = Math.max(max, node.left.maxEnd);
+        if (node.right != null) max = Math.max(max, node.right.maxEnd);
+        node.maxEnd = max;
+    }
+
+    private Node<T> rebalance(Node<T> node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private Node<T> rotateRight(Node<T> node) {
+        Node<T> pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private Node<T> rotateLeft(Node<T> node) {
+        Node<T> pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+}
@@ -0,0 +1,109 @@
+package makerspace.utils;
+import java.io.IOException;
+import java.io.Writer;
+
+// Minimal streaming JSON writer: values go straight to the underlying Writer, so large
+// listings never have to be built up in memory. Commas are tracked per nesting level.
+public class JsonWriter {
+    private final Writer out;
+    private final boolean[] needsComma = new boolean[32];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException { return open('{'); }
+    public JsonWriter endObject() throws IOException { return close('}'); }
+    public JsonWriter beginArray() throws IOException { return open('['); }
+    public JsonWriter endArray() throws IOException { return close(']'); }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        separate();
+        out.write(String.format(java.util.Locale.ROOT, "%.2f", value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter field(String name, String value) throws IOException { return name(name).value(value); }
+    public JsonWriter field(String name, long value) throws IOException { return name(name).value(value); }
+    public JsonWriter field(String name, double value) throws IOException { return name(name).value(value); }
+    public JsonWriter field(String name, boolean value) throws IOException { return name(name).value(value); }
+
+    public void flush() throws IOException { out.flush(); }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        out.write(bracket);
+        needsComma[++depth] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        out.write(bracket);
+        depth--;
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false; // value directly follows its name
+            return;
+        }
+        if (needsComma[depth]) {
+            out.write(',');
+        }
+        needsComma[depth] = true;
+    }
+
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,107 @@
+package makerspace.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of non-negative longs (latencies in nanoseconds). Values below 16 get a
+// bucket each; above that every power of two is split into 16 equal sub-buckets, so a value is
+// known to within 1/16 (~6%) and 960 buckets cover the whole long range.
+// record() is an array increment and an adder add: no locks, no allocation. Counts only grow;
+// an interval view is one snapshot minus an earlier one.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        sum.add(value);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.sum());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    // Largest value that lands in the bucket
+    static long highestIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public long getCount() { return count; }
+
+        public double getMean() { return count == 0 ? 0 : sum / (double) count; }
+
+        // Upper edge of the bucket holding the p-th value (nearest rank), 0 when empty
+        public long getPercentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestIn(i);
+                }
+            }
+            return getMax();
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestIn(i);
+                }
+            }
+            return 0;
+        }
+
+        // What was recorded between `earlier` and this snapshot
+        public Snapshot minus(Snapshot earlier) {
+            if (earlier == null) {
+                return this;
+            }
+            long[] diff = new long[counts.length];
+            for (int i = 0; i < diff.length; i++) {
+                diff[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(diff, count - earlier.count, sum - earlier.sum);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package makerspace.utils;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed pool of locks picked by key hash, so unrelated keys rarely contend
+// and we never have to create (or clean up) a lock per key.
+public class LockStripes {
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public LockStripes(int minimumStripes) {
+        int stripes = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        this.locks = new ReentrantLock[stripes];
+        this.mask = stripes - 1;
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public ReentrantLock lockFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16); // spread high bits, same as HashMap
+        return locks[h & mask];
+    }
+
+    public int size() { return locks.length; }
+}
@@ -0,0 +1,229 @@
+package makerspace.utils;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+// Process-wide counters, gauges and operation timers. Services hold their Timer in a static final
+// field and time calls inline:
+//
+//     long started = CREATE.start();
+//     try { ... } catch (Exception e) { CREATE.failed(); throw e; } finally { CREATE.stop(started); }
+//
+// Recording never locks or allocates. Reading goes through snapshot(), which the admin menu, the
+// periodic file dump and the JMX bean (makerspace:type=Metrics) all use.
+public final class Metrics {
+    public static final String MBEAN_NAME = "makerspace:type=Metrics";
+    private static final long MAX_DUMP_BYTES = 10L * 1024 * 1024; // then rotated to <file>.1
+
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final long startedNanos = System.nanoTime();
+    private static ScheduledExecutorService dumper;
+
+    private Metrics() {}
+
+    public static final class Timer {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        public long start() { return System.nanoTime(); }
+
+        public void stop(long started) { latency.record(System.nanoTime() - started); }
+
+        // Counted in addition to the latency stop() records
+        public void failed() { errors.increment(); }
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    // Sampled on every read; replaces an earlier gauge of the same name
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static Snapshot snapshot() {
+        Map<String, LatencyHistogram.Snapshot> latencies = new LinkedHashMap<>();
+        Map<String, Long> errors = new LinkedHashMap<>();
+        timers.forEach((name, timer) -> {
+            latencies.put(name, timer.latency.snapshot());
+            errors.put(name, timer.errors.sum());
+        });
+        Map<String, Long> values = new LinkedHashMap<>();
+        counters.forEach((name, adder) -> values.put(name, adder.sum()));
+        gauges.forEach((name, gauge) -> {
+            try {
+                values.put(name, gauge.getAsLong());
+            } catch (RuntimeException e) {
+                values.put(name, -1L);
+            }
+        });
+        return new Snapshot(System.nanoTime(), latencies, errors, values);
+    }
+
+    public static final class Snapshot {
+        private final long takenNanos;
+        private final Map<String, LatencyHistogram.Snapshot> latencies;
+        private final Map<String, Long> errors;
+        private final Map<String, Long> values; // counters and gauges
+
+        private Snapshot(long takenNanos, Map<String, LatencyHistogram.Snapshot> latencies,
+                         Map<String, Long> errors, Map<String, Long> values) {
+            this.takenNanos = takenNanos;
+            this.latencies = latencies;
+            this.errors = errors;
+            this.values = values;
+        }
+
+        public Map<String, LatencyHistogram.Snapshot> getLatencies() { return latencies; }
+        public Map<String, Long> getErrors() { return errors; }
+        public Map<String, Long> getValues() { return values; }
+    }
+
+    // Rates and percentiles cover the time since `previous`, or since startup when it is null.
+    // Operations with no calls in that window are left out.
+    public static void print(PrintStream out, Snapshot current, Snapshot previous) {
+        double seconds = (current.takenNanos - (previous == null ? startedNanos : previous.takenNanos)) / 1e9;
+        out.printf("%-32s %10s %8s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "calls", "errors", "calls/s", "mean us", "p50 us", "p99 us", "p999 us", "max us");
+        current.latencies.forEach((name, latency) -> {
+            LatencyHistogram.Snapshot window = previous == null ? latency : latency.minus(previous.latencies.get(name));
+            if (window.getCount() == 0) {
+                return;
+            }
+            long errors = current.errors.get(name) - (previous == null ? 0 : previous.errors.getOrDefault(name, 0L));
+            out.printf("%-32s %10d %8d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, window.getCount(), errors,
+                    seconds <= 0 ? 0 : window.getCount() / seconds, window.getMean() / 1000, window.getPercentile(0.50) / 1000.0,
+                    window.getPercentile(0.99) / 1000.0, window.getPercentile(0.999) / 1000.0, window.getMax() / 1000.0);
+        });
+        current.values.forEach((name, value) -> out.printf("%-32s %10d%n", name, value));
+    }
+
+    // Appends an interval report to `file` every `intervalSeconds` on a daemon thread
+    public static synchronized void startFileDump(Path file, long intervalSeconds) {
+        if (dumper != null || intervalSeconds <= 0) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        Snapshot[] previous = { snapshot() };
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                Snapshot current = snapshot();
+                dumpTo(file, current, previous[0]);
+                previous[0] = current;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error writing metrics to " + file + ": " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void dumpTo(Path file, Snapshot current, Snapshot previous) throws IOException {
+        if (Files.exists(file) && Files.size(file) > MAX_DUMP_BYTES) {
+            Files.move(file, Paths.get(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8);
+        out.println("=== " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) + " ===");
+        print(out, current, previous);
+        out.println();
+        out.flush();
+        Files.write(file, buffer.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // Registers the metrics with the platform MBean server so JConsole/VisualVM can read them
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsBean(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // Read-only attributes, one per metric: "<timer>.count", ".errors", ".meanMicros", ".p50Micros",
+    // ".p99Micros", ".p999Micros", ".maxMicros" (cumulative since startup), plus each counter and gauge
+    private static final class MetricsBean implements DynamicMBean {
+        private static final String[] TIMER_FIELDS = { "count", "errors", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros" };
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = attributes(snapshot()).get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Object> all = attributes(snapshot());
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (all.containsKey(name)) {
+                    list.add(new Attribute(name, all.get(name)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            attributes(snapshot()).forEach((name, value) -> infos.add(
+                    new MBeanAttributeInfo(name, value.getClass().getName(), name, true, false, false)));
+            return new MBeanInfo(getClass().getName(), "MakerSpace service metrics",
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private static Map<String, Object> attributes(Snapshot snapshot) {
+            Map<String, Object> attributes = new LinkedHashMap<>();
+            snapshot.latencies.forEach((name, latency) -> {
+                Object[] values = { latency.getCount(), snapshot.errors.get(name), latency.getMean() / 1000,
+                        latency.getPercentile(0.50) / 1000.0, latency.getPercentile(0.99) / 1000.0,
+                        latency.getPercentile(0.999) / 1000.0, latency.getMax() / 1000.0 };
+                for (int f = 0; f < TIMER_FIELDS.length; f++) {
+                    attributes.put(name + "." + TIMER_FIELDS[f], values[f]);
+                }
+            });
+            attributes.putAll(snapshot.values);
+            return attributes;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package makerspace.utils;
+import java.util.*;
+
+// Occupancy of one machine in 15-minute slots. Each day is two longs: slots 0..63 in the
+// first word, 64..95 in the low half of the second. Slot numbers are global
+// (epoch minute / SLOT_MINUTES), so word(slot) can hand out any 64-slot run across days.
+// Not thread-safe; EquipmentService guards each bitmap with its schedule's monitor.
+public class SlotBitmap {
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+
+    private final Map<Long, long[]> days = new HashMap<>(); // epoch day -> 2 words
+
+    public static long slotAtOrBefore(long epochMinute) {
+        return Math.floorDiv(epochMinute, SLOT_MINUTES);
+    }
+
+    public static long slotAtOrAfter(long epochMinute) {
+        return Math.floorDiv(epochMinute + SLOT_MINUTES - 1, SLOT_MINUTES);
+    }
+
+    // Marks every slot the window [startMinute, endMinute) touches, even partially
+    public void mark(long startMinute, long endMinute) {
+        for (long slot = slotAtOrBefore(startMinute), end = slotAtOrAfter(endMinute); slot < end; slot++) {
+            long[] day = days.computeIfAbsent(Math.floorDiv(slot, SLOTS_PER_DAY), d -> new long[2]);
+            int bit = Math.floorMod(slot, SLOTS_PER_DAY);
+            day[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public void clear(long slot) {
+        long dayKey = Math.floorDiv(slot, SLOTS_PER_DAY);
+        long[] day = days.get(dayKey);
+        if (day == null) {
+            return;
+        }
+        int bit = Math.floorMod(slot, SLOTS_PER_DAY);
+        day[bit >>> 6] &= ~(1L << bit);
+        if (day[0] == 0 && day[1] == 0) {
+            days.remove(dayKey);
+        }
+    }
+
+    public boolean isSet(long slot) {
+        long[] day = days.get(Math.floorDiv(slot, SLOTS_PER_DAY));
+        int bit = Math.floorMod(slot, SLOTS_PER_DAY);
+        return day != null && (day[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public boolean isEmpty() {
+        return days.isEmpty();
+    }
+
+    // Occupancy of the 64 slots starting at firstSlot, bit i = slot firstSlot + i
+    public long word(long firstSlot) {
+        long result = 0;
+        int filled = 0;
+        long slot = firstSlot;
+        while (filled < 64) {
+            long dayKey = Math.floorDiv(slot, SLOTS_PER_DAY);
+            int offset = (int) (slot - dayKey * SLOTS_PER_DAY);
+            int take = Math.min(64 - filled, SLOTS_PER_DAY - offset);
+            long[] day = days.get(dayKey);
+            if (day != null) {
+                result |= bits(day, offset, take) << filled;
+            }
+            filled += take;
+            slot += take;
+        }
+        return result;
+    }
+
+    private static long bits(long[] day, int offset, int count) {
+        long raw = offset < 64
+                ? (day[0] >>> offset) | (offset == 0 ? 0 : day[1] << (64 - offset))
+                : day[1] >>> (offset - 64);
+        return count == 64 ? raw : raw & ((1L << count) - 1);
+    }
+
+    // bits[i] &= bits[i + shift] for every bit, treating bits past the array as 0.
+    // Ascending order is safe in place: each word only reads itself and higher words.
+    public static void andShifted(long[] bits, int shift) {
+        int wordShift = shift >>> 6;
+        int bitShift = shift & 63;
+        for (int w = 0; w < bits.length; w++) {
+            int src = w + wordShift;
+            long lo = src < bits.length ? bits[src] : 0;
+            long hi = src + 1 < bits.length ? bits[src + 1] : 0;
+            bits[w] &= bitShift == 0 ? lo : (lo >>> bitShift) | (hi << (64 - bitShift));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package makerspace.utils;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Time-ordered 64-bit IDs: 41 bits of milliseconds since 2024-01-01 (good until 2093), 10 bits of
+// node, 12 bits of sequence. Each process sharing a data directory holds a different node number,
+// claimed by locking one byte of <data>/id-nodes.lock for as long as the process runs, so two
+// processes can never produce the same id.
+//
+// nextId() is a CAS loop on one AtomicLong holding (millis << 12 | sequence). More than 4096 ids
+// in a millisecond carry into the next millisecond rather than wait, and a clock that steps back
+// is ignored, so ids from one node only ever increase.
+public class SnowflakeIdGenerator implements IdGenerator {
+    private static final long EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODES = 1 << NODE_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final String LOCK_FILE = "id-nodes.lock";
+
+    private static final Map<String, SnowflakeIdGenerator> generators = new HashMap<>();
+
+    private final int node;
+    private final AtomicLong state = new AtomicLong(); // millis since EPOCH_MILLIS << SEQUENCE_BITS | sequence
+    private final FileLock nodeLock; // held, never released, while the process runs
+
+    public SnowflakeIdGenerator(int node) {
+        this(node, null);
+    }
+
+    private SnowflakeIdGenerator(int node, FileLock nodeLock) {
+        if (node < 0 || node >= MAX_NODES) {
+            throw new IllegalArgumentException("Node must be in 0.." + (MAX_NODES - 1) + ": " + node);
+        }
+        this.node = node;
+        this.nodeLock = nodeLock;
+    }
+
+    // One generator per data directory within a JVM, on the lowest node no other process holds
+    public static synchronized SnowflakeIdGenerator forDirectory(String dataDirectory) {
+        String key = Paths.get(dataDirectory).toAbsolutePath().normalize().toString();
+        SnowflakeIdGenerator generator = generators.get(key);
+        if (generator == null) {
+            generator = claimNode(Paths.get(key, LOCK_FILE));
+            generators.put(key, generator);
+        }
+        return generator;
+    }
+
+    private static SnowflakeIdGenerator claimNode(Path lockFile) {
+        try {
+            FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            for (int node = 0; node < MAX_NODES; node++) {
+                try {
+                    FileLock lock = channel.tryLock(node, 1, false);
+                    if (lock != null) {
+                        return new SnowflakeIdGenerator(node, lock);
+                    }
+                } catch (OverlappingFileLockException e) {
+                    // held by another generator in this JVM
+                }
+            }
+            channel.close();
+            System.err.println("All " + MAX_NODES + " id nodes in " + lockFile + " are taken");
+        } catch (IOException e) {
+            System.err.println("Could not lock " + lockFile + ": " + e.getMessage());
+        }
+        // Unique within this process, and very likely across processes
+        return new SnowflakeIdGenerator(ThreadLocalRandom.current().nextInt(MAX_NODES));
+    }
+
+    public int getNode() { return node; }
+
+    @Override
+    public long nextId() {
+        while (true) {
+            long last = state.get();
+            long next = Math.max(last + 1, (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS);
+            if (state.compareAndSet(last, next)) {
+                return (next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)
+                        | (long) node << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    // Keeps ids ahead of ones issued before a restart, even if the clock has since stepped back
+    @Override
+    public void advancePast(long id) {
+        if (id <= 0) {
+            return;
+        }
+        long issued = (id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS | (id & SEQUENCE_MASK);
+        state.accumulateAndGet(issued, Math::max);
+    }
+
+    // Creation time of an id from this scheme, in epoch milliseconds
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+}
@@ -0,0 +1,182 @@
+package makerspace.utils;
+
+import java.util.*;
+
+// Hierarchical timing wheel: six levels of 64 slots, each level's slot spanning a whole turn of
+// the level below, so 64^6 ticks (2,000+ years at one second) fit without an overflow list.
+// A timer sits in a doubly linked slot list: schedule() and cancel() are O(1) whatever the
+// number pending. advance() walks the ticks in between, moving timers down a level when their
+// slot comes round and returning the ones that are due, earliest tick first.
+//
+// Time is whatever the caller passes in, in milliseconds; nothing here reads a clock. One lock
+// guards the wheel, and payloads are handed back rather than run, so callers fire them outside it.
+public class TimerWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 6;
+    private static final int DUE = LEVELS; // extra list for timers scheduled at or before the current tick
+
+    private final long tickMillis;
+    private final Timeout<T>[][] slots;
+    private final int[] counts = new int[LEVELS + 1]; // timers per level
+    private long currentTick;
+    private int size;
+
+    public static final class Timeout<T> {
+        private final long deadlineTick;
+        private final T payload;
+        private Timeout<T> prev, next;
+        private int level = -1, slot; // level -1: fired or cancelled
+
+        private Timeout(long deadlineTick, T payload) {
+            this.deadlineTick = deadlineTick;
+            this.payload = payload;
+        }
+
+        public T getPayload() { return payload; }
+    }
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.slots = (Timeout<T>[][]) new Timeout<?>[LEVELS + 1][SLOTS];
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+    }
+
+    // Fires on the first advance() that reaches deadlineMillis, rounded up to a whole tick
+    public synchronized Timeout<T> schedule(long deadlineMillis, T payload) {
+        Timeout<T> timeout = new Timeout<>(Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis), payload);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    // False if the timer already fired or was cancelled
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || timeout.level < 0) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    public synchronized int size() { return size; }
+
+    // Moves time forward to nowMillis and returns the payloads that came due, in deadline order
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> fired = new ArrayList<>();
+        long target = Math.floorDiv(nowMillis, tickMillis);
+        drain(DUE, 0, fired);
+        while (currentTick < target) {
+            if (size == 0) {
+                currentTick = target;
+                break;
+            }
+            int lowest = 0;
+            while (lowest < LEVELS && counts[lowest] == 0) {
+                lowest++;
+            }
+            if (lowest > 0 && lowest < LEVELS) {
+                // Nothing can come due before level `lowest` next rolls over; skip the empty ticks
+                long boundary = ((currentTick >>> (lowest * BITS)) + 1) << (lowest * BITS);
+                currentTick = Math.min(target, boundary - 1);
+                if (currentTick == target) {
+                    break;
+                }
+            }
+            currentTick++;
+            int rolled = 0; // highest level whose slot boundary this tick crosses
+            while (rolled + 1 < LEVELS && (currentTick & ((1L << ((rolled + 1) * BITS)) - 1)) == 0) {
+                rolled++;
+            }
+            for (int level = rolled; level > 0; level--) {
+                cascade(level, (int) ((currentTick >>> (level * BITS)) & (SLOTS - 1)));
+            }
+            drain(0, (int) (currentTick & (SLOTS - 1)), fired);
+            drain(DUE, 0, fired);
+        }
+        return fired;
+    }
+
+    private void place(Timeout<T> timeout) {
+        long deadline = timeout.deadlineTick;
+        if (deadline <= currentTick) {
+            link(timeout, DUE, 0);
+            return;
+        }
+        // The highest 6-bit digit in which deadline and now differ picks the level
+        int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTick)) / BITS;
+        if (level >= LEVELS) {
+            level = LEVELS - 1;
+            if (deadline - currentTick < 1L << (LEVELS * BITS)) {
+                // Within one turn of the top level, just across its wrap: its own top-level slot comes round first
+                link(timeout, level, (int) ((deadline >>> (level * BITS)) & (SLOTS - 1)));
+            } else {
+                // Beyond the wheel's reach: park it in the slot that comes round last and re-place it then
+                link(timeout, level, (int) (((currentTick >>> (level * BITS)) - 1) & (SLOTS - 1)));
+            }
+        } else {
+            link(timeout, level, (int) ((deadline >>> (level * BITS)) & (SLOTS - 1)));
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout<T> timeout = slots[level][slot];
+        slots[level][slot] = null;
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            counts[level]--;
+            timeout.prev = timeout.next = null;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    private void drain(int level, int slot, List<T> fired) {
+        Timeout<T> timeout = slots[level][slot];
+        slots[level][slot] = null;
+        while (timeout != null) {
+            Timeout<T> next = timeout.next;
+            counts[level]--;
+            timeout.prev = timeout.next = null;
+            if (timeout.deadlineTick <= currentTick) {
+                timeout.level = -1;
+                size--;
+                fired.add(timeout.payload);
+            } else {
+                place(timeout); // a parked far-future timer
+            }
+            timeout = next;
+        }
+    }
+
+    private void link(Timeout<T> timeout, int level, int slot) {
+        Timeout<T> head = slots[level][slot];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[level][slot] = timeout;
+        counts[level]++;
+        timeout.level = level;
+        timeout.slot = slot;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        counts[timeout.level]--;
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = timeout.next = null;
+        timeout.level = -1;
+    }
+}
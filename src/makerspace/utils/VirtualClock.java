@@ -0,0 +1,59 @@
+package makerspace.utils;
+
+import java.time.*;
+
+// A Clock that only moves when told to, for simulations and checks. It runs in UTC, so
+// LocalDateTime.now(clock) reads back exactly the wall-clock time it was set to, and millis()
+// is on the same scale as DateTimeHandler.toEpochMilli. Time never goes backwards.
+public final class VirtualClock extends Clock {
+    private volatile long millis;
+
+    public VirtualClock(LocalDateTime start) {
+        this.millis = DateTimeHandler.toEpochMilli(start);
+    }
+
+    // Moves time forward to atMillis; an earlier time is an error
+    public synchronized void advanceTo(long atMillis) {
+        if (atMillis < millis) {
+            throw new IllegalArgumentException("Virtual time cannot go back from " + millis + " to " + atMillis);
+        }
+        millis = atMillis;
+    }
+
+    public void advanceTo(LocalDateTime time) {
+        advanceTo(DateTimeHandler.toEpochMilli(time));
+    }
+
+    public synchronized void advanceBy(Duration duration) {
+        advanceTo(millis + duration.toMillis());
+    }
+
+    public LocalDateTime now() {
+        long at = millis;
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(at, 1000), Math.floorMod(at, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    @Override
+    public ZoneId getZone() { return ZoneOffset.UTC; }
+
+    // A view in another zone that still follows this clock
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (zone.equals(ZoneOffset.UTC)) {
+            return this;
+        }
+        VirtualClock source = this;
+        return new Clock() {
+            public ZoneId getZone() { return zone; }
+            public Clock withZone(ZoneId other) { return source.withZone(other); }
+            public long millis() { return source.millis(); }
+            public Instant instant() { return source.instant(); }
+        };
+    }
+
+    @Override
+    public long millis() { return millis; }
+
+    @Override
+    public Instant instant() { return Instant.ofEpochMilli(millis); }
+}
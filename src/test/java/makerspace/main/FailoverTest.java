@@ -0,0 +1,369 @@
+package makerspace.main;
+
+import makerspace.classModels.*;
+import makerspace.service.*;
+import makerspace.testing.TestData;
+import makerspace.utils.EquipmentStatusUtil;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.regex.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs a primary and a hot standby as two ReservationMain processes on localhost, each with its
+// own data directory: bookings and cancellations made on the primary show up on the standby,
+// which refuses writes; then the primary is killed (SIGKILL), the standby promotes itself and
+// takes bookings without reissuing an id or double-booking a slot, and a restart of the standby's
+// directory as a plain process still has everything. Process output goes to process.log in each
+// data directory. The other cases run a primary and a standby in this JVM: deletes of machines and
+// reservations and equipment status reach the standby, and an image drops what the primary no
+// longer has.
+class FailoverTest {
+    private static final int BOOKINGS = 40;
+    private static final long PROMOTE_AFTER_MILLIS = 1_500;
+    private static final Pattern RESERVATION = Pattern.compile("\"reservationId\":\"([^\"]+)\".*?\"status\":\"([^\"]+)\"");
+
+    private static final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    @TempDir
+    Path primaryDir;
+
+    @TempDir
+    Path standbyDir;
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<ReplicationPrimary> primaries = new ArrayList<>();
+    private final List<ReplicationStandby> standbys = new ArrayList<>();
+
+    @AfterEach
+    void stopProcesses() throws InterruptedException {
+        for (Process process : processes) {
+            process.destroyForcibly().waitFor();
+        }
+        for (ReplicationStandby standby : standbys) {
+            standby.promote(); // stops following
+        }
+        for (ReplicationPrimary primary : primaries) {
+            primary.stop();
+        }
+    }
+
+    @Test
+    void standbyFollowsThePrimaryAndTakesOverWhenItDies() throws Exception {
+        // Clients exist before the primary starts (there is no sign-up over HTTP)
+        PrintStream console = TestData.quiet();
+        DbService seed = new DbService(primaryDir.toString());
+        TestData.client(new UserService(seed, seed.loadUsers()), "failover", 1_000_000);
+        seed.flush().get();
+        System.setOut(console);
+
+        int replicationPort = freePort();
+        String primary = "http://localhost:" + freePort();
+        String standby = "http://localhost:" + freePort();
+        Process primaryProcess = launch(primaryDir, "--headless", "--http", port(primary),
+                "--data", primaryDir.toString(), "--replicate", Integer.toString(replicationPort));
+        awaitUp(primary);
+        launch(standbyDir, "--headless", "--http", port(standby), "--data", standbyDir.toString(),
+                "--standby", Integer.toString(replicationPort), "--promote-after", Long.toString(PROMOTE_AFTER_MILLIS));
+        awaitUp(standby);
+        assertTrue(get(standby + "/api/replication", null).body().contains("\"role\":\"standby\""), "standby role");
+
+        // Bookings and some cancellations on the primary
+        String primaryToken = login(primary);
+        String standbyToken = login(standby);
+        List<String> machines = new ArrayList<>();
+        Matcher ids = Pattern.compile("\"equipmentId\":\"([^\"]+)\"").matcher(get(primary + "/api/equipment", null).body());
+        while (ids.find()) {
+            machines.add(ids.group(1));
+        }
+        LocalDateTime base = TestData.slot(3, 8);
+        List<String[]> booked = new ArrayList<>(); // {reservationId, equipmentId, start}
+        for (int i = 0; i < BOOKINGS; i++) {
+            String equipmentId = machines.get(i % machines.size());
+            String start = format(base.plusHours(i / machines.size() * 2L));
+            HttpResponse<String> response = post(primary + "/api/reservations",
+                    "equipmentId=" + equipmentId + "&start=" + start + "&hours=1", primaryToken);
+            assertEquals(201, response.statusCode(), "booking on the primary: " + response.body());
+            booked.add(new String[] { field(response.body(), "reservationId"), equipmentId, start });
+        }
+        for (int i = 0; i < booked.size(); i += 5) {
+            delete(primary + "/api/reservations/" + booked.get(i)[0], primaryToken);
+        }
+        Map<String, String> onPrimary = reservations(primary, primaryToken);
+
+        // The standby catches up, serves the same reads and refuses writes
+        assertEquals(onPrimary, awaitReservations(standby, standbyToken, onPrimary), "reservations on the standby");
+        HttpResponse<String> refused = post(standby + "/api/reservations",
+                "equipmentId=" + machines.get(0) + "&start=" + format(base.plusDays(30)) + "&hours=1", standbyToken);
+        assertEquals(503, refused.statusCode(), "booking on an unpromoted standby");
+
+        // Failover
+        primaryProcess.destroyForcibly().waitFor();
+        long killed = System.nanoTime();
+        String role = "";
+        while (System.nanoTime() - killed < 10 * PROMOTE_AFTER_MILLIS * 1_000_000) {
+            role = get(standby + "/api/replication", null).body();
+            if (role.contains("\"promoted\"")) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        assertTrue(role.contains("\"role\":\"promoted\""), "standby after the primary died: " + role);
+
+        // The promoted standby takes writes: a taken slot stays taken, new ids are new
+        String[] live = booked.get(1);
+        HttpResponse<String> clash = post(standby + "/api/reservations",
+                "equipmentId=" + live[1] + "&start=" + live[2] + "&hours=1", standbyToken);
+        assertEquals(409, clash.statusCode(), "booking a slot the primary sold");
+        HttpResponse<String> fresh = post(standby + "/api/reservations",
+                "equipmentId=" + machines.get(0) + "&start=" + format(base.plusDays(30)) + "&hours=1", standbyToken);
+        assertEquals(201, fresh.statusCode(), "booking on the promoted standby");
+        assertFalse(onPrimary.containsKey(field(fresh.body(), "reservationId")), "promoted standby reissued an id");
+        HttpResponse<String> cancelled = delete(standby + "/api/reservations/" + booked.get(2)[0], standbyToken);
+        assertEquals(200, cancelled.statusCode(), "cancelling a primary booking on the promoted standby");
+        Map<String, String> afterFailover = reservations(standby, standbyToken);
+
+        // Its own directory has everything: restart it as a plain process
+        for (Process process : processes) {
+            process.destroy();
+            process.waitFor();
+        }
+        String restarted = "http://localhost:" + freePort();
+        launch(standbyDir, "--headless", "--http", port(restarted), "--data", standbyDir.toString());
+        awaitUp(restarted);
+        assertEquals(afterFailover, reservations(restarted, login(restarted)), "reservations after restarting the standby's directory");
+    }
+
+    // Deletes journaled on the primary release the standby's slot and client history entry and drop
+    // the machine; status changes ride along on the equipment record. The standby's own files agree.
+    @Test
+    void deletesAndEquipmentStatusReachTheStandby() throws Exception {
+        PrintStream console = TestData.quiet();
+        try {
+            DbService primaryDb = new DbService(primaryDir.toString());
+            BootCoordinator primary = new BootCoordinator().boot(primaryDb);
+            String client = TestData.client(primary.getUserService(), "failover", 1_000_000);
+            List<Equipment> machines = primary.getEquipmentService().getAvailableEquipment();
+            String booked = machines.get(0).getEquipmentId();
+            String retired = machines.get(1).getEquipmentId();
+            String serviced = machines.get(2).getEquipmentId();
+            LocalDateTime start = TestData.slot(3, 10);
+            String kept = primary.getReservationService().createReservation(client, booked, start, start.plusHours(1));
+            String deleted = primary.getReservationService().createReservation(client, booked, start.plusHours(2), start.plusHours(3));
+
+            ReplicationStandby standby = follow(primaryDb);
+            ReservationService standbyReservations = standby.getReservationService();
+            EquipmentService standbyEquipment = standby.getEquipmentService();
+            assertTrue(standbyReservations.containsReservation(deleted), "standby has the booking before the delete");
+            assertFalse(standbyEquipment.isEquipmentAvailable(booked, start.plusHours(2), start.plusHours(3)));
+
+            primaryDb.deleteReservation(deleted);
+            primaryDb.deleteEquipment(retired);
+            primary.getEquipmentService().setEquipmentStatus(serviced, EquipmentStatusUtil.MAINTENANCE);
+            await(() -> !standbyReservations.containsReservation(deleted) && !standbyEquipment.containsEquipment(retired)
+                    && EquipmentStatusUtil.MAINTENANCE.equals(statusOn(standbyEquipment, serviced)), "deletes and status on the standby");
+
+            assertTrue(standbyEquipment.isEquipmentAvailable(booked, start.plusHours(2), start.plusHours(3)), "deleted booking's slot");
+            assertFalse(standbyEquipment.isEquipmentAvailable(booked, start, start.plusHours(1)), "kept booking's slot");
+            assertEquals(List.of(kept), ids(standbyReservations.getReservationsByUser(client)));
+            assertEquals(1, standbyReservations.countReservationsByUser(client));
+            assertEquals(1, standbyReservations.getReservationCount());
+            assertTrue(standbyEquipment.findEquipment(null, null, null, null, null, null).stream()
+                    .noneMatch(eq -> eq.getEquipmentId().equals(retired)), "retired machine in the equipment filters");
+            assertEquals(1, standbyEquipment.findEquipment(EquipmentStatusUtil.MAINTENANCE, null, null, null, null, null).size());
+
+            standby.promote();
+            DbService reopened = new DbService(standbyDir.toString());
+            assertEquals(Set.of(kept), reopened.loadReservations().keySet(), "reservations in the standby's files");
+            Map<String, Equipment> equipment = reopened.loadEquipment();
+            assertFalse(equipment.containsKey(retired), "retired machine in the standby's files");
+            assertEquals(EquipmentStatusUtil.MAINTENANCE, equipment.get(serviced).getStatus());
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // A standby whose directory holds a user, a machine and a booking the primary never had (or has
+    // since deleted) gets an image on attach: all three go, in memory and in its files
+    @Test
+    void imageDropsWhatThePrimaryNoLongerHas() throws Exception {
+        PrintStream console = TestData.quiet();
+        try {
+            DbService primaryDb = new DbService(primaryDir.toString());
+            BootCoordinator primary = new BootCoordinator().boot(primaryDb);
+            String client = TestData.client(primary.getUserService(), "failover", 1_000_000);
+            String machine = primary.getEquipmentService().getAvailableEquipment().get(0).getEquipmentId();
+            LocalDateTime start = TestData.slot(3, 10);
+            String kept = primary.getReservationService().createReservation(client, machine, start, start.plusHours(1));
+            primaryDb.flush().get();
+
+            DbService stale = new DbService(standbyDir.toString());
+            stale.saveUser(new Client("USER_STALE", "stale", "stale@example.com", "password"));
+            stale.saveEquipment(new Equipment("EQ_STALE", "Old Lathe", "LATHE", 20, "Workshop"));
+            stale.saveReservation(new Reservation("RES_STALE", client, machine, start.plusHours(2), start.plusHours(3), start.minusDays(1)));
+            stale.flush().get();
+
+            ReplicationStandby standby = follow(primaryDb);
+            ReservationService standbyReservations = standby.getReservationService();
+            assertFalse(standby.getUserService().getAllUsers().stream().anyMatch(u -> u.getUserId().equals("USER_STALE")), "stale user");
+            assertFalse(standby.getEquipmentService().containsEquipment("EQ_STALE"), "stale machine");
+            assertFalse(standbyReservations.containsReservation("RES_STALE"), "stale booking");
+            assertTrue(standby.getEquipmentService().isEquipmentAvailable(machine, start.plusHours(2), start.plusHours(3)), "stale booking's slot");
+            assertEquals(List.of(kept), ids(standbyReservations.getReservationsByUser(client)));
+
+            standby.promote();
+            DbService reopened = new DbService(standbyDir.toString());
+            assertFalse(reopened.loadUsers().containsKey("USER_STALE"));
+            assertFalse(reopened.loadEquipment().containsKey("EQ_STALE"));
+            assertEquals(Set.of(kept), reopened.loadReservations().keySet());
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    // Ships primaryDb's journal to a standby on standbyDir in this JVM, once the standby has applied the first image
+    private ReplicationStandby follow(DbService primaryDb) throws Exception {
+        ReplicationPrimary primary = new ReplicationPrimary(primaryDb, 0);
+        primary.start();
+        primaries.add(primary);
+        ReplicationStandby standby = new ReplicationStandby(new DbService(standbyDir.toString()), "127.0.0.1", primary.getPort(), 0);
+        standbys.add(standby);
+        standby.start();
+        assertTrue(standby.awaitReady(10_000), "standby attached");
+        return standby;
+    }
+
+    private static String statusOn(EquipmentService equipment, String equipmentId) {
+        try {
+            return equipment.getEquipmentById(equipmentId).getStatus();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static List<String> ids(List<Reservation> reservations) {
+        List<String> ids = new ArrayList<>();
+        for (Reservation reservation : reservations) {
+            ids.add(reservation.getReservationId());
+        }
+        return ids;
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, what);
+            Thread.sleep(2);
+        }
+    }
+
+    // Polls until the listing matches `expected` or five seconds pass, and returns the last listing
+    private static Map<String, String> awaitReservations(String base, String token, Map<String, String> expected) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        Map<String, String> listing = reservations(base, token);
+        while (!listing.equals(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(2);
+            listing = reservations(base, token);
+        }
+        return listing;
+    }
+
+    private Process launch(Path dataDir, String... options) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dmakerspace.metrics.dumpSeconds=0");
+        command.add("makerspace.main.ReservationMain");
+        command.addAll(Arrays.asList(options));
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(dataDir.resolve("process.log").toFile()))
+                .start();
+        processes.add(process);
+        return process;
+    }
+
+    private static void awaitUp(String base) throws Exception {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (System.nanoTime() < deadline) {
+            try {
+                if (get(base + "/api/replication", null).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException(base + " did not come up");
+    }
+
+    private static String login(String base) throws Exception {
+        return field(post(base + "/api/login", "username=failover&password=password", null).body(), "token");
+    }
+
+    // reservationId -> status, as the client sees them
+    private static Map<String, String> reservations(String base, String token) throws Exception {
+        Map<String, String> statuses = new TreeMap<>();
+        Matcher matcher = RESERVATION.matcher(get(base + "/api/reservations", token).body());
+        while (matcher.find()) {
+            statuses.put(matcher.group(1), matcher.group(2));
+        }
+        return statuses;
+    }
+
+    private static HttpResponse<String> get(String url, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).GET();
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> post(String url, String form, String token) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> delete(String url, String token) throws Exception {
+        return http.send(HttpRequest.newBuilder(URI.create(url)).DELETE().header("Authorization", "Bearer " + token).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String field(String json, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\":\"([^\"]+)\"").matcher(json);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String format(LocalDateTime time) {
+        return time.toString().replace('T', '+');
+    }
+
+    private static String port(String base) {
+        return base.substring(base.lastIndexOf(':') + 1);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import makerspace.utils.EquipmentStatusUtil;
+import org.junit.jupiter.api.Test;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// EquipmentIndex against plain scans with the model's own predicates (equalsIgnoreCase,
+// Printer3D.canFit / canPrintMaterial): random machines, random status and material changes,
+// random combined filters
+class EquipmentIndexTest {
+    private static final int COUNT = 2_000;
+    private static final int QUERIES = 20_000;
+    private static final String[] TYPES = { "3D_PRINTER", "LASER_CUTTER", "CNC_MACHINE", "EMBROIDERY" };
+    private static final String[] LOCATIONS = { "Lab A", "Lab B", "Lab C", "Workshop", "Studio" };
+    private static final String[] TECHS = { "FDM", "SLA", "SLS", "fdm" };
+    private static final String[] STATUSES = { EquipmentStatusUtil.AVAILABLE, EquipmentStatusUtil.IN_USE,
+            EquipmentStatusUtil.MAINTENANCE, EquipmentStatusUtil.DOWN };
+    private static final String[] MATERIALS = { "PLA", "PETG", "ABS", "TPU", "Standard Resin", "Tough Resin",
+            "Flexible Resin", "Nylon PA12", "Carbon PLA" };
+    private static final String[] MATERIAL_QUERIES = { "resin", "Resin", "tough res", "PLA", "pla", "nylon", "PA12",
+            "carbon", "wood", "tpu", "Flexible Resin" };
+
+    @Test
+    void combinedFiltersMatchAScanUnderChanges() {
+        Random random = new Random(22);
+        EquipmentIndex index = new EquipmentIndex();
+        List<Equipment> machines = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            Equipment eq = randomMachine(random, String.format("EQ_%05d", i));
+            machines.add(eq);
+            index.add(eq);
+        }
+        for (int q = 0; q < QUERIES; q++) {
+            // Change a few machines between queries, as bookings and admins do
+            for (int change = random.nextInt(3); change > 0; change--) {
+                Equipment eq = machines.get(random.nextInt(machines.size()));
+                if (eq instanceof Printer3D && random.nextInt(10) == 0) {
+                    ((Printer3D) eq).setPrintMaterial(randomMaterials(random));
+                    index.reindex(eq);
+                } else if (random.nextInt(20) == 0) {
+                    Equipment replacement = randomMachine(random, eq.getEquipmentId()); // re-added under the same id
+                    machines.set(machines.indexOf(eq), replacement);
+                    index.add(replacement);
+                } else {
+                    eq.setStatus(pick(random, STATUSES));
+                    index.updateStatus(eq);
+                }
+            }
+            String[] filter = randomFilter(random);
+            assertEquals(scan(machines, filter), find(index, filter), Arrays.toString(filter));
+        }
+        assertEquals(machines.size(), index.size());
+        assertEquals(machines.stream().filter(eq -> eq instanceof Printer3D).count(), index.printers().size());
+    }
+
+    // Fractional sizes: the build axis rounds down, the part rounds up, so 145.5 mm never takes 146 mm
+    @Test
+    void fractionalBuildVolumeRefusesLargerParts() {
+        Printer3D halfMillimetre = new Printer3D("EQ_HALF", "Printer EQ_HALF", 20, "Lab A", "FDM", "145.5x145.5x145.5mm");
+        EquipmentIndex index = new EquipmentIndex();
+        index.add(halfMillimetre);
+        for (String part : new String[] { "146x146x146mm", "145.6x145x145mm" }) {
+            assertFalse(halfMillimetre.canFit(part), part);
+            assertTrue(index.find(null, null, null, null, part).isEmpty(), part);
+        }
+        assertTrue(halfMillimetre.canFit("145x145x145mm"));
+        assertFalse(index.find(null, null, null, null, "145x145x145mm").isEmpty());
+    }
+
+    // {status, type, location, tech, material, partSize}, each null = any
+    private static String[] randomFilter(Random random) {
+        String[] filter = new String[6];
+        if (random.nextInt(2) == 0) filter[0] = pick(random, STATUSES);
+        if (random.nextInt(3) == 0) filter[1] = random.nextBoolean() ? pick(random, TYPES) : pick(random, TYPES).toLowerCase();
+        if (random.nextInt(3) == 0) filter[2] = random.nextBoolean() ? pick(random, LOCATIONS) : pick(random, LOCATIONS).toUpperCase();
+        if (random.nextInt(3) == 0) filter[3] = pick(random, TECHS);
+        if (random.nextInt(3) == 0) filter[4] = pick(random, MATERIAL_QUERIES);
+        if (random.nextInt(3) == 0) {
+            filter[5] = random.nextInt(10) == 0 ? "about a shoebox"
+                    : (50 + random.nextInt(300)) + "x" + (50 + random.nextInt(300)) + "x" + (50 + random.nextInt(300)) + "mm";
+        }
+        return filter;
+    }
+
+    private static List<Equipment> find(EquipmentIndex index, String[] f) {
+        return f[0] == null ? index.find(f[1], f[2], f[3], f[4], f[5]) : index.find(f[1], f[2], f[3], f[4], f[5], f[0]);
+    }
+
+    private static List<Equipment> scan(List<Equipment> machines, String[] f) {
+        List<Equipment> matches = new ArrayList<>();
+        for (Equipment eq : machines) {
+            if (f[0] != null && !f[0].equals(eq.getStatus())) continue;
+            if (f[1] != null && !f[1].equalsIgnoreCase(eq.getEquipmentType())) continue;
+            if (f[2] != null && !f[2].equalsIgnoreCase(eq.getLocation())) continue;
+            if (f[3] != null || f[4] != null || f[5] != null) {
+                if (!(eq instanceof Printer3D)) continue;
+                Printer3D printer = (Printer3D) eq;
+                if (f[3] != null && !f[3].equalsIgnoreCase(printer.getPrintTech())) continue;
+                if (f[4] != null && !(printer.canPrintMaterial(f[4]) && wordPrefixesMatch(printer.getPrintMaterial(), f[4]))) continue;
+                if (f[5] != null && !printer.canFit(f[5])) continue;
+            }
+            matches.add(eq);
+        }
+        return matches;
+    }
+
+    // The index's material rule: each query word starts some word of the printer's materials
+    private static boolean wordPrefixesMatch(String materials, String query) {
+        List<String> words = Arrays.asList(materials.toLowerCase().split("[^\\p{L}\\p{N}]+"));
+        for (String word : query.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && words.stream().noneMatch(w -> w.startsWith(word))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Equipment randomMachine(Random random, String id) {
+        String location = pick(random, LOCATIONS);
+        if (random.nextInt(3) > 0) {
+            String volume = random.nextInt(20) == 0 ? "unknown"
+                    : (100 + random.nextInt(250)) + "x" + (100 + random.nextInt(250)) + "x" + (100 + random.nextInt(250)) + "mm";
+            Printer3D printer = new Printer3D(id, "Printer " + id, 20, location, pick(random, TECHS), volume);
+            if (random.nextBoolean()) {
+                printer.setPrintMaterial(randomMaterials(random));
+            }
+            printer.setStatus(pick(random, STATUSES));
+            return printer;
+        }
+        Equipment eq = new Equipment(id, "Machine " + id, pick(random, TYPES, 1), 30, location);
+        eq.setStatus(pick(random, STATUSES));
+        return eq;
+    }
+
+    private static String randomMaterials(Random random) {
+        if (random.nextInt(10) == 0) {
+            return null;
+        }
+        StringJoiner materials = new StringJoiner(", ");
+        for (int n = 1 + random.nextInt(3); n > 0; n--) {
+            materials.add(pick(random, MATERIALS));
+        }
+        return materials.toString();
+    }
+
+    private static String pick(Random random, String[] values) {
+        return pick(random, values, 0);
+    }
+
+    private static String pick(Random random, String[] values, int from) {
+        return values[from + random.nextInt(values.length - from)];
+    }
+}
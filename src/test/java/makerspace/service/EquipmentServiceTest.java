@@ -0,0 +1,76 @@
+package makerspace.service;
+
+import makerspace.classModels.Equipment;
+import makerspace.testing.TestData;
+import makerspace.utils.VirtualClock;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Slot searches on a VirtualClock: a `from` in the past never yields a start createReservation refuses
+class EquipmentServiceTest {
+    private static final LocalDateTime NOW = LocalDateTime.of(2031, 3, 3, 9, 7, 30);
+
+    @TempDir
+    Path dataDir;
+
+    private PrintStream console;
+    private VirtualClock clock;
+    private EquipmentService equipmentService;
+    private ReservationService reservationService;
+    private String clientId;
+    private String equipmentId;
+
+    @BeforeEach
+    void boot() throws Exception {
+        console = TestData.quiet();
+        DbService db = new DbService(dataDir.toString());
+        clock = new VirtualClock(NOW);
+        db.setClock(clock);
+        BootCoordinator boot = new BootCoordinator().boot(db);
+        equipmentService = boot.getEquipmentService();
+        reservationService = boot.getReservationService();
+        clientId = TestData.client(boot.getUserService(), "earliest", 1_000);
+        equipmentId = equipmentService.getAvailableEquipment().get(0).getEquipmentId();
+    }
+
+    @AfterEach
+    void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Test
+    void earliestStartFromThePastIsTheNextSlotAfterNow() throws Exception {
+        LocalDateTime start = equipmentService.findEarliestStart(equipmentId, 1, NOW.minusDays(2), NOW.plusDays(1));
+        assertEquals(LocalDateTime.of(2031, 3, 3, 9, 15), start);
+        reservationService.createReservation(clientId, equipmentId, start, start.plusHours(1));
+        assertEquals(start.plusHours(1), equipmentService.findEarliestStart(equipmentId, 1, NOW.minusDays(2), NOW.plusDays(1)));
+    }
+
+    // Within the slot's first minute its start is already past
+    @Test
+    void slotStartingThisMinuteIsSkipped() {
+        clock.advanceTo(LocalDateTime.of(2031, 3, 3, 9, 15, 0, 1_000_000));
+        assertEquals(LocalDateTime.of(2031, 3, 3, 9, 30), equipmentService.findEarliestStart(equipmentId, 1, NOW, NOW.plusDays(1)));
+        clock.advanceTo(LocalDateTime.of(2031, 3, 3, 9, 30));
+        assertEquals(LocalDateTime.of(2031, 3, 3, 9, 30), equipmentService.findEarliestStart(equipmentId, 1, NOW, NOW.plusDays(1)));
+    }
+
+    @Test
+    void futureFromIsKept() {
+        LocalDateTime from = NOW.plusDays(3).withHour(14).withMinute(0).withSecond(0);
+        assertEquals(from, equipmentService.findEarliestStart(equipmentId, 2, from, from.plusDays(1)));
+    }
+
+    @Test
+    void freeSlotsFromThePastStartAfterNow() {
+        Map<Equipment, List<LocalDateTime>> starts = equipmentService.findFreeSlots(null, null, null, 1, NOW.minusDays(1), NOW.plusHours(3), 1);
+        assertFalse(starts.isEmpty());
+        starts.values().forEach(list -> assertEquals(LocalDateTime.of(2031, 3, 3, 9, 15), list.get(0)));
+    }
+}
@@ -0,0 +1,296 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import makerspace.utils.EquipmentStatusUtil;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// DbService's converters (now RecordCodec) must write and read exactly what the original
+// String.format / split("\\|") versions did (equipment adds its v2 tail of status and, for printers,
+// materials; legacy equipment lines load as AVAILABLE with default materials). Reference copies of those versions live below.
+// Random records plus hand-picked edge cases (half-cent amounts, lenient dates, short and padded
+// lines), and the chunked bulk loader against line-by-line parsing of the same files.
+class RecordCodecTest {
+    private static final int ITERATIONS = 200_000;
+    private static final String[] WEIRD_LINES = {
+        "", "|", "RESERVATION", "RESERVATION|a|b|c|2026-01-01 10:00|2026-01-01 11:00|APPROVED|1.00",
+        "RESERVATION|a|b|c|2026-02-30 10:00|2026-02-31 11:00|APPROVED|1.50|2026-01-01 09:00",
+        "RESERVATION|a|b|c|2026-01-01 24:00|2026-01-01 23:00|PENDING|1e2|2026-01-01 09:00",
+        "RESERVATION|a|b|c|2026-1-01 10:00|2026-01-01 11:00|PENDING|1|2026-01-01 09:00",
+        "RESERVATION|a|b|c|2026-01-01 10:00|2026-01-01 11:00|PENDING|12.345|2026-01-01 09:00",
+        "RESERVATION|a|b|c|2026-01-01 10:00|2026-01-01 11:00|PENDING|-0.00|2026-01-01 09:00|extra|",
+        "RESERVATION|a|b|c|2026-01-01 10:00|2026-01-01 11:00|PENDING|.5|2026-01-01 09:00",
+        "RESERVATION|a||c|2026-01-01 10:00|2026-01-01 11:00||7.|2026-01-01 09:00",
+        "RESERVATION|a|b|c|2026-01-01 10:00|2026-01-01 11:00|PENDING|NaN|0001-01-01 00:00",
+        "RESERVATION|a|b|c|2026-01-01 10:00|2026-01-01 11:00|PENDING|x|2026-01-01 09:00",
+        "Client|U1|bob|bob@x|pw|12.50|Client", "Client|U1|bob|bob@x|pw|abc", "Client|U1|bob|bob@x|pw",
+        "Client|U1|bob|bob@x|pw|3.||", "Admin|A1|root|r@x|pw", "Admin|A1|root|r@x|pw|TOP|", "Guest|G|g|g@x|pw|1",
+        "3D_PRINTER|E1|P|15.00|Lab A|FDM|250x210x210mm", "3D_PRINTER|E1|P|15.00|Lab A|FDM",
+        "3D_PRINTER|E1|P|15.00|Lab A", "3D_PRINTER|E1|P|oops|Lab A|FDM|x", "EQUIPMENT|E2|L|LASER_CUTTER|30.00|Shop",
+        "EQUIPMENT|E2|L|LASER_CUTTER|30.00", "EQUIPMENT|E2|L|LASER_CUTTER|1E1|Shop|", "OTHER|E3|x|y|z|w",
+    };
+    private static final String[] EQUIPMENT_STATUSES = { EquipmentStatusUtil.AVAILABLE, EquipmentStatusUtil.IN_USE,
+            EquipmentStatusUtil.MAINTENANCE, EquipmentStatusUtil.DOWN };
+    private static final double[] AMOUNTS = { 0, 0.005, 0.285, 1.005, 0.125, 2.675, 99.995, 12.345, 0.1 + 0.2,
+            1e7 + 0.005, 99999999.995, 1e9, 1e15, -0.001, -12.5, 123456.785, Double.MIN_VALUE };
+
+    @TempDir
+    Path dataDir;
+
+    private PrintStream err;
+
+    @BeforeEach
+    void quietErrors() {
+        err = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream())); // both sides report bad lines
+    }
+
+    @AfterEach
+    void restoreErrors() {
+        System.setErr(err);
+    }
+
+    @Test
+    void randomRecordsFormatAndParseLikeTheOriginal() {
+        Random random = new Random(7);
+        for (int n = 0; n < ITERATIONS; n++) {
+            double amount = n < AMOUNTS.length ? AMOUNTS[n] : randomAmount(random);
+            Reservation reservation = randomReservation(random, "RES_" + random.nextInt(1_000_000), amount);
+            assertEquals(legacyReservationToString(reservation), DbService.reservationToString(reservation));
+
+            Client client = new Client("USER_" + n, "user " + n, "u" + n + "@example.com", "p|w" + n);
+            client.updateAccountBalance(amount);
+            assertEquals(legacyUserToString(client), DbService.userToString(client));
+            Admin admin = new Admin("USER_A" + n, "admin" + n, "a@x", "password", n % 2 == 0 ? "TOP" : "BASIC");
+            assertEquals(legacyUserToString(admin), DbService.userToString(admin));
+
+            // Equipment lines carry the v2 tail after the legacy fields: status, then a printer's materials
+            Equipment eq = equipment(n, amount);
+            eq.setStatus(EQUIPMENT_STATUSES[n % EQUIPMENT_STATUSES.length]);
+            String defaults = null;
+            if (eq instanceof Printer3D) {
+                defaults = ((Printer3D) eq).getPrintMaterial();
+                ((Printer3D) eq).setPrintMaterial("PLA|wood fill " + n);
+            }
+            String tail = "|v2|" + eq.getStatus() + (eq instanceof Printer3D ? "|" + ((Printer3D) eq).getPrintMaterial() : "");
+            assertEquals(legacyEquipmentToString(eq) + tail, DbService.equipmentToString(eq));
+            Equipment parsed = DbService.stringToEquipment(DbService.equipmentToString(eq));
+            assertEquals(eq.getStatus(), parsed.getStatus());
+            if (eq instanceof Printer3D) {
+                assertEquals(((Printer3D) eq).getPrintMaterial(), ((Printer3D) parsed).getPrintMaterial());
+                ((Printer3D) eq).setPrintMaterial(defaults); // what a legacy line loads as
+            }
+            eq.setStatus(EquipmentStatusUtil.AVAILABLE);
+
+            String line = legacyReservationToString(reservation);
+            assertEquals(describe(legacyStringToReservation(line)), describe(DbService.stringToReservation(line)), line);
+            line = legacyUserToString(client);
+            assertEquals(describe(legacyStringToUser(line)), describe(DbService.stringToUser(line)), line);
+            line = legacyEquipmentToString(eq);
+            assertEquals(describe(legacyStringToEquipment(line)), describe(DbService.stringToEquipment(line)), line);
+        }
+    }
+
+    @Test
+    void edgeCaseLinesParseLikeTheOriginal() {
+        for (String line : WEIRD_LINES) {
+            assertEquals(describe(legacyStringToReservation(line)), describe(DbService.stringToReservation(line)), "reservation [" + line + "]");
+            assertEquals(describe(legacyStringToUser(line)), describe(DbService.stringToUser(line)), "user [" + line + "]");
+            assertEquals(describe(legacyStringToEquipment(line)), describe(DbService.stringToEquipment(line)), "equipment [" + line + "]");
+        }
+    }
+
+    // Bulk loading (chunked reader) against line-by-line legacy parsing of the same files, edge-case
+    // lines mixed in
+    @Test
+    void bulkLoadMatchesLineByLineParsing() throws IOException {
+        Random random = new Random(11);
+        Map<String, List<String>> files = new LinkedHashMap<>();
+        for (String file : new String[] { "users.txt", "equipment.txt", "reservations.txt" }) {
+            files.put(file, new ArrayList<>(Arrays.asList(WEIRD_LINES)));
+        }
+        for (int n = 0; n < 20_000; n++) {
+            double amount = randomAmount(random);
+            Reservation reservation = randomReservation(random, String.format("RES_%06d", n), amount);
+            files.get("reservations.txt").add(legacyReservationToString(reservation));
+            Client client = new Client(String.format("USER_%06d", n), "user " + n, "u" + n + "@example.com", "pw" + n);
+            client.updateAccountBalance(amount);
+            files.get("users.txt").add(legacyUserToString(client));
+            files.get("equipment.txt").add(legacyEquipmentToString(equipment(n, amount)));
+        }
+        for (Map.Entry<String, List<String>> file : files.entrySet()) {
+            Files.write(dataDir.resolve(file.getKey()), file.getValue(), StandardCharsets.UTF_8);
+        }
+
+        DbService db = new DbService(dataDir.toString());
+        Map<String, String> loaded = new TreeMap<>();
+        db.loadReservations().forEach((id, r) -> loaded.put(id, describe(r)));
+        db.loadUsers().forEach((id, u) -> loaded.put(id, describe(u)));
+        db.loadEquipment().forEach((id, e) -> loaded.put(id, describe(e)));
+        Map<String, String> expected = new TreeMap<>();
+        for (Map.Entry<String, List<String>> file : files.entrySet()) {
+            for (String line : file.getValue()) {
+                Object record = file.getKey().startsWith("res") ? legacyStringToReservation(line)
+                        : file.getKey().startsWith("users") ? legacyStringToUser(line) : legacyStringToEquipment(line);
+                if (record instanceof Reservation) {
+                    expected.put(((Reservation) record).getReservationId(), describe(record));
+                } else if (record instanceof User) {
+                    expected.put(((User) record).getUserId(), describe(record));
+                } else if (record instanceof Equipment) {
+                    expected.put(((Equipment) record).getEquipmentId(), describe(record));
+                }
+            }
+        }
+        assertEquals(expected, loaded);
+    }
+
+    private static Reservation randomReservation(Random random, String id, double amount) {
+        Reservation reservation = new Reservation(id, "USER_" + random.nextInt(1000),
+                "EQ_" + random.nextInt(1000), randomTime(random), randomTime(random), randomTime(random));
+        reservation.setStatus(new String[] { "PENDING", "APPROVED", "CANCELLED", "COMPLETED", "WAITLIST" }[random.nextInt(5)]);
+        reservation.setCost(amount);
+        return reservation;
+    }
+
+    private static Equipment equipment(int n, double amount) {
+        return n % 2 == 0
+                ? new Printer3D("EQ_" + n, "Printer " + n, amount, "Lab " + n % 3, "FDM", "250x210x210mm")
+                : new Equipment("EQ_" + n, "Mill " + n, "CNC_MACHINE", amount, "Workshop");
+    }
+
+    private static double randomAmount(Random random) {
+        switch (random.nextInt(4)) {
+            case 0: return random.nextInt(100_000) / 100.0;
+            case 1: return random.nextInt(1_000_000) / 1000.0;
+            case 2: return random.nextDouble() * Math.pow(10, random.nextInt(12));
+            default: return (random.nextInt(1000) + 0.5) / 100.0;
+        }
+    }
+
+    private static LocalDateTime randomTime(Random random) {
+        return LocalDateTime.of(1 + random.nextInt(9999), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                random.nextInt(24), random.nextInt(60));
+    }
+
+    // Every field that a converter reads or writes, so two parses can be compared as text
+    private static String describe(Object record) {
+        if (record instanceof Reservation) {
+            Reservation r = (Reservation) record;
+            return String.join(",", r.getReservationId(), r.getClientId(), r.getEquipmentId(), String.valueOf(r.getStartTime()),
+                    String.valueOf(r.getEndTime()), r.getStatus(), Double.toString(r.getCost()), String.valueOf(r.getCreatedAt()));
+        }
+        if (record instanceof Client) {
+            Client c = (Client) record;
+            return String.join(",", "Client", c.getUserId(), c.getUsername(), c.getEmail(), c.getPassword(),
+                    Double.toString(c.getAccountBalance()), c.getUserLevel());
+        }
+        if (record instanceof Admin) {
+            Admin a = (Admin) record;
+            return String.join(",", "Admin", a.getUserId(), a.getUsername(), a.getEmail(), a.getPassword(), a.getAdminTier());
+        }
+        if (record instanceof Printer3D) {
+            Printer3D p = (Printer3D) record;
+            return String.join(",", "Printer3D", p.getEquipmentId(), p.getName(), Double.toString(p.getHourCost()),
+                    p.getLocation(), p.getPrintTech(), p.getPrintVolume(), p.getStatus());
+        }
+        if (record instanceof Equipment) {
+            Equipment e = (Equipment) record;
+            return String.join(",", "Equipment", e.getEquipmentId(), e.getName(), e.getEquipmentType(),
+                    Double.toString(e.getHourCost()), e.getLocation(), e.getStatus());
+        }
+        return String.valueOf(record);
+    }
+
+    // ---- Reference copies of the converters RecordCodec replaced
+
+    private static String legacyReservationToString(Reservation reservation) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        return String.format("RESERVATION|%s|%s|%s|%s|%s|%s|%.2f|%s",
+                reservation.getReservationId(), reservation.getClientId(), reservation.getEquipmentId(),
+                reservation.getStartTime().format(formatter), reservation.getEndTime().format(formatter),
+                reservation.getStatus(), reservation.getCost(), reservation.getCreatedAt().format(formatter));
+    }
+
+    private static Reservation legacyStringToReservation(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 8 || !parts[0].equals("RESERVATION")) return null;
+        try {
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+            Reservation reservation = new Reservation(parts[1], parts[2], parts[3],
+                    LocalDateTime.parse(parts[4], formatter), LocalDateTime.parse(parts[5], formatter),
+                    LocalDateTime.parse(parts[8], formatter));
+            reservation.setStatus(parts[6]);
+            reservation.setCost(Double.parseDouble(parts[7]));
+            return reservation;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String legacyUserToString(User user) {
+        if (user instanceof Admin) {
+            Admin admin = (Admin) user;
+            return String.format("Admin|%s|%s|%s|%s|%s", admin.getUserId(), admin.getUsername(), admin.getEmail(),
+                    admin.getPassword(), admin.getAdminTier());
+        } else if (user instanceof Client) {
+            Client client = (Client) user;
+            return String.format("Client|%s|%s|%s|%s|%.2f|%s", client.getUserId(), client.getUsername(), client.getEmail(),
+                    client.getPassword(), client.getAccountBalance(), client.getUserType());
+        }
+        return "";
+    }
+
+    private static User legacyStringToUser(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 5) return null;
+        if ("Client".equals(parts[0]) && parts.length >= 6) {
+            Client client = new Client(parts[1], parts[2], parts[3], parts[4]);
+            try {
+                client.updateAccountBalance(Double.parseDouble(parts[5]));
+            } catch (NumberFormatException e) {
+                // reported by the original, balance left at zero
+            }
+            if (parts.length >= 7) {
+                client.setUserLevel(parts[6]);
+            }
+            return client;
+        } else if ("Admin".equals(parts[0]) && parts.length >= 5) {
+            return new Admin(parts[1], parts[2], parts[3], parts[4], parts.length > 5 ? parts[5] : parts[4]);
+        }
+        return null;
+    }
+
+    private static String legacyEquipmentToString(Equipment equipment) {
+        if (equipment instanceof Printer3D) {
+            Printer3D printer = (Printer3D) equipment;
+            return String.format("3D_PRINTER|%s|%s|%.2f|%s|%s|%s", printer.getEquipmentId(), printer.getName(),
+                    printer.getHourCost(), printer.getLocation(), printer.getPrintTech(), printer.getPrintVolume());
+        }
+        return String.format("EQUIPMENT|%s|%s|%s|%.2f|%s", equipment.getEquipmentId(), equipment.getName(),
+                equipment.getEquipmentType(), equipment.getHourCost(), equipment.getLocation());
+    }
+
+    private static Equipment legacyStringToEquipment(String line) {
+        String[] parts = line.split("\\|");
+        if (parts.length < 5) return null;
+        try {
+            if ("3D_PRINTER".equals(parts[0]) && parts.length >= 6) {
+                return new Printer3D(parts[1], parts[2], Double.parseDouble(parts[3]), parts[4], parts[5],
+                        parts.length > 6 ? parts[6] : "Unknown");
+            } else if ("EQUIPMENT".equals(parts[0]) && parts.length >= 5) {
+                return new Equipment(parts[1], parts[2], parts[3], Double.parseDouble(parts[4]), parts[5]);
+            }
+        } catch (Exception e) {
+            // reported by the original
+        }
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Round trip for ReservationBinaryStore: random reservations in every status (NO_SHOW included)
+// written through DbService and converted with convertFromText must read back from the mapped file
+// as the text loader has them, before and after reopening; status updates and overwrites by id
+// survive another reopen, and growing past the initial mapping keeps earlier records intact.
+class ReservationBinaryStoreTest {
+    private static final String[] STATUSES = { "PENDING", "APPROVED", "CANCELLED", "IN_PROGRESS", "COMPLETED", "NO_SHOW" };
+    private static final int COUNT = 5_000;
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void conversionUpdatesAndGrowthRoundTrip() throws Exception {
+        Random random = new Random(3);
+        Path storeFile = dataDir.resolve("reservations.bin");
+        DbService db = new DbService(dataDir.toString());
+        LocalDateTime base = LocalDateTime.of(2026, 1, 5, 8, 0);
+        for (int i = 0; i < COUNT; i++) {
+            LocalDateTime start = base.plusDays(random.nextInt(400)).plusHours(random.nextInt(12));
+            Reservation reservation = new Reservation(String.format("RES_%06d", i), "USER_" + random.nextInt(200),
+                    "EQ_" + random.nextInt(40), start, start.plusHours(1 + random.nextInt(4)), start.minusDays(1 + random.nextInt(30)));
+            reservation.setStatus(STATUSES[i % STATUSES.length]);
+            reservation.setCost(random.nextInt(100_000) / 100.0);
+            db.saveReservation(reservation);
+        }
+        db.flush().get();
+        Map<String, Reservation> expected = db.loadReservations();
+
+        assertEquals(COUNT, ReservationBinaryStore.convertFromText(db, storeFile));
+        try (ReservationBinaryStore store = new ReservationBinaryStore(storeFile)) {
+            assertSameRecords("after conversion", store, expected);
+        }
+
+        // Reopen: status changes and overwrites in place, then appends past the initial mapping
+        try (ReservationBinaryStore store = new ReservationBinaryStore(storeFile)) {
+            assertSameRecords("after reopening", store, expected);
+            for (int i = 0; i < COUNT; i += 7) {
+                int rec = store.find(String.format("RES_%06d", i));
+                store.updateStatus(rec, "NO_SHOW");
+                Reservation changed = store.read(rec);
+                expected.put(changed.getReservationId(), changed);
+            }
+            Reservation overwritten = store.read(store.find("RES_000001"));
+            overwritten.setCost(12.34);
+            store.put(overwritten);
+            expected.put(overwritten.getReservationId(), overwritten);
+            for (int i = COUNT; i < COUNT + 3_000; i++) {
+                Reservation reservation = new Reservation(String.format("RES_%06d", i), "USER_NEW", "EQ_NEW", base, base.plusHours(2), base);
+                reservation.setStatus("APPROVED");
+                store.put(reservation);
+                expected.put(reservation.getReservationId(), reservation);
+            }
+        }
+        try (ReservationBinaryStore store = new ReservationBinaryStore(storeFile)) {
+            assertSameRecords("after updates and reopening", store, expected);
+        }
+    }
+
+    // Past 67M records an int offset wraps negative; the last mappable record still lands at the end
+    // of the mapping and anything beyond fails instead of aliasing another record
+    @Test
+    void offsetsOfLargeRecordNumbersDoNotWrap() {
+        long last = ReservationBinaryStore.offset(ReservationBinaryStore.MAX_RECORDS - 1);
+        assertTrue(last > 0 && last + ReservationBinaryStore.RECORD_SIZE <= Integer.MAX_VALUE, "offset " + last);
+        assertThrows(ArithmeticException.class, () -> ReservationBinaryStore.offset(70_000_000));
+    }
+
+    // Every expected reservation reads back field for field (cost to the cent, times to the minute)
+    private static void assertSameRecords(String when, ReservationBinaryStore store, Map<String, Reservation> expected) {
+        assertEquals(expected.size(), store.size(), "records " + when);
+        for (Reservation reservation : expected.values()) {
+            int rec = store.find(reservation.getReservationId());
+            assertTrue(rec >= 0, reservation.getReservationId() + " missing " + when);
+            assertEquals(DbService.reservationToString(reservation), DbService.reservationToString(store.read(rec)),
+                    reservation.getReservationId() + " " + when);
+        }
+    }
+}
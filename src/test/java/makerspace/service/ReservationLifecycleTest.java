@@ -0,0 +1,107 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import makerspace.exceptions.InvalidReservationException;
+import makerspace.testing.TestData;
+import makerspace.utils.DateTimeHandler;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Drives ReservationLifecycle by hand on a scratch data directory: start -> IN_USE, no-show after
+// the grace period, back-to-back bookings keeping the machine IN_USE, auto-completion of an
+// in-progress booking, and timers reloaded for the live bookings when a lifecycle registers
+class ReservationLifecycleTest {
+    @TempDir
+    Path dataDir;
+
+    private PrintStream console;
+    private EquipmentService equipmentService;
+    private ReservationService reservationService;
+    private String clientId;
+    private String first;
+    private String second;
+    private LocalDateTime base;
+
+    @BeforeEach
+    void boot() throws Exception {
+        console = TestData.quiet();
+        BootCoordinator boot = TestData.boot(dataDir);
+        equipmentService = boot.getEquipmentService();
+        reservationService = boot.getReservationService();
+        clientId = TestData.client(boot.getUserService(), "lifecycle", 10_000);
+        List<Equipment> machines = equipmentService.getAvailableEquipment();
+        first = machines.get(0).getEquipmentId();
+        second = machines.get(1).getEquipmentId();
+        base = TestData.slot(1, 10);
+    }
+
+    @AfterEach
+    void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Test
+    void startNoShowBackToBackAndAutoComplete() throws Exception {
+        String early = reservationService.createReservation(clientId, first, base, base.plusHours(2));
+        String late = reservationService.createReservation(clientId, first, base.plusHours(2), base.plusHours(3));
+        String other = reservationService.createReservation(clientId, second, base, base.plusHours(1));
+
+        ReservationLifecycle lifecycle = new ReservationLifecycle(reservationService);
+        assertEquals(3, lifecycle.getPendingCount(), "timers after booking");
+        assertEquals(0, lifecycle.advance(millis(base.minusMinutes(1))), "steps before the start");
+
+        lifecycle.advance(millis(base.plusSeconds(1)));
+        assertEquals("IN_USE", status(first), "first machine at start");
+        assertEquals("IN_USE", status(second), "second machine at start");
+        assertEquals("APPROVED", reservationService.getReservationById(early).getStatus(), "booking at start");
+
+        lifecycle.advance(millis(base.plusMinutes(16)));
+        assertEquals("NO_SHOW", reservationService.getReservationById(early).getStatus(), "booking never checked in");
+        assertEquals("NO_SHOW", reservationService.getReservationById(other).getStatus(), "other booking never checked in");
+        assertEquals("AVAILABLE", status(first), "first machine after no-show");
+        assertTrue(equipmentService.isEquipmentAvailable(first, base.plusMinutes(30), base.plusHours(1)), "freed window");
+
+        // An in-progress booking as it would come back from disk, starting when `late` does
+        Reservation session = new Reservation("RES_900001", clientId, second, base.plusHours(2), base.plusHours(4), base.minusDays(1));
+        session.setStatus("IN_PROGRESS");
+        session.setCost(10);
+        reservationService.restore(List.of(session));
+        assertEquals(2, lifecycle.getPendingCount(), "timers for the two live bookings");
+
+        lifecycle.advance(millis(base.plusHours(2).plusSeconds(1)));
+        assertEquals("IN_USE", status(first), "first machine at the back-to-back start");
+        lifecycle.advance(millis(base.plusHours(3)));
+        assertEquals("NO_SHOW", reservationService.getReservationById(late).getStatus(), "second booking never checked in");
+        assertEquals("IN_PROGRESS", reservationService.getReservationById("RES_900001").getStatus(), "session before its end");
+        lifecycle.advance(millis(base.plusHours(4)));
+        assertEquals("COMPLETED", reservationService.getReservationById("RES_900001").getStatus(), "session at its end");
+        assertEquals(0, lifecycle.getPendingCount(), "timers once everything is over");
+
+        // Completing by hand only applies to live bookings: a no-show stays a no-show
+        assertThrows(InvalidReservationException.class, () -> reservationService.completeReservation(late));
+        assertEquals("NO_SHOW", reservationService.getReservationById(late).getStatus());
+    }
+
+    // A lifecycle registered later picks up every live booking from the replay
+    @Test
+    void newLifecycleReloadsTimersForLiveBookings() throws Exception {
+        for (int day = 0; day < 10; day++) {
+            reservationService.createReservation(clientId, first, base.plusDays(day), base.plusDays(day).plusHours(1));
+        }
+        assertEquals(10, new ReservationLifecycle(reservationService).getPendingCount());
+    }
+
+    private String status(String equipmentId) throws Exception {
+        return equipmentService.getEquipmentById(equipmentId).getStatus();
+    }
+
+    private static long millis(LocalDateTime time) {
+        return DateTimeHandler.toEpochMilli(time);
+    }
+}
@@ -0,0 +1,170 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import makerspace.exceptions.InvalidReservationException;
+import makerspace.testing.TestData;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Hammers the booking path from many threads against a scratch data directory: no machine may be
+// double-booked and no balance update lost, in memory and after reloading from disk
+class ReservationServiceConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int OPS_PER_THREAD = 2000;
+    private static final int CLIENTS = 50;
+    private static final double INITIAL_BALANCE = 100_000.0; // high enough that slots, not money, are the contended resource
+    private static final double DEPOSIT = 10.0;
+
+    @TempDir
+    Path dataDir;
+
+    private PrintStream console;
+    private UserService userService;
+    private ReservationService reservationService;
+    private final List<String> clientIds = new ArrayList<>();
+    private final Map<String, DoubleAdder> deposits = new ConcurrentHashMap<>();
+    private final List<String> equipmentIds = new ArrayList<>();
+
+    @BeforeEach
+    void boot() throws Exception {
+        console = TestData.quiet();
+        BootCoordinator boot = TestData.boot(dataDir);
+        userService = boot.getUserService();
+        reservationService = boot.getReservationService();
+        for (int i = 0; i < CLIENTS; i++) {
+            String id = TestData.client(userService, "stress_" + i, INITIAL_BALANCE);
+            clientIds.add(id);
+            deposits.put(id, new DoubleAdder());
+        }
+        for (Equipment eq : boot.getEquipmentService().getAvailableEquipment()) {
+            equipmentIds.add(eq.getEquipmentId());
+        }
+    }
+
+    @AfterEach
+    void restoreConsole() {
+        System.setOut(console);
+    }
+
+    // Every thread releases on a barrier and goes for the same fresh slot; exactly one may win
+    @Test
+    void exactlyOneThreadWinsEachSlotRace() throws Exception {
+        LocalDateTime raceBase = TestData.slot(30, 0);
+        int rounds = OPS_PER_THREAD / 10;
+        AtomicIntegerArray winners = new AtomicIntegerArray(rounds);
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService racers = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String clientId = clientIds.get(t % clientIds.size());
+            workers.add(racers.submit(() -> {
+                for (int round = 0; round < rounds; round++) {
+                    LocalDateTime slot = raceBase.plusHours(round / equipmentIds.size());
+                    String equipmentId = equipmentIds.get(round % equipmentIds.size());
+                    barrier.await();
+                    try {
+                        reservationService.createReservation(clientId, equipmentId, slot, slot.plusHours(1));
+                        winners.incrementAndGet(round);
+                    } catch (Exception e) {
+                        // lost the race
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        racers.shutdown();
+        for (int round = 0; round < rounds; round++) {
+            assertEquals(1, winners.get(round), "bookings of one slot in race round " + round);
+        }
+    }
+
+    // Random mix of bookings, deposits and cancellations, far enough out that every cancellation
+    // gets a full refund and narrow enough to collide a lot
+    @Test
+    void mixedWorkloadKeepsSlotsAndBalancesConsistent() throws Exception {
+        LocalDateTime base = TestData.slot(3, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<String[]> mine = new ArrayList<>(); // {reservationId, clientId}
+                start.await();
+                for (int op = 0; op < OPS_PER_THREAD; op++) {
+                    String clientId = clientIds.get(random.nextInt(clientIds.size()));
+                    int roll = random.nextInt(100);
+                    try {
+                        if (roll < 80) {
+                            LocalDateTime startTime = base.plusHours(random.nextInt(48));
+                            String id = reservationService.createReservation(clientId,
+                                    equipmentIds.get(random.nextInt(equipmentIds.size())),
+                                    startTime, startTime.plusHours(1 + random.nextInt(3)));
+                            mine.add(new String[] { id, clientId });
+                        } else if (roll < 95) {
+                            userService.updateUserBalance(clientId, DEPOSIT);
+                            deposits.get(clientId).add(DEPOSIT);
+                        } else if (!mine.isEmpty()) {
+                            String[] victim = mine.remove(random.nextInt(mine.size()));
+                            reservationService.cancelReservation(victim[0], victim[1]);
+                        }
+                    } catch (Exception e) {
+                        // slot taken or balance too low: expected under contention
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        pool.shutdown();
+
+        TestData.assertNoDoubleBooking(reservationService.getAllReservations(), "memory");
+        Map<String, Double> spent = new HashMap<>();
+        for (Reservation r : reservationService.getAllReservations()) {
+            if (!"CANCELLED".equals(r.getStatus())) {
+                spent.merge(r.getClientId(), r.getCost(), Double::sum);
+            }
+        }
+        for (String clientId : clientIds) {
+            double expected = INITIAL_BALANCE + deposits.get(clientId).sum() - spent.getOrDefault(clientId, 0.0);
+            assertEquals(expected, balance(clientId), 0.005, clientId + " balance in memory");
+        }
+
+        DbService reloaded = new DbService(dataDir.toString());
+        Map<String, User> persistedUsers = reloaded.loadUsers();
+        TestData.assertNoDoubleBooking(reloaded.loadReservations().values(), "disk");
+        for (String clientId : clientIds) {
+            assertEquals(balance(clientId), ((Client) persistedUsers.get(clientId)).getAccountBalance(), 0.005,
+                    clientId + " balance on disk");
+        }
+    }
+
+    // A booking the table cannot store (start past year 6000) is refused before anyone is charged
+    @Test
+    void unstorableBookingIsRefusedBeforeCharging() throws Exception {
+        String clientId = clientIds.get(0);
+        double before = balance(clientId);
+        LocalDateTime farFuture = LocalDateTime.of(7000, 1, 1, 10, 0);
+        assertThrows(InvalidReservationException.class, () ->
+                reservationService.createReservation(clientId, equipmentIds.get(0), farFuture, farFuture.plusHours(1)));
+        assertEquals(before, balance(clientId), 0.005);
+    }
+
+    private double balance(String clientId) throws Exception {
+        return ((Client) userService.getUserById(clientId)).getAccountBalance();
+    }
+}
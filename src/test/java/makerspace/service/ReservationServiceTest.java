@@ -0,0 +1,47 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import makerspace.testing.TestData;
+import makerspace.utils.VirtualClock;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Booking behaviour that depends on the services' clock rather than the wall clock
+class ReservationServiceTest {
+    @TempDir
+    Path dataDir;
+
+    private PrintStream console;
+
+    @BeforeEach
+    void quiet() {
+        console = TestData.quiet();
+    }
+
+    @AfterEach
+    void restoreConsole() {
+        System.setOut(console);
+    }
+
+    // Under a VirtualClock a booking is created at virtual time, on disk as well as in memory
+    @Test
+    void createdAtComesFromTheServicesClock() throws Exception {
+        LocalDateTime virtualNow = LocalDateTime.of(2031, 3, 3, 9, 30);
+        DbService db = new DbService(dataDir.toString());
+        db.setClock(new VirtualClock(virtualNow));
+        BootCoordinator boot = new BootCoordinator().boot(db);
+        String clientId = TestData.client(boot.getUserService(), "clocked", 1_000);
+        String equipmentId = boot.getEquipmentService().getAvailableEquipment().get(0).getEquipmentId();
+        LocalDateTime start = virtualNow.plusDays(1).withHour(10).withMinute(0);
+
+        String id = boot.getReservationService().createReservation(clientId, equipmentId, start, start.plusHours(1));
+        assertEquals(virtualNow, boot.getReservationService().getReservationById(id).getCreatedAt());
+        db.flush().get();
+        assertEquals(virtualNow, new DbService(dataDir.toString()).loadReservations().get(id).getCreatedAt());
+    }
+}
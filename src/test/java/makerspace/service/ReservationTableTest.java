@@ -0,0 +1,98 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import org.junit.jupiter.api.*;
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The heap a reservation costs as a ReservationTable row with its client index entry, against the
+// loaded objects it replaced, and every row reading back exactly the record it was loaded from
+class ReservationTableTest {
+    private static final int COUNT = 500_000;
+    private static final int MAX_ROW_BYTES = 64;
+
+    private static String[] lines;
+    private static ReservationTable table;
+    private static ClientReservationIndex index;
+    private static long tableBytes;
+    private static long objectBytes;
+
+    @BeforeAll
+    static void load() throws Exception {
+        lines = generate(COUNT, new Random(18));
+        long base = usedAfterGc();
+        Map<String, Reservation> objects = new HashMap<>();
+        for (String line : lines) {
+            Reservation reservation = DbService.stringToReservation(line);
+            objects.put(reservation.getReservationId(), reservation);
+        }
+        objectBytes = usedAfterGc() - base;
+        Reference.reachabilityFence(objects); // or the map can be collected before it is measured
+        objects = null;
+
+        base = usedAfterGc();
+        table = new ReservationTable();
+        index = new ClientReservationIndex(table);
+        for (String line : lines) {
+            int row = table.append(DbService.stringToReservation(line));
+            assertTrue(row >= 0, "duplicate id in " + line);
+            index.add(row);
+        }
+        tableBytes = usedAfterGc() - base;
+        Reference.reachabilityFence(index);
+    }
+
+    @Test
+    void rowsFitTheMemoryBudget() {
+        double perRow = tableBytes / (double) COUNT;
+        assertTrue(perRow <= MAX_ROW_BYTES, String.format("table uses %.1f bytes a reservation, more than %d", perRow, MAX_ROW_BYTES));
+        assertTrue(tableBytes < objectBytes, "table " + tableBytes + " bytes, loaded objects " + objectBytes);
+    }
+
+    @Test
+    void everyRowReadsBackAsLoaded() {
+        assertEquals(COUNT, table.size());
+        for (int row = 0; row < table.size(); row++) {
+            Reservation view = table.view(row);
+            assertEquals(lines[row], DbService.reservationToString(view), "row " + row);
+            assertEquals(row, table.rowOf(view.getReservationId()), view.getReservationId());
+        }
+    }
+
+    @Test
+    void unknownIdsDoNotFindARow() {
+        assertTrue(table.rowOf("RES_9999999999") < 0);
+        assertTrue(table.rowOf("nope") < 0);
+    }
+
+    // Journal-format lines: 2,000 clients, 60 machines, three years of hourly bookings; one id
+    // in a thousand has no numeric tail, like hand-edited data
+    private static String[] generate(int count, Random random) {
+        String[] statuses = { "PENDING", "APPROVED", "CANCELLED", "IN_PROGRESS", "COMPLETED" };
+        LocalDateTime origin = LocalDateTime.of(2023, 1, 1, 0, 0);
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            LocalDateTime start = origin.plusHours(random.nextInt(3 * 365 * 24));
+            int hours = 1 + random.nextInt(4);
+            String id = i % 1000 == 999 ? "legacy-" + Integer.toString(i, 36) + "x" : String.format("RES_%07d", i);
+            Reservation reservation = new Reservation(id, "USER_" + random.nextInt(2000),
+                    "EQ_" + random.nextInt(60), start, start.plusHours(hours), start.minusDays(1 + random.nextInt(30)));
+            reservation.setStatus(statuses[random.nextInt(statuses.length)]);
+            reservation.setCost(hours * (5 + random.nextInt(40)) * 1.25);
+            lines[i] = DbService.reservationToString(reservation);
+        }
+        return lines;
+    }
+
+    private static long usedAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
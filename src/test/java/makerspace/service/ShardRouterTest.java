@@ -0,0 +1,258 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import makerspace.exceptions.*;
+import makerspace.testing.TestData;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Books a few hundred reservations on an unsharded scratch store across four labs, then opens it
+// through ShardRouter: the split puts every machine and booking in its lab's shard, fan-out reports
+// and client histories match the unsharded figures, new bookings land in their lab's directory
+// with ids unique across shards, a slow job on Lab A's writer does not hold up a Lab B booking, a
+// new location opens a new shard, and reopening reads the shards without splitting again
+class ShardRouterTest {
+    private static final String[] LOCATIONS = { "Lab A", "Lab B", "Lab C", "Workshop" };
+    private static final int BOOKINGS = 400;
+    private static final long SLOW_JOB_MILLIS = 1_500;
+
+    @TempDir
+    Path dataDir;
+
+    private PrintStream console;
+    private final List<String> clients = new ArrayList<>();
+    private int machines;
+    private int booked;
+    private LocalDateTime base;
+    private ReportService flatReports;
+    private ReservationService flatReservations;
+    private UserService users;
+    private ShardRouter router;
+
+    // The unsharded store, as a single-lab deployment has it, then the same directory through the router
+    @BeforeEach
+    void bookUnshardedThenSplit() throws Exception {
+        console = TestData.quiet();
+        Random random = new Random(23);
+        DbService flat = new DbService(dataDir.toString());
+        BootCoordinator boot = new BootCoordinator().boot(flat);
+        EquipmentService flatEquipment = boot.getEquipmentService();
+        flatReservations = boot.getReservationService();
+        for (int i = 0; i < 12; i++) {
+            flatEquipment.add3DPrinter("Printer " + i, 10 + i, LOCATIONS[i % LOCATIONS.length], i % 3 == 0 ? "SLA" : "FDM", "200x200x200mm");
+        }
+        for (int i = 0; i < 20; i++) {
+            clients.add(TestData.client(boot.getUserService(), "shard_" + i, 100_000));
+        }
+        List<Equipment> fleet = flatEquipment.getAllEquipment();
+        machines = fleet.size();
+        base = TestData.slot(1, 8);
+        for (int i = 0; i < BOOKINGS; i++) {
+            LocalDateTime start = base.plusDays(random.nextInt(10)).plusHours(random.nextInt(12));
+            try {
+                String id = flatReservations.createReservation(clients.get(random.nextInt(clients.size())),
+                        fleet.get(random.nextInt(fleet.size())).getEquipmentId(), start, start.plusHours(1 + random.nextInt(3)));
+                booked++;
+                if (random.nextInt(6) == 0) {
+                    flatReservations.completeReservation(id);
+                }
+            } catch (Exception e) {
+                // slot taken: skip it, as a client would
+            }
+        }
+        flatReports = new ReportService(flatEquipment, boot.getUserService(), flatReservations);
+        flat.flush().get();
+
+        DbService root = new DbService(dataDir.toString());
+        users = new UserService(root, root.loadUsers());
+        router = ShardRouter.open(root, users);
+    }
+
+    @AfterEach
+    void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Test
+    void splitPutsEveryRowInItsLabsShard() throws Exception {
+        assertTrue(ShardRouter.isSplit(dataDir.toString()));
+        assertEquals(LOCATIONS.length, router.shards().size());
+        assertEquals(machines, router.getAllEquipment().size());
+        assertEquals(booked, router.getAllReservations().size());
+        for (LocationShard shard : router.shards()) {
+            for (Equipment eq : shard.getEquipmentService().getAllEquipment()) {
+                assertSame(shard, router.shardForEquipment(eq.getEquipmentId()), eq.getEquipmentId());
+            }
+            for (Reservation reservation : shard.getReservationService().getAllReservations()) {
+                String location = shard.getEquipmentService().getEquipmentById(reservation.getEquipmentId()).getLocation();
+                assertEquals(shard.getLocation(), location, reservation.getReservationId() + " in " + shard);
+            }
+        }
+    }
+
+    @Test
+    void fanOutReportsMatchTheUnshardedFigures() throws Exception {
+        LocalDate from = base.toLocalDate();
+        LocalDate to = from.plusDays(10);
+        assertEquals(flatReports.getTotalRevenue(), router.getTotalRevenue(), 1e-6);
+        assertEquals(flatReports.getCompletedReservationCount(), router.getCompletedReservationCount());
+        assertEquals(byId(flatReports.getEquipmentUsage()), byId(router.getEquipmentUsage()));
+        assertEquals(byClient(flatReports.getUserActivity()), byClient(router.getUserActivity()));
+        assertSeries(flatReports.getUtilizationSeries(RollupCube.ALL, null, from, to, RollupCube.DAY),
+                router.getUtilizationSeries(RollupCube.ALL, null, from, to, RollupCube.DAY));
+        assertSeries(flatReports.getUtilizationSeries(RollupCube.TYPE, "3D_PRINTER", from, to, RollupCube.DAY),
+                router.getUtilizationSeries(RollupCube.TYPE, "3D_PRINTER", from, to, RollupCube.DAY));
+        for (String client : clients) {
+            int history = flatReservations.countReservationsByUser(client);
+            List<Reservation> all = router.getReservationsByUser(client);
+            assertEquals(history, all.size(), "history of " + client);
+            assertEquals(history, router.countReservationsByUser(client), "count for " + client);
+            List<Reservation> paged = new ArrayList<>();
+            for (int offset = 0; offset < all.size(); offset += 7) {
+                paged.addAll(router.getReservationsByUser(client, offset, 7));
+            }
+            assertEquals(ids(all), ids(paged), "pages of " + client);
+        }
+    }
+
+    // New bookings go to the machine's own shard, with ids no other shard has handed out
+    @Test
+    void newBookingsLandInTheirMachinesShard() throws Exception {
+        int history = flatReservations.countReservationsByUser(clients.get(0));
+        Set<String> seen = new HashSet<>(ids(router.getAllReservations()));
+        LocalDateTime later = base.plusDays(20);
+        for (Equipment eq : router.getAllEquipment()) {
+            String id = router.createReservation(clients.get(0), eq.getEquipmentId(), later, later.plusHours(1));
+            LocationShard owner = router.shardForLocation(eq.getLocation());
+            assertTrue(owner.getReservationService().containsReservation(id), id + " for " + eq.getEquipmentId() + " not in " + owner);
+            assertTrue(seen.add(id), "id " + id + " handed out twice");
+        }
+        Client first = (Client) users.getUserById(clients.get(0));
+        assertEquals(history + machines, first.getReservationHistory().size(), "client history spans every lab");
+    }
+
+    // A slow job on Lab A's writer; Lab B keeps booking, Lab A's next write waits its turn
+    @Test
+    void slowJobInOneLabDoesNotHoldUpAnother() throws Exception {
+        LocationShard labA = router.shardForLocation("Lab A");
+        CountDownLatch running = new CountDownLatch(1);
+        CompletableFuture<Object> slow = CompletableFuture.supplyAsync(() -> {
+            try {
+                return labA.execute(() -> {
+                    running.countDown();
+                    Thread.sleep(SLOW_JOB_MILLIS);
+                    return null;
+                });
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        running.await();
+        String labBMachine = router.findEquipment(null, null, "Lab B", null, null, null).get(0).getEquipmentId();
+        String labAMachine = router.findEquipment(null, null, "Lab A", null, null, null).get(0).getEquipmentId();
+        LocalDateTime slot = base.plusDays(20);
+        long started = System.nanoTime();
+        router.createReservation(clients.get(1), labBMachine, slot, slot.plusHours(1));
+        double labBMillis = (System.nanoTime() - started) / 1e6;
+        started = System.nanoTime();
+        router.createReservation(clients.get(1), labAMachine, slot, slot.plusHours(1));
+        double labAMillis = (System.nanoTime() - started) / 1e6;
+        slow.get();
+        assertTrue(labBMillis < SLOW_JOB_MILLIS / 3, "Lab B booking took " + labBMillis + " ms behind Lab A's job");
+        assertTrue(labAMillis >= SLOW_JOB_MILLIS / 3, "Lab A booking took only " + labAMillis + " ms; it should queue behind the job");
+    }
+
+    // Lab A's writer stuck behind a job with a full queue: the next write is refused as busy at once,
+    // Lab B still books, and Lab A takes writes again once the queue drains
+    @Test
+    void fullWriterQueueRefusesWritesAsBusy() throws Exception {
+        LocationShard labA = router.shardForLocation("Lab A");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<Object>> queued = new ArrayList<>();
+        queued.add(callers.submit(() -> labA.execute(() -> {
+            running.countDown();
+            release.await();
+            return null;
+        })));
+        running.await();
+        for (int i = 0; i < LocationShard.WRITE_QUEUE_CAPACITY; i++) {
+            queued.add(callers.submit(() -> labA.execute(() -> null)));
+        }
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (labA.getQueuedWrites() < LocationShard.WRITE_QUEUE_CAPACITY && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(LocationShard.WRITE_QUEUE_CAPACITY, labA.getQueuedWrites());
+
+        String labAMachine = router.findEquipment(null, null, "Lab A", null, null, null).get(0).getEquipmentId();
+        String labBMachine = router.findEquipment(null, null, "Lab B", null, null, null).get(0).getEquipmentId();
+        LocalDateTime slot = base.plusDays(20);
+        long started = System.nanoTime();
+        assertThrows(ServiceBusyException.class, () -> router.createReservation(clients.get(1), labAMachine, slot, slot.plusHours(1)));
+        assertTrue(System.nanoTime() - started < 1_000_000_000L, "a refused write must not wait");
+        router.createReservation(clients.get(1), labBMachine, slot, slot.plusHours(1));
+
+        release.countDown();
+        for (Future<Object> write : queued) {
+            write.get();
+        }
+        callers.shutdown();
+        router.createReservation(clients.get(1), labAMachine, slot, slot.plusHours(1));
+    }
+
+    // A new location gets its own shard and directory; reopening reads the shards as they are and
+    // does not split the global files a second time
+    @Test
+    void newLocationOpensAShardAndReopenDoesNotSplitAgain() throws Exception {
+        String studioMachine = router.addEquipment(new Equipment("EQ_STUDIO_001", "Vinyl Cutter", "VINYL_CUTTER", 12, "Studio"));
+        assertEquals(LOCATIONS.length + 1, router.shards().size());
+        assertSame(router.shardForLocation("Studio"), router.shardForEquipment(studioMachine));
+        assertThrows(EquipmentUnavailableException.class, () -> router.shardForEquipment("EQ_NOWHERE"));
+        assertTrue(Files.isDirectory(dataDir.resolve("shards").resolve("studio")));
+        assertEquals(router.findEquipment(null, null, "Lab C", null, null, null).size(), router.setLocationStatus("Lab C", "MAINTENANCE"));
+
+        int machinesNow = router.getAllEquipment().size();
+        int bookingsNow = router.getAllReservations().size();
+        for (LocationShard shard : router.shards()) {
+            shard.getDbService().flush().get();
+        }
+        DbService again = new DbService(dataDir.toString());
+        ShardRouter reopened = ShardRouter.open(again, new UserService(again, again.loadUsers()));
+        assertEquals(LOCATIONS.length + 1, reopened.shards().size());
+        assertEquals(machinesNow, reopened.getAllEquipment().size());
+        assertEquals(bookingsNow, reopened.getAllReservations().size());
+    }
+
+    private static Map<String, Long> byId(Map<Equipment, Long> usage) {
+        Map<String, Long> byId = new TreeMap<>();
+        usage.forEach((eq, count) -> byId.put(eq.getEquipmentId(), count));
+        return byId;
+    }
+
+    private static Map<String, Integer> byClient(Map<Client, Integer> activity) {
+        Map<String, Integer> byClient = new TreeMap<>();
+        activity.forEach((client, count) -> byClient.put(client.getUserId(), count));
+        return byClient;
+    }
+
+    private static List<String> ids(List<Reservation> reservations) {
+        List<String> ids = new ArrayList<>();
+        reservations.forEach(r -> ids.add(r.getReservationId()));
+        return ids;
+    }
+
+    private static void assertSeries(Map<LocalDate, Double> expected, Map<LocalDate, Double> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((bucket, value) -> assertEquals(value, actual.get(bucket), 1e-6, "on " + bucket));
+    }
+}
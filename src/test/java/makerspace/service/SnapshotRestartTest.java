@@ -0,0 +1,268 @@
+package makerspace.service;
+
+import makerspace.classModels.*;
+import makerspace.testing.TestData;
+import makerspace.tools.DatasetGenerator;
+import makerspace.utils.EquipmentStatusUtil;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Generates a dataset, boots it the current way (parsing the text files), enables snapshots and
+// takes a checkpoint while client threads keep booking, then makes more changes that only reach
+// the journal. Restarting from the snapshot plus the journal must give exactly the services the
+// text loader gives (machine status and printer materials included), clearly faster, replaying
+// only the records after the snapshot; a corrupt snapshot must be ignored in favour of the text files.
+class SnapshotRestartTest {
+    private static final int RESERVATIONS = 200_000;
+    private static final int BOOKING_THREADS = 4;
+    private static final int TIMED_BOOTS = 3;
+    private static final double MIN_SPEEDUP = 2.0;
+
+    @TempDir
+    Path dataDir;
+
+    private PrintStream console;
+    private DbService db;
+    private UserService users;
+    private EquipmentService equipment;
+    private ReservationService bookings;
+    private String newcomer;
+    private Set<String> expected;
+
+    @BeforeEach
+    void checkpointUnderLoadThenChange() throws Exception {
+        console = TestData.quiet();
+        DatasetGenerator.main(new String[] { "--out", dataDir.toString(), "--reservations", Integer.toString(RESERVATIONS), "--force" });
+        db = new DbService(dataDir.toString());
+        BootCoordinator boot = new BootCoordinator().useSnapshot(false).boot(db);
+        users = boot.getUserService();
+        equipment = boot.getEquipmentService();
+        bookings = boot.getReservationService();
+        List<Client> clients = users.getAllClients();
+        for (Client client : clients) {
+            users.updateUserBalance(client.getUserId(), 1_000_000);
+        }
+        List<Equipment> machines = equipment.getAllEquipment();
+        List<Equipment> printers = new ArrayList<>();
+        for (Equipment machine : machines) {
+            if (machine instanceof Printer3D) {
+                printers.add(machine);
+            }
+        }
+        assertTrue(printers.size() >= 2, "dataset has printers");
+        db.enableSnapshots(users, equipment, bookings);
+
+        // In the snapshot: a machine down for maintenance, a printer with its own materials
+        equipment.setEquipmentStatus(machines.get(0).getEquipmentId(), EquipmentStatusUtil.MAINTENANCE);
+        equipment.setPrintMaterial(printers.get(0).getEquipmentId(), "PETG, Carbon Fibre PLA");
+
+        // Checkpoint while clients book
+        LocalDateTime base = TestData.slot(400, 8);
+        AtomicLong bookedDuring = new AtomicLong();
+        AtomicLong checkpointFrom = new AtomicLong();
+        AtomicLong checkpointTo = new AtomicLong();
+        CountDownLatch started = new CountDownLatch(BOOKING_THREADS);
+        ExecutorService clientPool = Executors.newFixedThreadPool(BOOKING_THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < BOOKING_THREADS; t++) {
+            int thread = t;
+            workers.add(clientPool.submit(() -> {
+                Random random = new Random(thread);
+                started.countDown();
+                for (int i = 0; i < 2_000; i++) {
+                    LocalDateTime start = base.plusDays(thread * 100 + i / 10).plusHours(i % 10);
+                    long before = System.nanoTime();
+                    try {
+                        bookings.createReservation(clients.get(random.nextInt(clients.size())).getUserId(),
+                                machines.get(random.nextInt(machines.size())).getEquipmentId(), start, start.plusHours(1));
+                    } catch (Exception e) {
+                        // slot taken: skip it, as a client would
+                    }
+                    long from = checkpointFrom.get();
+                    if (from != 0 && before >= from && checkpointTo.get() == 0) {
+                        bookedDuring.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        started.await();
+        checkpointFrom.set(System.nanoTime());
+        assertTrue(db.checkpoint(), "checkpoint written");
+        checkpointTo.set(System.nanoTime());
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        clientPool.shutdown();
+        assertTrue(Files.exists(dataDir.resolve("state.snapshot")));
+        assertTrue(bookedDuring.get() > 0, "no booking started while the checkpoint ran");
+
+        // Changes after the snapshot: only in the live journal
+        equipment.setEquipmentStatus(machines.get(0).getEquipmentId(), EquipmentStatusUtil.AVAILABLE);
+        LocalDateTime later = base.plusDays(1_000);
+        List<String> fresh = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            LocalDateTime start = later.plusDays(i / 10).plusHours(i % 10);
+            fresh.add(bookings.createReservation(clients.get(i % clients.size()).getUserId(),
+                    machines.get(i % machines.size()).getEquipmentId(), start, start.plusHours(2)));
+        }
+        for (int i = 0; i < fresh.size(); i += 3) {
+            Reservation reservation = bookings.getReservationById(fresh.get(i));
+            bookings.cancelReservation(reservation.getReservationId(), reservation.getClientId());
+        }
+        equipment.add3DPrinter("Snapshot Printer", 17, "Lab A", "FDM", "200x200x200mm");
+        equipment.setEquipmentStatus(machines.get(1).getEquipmentId(), EquipmentStatusUtil.DOWN);
+        equipment.setPrintMaterial(printers.get(1).getEquipmentId(), "Nylon PA12");
+        newcomer = users.registerClient("after_snapshot", "after@example.com", "password");
+        users.updateUserBalance(newcomer, 250);
+        db.flush().get();
+        db.awaitCompactions(); // the bookings filled the journal past its threshold: restarts must not race that fold
+        expected = state(users, equipment, bookings);
+    }
+
+    @AfterEach
+    void restoreConsole() {
+        System.setOut(console);
+    }
+
+    @Test
+    void snapshotRestartMatchesTheTextLoader() {
+        BootCoordinator text = new BootCoordinator().useSnapshot(false).boot(new DbService(dataDir.toString()));
+        BootCoordinator snapshot = new BootCoordinator().useSnapshot(true).boot(new DbService(dataDir.toString()));
+        assertTrue(snapshot.isFromSnapshot(), "restart used the snapshot");
+        assertEquals("", diff(state(text), expected), "text restart against the live services");
+        assertEquals("", diff(state(snapshot), expected), "snapshot restart against the live services");
+    }
+
+    // Best of TIMED_BOOTS each way, so a GC pause or a cold cache on one boot decides nothing
+    @Test
+    void snapshotRestartIsClearlyFaster() {
+        long text = Long.MAX_VALUE;
+        long snapshot = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_BOOTS; i++) {
+            text = Math.min(text, bootNanos(false));
+            snapshot = Math.min(snapshot, bootNanos(true));
+        }
+        assertTrue(snapshot * MIN_SPEEDUP <= text, String.format("snapshot restart %.1f ms, text restart %.1f ms: less than %.1fx faster",
+                snapshot / 1e6, text / 1e6, MIN_SPEEDUP));
+    }
+
+    // A record the snapshot already covers, left in the journal (as a compaction that died after
+    // writing the snapshot leaves them), is not applied again on top of it
+    @Test
+    void recordsTheSnapshotCoversAreNotReplayed() throws Exception {
+        SnapshotStore.State snapshot = db.loadSnapshot();
+        assertNotNull(snapshot);
+        Client stale = new Client(newcomer, "after_snapshot", "after@example.com", "password");
+        stale.updateAccountBalance(-1);
+        Files.writeString(dataDir.resolve("journal.compacting.log"),
+                snapshot.seq + "|PUT|USER|" + DbService.userToString(stale) + System.lineSeparator());
+        BootCoordinator restarted = new BootCoordinator().boot(new DbService(dataDir.toString()));
+        assertTrue(restarted.isFromSnapshot());
+        assertEquals("", diff(state(restarted), expected));
+    }
+
+    // Another process opening the directory after a full checkpoint (empty journal) numbers its
+    // records after the snapshot's seq, so a restart from the snapshot replays them
+    @Test
+    void recordsWrittenByALaterProcessAreReplayed() throws Exception {
+        db.checkpoint(); // false if the threshold compaction already folded everything
+        assertFalse(Files.exists(dataDir.resolve("journal.log")), "live journal folded");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Deposit.class.getName(), dataDir.toString(), newcomer).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        assertEquals(0, child.waitFor());
+        BootCoordinator restarted = new BootCoordinator().boot(new DbService(dataDir.toString()));
+        assertTrue(restarted.isFromSnapshot());
+        assertEquals(((Client) users.getUserById(newcomer)).getAccountBalance() + Deposit.AMOUNT,
+                ((Client) restarted.getUserService().getUserById(newcomer)).getAccountBalance(), 0.005);
+    }
+
+    // Run as the later process: boots the directory, deposits AMOUNT for a client and flushes
+    static final class Deposit {
+        static final double AMOUNT = 42;
+
+        public static void main(String[] args) throws Exception {
+            DbService db = new DbService(args[0]);
+            new BootCoordinator().boot(db).getUserService().updateUserBalance(args[1], AMOUNT);
+            db.flush().get();
+        }
+    }
+
+    private long bootNanos(boolean useSnapshot) {
+        BootCoordinator boot = new BootCoordinator().useSnapshot(useSnapshot).boot(new DbService(dataDir.toString()));
+        assertEquals(useSnapshot, boot.isFromSnapshot());
+        return boot.getPhaseNanos().get("total");
+    }
+
+    // A damaged snapshot is ignored: startup falls back to the text files
+    @Test
+    void corruptSnapshotFallsBackToTheTextFiles() throws Exception {
+        Path snapshotFile = dataDir.resolve("state.snapshot");
+        byte[] bad = Files.readAllBytes(snapshotFile);
+        bad[bad.length / 2] ^= 0x40;
+        Files.write(snapshotFile, bad);
+        PrintStream stderr = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        BootCoordinator fallback;
+        try {
+            fallback = new BootCoordinator().boot(new DbService(dataDir.toString()));
+        } finally {
+            System.setErr(stderr);
+        }
+        assertFalse(fallback.isFromSnapshot());
+        assertEquals("", diff(state(fallback), expected));
+    }
+
+    // The next checkpoint folds the journal and leaves a snapshot that covers everything
+    @Test
+    void secondCheckpointCoversEverything() throws Exception {
+        users.updateUserBalance(newcomer, 1);
+        expected = state(users, equipment, bookings);
+        assertTrue(db.checkpoint(), "second checkpoint");
+        assertFalse(db.checkpoint(), "checkpoint with nothing new");
+        BootCoordinator after = new BootCoordinator().boot(new DbService(dataDir.toString()));
+        assertEquals("", diff(state(after), expected));
+        assertFalse(Files.exists(dataDir.resolve("journal.compacting.log")));
+    }
+
+    private static Set<String> state(BootCoordinator boot) {
+        return state(boot.getUserService(), boot.getEquipmentService(), boot.getReservationService());
+    }
+
+    // Every record as its text line
+    private static Set<String> state(UserService users, EquipmentService equipment, ReservationService bookings) {
+        Set<String> lines = new TreeSet<>();
+        for (User user : users.getAllUsers()) {
+            lines.add(DbService.userToString(user));
+        }
+        for (Equipment eq : equipment.getAllEquipment()) {
+            lines.add(DbService.equipmentToString(eq));
+        }
+        for (Reservation reservation : bookings.getAllReservations()) {
+            lines.add(DbService.reservationToString(reservation));
+        }
+        return lines;
+    }
+
+    private static String diff(Set<String> actual, Set<String> expected) {
+        Set<String> missing = new TreeSet<>(expected);
+        missing.removeAll(actual);
+        Set<String> extra = new TreeSet<>(actual);
+        extra.removeAll(expected);
+        if (missing.isEmpty() && extra.isEmpty()) {
+            return "";
+        }
+        return missing.size() + " missing (first " + missing.stream().findFirst().orElse("-") + "), "
+                + extra.size() + " extra (first " + extra.stream().findFirst().orElse("-") + ")";
+    }
+}
@@ -0,0 +1,64 @@
+package makerspace.testing;
+
+import makerspace.classModels.*;
+import makerspace.service.*;
+import java.io.*;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+// What the tests share: scratch stores booted the way the application boots them, clients with
+// money, whole-hour slots ahead of now, and the no-double-booking invariant
+public final class TestData {
+    private TestData() {
+    }
+
+    // The services print per operation; tests swap stdout out while they drive them and put the
+    // returned stream back afterwards
+    public static PrintStream quiet() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return console;
+    }
+
+    public static BootCoordinator boot(Path dataDir) {
+        return new BootCoordinator().boot(new DbService(dataDir.toString()));
+    }
+
+    // A registered client with `balance` to spend
+    public static String client(UserService users, String name, double balance) throws Exception {
+        String id = users.registerClient(name, name + "@example.com", "password");
+        users.updateUserBalance(id, balance);
+        return id;
+    }
+
+    // `days` from today at `hour`:00
+    public static LocalDateTime slot(int days, int hour) {
+        return LocalDateTime.now().plusDays(days).withHour(hour).withMinute(0).withSecond(0).withNano(0);
+    }
+
+    // No two live bookings of one machine overlap
+    public static void assertNoDoubleBooking(Collection<Reservation> reservations, String where) {
+        Map<String, List<Reservation>> byEquipment = new HashMap<>();
+        for (Reservation r : reservations) {
+            if (!"CANCELLED".equals(r.getStatus())) {
+                byEquipment.computeIfAbsent(r.getEquipmentId(), k -> new ArrayList<>()).add(r);
+            }
+        }
+        for (List<Reservation> list : byEquipment.values()) {
+            list.sort(Comparator.comparing(Reservation::getStartTime));
+            Reservation latestEnding = list.get(0);
+            for (int i = 1; i < list.size(); i++) {
+                Reservation r = list.get(i);
+                if (r.getStartTime().isBefore(latestEnding.getEndTime())) {
+                    fail(where + ": " + latestEnding.getReservationId() + " overlaps " + r.getReservationId());
+                }
+                if (r.getEndTime().isAfter(latestEnding.getEndTime())) {
+                    latestEnding = r;
+                }
+            }
+        }
+    }
+}
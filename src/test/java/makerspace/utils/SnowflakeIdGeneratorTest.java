@@ -0,0 +1,99 @@
+package makerspace.utils;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Ids from many threads are unique and increase per thread, a second process on the same data
+// directory gets a different node, and advancePast() keeps new ids ahead of loaded ones
+class SnowflakeIdGeneratorTest {
+    private static final int THREADS = 8;
+    private static final int PER_THREAD = 500_000;
+
+    @TempDir
+    Path dataDir;
+
+    private SnowflakeIdGenerator generator;
+
+    @BeforeEach
+    void open() {
+        generator = SnowflakeIdGenerator.forDirectory(dataDir.toString());
+    }
+
+    @Test
+    void oneGeneratorPerDirectory() {
+        assertSame(generator, SnowflakeIdGenerator.forDirectory(dataDir.toString()));
+    }
+
+    @Test
+    void idsAreUniqueAndIncreasePerThread() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(pool.submit(() -> {
+                long[] ids = new long[PER_THREAD];
+                barrier.await();
+                for (int i = 0; i < PER_THREAD; i++) {
+                    ids[i] = generator.nextId();
+                }
+                return ids;
+            }));
+        }
+        long[] all = new long[THREADS * PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            long[] ids = results.get(t).get();
+            for (int i = 1; i < ids.length; i++) {
+                assertTrue(ids[i] > ids[i - 1], "thread " + t + " got " + ids[i] + " after " + ids[i - 1]);
+            }
+            System.arraycopy(ids, 0, all, t * PER_THREAD, PER_THREAD);
+        }
+        pool.shutdown();
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertNotEquals(all[i - 1], all[i], "duplicate id");
+        }
+    }
+
+    @Test
+    void numericPartOfPrefixedIds() {
+        String id = generator.nextId("RES_");
+        assertEquals(Long.parseLong(id.substring(4)), IdGenerator.numericPart(id));
+        for (String odd : new String[] { "EQ_LASER_001x", "RES_", "RES_99999999999999999999", null }) {
+            assertEquals(-1, IdGenerator.numericPart(odd), String.valueOf(odd));
+        }
+    }
+
+    @Test
+    void advancePastKeepsNewIdsAheadOfLoadedOnes() {
+        long future = (generator.nextId() >>> 22) + 60_000; // an id issued a minute from now
+        long loaded = future << 22 | 7;
+        generator.advancePast(loaded);
+        assertTrue(generator.nextId() > loaded);
+    }
+
+    @Test
+    void secondProcessOnTheDirectoryGetsTheNextNode() throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                NodeOf.class.getName(), dataDir.toString()).redirectErrorStream(true).start();
+        String childNode;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            childNode = out.readLine();
+        }
+        assertEquals(0, child.waitFor());
+        assertEquals(String.valueOf(generator.getNode() + 1), childNode);
+    }
+
+    // Run as the second process: prints the node it was given for the directory
+    static final class NodeOf {
+        public static void main(String[] args) {
+            System.out.println(SnowflakeIdGenerator.forDirectory(args[0]).getNode());
+        }
+    }
+}
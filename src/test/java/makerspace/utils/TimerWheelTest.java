@@ -0,0 +1,65 @@
+package makerspace.utils;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// TimerWheel against a brute-force model: random timers (some already overdue, some beyond the
+// wheel's reach), a third cancelled, time advanced in random steps. Every surviving timer must
+// fire exactly once, on the first advance that reaches its deadline.
+class TimerWheelTest {
+    private static final int COUNT = 200_000;
+
+    @Test
+    void secondTicksOverAYear() {
+        run(1000, 365L * 24 * 3600 * 1000, new Random(20));
+    }
+
+    // Past the 64^6-tick reach
+    @Test
+    void millisecondTicksOverFiveYears() {
+        run(1, 5 * 365L * 24 * 3600 * 1000, new Random(21));
+    }
+
+    private static void run(long tickMillis, long horizonMillis, Random random) {
+        long origin = 1_760_000_000_000L;
+        TimerWheel<Integer> wheel = new TimerWheel<>(tickMillis, origin);
+        long[] deadlines = new long[COUNT];
+        List<TimerWheel.Timeout<Integer>> timeouts = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            deadlines[i] = origin - horizonMillis / 100 + (long) (random.nextDouble() * horizonMillis);
+            timeouts.add(wheel.schedule(deadlines[i], i));
+        }
+        boolean[] cancelled = new boolean[COUNT];
+        int cancels = 0;
+        for (int i = 0; i < COUNT; i += 3) {
+            cancelled[i] = wheel.cancel(timeouts.get(i));
+            cancels++;
+        }
+        assertEquals(COUNT - cancels, wheel.size(), "timers left after cancelling");
+
+        int[] fired = new int[COUNT];
+        long previous = origin;
+        long now = origin;
+        boolean first = true;
+        while (now < origin + horizonMillis + tickMillis) {
+            now += random.nextInt(4) == 0 ? (long) (random.nextDouble() * horizonMillis / 50) : random.nextInt(5000);
+            long nowTick = Math.floorDiv(now, tickMillis);
+            long previousTick = Math.floorDiv(previous, tickMillis);
+            for (int i : wheel.advance(now)) {
+                fired[i]++;
+                long deadlineTick = Math.floorDiv(deadlines[i] + tickMillis - 1, tickMillis);
+                assertTrue(deadlineTick <= nowTick, "timer " + i + " fired early at tick " + nowTick + ", due " + deadlineTick);
+                assertTrue(first || deadlineTick > previousTick,
+                        "timer " + i + " due at tick " + deadlineTick + " missed the advance to " + previousTick);
+            }
+            previous = now;
+            first = false;
+        }
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(cancelled[i] ? 0 : 1, fired[i], "firings of timer " + i + (cancelled[i] ? " (cancelled)" : ""));
+        }
+        assertEquals(0, wheel.size(), "timers left after the horizon");
+    }
+}